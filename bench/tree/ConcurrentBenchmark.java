@@ -0,0 +1,90 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures throughput of a mix of gets and inserts from 1 up to twice as
+ * many threads as there are cores, comparing ConcurrentBTreeSortedMap with
+ * a BTreeSortedMap behind one global lock. The first argument is the
+ * percentage of operations that are gets, 95 by default.
+ */
+public class ConcurrentBenchmark {
+
+	private static final int KEYS = 1000000;
+	private static final long MILLIS_PER_RUN = 2000;
+
+	public static void main(String[] args) throws Exception {
+		int readPercent = args.length > 0 ? Integer.parseInt(args[0]) : 95;
+		int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+		System.out.println("threads, global lock ops/sec, concurrent ops/sec");
+		for (int numThreads=1; numThreads<=maxThreads; numThreads*=2) {
+			BTreeSortedMap<Integer, Integer> locked = new BTreeSortedMap<>(64);
+			ConcurrentBTreeSortedMap<Integer, Integer> concurrent = new ConcurrentBTreeSortedMap<>(64);
+			for (int i=0; i<KEYS; i+=2) {
+				locked.insert(i, i);
+				concurrent.insert(i, i);
+			}
+
+			double lockedThroughput = run(numThreads, readPercent, new Operation() {
+				@Override
+				public void get(int key) {
+					synchronized (locked) {
+						locked.get(key);
+					}
+				}
+
+				@Override
+				public void insert(int key) {
+					synchronized (locked) {
+						locked.insert(key, key);
+					}
+				}
+			});
+			double concurrentThroughput = run(numThreads, readPercent, new Operation() {
+				@Override
+				public void get(int key) {
+					concurrent.get(key);
+				}
+
+				@Override
+				public void insert(int key) {
+					concurrent.insert(key, key);
+				}
+			});
+			System.out.printf("%d, %.0f, %.0f%n", numThreads, lockedThroughput, concurrentThroughput);
+		}
+	}
+
+	private interface Operation {
+		public void get(int key);
+		public void insert(int key);
+	}
+
+	private static double run(int numThreads, int readPercent, Operation operation) throws InterruptedException {
+		LongAdder operations = new LongAdder();
+		long end = System.currentTimeMillis() + MILLIS_PER_RUN;
+
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0; t<numThreads; t++) {
+			threads.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long count = 0;
+				while ((count & 1023) != 0 || System.currentTimeMillis() < end) {
+					int key = random.nextInt(KEYS);
+					if (random.nextInt(100) < readPercent) operation.get(key);
+					else operation.insert(key);
+					count++;
+				}
+				operations.add(count);
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		return operations.sum() * 1000.0 / MILLIS_PER_RUN;
+	}
+
+}
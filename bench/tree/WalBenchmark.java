@@ -0,0 +1,78 @@
+package tree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures durable writes per second for DurableBTreeSortedMap, once with
+ * batches of different sizes from one thread, and once with single inserts
+ * from several threads sharing forces through group commit.
+ */
+public class WalBenchmark {
+
+	private static final int WRITES = 20000;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("batch size, writes/sec, syncs");
+		for (int batchSize : new int[] {1, 8, 64, 512}) {
+			runBatches(batchSize);
+		}
+
+		System.out.println("threads, writes/sec, syncs");
+		for (int numThreads : new int[] {1, 4, 16, 64}) {
+			runThreads(numThreads);
+		}
+	}
+
+	private static void runBatches(int batchSize) throws IOException {
+		Path directory = Files.createTempDirectory("wal-bench");
+		try (DurableBTreeSortedMap<Integer, Long> map = new DurableBTreeSortedMap<>(directory, 64, Codecs.INTEGER, Codecs.LONG)) {
+			long start = System.nanoTime();
+			for (int i=0; i<WRITES; i+=batchSize) {
+				List<KeyValuePair<Integer, Long>> batch = new ArrayList<>(batchSize);
+				for (int j=i; j<Math.min(WRITES, i + batchSize); j++) batch.add(new KeyValuePair<>(j, (long) j));
+				map.insertAll(batch);
+			}
+			report(batchSize, start, map.log().syncs());
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	private static void runThreads(int numThreads) throws Exception {
+		Path directory = Files.createTempDirectory("wal-bench");
+		try (DurableBTreeSortedMap<Integer, Long> map = new DurableBTreeSortedMap<>(directory, 64, Codecs.INTEGER, Codecs.LONG)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t=0; t<numThreads; t++) {
+				int first = t;
+				threads.add(new Thread(() -> {
+					for (int i=first; i<WRITES; i+=numThreads) map.insert(i, (long) i);
+				}));
+			}
+
+			long start = System.nanoTime();
+			for (Thread thread : threads) thread.start();
+			for (Thread thread : threads) thread.join();
+			report(numThreads, start, map.log().syncs());
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	private static void report(int setting, long start, long syncs) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d, %.0f, %d%n", setting, WRITES / seconds, syncs);
+	}
+
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package tree;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks twice: once for throughput in ops/s and once sampling
+ * each call for latency percentiles. Both runs use the GC profiler, which
+ * reports the allocation rate and bytes allocated per operation.
+ *
+ * Any usual JMH command line options (a benchmark regex, -p implementation=TreeMap,
+ * -f, -wi, ...) are passed through to both runs.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		String include = commandLine.getIncludes().isEmpty() ? SortedMapBenchmark.class.getSimpleName() : null;
+
+		Options throughput = options(commandLine, include)
+				.mode(Mode.Throughput)
+				.timeUnit(TimeUnit.SECONDS)
+				.build();
+		Options latency = options(commandLine, include)
+				.mode(Mode.SampleTime)
+				.timeUnit(TimeUnit.NANOSECONDS)
+				.build();
+
+		new Runner(throughput).run();
+		new Runner(latency).run();
+	}
+
+	private static OptionsBuilder options(CommandLineOptions commandLine, String include) {
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (include != null) builder.include(include);
+		builder.addProfiler(GCProfiler.class);
+		return builder;
+	}
+
+}
@@ -0,0 +1,130 @@
+package tree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a write-heavy workload, 60% inserts, 20% deletes and 20% gets of
+ * random keys, with and without buffered writes. On PagedBTreeSortedMap the
+ * pool holds a few percent of the tree's pages, and pageReads and pageWrites
+ * count the pages read from and written to the file. On BTreeSortedMap the
+ * buffers sit in the intermediate nodes and leafWrites counts the leaves
+ * changed. The counters are reported as rates, so divide them by ops/s to
+ * get them per operation.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferedWriteBenchmark {
+
+	private static final long SEED = 24;
+
+	@Param({"PagedBTreeSortedMap", "BTreeSortedMap"})
+	public String implementation;
+
+	// messages per node for BTreeSortedMap, messages in all for PagedBTreeSortedMap
+	@Param({"0", "64", "1024", "4096"})
+	public int bufferSize;
+
+	@Param("64")
+	public int maxKeys;
+
+	@Param("256")
+	public int poolPages;
+
+	@Param("1000000")
+	public int keySpace;
+
+	private SortedMap<Integer, Integer> map;
+	private BTreeSortedMap<Integer, Integer> heap;
+	private PagedBTreeSortedMap<Integer, Integer> paged;
+	private Path file;
+	private SplittableRandom random;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if (this.implementation.equals("PagedBTreeSortedMap")) {
+			this.file = Files.createTempFile("btree", ".db");
+			this.paged = new PagedBTreeSortedMap<>(this.file, this.maxKeys, Codecs.INTEGER, Codecs.INTEGER, this.poolPages);
+			this.map = this.paged;
+		} else if (this.implementation.equals("BTreeSortedMap")) {
+			this.heap = new BTreeSortedMap<>(this.maxKeys);
+			this.map = this.heap;
+		} else {
+			throw new IllegalArgumentException("unknown implementation: " + this.implementation);
+		}
+
+		this.random = new SplittableRandom(SEED);
+		for (int i=0; i<this.keySpace/2; i++) this.map.insert(this.random.nextInt(this.keySpace), i);
+		if (this.paged != null) this.paged.setBufferSize(this.bufferSize);
+		else this.heap.setBufferSize(this.bufferSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (this.paged == null) return;
+		this.paged.close();
+		Files.delete(this.file);
+	}
+
+	@Benchmark
+	public Integer writeHeavy(Writes writes) {
+		long pageReads = this.paged == null ? 0 : this.paged.pool().misses();
+		long pageWrites = this.paged == null ? 0 : this.paged.pool().writes();
+		long leafWrites = this.heap == null ? 0 : this.heap.stats().leafWrites.sum();
+
+		int key = this.random.nextInt(this.keySpace);
+		int choice = this.random.nextInt(10);
+		Integer result = null;
+		if (choice < 6) this.map.insert(key, key);
+		else if (choice < 8) this.map.delete(key);
+		else result = this.map.get(key);
+
+		if (this.paged != null) {
+			writes.pageReads += this.paged.pool().misses() - pageReads;
+			writes.pageWrites += this.paged.pool().writes() - pageWrites;
+		} else {
+			writes.leafWrites += this.heap.stats().leafWrites.sum() - leafWrites;
+		}
+		return result;
+	}
+
+	/**
+	 * Pages and leaves written per iteration, reported next to the score.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Writes {
+
+		public long pageReads;
+		public long pageWrites;
+		public long leafWrites;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.pageReads = 0;
+			this.pageWrites = 0;
+			this.leafWrites = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package tree;
+
+import java.util.Random;
+
+/**
+ * Orders in which benchmarks visit keys.
+ */
+public enum KeyDistribution {
+
+	/** 0, 1, 2, ... wrapping around at the end of the key space. */
+	SEQUENTIAL,
+
+	/** Every key in the key space equally likely. */
+	RANDOM,
+
+	/** A few keys very likely and most rarely, see ZipfianGenerator. */
+	ZIPFIAN;
+
+	/**
+	 * Generate a sequence of keys to cycle through during a benchmark.
+	 * @param count number of keys to generate
+	 * @param keySpace keys are in [0, keySpace)
+	 */
+	public int[] generate(int count, int keySpace, long seed) {
+		int[] keys = new int[count];
+		switch (this) {
+		case SEQUENTIAL:
+			for (int i=0; i<count; i++) keys[i] = i % keySpace;
+			break;
+		case RANDOM:
+			Random random = new Random(seed);
+			for (int i=0; i<count; i++) keys[i] = random.nextInt(keySpace);
+			break;
+		case ZIPFIAN:
+			ZipfianGenerator zipfian = new ZipfianGenerator(keySpace, ZipfianGenerator.DEFAULT_THETA, seed);
+			for (int i=0; i<count; i++) keys[i] = zipfian.next();
+			break;
+		}
+		return keys;
+	}
+
+}
@@ -0,0 +1,105 @@
+package tree;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures gets on BTreeSortedMap with String keys when 60% of the keys
+ * looked up are not in the map, without leaf filters and with filters of
+ * different sizes. mixed turns one operation in ten into an insert of a
+ * missing key, which adds to the leaf's filter instead of dropping it. The
+ * map is loaded again before every iteration, so inserts do not pile up.
+ * The counters are reported as rates; filterFalsePositives divided by
+ * filterRejections plus filterFalsePositives is the false positive rate.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeafFilterBenchmark {
+
+	private static final int PAIRS = 1 << 19;
+	private static final long SEED = 25;
+
+	@Benchmark
+	public Integer get(Tree tree) {
+		return tree.lookUp();
+	}
+
+	@Benchmark
+	public Integer mixed(Tree tree) {
+		if (tree.random.nextInt(10) == 0) {
+			tree.map.insert(tree.keys[2 * tree.random.nextInt(PAIRS) + 1], 0);
+			return null;
+		}
+		return tree.lookUp();
+	}
+
+	/**
+	 * The map and the keys looked up in it. Its public fields are what the
+	 * filters did during an iteration, from the map's TreeStats.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Tree {
+
+		@Param({"0", "4", "8", "12"})
+		int bitsPerKey;
+
+		@Param("64")
+		int maxKeys;
+
+		public long filterRejections;
+		public long filterFalsePositives;
+		public long filterBuilds;
+
+		// even keys are in the map and odd ones are not
+		String[] keys;
+		BTreeSortedMap<String, Integer> map;
+		SplittableRandom random;
+		private TreeStats.Snapshot before;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			this.keys = new String[2 * PAIRS];
+			for (int i=0; i<this.keys.length; i++) this.keys[i] = String.format("user:%010d", i);
+			this.random = new SplittableRandom(SEED);
+		}
+
+		@Setup(Level.Iteration)
+		public void load() {
+			this.map = new BTreeSortedMap<>(this.maxKeys);
+			for (int i=0; i<PAIRS; i++) this.map.insert(this.keys[2 * i], i);
+			this.map.setFilterBitsPerKey(this.bitsPerKey);
+			this.before = this.map.stats().snapshot();
+		}
+
+		@TearDown(Level.Iteration)
+		public void count() {
+			TreeStats.Snapshot stats = this.map.stats().snapshot().since(this.before);
+			this.filterRejections = stats.filterRejections;
+			this.filterFalsePositives = stats.filterFalsePositives;
+			this.filterBuilds = stats.filterBuilds;
+		}
+
+		Integer lookUp() {
+			int n = 2 * this.random.nextInt(PAIRS) + (this.random.nextInt(10) < 6 ? 1 : 0);
+			return this.map.get(this.keys[n]);
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+package tree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+
+/**
+ * Lets a java.util.NavigableMap such as TreeMap or ConcurrentSkipListMap be
+ * benchmarked through the SortedMap interface. rank, select and countRange
+ * walk the map, since NavigableMap has no faster way to answer them.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class NavigableMapAdapter<K extends Comparable<K>, V> implements SortedMap<K, V> {
+
+	private final NavigableMap<K, V> map;
+
+	public NavigableMapAdapter(NavigableMap<K, V> map) {
+		this.map = map;
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		this.map.put(key, value);
+	}
+
+	@Override
+	public void delete(K key) {
+		this.map.remove(key);
+	}
+
+	@Override
+	public V get(K key) {
+		return this.map.get(key);
+	}
+
+	@Override
+	public Cursor<K, V> cursor() {
+		return new Cursor<K, V>() {
+			private Iterator<Map.Entry<K, V>> iterator = NavigableMapAdapter.this.map.entrySet().iterator();
+			private Map.Entry<K, V> current;
+
+			@Override
+			public void seek(K key) {
+				this.iterator = NavigableMapAdapter.this.map.tailMap(key, true).entrySet().iterator();
+				this.current = null;
+			}
+
+			@Override
+			public void seekFirst() {
+				this.iterator = NavigableMapAdapter.this.map.entrySet().iterator();
+				this.current = null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.iterator.hasNext();
+			}
+
+			@Override
+			public void next() {
+				if (!this.iterator.hasNext()) throw new NoSuchElementException();
+				this.current = this.iterator.next();
+			}
+
+			@Override
+			public K getKey() {
+				if (this.current == null) throw new IllegalStateException("cursor is not on a pair");
+				return this.current.getKey();
+			}
+
+			@Override
+			public V getValue() {
+				if (this.current == null) throw new IllegalStateException("cursor is not on a pair");
+				return this.current.getValue();
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return this.map.size();
+	}
+
+	@Override
+	public int rank(K key) {
+		return this.map.headMap(key, false).size();
+	}
+
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		if (index < 0 || index >= this.map.size()) return null;
+		Iterator<Map.Entry<K, V>> iterator = this.map.entrySet().iterator();
+		for (int i=0; i<index; i++) iterator.next();
+		Map.Entry<K, V> entry = iterator.next();
+		return new KeyValuePair<K, V>(entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public int countRange(K keyStart, K keyEnd) {
+		if (keyStart.compareTo(keyEnd) >= 0) return 0;
+		return this.map.subMap(keyStart, true, keyEnd, false).size();
+	}
+
+}
@@ -0,0 +1,96 @@
+package tree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a BTreeSortedMap with String keys against a BytesBTreeSortedMap
+ * on URL-like keys with long shared prefixes. get looks up keys that are in
+ * the map. build inserts every key into a new map, and the GC profiler's
+ * gc.alloc.rate.norm for it is the bytes allocated per key, keys included,
+ * which is nearly all kept by the finished map.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class PrefixKeyBenchmark {
+
+	private static final int NUM_KEYS = 1 << 20;
+	private static final int NUM_LOOKUPS = 1 << 16;
+	private static final long SEED = 42;
+	private static final Integer VALUE = 1;
+
+	@Param({"String", "Bytes"})
+	public String keyType;
+
+	@Param("64")
+	public int maxKeys;
+
+	private String[] keys;
+	private byte[][] encoded;
+	private int[] lookups;
+	private BTreeSortedMap<String, Integer> strings;
+	private BytesBTreeSortedMap<Integer> bytes;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(SEED);
+		this.keys = new String[NUM_KEYS];
+		this.encoded = new byte[NUM_KEYS][];
+		for (int i=0; i<NUM_KEYS; i++) {
+			this.keys[i] = String.format("https://example.com/tenants/%04d/users/%08d/profile",
+					random.nextInt(100), random.nextInt(100000000));
+			this.encoded[i] = this.keys[i].getBytes(StandardCharsets.UTF_8);
+		}
+		this.lookups = new int[NUM_LOOKUPS];
+		for (int i=0; i<NUM_LOOKUPS; i++) this.lookups[i] = random.nextInt(NUM_KEYS);
+
+		if (this.keyType.equals("String")) this.strings = this.buildStrings();
+		else if (this.keyType.equals("Bytes")) this.bytes = this.buildBytes();
+		else throw new IllegalArgumentException("unknown key type: " + this.keyType);
+	}
+
+	@Benchmark
+	public Integer get() {
+		int i = this.lookups[this.next];
+		this.next = (this.next + 1) & (NUM_LOOKUPS - 1);
+		return this.strings != null ? this.strings.get(this.keys[i]) : this.bytes.get(this.encoded[i]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_KEYS)
+	public Object build() {
+		return this.strings != null ? this.buildStrings() : this.buildBytes();
+	}
+
+	private BTreeSortedMap<String, Integer> buildStrings() {
+		BTreeSortedMap<String, Integer> map = new BTreeSortedMap<>(this.maxKeys);
+
+		// the map keeps its own copy of the keys, like the bytes map does
+		for (String key : this.keys) map.insert(new String(key.toCharArray()), VALUE);
+		return map;
+	}
+
+	private BytesBTreeSortedMap<Integer> buildBytes() {
+		BytesBTreeSortedMap<Integer> map = new BytesBTreeSortedMap<>(this.maxKeys);
+		for (byte[] key : this.encoded) map.insert(key, VALUE);
+		return map;
+	}
+
+}
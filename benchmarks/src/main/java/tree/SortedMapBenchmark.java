@@ -0,0 +1,161 @@
+package tree;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the basic operations of each SortedMap against java.util maps.
+ * The map starts with keySpace/2 pairs; each benchmark then cycles through
+ * keys drawn from the chosen distribution over [0, keySpace). insert instead
+ * uses keys that are not in the map, so that it measures adding pairs
+ * rather than replacing them.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedMapBenchmark {
+
+	private static final int NUM_KEYS = 1 << 16;
+	private static final long SEED = 42;
+
+	@Param({"BTreeSortedMap", "ConcurrentBTreeSortedMap", "TreeMap", "ConcurrentSkipListMap"})
+	public String implementation;
+
+	@Param({"16", "64", "256"})
+	public int maxKeys;
+
+	@Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN"})
+	public KeyDistribution distribution;
+
+	@Param({"16", "256"})
+	public int valueSize;
+
+	@Param("1000000")
+	public int keySpace;
+
+	private SortedMap<Integer, byte[]> map;
+	private Integer[] keys;
+	private byte[] value;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.map = newMap(this.implementation, this.maxKeys);
+		this.value = new byte[this.valueSize];
+
+		// fill every other key, so inserts and lookups hit and miss about equally
+		for (int key=0; key<this.keySpace; key+=2) this.map.insert(key, this.value);
+
+		int[] generated = this.distribution.generate(NUM_KEYS, this.keySpace, SEED);
+		this.keys = new Integer[NUM_KEYS];
+		for (int i=0; i<NUM_KEYS; i++) this.keys[i] = generated[i];
+	}
+
+	private Integer nextKey() {
+		Integer key = this.keys[this.next];
+		this.next = (this.next + 1) & (NUM_KEYS - 1);
+		return key;
+	}
+
+	/**
+	 * Inserts every fresh key, each of which adds a new pair. The keys are
+	 * deleted again after each invocation, outside the measurement.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(NUM_KEYS)
+	public void insert(FreshKeys fresh) {
+		fresh.map = this.map;
+		for (Integer key : fresh.keys) this.map.insert(key, this.value);
+	}
+
+	@Benchmark
+	public byte[] get() {
+		return this.map.get(this.nextKey());
+	}
+
+	/**
+	 * Deletes a key and puts it back, so the map stays the same size.
+	 */
+	@Benchmark
+	public void deleteAndInsert() {
+		Integer key = this.nextKey();
+		this.map.delete(key);
+		this.map.insert(key, this.value);
+	}
+
+	@Benchmark
+	public void getRange(Blackhole blackhole) {
+		Integer key = this.nextKey();
+		blackhole.consume(this.map.getRange(key, key + 100));
+	}
+
+	@Benchmark
+	public void getPage(Blackhole blackhole) {
+		blackhole.consume(this.map.getPage(this.nextKey(), 100));
+	}
+
+	/**
+	 * NUM_KEYS distinct keys that are not in the map, in the order the
+	 * distribution first draws them. The map only holds even keys, so each
+	 * drawn key is moved to the odd key just above it.
+	 */
+	@State(Scope.Thread)
+	public static class FreshKeys {
+
+		Integer[] keys;
+
+		// the map the keys went into; JMH hands helper methods their own
+		// instance of the benchmark, so its map is not the one being measured
+		SortedMap<Integer, byte[]> map;
+
+		@Setup(Level.Trial)
+		public void setUp(SortedMapBenchmark benchmark) {
+			Set<Integer> distinct = new LinkedHashSet<>();
+			for (int draws=NUM_KEYS; distinct.size() < NUM_KEYS; draws*=2) {
+				if (draws > 1 << 26) throw new IllegalStateException("too few distinct keys in " + benchmark.distribution);
+				distinct.clear();
+				for (int key : benchmark.distribution.generate(draws, benchmark.keySpace, SEED)) {
+					distinct.add(key | 1);
+					if (distinct.size() == NUM_KEYS) break;
+				}
+			}
+			this.keys = distinct.toArray(new Integer[0]);
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown() {
+			for (Integer key : this.keys) this.map.delete(key);
+		}
+
+	}
+
+	static SortedMap<Integer, byte[]> newMap(String implementation, int maxKeys) {
+		switch (implementation) {
+		case "BTreeSortedMap": return new BTreeSortedMap<>(maxKeys);
+		case "ConcurrentBTreeSortedMap": return new ConcurrentBTreeSortedMap<>(maxKeys);
+		case "TreeMap": return new NavigableMapAdapter<>(new TreeMap<Integer, byte[]>());
+		case "ConcurrentSkipListMap": return new NavigableMapAdapter<>(new ConcurrentSkipListMap<Integer, byte[]>());
+		default: throw new IllegalArgumentException("unknown implementation: " + implementation);
+		}
+	}
+
+}
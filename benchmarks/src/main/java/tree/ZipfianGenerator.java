@@ -0,0 +1,64 @@
+package tree;
+
+import java.util.Random;
+
+/**
+ * Draws integers in [0, n) following a Zipfian distribution, so a few
+ * values come up very often and most come up rarely. Uses the method from
+ * Gray et al., "Quickly Generating Billion-Record Synthetic Databases",
+ * the same one YCSB uses. Ranks are scattered over the range so that the
+ * popular values are not all next to each other.
+ */
+public class ZipfianGenerator {
+
+	public static final double DEFAULT_THETA = 0.99;
+
+	private final int n;
+	private final double theta;
+	private final double alpha;
+	private final double zetaN;
+	private final double eta;
+	private final Random random;
+
+	public ZipfianGenerator(int n, double theta, long seed) {
+		this.n = n;
+		this.theta = theta;
+		this.alpha = 1 / (1 - theta);
+		this.zetaN = zeta(n, theta);
+		this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / this.zetaN);
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Get the next value. Value 0 of the underlying ranking is the most popular,
+	 * but it is mapped somewhere else in the range before being returned.
+	 */
+	public int next() {
+		double u = this.random.nextDouble();
+		double uz = u * this.zetaN;
+
+		long rank;
+		if (uz < 1) rank = 0;
+		else if (uz < 1 + Math.pow(0.5, this.theta)) rank = 1;
+		else rank = (long) (this.n * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+
+		return scatter(Math.min(rank, this.n - 1), this.n);
+	}
+
+	private static double zeta(long n, double theta) {
+		double sum = 0;
+		for (long i=1; i<=n; i++) sum += 1 / Math.pow(i, theta);
+		return sum;
+	}
+
+	/**
+	 * Spread ranks over [0, n) with a multiplicative hash, so that neighboring
+	 * ranks do not land on neighboring keys.
+	 */
+	private static int scatter(long rank, int n) {
+		long hash = rank * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 32;
+		return (int) Math.floorMod(hash, (long) n);
+	}
+
+}
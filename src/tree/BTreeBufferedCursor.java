@@ -0,0 +1,149 @@
+package tree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Cursor over a BTreeSortedMap in buffered mode. It walks the leaves like
+ * BTreeCursor, and merges in the messages still waiting in the buffers for
+ * the keys between each leaf and the next, without pushing anything down.
+ * A message replaces or hides the pair in the leaves with its key.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeBufferedCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+
+	private final BTreeSortedMap<K, V> map;
+
+	// leaf being walked and the index of its next pair; leaf is null when there are no more leaves
+	private LeafNode<K, V> leaf;
+	private int leafIndex;
+
+	// pending messages for keys from where the walk is up to the start of the next leaf
+	private Iterator<Map.Entry<K, Object>> messages;
+	private Map.Entry<K, Object> message;
+
+	// pair that next() will move onto, found ahead of time since a message may hide it
+	private boolean hasNextPair;
+	private K nextKey;
+	private V nextValue;
+
+	// pair the cursor is on
+	private boolean onPair;
+	private K currentKey;
+	private V currentValue;
+
+	public BTreeBufferedCursor(BTreeSortedMap<K, V> map) {
+		this.map = map;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.onPair = false;
+		this.leaf = this.map.root == null ? null : this.map.root.findLeaf(key);
+		if (this.leaf != null) {
+			this.leafIndex = Helpers.firstIndexGreaterOrEqual(this.leaf.keys, this.leaf.numKeys, key);
+			this.collectMessages(key);
+		}
+		this.findNextPair();
+	}
+
+	@Override
+	public void seekFirst() {
+		this.onPair = false;
+		this.leaf = this.map.root == null ? null : this.map.root.firstLeaf();
+		if (this.leaf != null) {
+			this.leafIndex = 0;
+			this.collectMessages(null);
+		}
+		this.findNextPair();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.hasNextPair;
+	}
+
+	@Override
+	public void next() {
+		if (!this.hasNextPair) throw new NoSuchElementException();
+
+		this.onPair = true;
+		this.currentKey = this.nextKey;
+		this.currentValue = this.nextValue;
+		this.findNextPair();
+	}
+
+	@Override
+	public K getKey() {
+		if (!this.onPair) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentKey;
+	}
+
+	@Override
+	public V getValue() {
+		if (!this.onPair) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentValue;
+	}
+
+	/**
+	 * Gather the messages from keyStart up to the first key of the leaf after
+	 * the current one, so that every key belongs to exactly one leaf's window.
+	 * @param keyStart null for every key before the next leaf
+	 */
+	@SuppressWarnings("unchecked")
+	private void collectMessages(K keyStart) {
+		TreeMap<K, Object> pending = new TreeMap<>();
+		if (this.map.hasPendingMessages()) {
+			K keyEnd = this.leaf.next == null ? null : this.leaf.next.keys[0];
+			((IntermediateNode<K, V>) this.map.root).collectMessages(keyStart, keyEnd, pending);
+		}
+		this.messages = pending.entrySet().iterator();
+		this.message = this.messages.hasNext() ? this.messages.next() : null;
+	}
+
+	/**
+	 * Walk the leaves and the messages together up to the next pair that a
+	 * delete message does not hide, moving on to the next leaf's window when
+	 * both run out.
+	 */
+	@SuppressWarnings("unchecked")
+	private void findNextPair() {
+		while (this.leaf != null) {
+			boolean onLeafPair = this.leafIndex < this.leaf.numKeys;
+			if (!onLeafPair && this.message == null) {
+				this.leaf = this.leaf.next;
+				this.leafIndex = 0;
+				if (this.leaf != null) this.collectMessages(this.leaf.keys[0]);
+				continue;
+			}
+
+			int comparison = !onLeafPair ? 1 : this.message == null ? -1
+					: this.leaf.keys[this.leafIndex].compareTo(this.message.getKey());
+			if (comparison < 0) {
+				this.setNextPair(this.leaf.keys[this.leafIndex], this.leaf.values[this.leafIndex]);
+				this.leafIndex++;
+				return;
+			}
+
+			// the message is newer than the pair with its key, if there is one
+			Map.Entry<K, Object> pending = this.message;
+			if (comparison == 0) this.leafIndex++;
+			this.message = this.messages.hasNext() ? this.messages.next() : null;
+			if (pending.getValue() != MessageBuffer.DELETE) {
+				this.setNextPair(pending.getKey(), (V) pending.getValue());
+				return;
+			}
+		}
+		this.hasNextPair = false;
+	}
+
+	private void setNextPair(K key, V value) {
+		this.hasNextPair = true;
+		this.nextKey = key;
+		this.nextValue = value;
+	}
+
+}
@@ -0,0 +1,88 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over a BTreeSortedMap. Seeking descends from the root once, and
+ * after that the cursor follows the links between leaves.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+	
+	private final BTreeSortedMap<K, V> map;
+	
+	// pair that next() will move onto; leaf is null when there are no more pairs
+	private LeafNode<K, V> nextLeaf;
+	private int nextIndex;
+	
+	// pair the cursor is on; leaf is null before the first call to next()
+	private LeafNode<K, V> currentLeaf;
+	private int currentIndex;
+	
+	public BTreeCursor(BTreeSortedMap<K, V> map) {
+		this.map = map;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.currentLeaf = null;
+		if (this.map.root == null) {
+			this.nextLeaf = null;
+			return;
+		}
+		
+		this.nextLeaf = this.map.root.findLeaf(key);
+		this.nextIndex = Helpers.firstIndexGreaterOrEqual(this.nextLeaf.keys, this.nextLeaf.numKeys, key);
+		
+		// the key may be past every key in its leaf, so the next pair starts the next leaf
+		this.skipToNextLeafIfDone();
+	}
+
+	@Override
+	public void seekFirst() {
+		this.currentLeaf = null;
+		this.nextLeaf = this.map.root == null ? null : this.map.root.firstLeaf();
+		this.nextIndex = 0;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.nextLeaf != null;
+	}
+
+	@Override
+	public void next() {
+		if (this.nextLeaf == null) throw new NoSuchElementException();
+		
+		this.currentLeaf = this.nextLeaf;
+		this.currentIndex = this.nextIndex;
+		
+		this.nextIndex++;
+		this.skipToNextLeafIfDone();
+	}
+
+	@Override
+	public K getKey() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.keys[this.currentIndex];
+	}
+
+	@Override
+	public V getValue() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.values[this.currentIndex];
+	}
+	
+	/**
+	 * If the next index has run off the end of its leaf, move it to the start
+	 * of the following leaf. Leaves are never empty, so one step is enough.
+	 */
+	private void skipToNextLeafIfDone() {
+		if (this.nextIndex >= this.nextLeaf.numKeys) {
+			this.nextLeaf = this.nextLeaf.next;
+			this.nextIndex = 0;
+		}
+	}
+
+}
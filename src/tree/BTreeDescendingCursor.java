@@ -0,0 +1,89 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor that walks backward through a BTreeSortedMap. Seeking descends
+ * from the root once, and after that the cursor follows the previous links
+ * between leaves.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeDescendingCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+	
+	private final BTreeSortedMap<K, V> map;
+	
+	// pair that next() will move onto; leaf is null when there are no more pairs
+	private LeafNode<K, V> nextLeaf;
+	private int nextIndex;
+	
+	// pair the cursor is on; leaf is null before the first call to next()
+	private LeafNode<K, V> currentLeaf;
+	private int currentIndex;
+	
+	public BTreeDescendingCursor(BTreeSortedMap<K, V> map) {
+		this.map = map;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.currentLeaf = null;
+		if (this.map.root == null) {
+			this.nextLeaf = null;
+			return;
+		}
+		
+		this.nextLeaf = this.map.root.findLeaf(key);
+		this.nextIndex = Helpers.firstIndexGreaterOrEqual(this.nextLeaf.keys, this.nextLeaf.numKeys, key) - 1;
+		
+		// the key may be before every key in its leaf, so the next pair ends the previous leaf
+		this.skipToPreviousLeafIfDone();
+	}
+
+	@Override
+	public void seekFirst() {
+		this.currentLeaf = null;
+		this.nextLeaf = this.map.root == null ? null : this.map.root.lastLeaf();
+		if (this.nextLeaf != null) this.nextIndex = this.nextLeaf.numKeys - 1;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.nextLeaf != null;
+	}
+
+	@Override
+	public void next() {
+		if (this.nextLeaf == null) throw new NoSuchElementException();
+		
+		this.currentLeaf = this.nextLeaf;
+		this.currentIndex = this.nextIndex;
+		
+		this.nextIndex--;
+		this.skipToPreviousLeafIfDone();
+	}
+
+	@Override
+	public K getKey() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.keys[this.currentIndex];
+	}
+
+	@Override
+	public V getValue() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.values[this.currentIndex];
+	}
+	
+	/**
+	 * If the next index has run off the start of its leaf, move it to the end
+	 * of the leaf before. Leaves are never empty, so one step is enough.
+	 */
+	private void skipToPreviousLeafIfDone() {
+		if (this.nextIndex < 0) {
+			this.nextLeaf = this.nextLeaf.previous;
+			if (this.nextLeaf != null) this.nextIndex = this.nextLeaf.numKeys - 1;
+		}
+	}
+
+}
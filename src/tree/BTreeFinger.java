@@ -0,0 +1,165 @@
+package tree;
+
+/**
+ * A handle on a BTreeSortedMap that remembers the path down to the last leaf
+ * it touched. When the next key is near the last one, get and insert climb
+ * the path only as far as the first node whose range holds the key, and
+ * search down from there, instead of starting over at the root. A key in
+ * the same leaf needs no search at all above it.
+ *
+ * The map counts changes that may move nodes or their keys. While that
+ * count is the same as when the path was last checked, the path is used as
+ * it is. Otherwise it is checked against the tree by identity and the range
+ * of each node is read again from its parent's keys, so the handle stays
+ * correct whatever else changes the map. Each thread or session should have
+ * its own handle, and like the map itself it is not safe to share.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeFinger<K extends Comparable<K>, V> {
+
+	private final BTreeSortedMap<K, V> map;
+
+	// nodes from the root down to the last leaf touched, and the child taken in each
+	// intermediate node; path[height] is the leaf, and path is null before the first search
+	private BTreeNode<K, V>[] path;
+	private int[] childIndexes;
+	private int height;
+
+	// range of keys under each node on the path, read from its parent; null where unbounded
+	private K[] lows, highs;
+
+	// the map's structure version when the path was last checked or found, and
+	// whether none of the path was shared with a snapshot then
+	private long version;
+	private boolean writablePath;
+
+	public BTreeFinger(BTreeSortedMap<K, V> map) {
+		this.map = map;
+	}
+
+	/**
+	 * Same as BTreeSortedMap.get.
+	 */
+	public V get(K key) {
+		// in buffered mode the key may have a message above the leaf, so go through the map
+		if (this.map.isBuffering()) return this.map.get(key);
+		this.map.stats().operations.increment();
+		LeafNode<K, V> leaf = this.find(key, false);
+		return leaf == null ? null : leaf.get(key, this.map.filterBitsPerKey());
+	}
+
+	/**
+	 * Same as BTreeSortedMap.insert. If the leaf the key belongs in is full,
+	 * the insert goes through the map so that splits are handled there, and
+	 * so does every insert in buffered mode.
+	 */
+	public void insert(K key, V value) {
+		LeafNode<K, V> leaf = this.map.isBuffering() ? null : this.find(key, true);
+		if (leaf == null || leaf.numKeys >= leaf.mc) {
+			this.map.insert(key, value);
+			return;
+		}
+
+		this.map.stats().operations.increment();
+		int sizeBefore = leaf.size();
+		leaf.insert(key, value);
+
+		// count the pair and reset the keys pointing to each node on the way up
+		for (int i=this.height - 1; i>=0; i--) {
+			IntermediateNode<K, V> node = (IntermediateNode<K, V>) this.path[i];
+			node.subtreeSize += leaf.size() - sizeBefore;
+			node.keys[this.childIndexes[i]] = this.path[i + 1].getMin();
+		}
+	}
+
+	/**
+	 * Find the leaf where the key is or would be stored, starting from the
+	 * deepest node on the path whose range holds the key.
+	 * @param writable whether the nodes on the way must be safe to change;
+	 * if so, nodes shared with a snapshot are copied on the way down
+	 * @return leaf for the key, or null if the map is empty, or if writable
+	 * is true and the root is shared with a snapshot
+	 */
+	@SuppressWarnings("unchecked")
+	private LeafNode<K, V> find(K key, boolean writable) {
+		BTreeNode<K, V> root = this.map.root;
+		if (root == null || (writable && root.shared)) return null;
+
+		int level = this.deepestLevelHolding(key, writable);
+		if (level < 0) {
+			// the path is gone, so start over from the root with room for the whole height
+			this.height = 0;
+			for (BTreeNode<K, V> node = root; node instanceof IntermediateNode;
+					node = ((IntermediateNode<K, V>) node).children[0]) {
+				this.height++;
+			}
+			this.path = (BTreeNode<K, V>[]) new BTreeNode[this.height + 1];
+			this.childIndexes = new int[this.height];
+			this.lows = (K[]) new Comparable[this.height + 1];
+			this.highs = (K[]) new Comparable[this.height + 1];
+			this.path[0] = root;
+			level = 0;
+		}
+
+		for (int i=level; i<this.height; i++) {
+			IntermediateNode<K, V> node = (IntermediateNode<K, V>) this.path[i];
+			this.map.stats().searched(node.numKeys);
+			int index = Helpers.chooseChildFromKeys(node.keys, node.numKeys, key);
+			this.childIndexes[i] = index;
+			this.lows[i + 1] = index > 0 ? node.keys[index] : this.lows[i];
+			this.highs[i + 1] = index < node.numKeys - 1 ? node.keys[index + 1] : this.highs[i];
+
+			// a copied node takes the place of one that other fingers may remember
+			BTreeNode<K, V> child = node.children[index];
+			this.path[i + 1] = writable ? node.writableChild(index) : child;
+			if (this.path[i + 1] != child) this.map.structureVersion++;
+		}
+		this.version = this.map.structureVersion;
+		this.writablePath = writable;
+		return (LeafNode<K, V>) this.path[this.height];
+	}
+
+	/**
+	 * Check the remembered path from the root down, unless the map's structure
+	 * has not changed since it was last checked, then climb it from the leaf
+	 * until the key is inside the range of the node. Levels that share a bound
+	 * with the level below them are passed over without comparing.
+	 * @return deepest level of the path whose node holds the key, or -1 if
+	 * the path no longer starts at the root
+	 */
+	private int deepestLevelHolding(K key, boolean writable) {
+		if (this.path == null || this.path[0] != this.map.root) return -1;
+		boolean unchanged = this.version == this.map.structureVersion && (this.writablePath || !writable);
+
+		// follow the path as far as it is still in the tree, reading each node's range from its parent
+		int valid = unchanged ? this.height : 0;
+		while (valid < this.height) {
+			IntermediateNode<K, V> node = (IntermediateNode<K, V>) this.path[valid];
+			int index = this.childIndexes[valid];
+			BTreeNode<K, V> child = this.path[valid + 1];
+			if (index >= node.numKeys || node.children[index] != child || (writable && child.shared)) break;
+
+			this.lows[valid + 1] = index > 0 ? node.keys[index] : this.lows[valid];
+			this.highs[valid + 1] = index < node.numKeys - 1 ? node.keys[index + 1] : this.highs[valid];
+			valid++;
+		}
+
+		int level = valid;
+		while (level > 0 && this.lows[level] != null && this.isBefore(key, this.lows[level])) {
+			K bound = this.lows[level];
+			while (level > 0 && this.lows[level] == bound) level--;
+		}
+		while (level > 0 && this.highs[level] != null && !this.isBefore(key, this.highs[level])) {
+			K bound = this.highs[level];
+			while (level > 0 && this.highs[level] == bound) level--;
+		}
+		return level;
+	}
+
+	private boolean isBefore(K key, K bound) {
+		this.map.stats().comparisons.increment();
+		return key.compareTo(bound) < 0;
+	}
+
+}
@@ -1,6 +1,5 @@
 package tree;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -11,13 +10,24 @@ import java.util.List;
 public abstract class BTreeNode<K extends Comparable<K>, V> {
 	
 	public final int mc;
-	protected List<K> keys; // max length = mc
+	protected K[] keys; // max length = mc, with one extra slot to overflow into before a split
+	protected int numKeys; // number of slots in keys that are in use
 	protected boolean isRoot; // used for testing
+	protected boolean shared; // also part of a snapshot, so it must be copied before it changes
+	protected final TreeStats stats; // shared by every node in the map
 	
-	public BTreeNode(int maxChildren) {
+	public BTreeNode(int maxChildren, TreeStats stats) {
+		this(maxChildren, maxChildren + 1, stats);
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected BTreeNode(int maxChildren, int capacity, TreeStats stats) {
 		this.mc = maxChildren;
-		this.keys = new ArrayList<>();
+		this.stats = stats;
+		this.keys = (K[]) new Comparable[capacity];
+		this.numKeys = 0;
 		this.isRoot = false;
+		this.shared = false;
 	}
 	
 	/**
@@ -27,6 +37,13 @@ public abstract class BTreeNode<K extends Comparable<K>, V> {
 	 */
 	public abstract V get(K key);
 	
+	/**
+	 * Same as get, except that if filterBitsPerKey is positive, the leaf rules
+	 * the key out by its lowest and highest keys and by a Bloom filter with that
+	 * many bits per key before searching its keys.
+	 */
+	protected abstract V get(K key, int filterBitsPerKey);
+	
 	/**
 	 * Insert a key value pair into the node.
 	 * @param key key to insert
@@ -40,43 +57,98 @@ public abstract class BTreeNode<K extends Comparable<K>, V> {
 	 * @param key key to delete
 	 * @param neighbor sibling node to take data from if this node needs more;
 	 * must be same type as this
+	 * @param mergeLeaves whether leaves less than half full are merged with or
+	 * evened out with their neighbor; otherwise a leaf only borrows once it is empty
 	 * @return whether this node should be deleted by parent
 	 */
-	public abstract boolean delete(K key, BTreeNode<K, V> neighbor);
+	public abstract boolean delete(K key, BTreeNode<K, V> neighbor, boolean mergeLeaves);
+	
+	/**
+	 * Insert a sorted batch of key value pairs into this node, touching each
+	 * node under it at most once. Instead of splitting in two, a node that gets
+	 * too full is split into as many nodes as it needs at once.
+	 * @param keys keys to insert, strictly increasing from index from to index to
+	 * @param values values to insert, parallel to keys
+	 * @param from first index of the batch (inclusive)
+	 * @param to last index of the batch (exclusive)
+	 * @return new nodes to be inserted in the parent right after this one, in
+	 * order; empty if this node did not split
+	 */
+	public abstract List<BTreeNode<K, V>> insertAll(K[] keys, V[] values, int from, int to);
 	
 	/**
-	 * Get a sorted list of all key value pairs in this map that lie within 
-	 * a certain range. List is expected to start under this node, but does
-	 * not have to end under it - leaves are linked together so traversal over
-	 * all intermediate nodes is not necessary.
-	 * @param keyStart first key to find
-	 * @param keyEnd key to end on
-	 * @return list of key value pairs where the first one is under this leaf
+	 * Delete a sorted batch of keys from this node, touching each node under it
+	 * at most once. This node fixes any of its children that end up empty or less
+	 * than half full, but leaves fixing itself to its parent.
+	 * @param keys keys to delete, strictly increasing from index from to index to
+	 * @param from first index of the batch (inclusive)
+	 * @param to last index of the batch (exclusive)
+	 * @param mergeLeaves whether leaves left less than half full are merged with
+	 * or evened out with a neighbor; otherwise only empty leaves are removed
 	 */
-	public abstract List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd);
+	public abstract void deleteAll(K[] keys, int from, int to, boolean mergeLeaves);
 	
 	/**
-	 * Get a sorted list of all key value pairs in this map of a certain length,
-	 * starting with a certain key. List is expected to start under this node, but 
-	 * does not have to end under it - leaves are linked together so traversal over
-	 * all intermediate nodes is not necessary.
-	 * @param keyStart first key to find
-	 * @param numValues number of pairs
-	 * @return list of key value pairs where the first one is under this leaf
+	 * Delete every key value pair from keyStart to keyEnd under this node.
+	 * Children that lie wholly inside the range are dropped without being
+	 * visited, so only the children holding the two ends are gone into. Like
+	 * deleteAll, this node fixes its children but leaves fixing itself to its
+	 * parent.
+	 * @param keyStart first key to delete (inclusive)
+	 * @param keyEnd last key to delete (exclusive), greater than keyStart
+	 * @param max every key under this node is less than this; null if there is
+	 * no such bound
+	 * @param mergeLeaves whether leaves left less than half full are merged with
+	 * or evened out with a neighbor; otherwise only empty leaves are removed
 	 */
-	public abstract List<KeyValuePair<K, V>> getPage(K keyStart, int numElements);
+	public abstract void deleteRange(K keyStart, K keyEnd, K max, boolean mergeLeaves);
 	
 	/**
+	 * Find the leaf under this node where the given key is or would be stored.
+	 * @param key key to look for
+	 * @return leaf the key belongs in
+	 */
+	protected abstract LeafNode<K, V> findLeaf(K key);
+	
+	/**
+	 * @return leftmost leaf under this node
+	 */
+	protected abstract LeafNode<K, V> firstLeaf();
+	
+	/**
+	 * @return rightmost leaf under this node
+	 */
+	protected abstract LeafNode<K, V> lastLeaf();
+	
+	/**
+	 * Runs in constant time.
 	 * @return number of key value pairs in tree with this node as root
 	 */
 	public abstract int size();
 	
+	/**
+	 * Count the key value pairs under this node whose keys are less than
+	 * the given key.
+	 * @param key key to compare against
+	 * @return number of keys under this node that are less than key
+	 */
+	public abstract int rank(K key);
+	
+	/**
+	 * Get the key value pair at a position in sorted order among the pairs
+	 * under this node.
+	 * @param index position of the pair, from 0 (inclusive) to size() (exclusive)
+	 * @return key value pair at that position
+	 */
+	public abstract KeyValuePair<K, V> select(int index);
+	
 	/**
 	 * Used for testing purposes. Throws assertion error if invalid.
 	 * @param min minimum value (inclusive)
 	 * @param max maximum value (exclusive)
+	 * @param mergeLeaves whether every leaf but the root must be at least half full
 	 */
-	protected abstract void verify(K min, K max);
+	protected abstract void verify(K min, K max, boolean mergeLeaves);
 	
 	/**
 	 * Used for testing purposes. Throws an assertion error if two sibling
@@ -91,12 +163,19 @@ public abstract class BTreeNode<K extends Comparable<K>, V> {
 	 */
 	protected abstract LeafNode<K, V> toLeafNode();
 	
+	/**
+	 * Get a copy of this node that can be changed without changing any snapshot
+	 * this node is part of. The copy takes this node's place in the tree, and
+	 * this node is left to the snapshots.
+	 */
+	protected abstract BTreeNode<K, V> copy();
+	
 	/**
 	 * Convenience method to get the lowest key. Runs in constant time.
 	 * @return lowest key
 	 */
 	protected K getMin() {
-		return this.keys.get(0);
+		return this.keys[0];
 	}
 	
 }
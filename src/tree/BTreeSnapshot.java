@@ -0,0 +1,78 @@
+package tree;
+
+import java.util.Spliterator;
+
+/**
+ * Read-only view of a BTreeSortedMap at the moment BTreeSortedMap.snapshot
+ * was called. It shares nodes with the map, which copies any node before
+ * changing it, so the snapshot never sees later changes. Trying to change
+ * a snapshot throws UnsupportedOperationException.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeSnapshot<K extends Comparable<K>, V> implements SortedMap<K, V> {
+	
+	// Root of B tree as of the snapshot. Null if map was empty.
+	protected final BTreeNode<K, V> root;
+	
+	protected BTreeSnapshot(BTreeNode<K, V> root) {
+		this.root = root;
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		throw new UnsupportedOperationException("snapshots are read-only");
+	}
+
+	@Override
+	public void delete(K key) {
+		throw new UnsupportedOperationException("snapshots are read-only");
+	}
+
+	@Override
+	public V get(K key) {
+		if (this.root == null) return null;
+		
+		// reads through a snapshot count toward the map's stats, since they visit its nodes
+		this.root.stats.operations.increment();
+		return this.root.get(key);
+	}
+
+	@Override
+	public Cursor<K, V> cursor() {
+		return new BTreeSnapshotCursor<K, V>(this);
+	}
+
+	@Override
+	public Spliterator<KeyValuePair<K, V>> spliterator(K keyStart, K keyEnd) {
+		return new BTreeSpliterator<K, V>(this.root, keyStart, keyEnd);
+	}
+
+	@Override
+	public int size() {
+		return this.root == null ? 0 : this.root.size();
+	}
+
+	@Override
+	public int rank(K key) {
+		return this.root == null ? 0 : this.root.rank(key);
+	}
+
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		if (index < 0 || index >= this.size()) return null;
+		return this.root.select(index);
+	}
+
+	@Override
+	public int countRange(K keyStart, K keyEnd) {
+		if (keyStart.compareTo(keyEnd) >= 0) return 0;
+		return this.rank(keyEnd) - this.rank(keyStart);
+	}
+	
+	@Override
+	public String toString() {
+		return this.root == null ? "" : this.root.toString();
+	}
+
+}
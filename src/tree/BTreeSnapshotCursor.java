@@ -0,0 +1,141 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over a BTreeSnapshot. Leaves of a snapshot can be linked to leaves
+ * the map has changed since, so instead of following leaf links this cursor
+ * keeps the path from the root to its leaf and climbs back up it to find
+ * the next leaf.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeSnapshotCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+	
+	private final BTreeSnapshot<K, V> snapshot;
+	
+	// intermediate nodes from the root down to the current leaf, and the child taken in each
+	private final IntermediateNode<K, V>[] path;
+	private final int[] childIndexes;
+	private int depth;
+	
+	// pair that next() will move onto; leaf is null when there are no more pairs
+	private LeafNode<K, V> nextLeaf;
+	private int nextIndex;
+	
+	// pair the cursor is on; leaf is null before the first call to next()
+	private LeafNode<K, V> currentLeaf;
+	private int currentIndex;
+	
+	@SuppressWarnings("unchecked")
+	public BTreeSnapshotCursor(BTreeSnapshot<K, V> snapshot) {
+		this.snapshot = snapshot;
+		
+		// the snapshot never changes, so the path never needs to be longer than this
+		int height = 0;
+		for (BTreeNode<K, V> node = snapshot.root; node instanceof IntermediateNode; 
+				node = ((IntermediateNode<K, V>) node).children[0]) {
+			height++;
+		}
+		this.path = (IntermediateNode<K, V>[]) new IntermediateNode[height];
+		this.childIndexes = new int[height];
+	}
+
+	@Override
+	public void seek(K key) {
+		this.currentLeaf = null;
+		this.depth = 0;
+		this.nextLeaf = null;
+		if (this.snapshot.root == null) return;
+		
+		// go down to the leaf that would hold the key, remembering the way
+		BTreeNode<K, V> node = this.snapshot.root;
+		while (node instanceof IntermediateNode) {
+			IntermediateNode<K, V> intermediateNode = (IntermediateNode<K, V>) node;
+			int childIndex = Helpers.chooseChildFromKeys(intermediateNode.keys, intermediateNode.numKeys, key);
+			this.path[this.depth] = intermediateNode;
+			this.childIndexes[this.depth] = childIndex;
+			this.depth++;
+			node = intermediateNode.children[childIndex];
+		}
+		
+		this.nextLeaf = (LeafNode<K, V>) node;
+		this.nextIndex = Helpers.firstIndexGreaterOrEqual(this.nextLeaf.keys, this.nextLeaf.numKeys, key);
+		this.skipToNextLeafIfDone();
+	}
+
+	@Override
+	public void seekFirst() {
+		this.currentLeaf = null;
+		this.depth = 0;
+		this.nextLeaf = null;
+		if (this.snapshot.root == null) return;
+		
+		this.descendLeftmost(this.snapshot.root);
+		this.skipToNextLeafIfDone();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.nextLeaf != null;
+	}
+
+	@Override
+	public void next() {
+		if (this.nextLeaf == null) throw new NoSuchElementException();
+		
+		this.currentLeaf = this.nextLeaf;
+		this.currentIndex = this.nextIndex;
+		
+		this.nextIndex++;
+		this.skipToNextLeafIfDone();
+	}
+
+	@Override
+	public K getKey() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.keys[this.currentIndex];
+	}
+
+	@Override
+	public V getValue() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.values[this.currentIndex];
+	}
+	
+	/**
+	 * Go down the first children from a node to a leaf, remembering the way,
+	 * and make the leaf's first pair the next one.
+	 */
+	private void descendLeftmost(BTreeNode<K, V> node) {
+		while (node instanceof IntermediateNode) {
+			this.path[this.depth] = (IntermediateNode<K, V>) node;
+			this.childIndexes[this.depth] = 0;
+			this.depth++;
+			node = ((IntermediateNode<K, V>) node).children[0];
+		}
+		this.nextLeaf = (LeafNode<K, V>) node;
+		this.nextIndex = 0;
+	}
+	
+	/**
+	 * If the next index has run off the end of its leaf, climb the path until
+	 * a node has a child to the right of the one taken, and go down its
+	 * leftmost side. Only an empty root leaf has no pairs, so one step is enough.
+	 */
+	private void skipToNextLeafIfDone() {
+		if (this.nextIndex < this.nextLeaf.numKeys) return;
+		
+		while (this.depth > 0) {
+			int level = this.depth - 1;
+			if (this.childIndexes[level] + 1 < this.path[level].numKeys) {
+				this.childIndexes[level]++;
+				this.descendLeftmost(this.path[level].children[this.childIndexes[level]]);
+				return;
+			}
+			this.depth--;
+		}
+		this.nextLeaf = null;
+	}
+
+}
@@ -1,33 +1,280 @@
 package tree;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeMap;
 
 public class BTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
 	
 	// Root of B tree. Null if map is empty.
-	private BTreeNode<K, V> root;
+	protected BTreeNode<K, V> root;
 	
 	private final int mc;
+	private final TreeStats stats;
+	private final boolean mergeLeaves;
+	
+	// where the next compaction step starts; null to start a new pass from the first key
+	private K compactionKey;
+	
+	// Append mode remembers the rightmost leaf and the intermediate nodes above
+	// it, root first. They are checked before each append and found again if
+	// anything else has changed the right edge of the tree.
+	private boolean appendMode;
+	private List<IntermediateNode<K, V>> rightPath;
+	private LeafNode<K, V> rightLeaf;
+	
+	// In buffered mode, inserts and deletes wait in the intermediate nodes, at
+	// most bufferSize per node, and move down in batches. Zero when not buffering.
+	private int bufferSize;
+	private boolean hasMessages; // whether any buffer may hold messages
+	
+	// bits per key of the Bloom filter each leaf builds for get; zero for no filters
+	private int filterBitsPerKey;
+	
+	// Bumped by every change made through the map that may copy, split, merge
+	// or move nodes, or change the keys of intermediate nodes. A finger trusts
+	// the path it remembers for as long as this stays the same.
+	long structureVersion;
 	
 	public BTreeSortedMap(int maxKeys) {
+		this(maxKeys, false);
+	}
+	
+	/**
+	 * @param maxKeys most keys in a leaf, and most children of an intermediate node
+	 * @param mergeLeaves if true, deletes of every kind keep every leaf but the
+	 * root at least half full, by merging it with a neighbor or evening out the
+	 * pairs between them, and loading or compacting never packs leaves below
+	 * half full. Append mode still leaves the rightmost leaf short. If false,
+	 * a leaf only borrows a pair once it is empty, which makes delete cheaper
+	 * but lets leaves thin out when keys churn.
+	 */
+	public BTreeSortedMap(int maxKeys, boolean mergeLeaves) {
 		this.mc = maxKeys;
+		this.stats = new TreeStats();
+		this.mergeLeaves = mergeLeaves;
+	}
+
+	/**
+	 * Turn append mode on or off. In append mode, an insert whose key is greater
+	 * than every key in the map goes straight to the rightmost leaf without
+	 * searching down from the root. When that leaf is full it keeps nine tenths
+	 * of its pairs instead of half, so leaves filled by increasing keys such as
+	 * timestamps stay nearly full. Intermediate nodes still split in half, since
+	 * they must stay at least half full. Other inserts work as usual.
+	 */
+	public void setAppendMode(boolean appendMode) {
+		this.appendMode = appendMode;
+		this.rightPath = null;
+		this.rightLeaf = null;
+	}
+
+	/**
+	 * Turn buffered mode on or off. In buffered mode, an insert or delete is
+	 * only added to a buffer in the root. When a node's buffer holds more than
+	 * messagesPerNode messages, the ones headed for the child with the most of
+	 * them move down to that child together, so leaves are changed in batches
+	 * instead of once per write. get looks at the buffers on the way down, and
+	 * cursor, getRange, getPage, size, rank, select and countRange merge in
+	 * the pending messages without pushing them down. descendingCursor,
+	 * spliterator and the streams, finger, snapshot, the batch operations and
+	 * compact first push every message down to the leaves, so calling them
+	 * between writes gives up the batching. Append mode is not used while
+	 * buffering.
+	 * @param messagesPerNode most messages a node holds before flushing some,
+	 * or 0 to stop buffering, which pushes every message down
+	 */
+	public void setBufferSize(int messagesPerNode) {
+		if (messagesPerNode < 0) throw new IllegalArgumentException("buffer size must not be negative: " + messagesPerNode);
+		this.flushBuffers();
+		this.bufferSize = messagesPerNode;
+	}
+
+	/**
+	 * Turn leaf filters on or off. With filters, get rules out a key that is not
+	 * in the map once it reaches the leaf where it would be, without searching
+	 * the leaf: first by checking it against the leaf's lowest and highest keys,
+	 * then against a Bloom filter of the leaf's keys. A leaf builds its filter
+	 * the first time a get reaches it and adds inserted keys to it, but drops
+	 * it when it loses keys, such as on a delete, split or merge, so filters
+	 * pay off most when leaves are read many times between deletes. The filter
+	 * uses hashCode, so keys that compareTo says are equal must have equal hash
+	 * codes. TreeStats counts how often each check rules a key out and how
+	 * often the filter lets a missing key through.
+	 * @param bitsPerKey size of each filter, where 10 bits per key lets about 1%
+	 * of missing keys through, or 0 for no filters
+	 */
+	public void setFilterBitsPerKey(int bitsPerKey) {
+		if (bitsPerKey < 0) throw new IllegalArgumentException("bits per key must not be negative: " + bitsPerKey);
+		this.filterBitsPerKey = bitsPerKey;
 	}
 
 	@Override
 	public void insert(K key, V value) {
+		this.stats.operations.increment();
+		
 		// if tree is empty, make the root into a leaf and add pair
 		if (root == null) {
-			root = new LeafNode<K, V>(this.mc);
+			root = new LeafNode<K, V>(this.mc, this.stats);
 			root.isRoot = true;
+			this.stats.rootChanges.increment();
 			root.insert(key, value);
 			return;
 		}
 		
+		if (this.bufferSize > 0 && this.root instanceof IntermediateNode) {
+			this.buffer(key, value);
+			return;
+		}
+		if (this.appendMode && this.append(key, value)) return;
+		
 		// insert into existing tree and get new node if one was made
+		this.structureVersion++;
+		this.makeRootWritable();
 		BTreeNode<K, V> newNode = root.insert(key, value);
 		if (newNode == null) return;
+		this.addRootSibling(newNode);
+	}
+	
+	/**
+	 * Add a message to the root's buffer, and deal with the root splitting or
+	 * being left with one child when messages move down.
+	 * @param value value to insert, or MessageBuffer.DELETE
+	 */
+	private void buffer(K key, Object value) {
+		this.structureVersion++;
+		this.makeRootWritable();
+		this.hasMessages = true;
+		List<BTreeNode<K, V>> newNodes = ((IntermediateNode<K, V>) this.root).receive(key, value, this.bufferSize, this.mergeLeaves);
+		
+		if (!newNodes.isEmpty()) {
+			List<BTreeNode<K, V>> level = new ArrayList<>(newNodes.size() + 1);
+			level.add(this.root);
+			level.addAll(newNodes);
+			while (level.size() > 1) {
+				level = this.buildParentLevel(level, this.mc);
+			}
+			
+			this.root.isRoot = false;
+			this.root = level.get(0);
+			this.root.isRoot = true;
+			this.stats.rootChanges.increment();
+		}
+		
+		// the root's messages would be lost if it were replaced by its child, so flush them first
+		else if (this.root.numKeys == 1) {
+			this.flushBuffers();
+		}
+	}
+	
+	/**
+	 * Take every pending message out of the buffers and apply them to the
+	 * leaves as one batch of inserts and one batch of deletes, which cannot
+	 * overlap since there is one message per key.
+	 */
+	@SuppressWarnings("unchecked")
+	private void flushBuffers() {
+		if (!this.hasMessages) return;
+		this.hasMessages = false;
+		if (!(this.root instanceof IntermediateNode)) return;
+		
+		this.structureVersion++;
+		this.makeRootWritable();
+		TreeMap<K, Object> messages = new TreeMap<>();
+		((IntermediateNode<K, V>) this.root).takeMessages(messages);
+		
+		K[] insertKeys = (K[]) new Comparable[messages.size()];
+		V[] insertValues = (V[]) new Object[messages.size()];
+		K[] deleteKeys = (K[]) new Comparable[messages.size()];
+		int inserts = 0, deletes = 0;
+		for (Map.Entry<K, Object> message : messages.entrySet()) {
+			if (message.getValue() == MessageBuffer.DELETE) {
+				deleteKeys[deletes++] = message.getKey();
+			} else {
+				insertKeys[inserts] = message.getKey();
+				insertValues[inserts++] = (V) message.getValue();
+			}
+		}
+		
+		// every node whose lowest key came from a message is on the way to that key, so its key is reset
+		if (inserts > 0) this.insertSorted(insertKeys, insertValues, inserts);
+		if (deletes > 0) this.deleteSorted(deleteKeys, deletes);
+		else this.shrinkRoot();
+	}
+	
+	/**
+	 * Insert the pair at the right edge of the tree if its key is greater than
+	 * every key in the map. Only the nodes on the remembered path are touched,
+	 * to count the new pair and to take in nodes split off below them.
+	 * @return whether the pair was inserted
+	 */
+	private boolean append(K key, V value) {
+		if (!this.rightEdgeIsValid()) this.findRightEdge();
+		if (key.compareTo(this.rightLeaf.keys[this.rightLeaf.numKeys - 1]) <= 0) return false;
+		
+		BTreeNode<K, V> newNode = this.rightLeaf.append(key, value);
+		if (newNode != null) {
+			this.rightLeaf = (LeafNode<K, V>) newNode;
+			this.structureVersion++;
+		}
+		
+		// a node split off below becomes the rightmost node of its level
+		for (int i=this.rightPath.size() - 1; i>=0; i--) {
+			IntermediateNode<K, V> node = this.rightPath.get(i);
+			node.subtreeSize++;
+			if (newNode == null) continue;
+			newNode = node.appendSplitChild(newNode);
+			if (newNode != null) this.rightPath.set(i, (IntermediateNode<K, V>) newNode);
+		}
+		
+		if (newNode != null) {
+			this.addRootSibling(newNode);
+			this.rightPath.add(0, (IntermediateNode<K, V>) this.root);
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns whether the remembered right edge is still the right edge of
+	 * the tree, and none of it is shared with a snapshot.
+	 */
+	private boolean rightEdgeIsValid() {
+		if (this.rightLeaf == null) return false;
 		
+		BTreeNode<K, V> expected = this.root;
+		for (IntermediateNode<K, V> node : this.rightPath) {
+			if (node != expected || node.shared) return false;
+			expected = node.children[node.numKeys - 1];
+		}
+		return expected == this.rightLeaf && !this.rightLeaf.shared;
+	}
+	
+	/**
+	 * Walk down the last children from the root to remember the right edge,
+	 * copying any node on it that is shared with a snapshot.
+	 */
+	private void findRightEdge() {
+		this.structureVersion++;
+		this.makeRootWritable();
+		this.rightPath = new ArrayList<>();
+		BTreeNode<K, V> node = this.root;
+		while (node instanceof IntermediateNode) {
+			IntermediateNode<K, V> intermediate = (IntermediateNode<K, V>) node;
+			this.rightPath.add(intermediate);
+			node = intermediate.writableChild(intermediate.numKeys - 1);
+		}
+		this.rightLeaf = (LeafNode<K, V>) node;
+	}
+	
+	/**
+	 * The root split, so put a new root above it and the node split off it.
+	 */
+	private void addRootSibling(BTreeNode<K, V> newNode) {
 		// figure out which node (root or newNode) goes first
 		BTreeNode<K, V> firstChild, secondChild;
 		if (root.getMin().compareTo(newNode.getMin()) < 0) {
@@ -39,29 +286,41 @@ public class BTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K,
 		}
 		
 		// add children to new root
-		IntermediateNode<K, V> newRoot = new IntermediateNode<K, V>(this.mc);
-		newRoot.keys.add(firstChild.getMin());
-		newRoot.keys.add(secondChild.getMin());
-		newRoot.children.add(firstChild);
-		newRoot.children.add(secondChild);
+		IntermediateNode<K, V> newRoot = new IntermediateNode<K, V>(this.mc, this.stats);
+		newRoot.keys[0] = firstChild.getMin();
+		newRoot.keys[1] = secondChild.getMin();
+		newRoot.children[0] = firstChild;
+		newRoot.children[1] = secondChild;
+		newRoot.numKeys = 2;
+		newRoot.subtreeSize = firstChild.size() + secondChild.size();
 		
 		// replace current root
 		this.root.isRoot = false;
 		newRoot.isRoot = true;
 		this.root = newRoot;
+		this.stats.rootChanges.increment();
 	}
 
 	@Override
 	public void delete(K key) {
 		// if root is null, nothing you can do
+		this.stats.operations.increment();
 		if (this.root == null) return;
 		
+		if (this.bufferSize > 0 && this.root instanceof IntermediateNode) {
+			this.buffer(key, MessageBuffer.DELETE);
+			return;
+		}
+		
 		// delete
-		if (this.root.delete(key, null)) {
+		this.structureVersion++;
+		this.makeRootWritable();
+		if (this.root.delete(key, null, this.mergeLeaves)) {
+			this.stats.rootChanges.increment();
 			
 			// if intermediate node only has one child, replace it with its child 
 			if (this.root instanceof IntermediateNode) {
-				this.root = ((IntermediateNode<K, V>) this.root).children.get(0);
+				this.root = ((IntermediateNode<K, V>) this.root).children[0];
 			} 
 			
 			// if leaf node is empty, replace it with null
@@ -71,32 +330,518 @@ public class BTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K,
 		}
 	}
 
+	/**
+	 * Sorts the batch and then inserts it in one pass down the tree. Each node
+	 * gets the part of the batch that belongs under it all at once, and splits at
+	 * most once, into as many nodes as it needs.
+	 */
 	@Override
-	public V get(K key) {
-		return root == null ? null : root.get(key);
+	@SuppressWarnings("unchecked")
+	public void insertAll(Collection<KeyValuePair<K, V>> pairs) {
+		if (pairs.isEmpty()) return;
+		this.stats.operations.add(pairs.size());
+		
+		// sort a copy of the batch; the sort is stable, so repeated keys stay in batch order
+		List<KeyValuePair<K, V>> sorted = new ArrayList<>(pairs);
+		sorted.sort((a, b) -> a.key.compareTo(b.key));
+		
+		// copy into arrays, keeping only the last value for repeated keys
+		K[] keys = (K[]) new Comparable[sorted.size()];
+		V[] values = (V[]) new Object[sorted.size()];
+		int count = 0;
+		for (KeyValuePair<K, V> pair : sorted) {
+			if (count > 0 && keys[count - 1].compareTo(pair.key) == 0) count--;
+			keys[count] = pair.key;
+			values[count] = pair.value;
+			count++;
+		}
+		
+		this.flushBuffers();
+		this.insertSorted(keys, values, count);
+	}
+	
+	/**
+	 * Insert strictly increasing keys in one pass down the tree, growing new
+	 * levels on top of the root while it keeps splitting.
+	 */
+	private void insertSorted(K[] keys, V[] values, int count) {
+		if (this.root == null) {
+			this.root = new LeafNode<K, V>(this.mc, this.stats);
+			this.root.isRoot = true;
+			this.stats.rootChanges.increment();
+		}
+		
+		// insert and grow new levels on top of the root while it keeps splitting
+		this.structureVersion++;
+		this.makeRootWritable();
+		List<BTreeNode<K, V>> newNodes = this.root.insertAll(keys, values, 0, count);
+		if (newNodes.isEmpty()) return;
+		
+		List<BTreeNode<K, V>> level = new ArrayList<>(newNodes.size() + 1);
+		level.add(this.root);
+		level.addAll(newNodes);
+		while (level.size() > 1) {
+			level = this.buildParentLevel(level, this.mc);
+		}
+		
+		this.root.isRoot = false;
+		this.root = level.get(0);
+		this.root.isRoot = true;
+		this.stats.rootChanges.increment();
+	}
+	
+	/**
+	 * Sorts the batch and then deletes it in one pass down the tree. Each node
+	 * gets the part of the batch that belongs under it all at once, and
+	 * underfull nodes are merged with or evened out with a neighbor afterwards.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void deleteAll(Collection<K> keys) {
+		if (this.root == null || keys.isEmpty()) return;
+		this.stats.operations.add(keys.size());
+		
+		// sort the batch and remove repeated keys
+		K[] sorted = keys.toArray((K[]) new Comparable[keys.size()]);
+		Arrays.sort(sorted);
+		int count = 0;
+		for (K key : sorted) {
+			if (count == 0 || sorted[count - 1].compareTo(key) != 0) sorted[count++] = key;
+		}
+		
+		this.flushBuffers();
+		if (this.root != null) this.deleteSorted(sorted, count);
+	}
+	
+	/**
+	 * Delete strictly increasing keys in one pass down the tree.
+	 */
+	private void deleteSorted(K[] keys, int count) {
+		this.structureVersion++;
+		this.makeRootWritable();
+		this.root.deleteAll(keys, 0, count, this.mergeLeaves);
+		this.shrinkRoot();
+	}
+	
+	/**
+	 * Drops every child wholly inside the range without visiting it, and only
+	 * goes down the two paths to the ends of the range. Nodes along those paths
+	 * are fixed once on the way back up, so the cost depends on the height of
+	 * the tree rather than on the number of pairs deleted.
+	 */
+	@Override
+	public void deleteRange(K keyStart, K keyEnd) {
+		this.stats.operations.increment();
+		if (keyStart.compareTo(keyEnd) >= 0) return;
+		this.flushBuffers();
+		if (this.root == null) return;
+		
+		this.structureVersion++;
+		this.makeRootWritable();
+		this.root.deleteRange(keyStart, keyEnd, null, this.mergeLeaves);
+		this.shrinkRoot();
+	}
+	
+	/**
+	 * After a batch of deletes, remove levels from the top while the root is
+	 * empty or has one child.
+	 */
+	private void shrinkRoot() {
+		BTreeNode<K, V> newRoot = this.root;
+		while (newRoot.size() > 0 && newRoot instanceof IntermediateNode 
+				&& newRoot.numKeys == 1) {
+			newRoot = ((IntermediateNode<K, V>) newRoot).children[0];
+		}
+		
+		if (newRoot != this.root || newRoot.size() == 0) this.stats.rootChanges.increment();
+		this.root.isRoot = false;
+		this.root = newRoot.size() == 0 ? null : newRoot;
+		this.makeRootWritable();
+		if (this.root != null) this.root.isRoot = true;
+	}
+	
+	/**
+	 * Do one step of an incremental compaction pass. Each step goes down to one
+	 * of the nodes just above the leaves, repacks its leaves to the fill factor,
+	 * and merges intermediate nodes on the way back up while their children fit.
+	 * A step touches at most maxKeys leaves, so a call does as many steps as
+	 * maxNodesPerStep allows, and always at least one. The next call carries on
+	 * where this one stopped, even if the map changed in between.
+	 * @param maxNodesPerStep most leaves to repack in this call
+	 * @param fillFactor fraction of each node to fill, greater than 0 and at most 1
+	 * @return whether this call reached the end of the map; the next call starts a new pass
+	 */
+	public boolean compact(int maxNodesPerStep, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1)) 
+			throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+		int keysPerLeaf = this.keysPerLeaf(fillFactor);
+		int childrenPerNode = this.childrenPerNode(fillFactor);
+		this.flushBuffers();
+		
+		int leavesTouched = 0;
+		do {
+			if (!(this.root instanceof IntermediateNode)) {
+				this.compactionKey = null;
+				return true;
+			}
+			
+			this.structureVersion++;
+			this.makeRootWritable();
+			K key = this.compactionKey == null ? this.root.getMin() : this.compactionKey;
+			this.compactionKey = ((IntermediateNode<K, V>) this.root).compact(key, null, keysPerLeaf, childrenPerNode, this.mergeLeaves);
+			this.shrinkRoot();
+			leavesTouched += this.mc;
+		} while (this.compactionKey != null && leavesTouched + this.mc <= maxNodesPerStep);
+		
+		return this.compactionKey == null;
+	}
+	
+	/**
+	 * Same as compact(maxNodesPerStep, fillFactor), filling nodes all the way.
+	 */
+	public boolean compact(int maxNodesPerStep) {
+		return this.compact(maxNodesPerStep, 1);
+	}
+	
+	/**
+	 * Replace the contents of this map with pairs that are already sorted by key.
+	 * Instead of inserting pairs one at a time, leaves are packed left to right
+	 * and each level of intermediate nodes is built on top of the one below it,
+	 * so the whole load is one linear pass. If the input is out of order an
+	 * IllegalArgumentException is thrown and the map is left as it was.
+	 * @param pairs pairs in ascending key order; if a key repeats, its last value wins
+	 * @param fillFactor fraction of each node to fill, greater than 0 and at most 1;
+	 * leaving room makes later inserts split less often
+	 */
+	public void bulkLoad(Iterator<KeyValuePair<K, V>> pairs, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1)) 
+			throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+		
+		int keysPerLeaf = this.keysPerLeaf(fillFactor);
+		int childrenPerNode = this.childrenPerNode(fillFactor);
+		
+		// pack the pairs into linked leaves
+		List<BTreeNode<K, V>> level = new ArrayList<>();
+		LeafNode<K, V> leaf = null;
+		while (pairs.hasNext()) {
+			KeyValuePair<K, V> pair = pairs.next();
+			
+			if (leaf != null) {
+				int comparison = pair.key.compareTo(leaf.keys[leaf.numKeys - 1]);
+				if (comparison < 0) 
+					throw new IllegalArgumentException("pairs are not sorted: " + pair.key 
+							+ " comes after " + leaf.keys[leaf.numKeys - 1]);
+				
+				// same key again, so replace the value like insert would
+				if (comparison == 0) {
+					leaf.keys[leaf.numKeys - 1] = pair.key;
+					leaf.values[leaf.numKeys - 1] = pair.value;
+					continue;
+				}
+			}
+			
+			// start a new leaf when this one has its share
+			if (leaf == null || leaf.numKeys == keysPerLeaf) {
+				LeafNode<K, V> newLeaf = new LeafNode<K, V>(this.mc, this.stats);
+				if (leaf != null) {
+					leaf.next = newLeaf;
+					newLeaf.previous = leaf;
+				}
+				leaf = newLeaf;
+				level.add(leaf);
+			}
+			
+			leaf.keys[leaf.numKeys] = pair.key;
+			leaf.values[leaf.numKeys] = pair.value;
+			leaf.numKeys++;
+		}
+		
+		// like the last two parents of a level, the last two leaves share what is left over
+		if (level.size() > 1 && leaf.fixUnderflow(leaf.previous)) level.remove(level.size() - 1);
+		
+		// build intermediate levels until there is only one node left
+		while (level.size() > 1) {
+			level = this.buildParentLevel(level, childrenPerNode);
+		}
+		
+		// the old root may still be part of a snapshot, which must not change
+		if (this.root != null && !this.root.shared) this.root.isRoot = false;
+		this.root = level.isEmpty() ? null : level.get(0);
+		if (this.root != null) this.root.isRoot = true;
+		this.hasMessages = false;
+		this.structureVersion++;
+		this.stats.rootChanges.increment();
+	}
+	
+	/**
+	 * Group a level of nodes, in order, under new intermediate nodes. Each
+	 * parent gets childrenPerNode children, except that the last two parents
+	 * share what is left over so neither ends up less than half full.
+	 * @param level nodes to group, all at the same depth
+	 * @param childrenPerNode number of children to give each parent
+	 * @return the new parents, in order
+	 */
+	private List<BTreeNode<K, V>> buildParentLevel(List<BTreeNode<K, V>> level, int childrenPerNode) {
+		List<BTreeNode<K, V>> parents = new ArrayList<>();
+		
+		int start = 0;
+		while (start < level.size()) {
+			int remaining = level.size() - start;
+			int count = Math.min(childrenPerNode, remaining);
+			
+			// if the group after this one would be too small, even out the last two groups
+			int leftOver = remaining - count;
+			if (leftOver > 0 && leftOver < this.mc/2) {
+				count = remaining <= this.mc ? remaining : remaining/2;
+			}
+			
+			IntermediateNode<K, V> parent = new IntermediateNode<K, V>(this.mc, this.stats);
+			for (int i=start; i<start + count; i++) parent.appendChild(level.get(i));
+			parents.add(parent);
+			start += count;
+		}
+		
+		return parents;
 	}
 
+	/**
+	 * Get a read-only view of the map as it is now, in constant time. The map
+	 * and the snapshot share every node until the map changes one, at which
+	 * point the map copies that node and the nodes above it. Nodes only the
+	 * snapshot still uses are garbage collected once it is no longer reachable.
+	 *
+	 * This must be called by the thread changing the map, or under the same
+	 * lock. After that the snapshot never changes, so once it is safely handed
+	 * to another thread it can be read there while the map keeps changing.
+	 * In buffered mode, this first pushes every pending message down.
+	 */
+	public BTreeSnapshot<K, V> snapshot() {
+		this.flushBuffers();
+		this.structureVersion++;
+		if (this.root != null) this.root.shared = true;
+		return new BTreeSnapshot<K, V>(this.root);
+	}
+	
 	@Override
-	public List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
-		if (this.root == null) return new LinkedList<>();
-		return this.root.getRange(keyStart, keyEnd);
+	public V get(K key) {
+		this.stats.operations.increment();
+		return root == null ? null : root.get(key, this.filterBitsPerKey);
 	}
 
+	/**
+	 * In buffered mode, the cursor merges the pending messages with the pairs
+	 * in the leaves as it goes, without pushing anything down, and so do
+	 * getRange and getPage, which read through it.
+	 */
 	@Override
-	public List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
-		if (this.root == null) return new LinkedList<>();
-		return this.root.getPage(keyStart, numElements);
+	public Cursor<K, V> cursor() {
+		if (this.bufferSize > 0 || this.hasMessages) return new BTreeBufferedCursor<K, V>(this);
+		return new BTreeCursor<K, V>(this);
+	}
+	
+	/**
+	 * Returns whether some buffer may hold a message that has not reached the
+	 * leaves yet.
+	 */
+	boolean hasPendingMessages() {
+		return this.hasMessages && this.root instanceof IntermediateNode;
+	}
+	
+	/**
+	 * Get every pending message for keys from keyStart (inclusive) to keyEnd
+	 * (exclusive), sorted by key, without taking them out of the buffers.
+	 * @param keyStart null for no lower bound
+	 * @param keyEnd null for no upper bound
+	 */
+	@SuppressWarnings("unchecked")
+	private TreeMap<K, Object> pendingMessages(K keyStart, K keyEnd) {
+		TreeMap<K, Object> messages = new TreeMap<>();
+		if (this.hasPendingMessages())
+			((IntermediateNode<K, V>) this.root).collectMessages(keyStart, keyEnd, messages);
+		return messages;
+	}
+	
+	/**
+	 * How much a pending message changes the number of pairs: an insert of a
+	 * key that is not in the leaves adds one, a delete of a key that is
+	 * removes one, and anything else replaces a pair or does nothing.
+	 */
+	private int sizeChange(Map.Entry<K, Object> message) {
+		LeafNode<K, V> leaf = this.root.findLeaf(message.getKey());
+		int index = Helpers.firstIndexGreaterOrEqual(leaf.keys, leaf.numKeys, message.getKey());
+		boolean inLeaves = Helpers.elementAtIndexEqualsKey(leaf.keys, leaf.numKeys, index, message.getKey());
+		if (message.getValue() == MessageBuffer.DELETE) return inLeaves ? -1 : 0;
+		return inLeaves ? 0 : 1;
 	}
 
+	/**
+	 * Get a handle that remembers the last leaf it touched, for gets and
+	 * inserts whose keys are close to each other. Give each thread its own.
+	 * In buffered mode, this first pushes every pending message down.
+	 */
+	public BTreeFinger<K, V> finger() {
+		this.flushBuffers();
+		return new BTreeFinger<K, V>(this);
+	}
+	
+	/**
+	 * In buffered mode, this first pushes every pending message down, and so
+	 * do getRangeDescending and getPageBefore, which read through it.
+	 */
+	@Override
+	public Cursor<K, V> descendingCursor() {
+		this.flushBuffers();
+		return new BTreeDescendingCursor<K, V>(this);
+	}
+	
+	/**
+	 * Splits along the children of intermediate nodes, so parallel streams
+	 * scan separate subtrees without copying anything. In buffered mode, this
+	 * first pushes every pending message down.
+	 */
 	@Override
-	public List<KeyValuePair<K, V>> getPage(int numElements) {
-		if (root == null) return new LinkedList<>();
-		return this.getPage(this.root.getMin(), numElements);
+	public Spliterator<KeyValuePair<K, V>> spliterator(K keyStart, K keyEnd) {
+		this.flushBuffers();
+		return new BTreeSpliterator<K, V>(this.root, keyStart, keyEnd);
 	}
 	
+	/**
+	 * Runs in constant time unless messages are pending in buffered mode. They
+	 * are counted in without pushing them down, which takes time in proportion
+	 * to how many there are.
+	 */
 	@Override 
 	public int size() {
-		return this.root == null ? 0 : this.root.size();
+		if (this.root == null) return 0;
+		if (!this.hasPendingMessages()) return this.root.size();
+		int size = this.root.size();
+		for (Map.Entry<K, Object> message : this.pendingMessages(null, null).entrySet()) size += this.sizeChange(message);
+		return size;
+	}
+	
+	/**
+	 * In buffered mode, the pending messages for keys less than the given key
+	 * are counted in without pushing them down.
+	 */
+	@Override
+	public int rank(K key) {
+		if (this.root == null) return 0;
+		if (!this.hasPendingMessages()) return this.root.rank(key);
+		int rank = this.root.rank(key);
+		for (Map.Entry<K, Object> message : this.pendingMessages(null, key).entrySet()) rank += this.sizeChange(message);
+		return rank;
+	}
+	
+	/**
+	 * In buffered mode, the pending messages are walked in key order, keeping
+	 * count of how far they move the pairs in the leaves, without pushing them
+	 * down.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public KeyValuePair<K, V> select(int index) {
+		if (index < 0 || this.root == null) return null;
+		if (!this.hasPendingMessages()) return index < this.root.size() ? this.root.select(index) : null;
+		
+		// change to the number of pairs before the current message made by the messages before it
+		int change = 0;
+		for (Map.Entry<K, Object> message : this.pendingMessages(null, null).entrySet()) {
+			int before = this.root.rank(message.getKey()) + change;
+			if (index < before) return this.root.select(index - change);
+			if (index == before && message.getValue() != MessageBuffer.DELETE)
+				return new KeyValuePair<K, V>(message.getKey(), (V) message.getValue());
+			change += this.sizeChange(message);
+		}
+		if (index - change >= this.root.size()) return null;
+		return this.root.select(index - change);
+	}
+	
+	@Override
+	public int countRange(K keyStart, K keyEnd) {
+		if (keyStart.compareTo(keyEnd) >= 0) return 0;
+		return this.rank(keyEnd) - this.rank(keyStart);
+	}
+	
+	/**
+	 * Get the counters for this map. They are updated as the map changes, and
+	 * can be read or exported from any thread.
+	 */
+	public TreeStats stats() {
+		return this.stats;
+	}
+	
+	/**
+	 * Get the counters along with the shape of the tree: its height, how many
+	 * nodes are on each level, and how full the nodes are on average. Measuring
+	 * the shape visits every node, so this takes linear time and must be called
+	 * by the thread changing the map, or under the same lock.
+	 */
+	public TreeStats.Snapshot statsSnapshot() {
+		List<Integer> nodesPerLevel = new ArrayList<>();
+		long keysInUse = 0;
+		long nodes = 0;
+		
+		// go through the tree one level at a time
+		List<BTreeNode<K, V>> level = new ArrayList<>();
+		if (this.root != null) level.add(this.root);
+		while (!level.isEmpty()) {
+			nodesPerLevel.add(level.size());
+			List<BTreeNode<K, V>> below = new ArrayList<>();
+			for (BTreeNode<K, V> node : level) {
+				keysInUse += node.numKeys;
+				nodes++;
+				if (node instanceof IntermediateNode) {
+					IntermediateNode<K, V> intermediate = (IntermediateNode<K, V>) node;
+					for (int i=0; i<intermediate.numKeys; i++) below.add(intermediate.children[i]);
+				}
+			}
+			level = below;
+		}
+		
+		int[] counts = new int[nodesPerLevel.size()];
+		for (int i=0; i<counts.length; i++) counts[i] = nodesPerLevel.get(i);
+		double averageFill = nodes == 0 ? 0 : (double) keysInUse / (nodes * this.mc);
+		return new TreeStats.Snapshot(this.stats, counts.length, counts, averageFill);
+	}
+	
+	/**
+	 * Number of pairs to put in each leaf when packing leaves to a fill factor.
+	 * If leaves are merged, they must stay at least half full.
+	 */
+	private int keysPerLeaf(double fillFactor) {
+		int min = this.mergeLeaves ? Math.max(1, this.mc/2) : 1;
+		return Math.max(min, Math.min(this.mc, (int) Math.round(this.mc * fillFactor)));
+	}
+	
+	/**
+	 * Number of children to give each intermediate node when packing to a fill
+	 * factor. Intermediate nodes must stay at least half full.
+	 */
+	private int childrenPerNode(double fillFactor) {
+		return Math.max(Math.max(2, this.mc/2), 
+				Math.min(this.mc, (int) Math.round(this.mc * fillFactor)));
+	}
+	
+	/**
+	 * Returns whether inserts and deletes are being buffered.
+	 */
+	boolean isBuffering() {
+		return this.bufferSize > 0;
+	}
+	
+	/**
+	 * Returns the bits per key of leaf filters, or 0 if there are none.
+	 */
+	int filterBitsPerKey() {
+		return this.filterBitsPerKey;
+	}
+	
+	/**
+	 * Copy the root if it is part of a snapshot. Every change starts at the
+	 * root, and nodes below are copied on the way down as needed.
+	 */
+	private void makeRootWritable() {
+		if (this.root != null && this.root.shared) this.root = this.root.copy();
 	}
 	
 	@Override
@@ -111,7 +856,7 @@ public class BTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K,
 	 */
 	protected void verify(K min, K max) {
 		if (this.root != null) {
-			this.root.verify(min, max);
+			this.root.verify(min, max, this.mergeLeaves && !this.appendMode);
 			this.root.getDepth();
 		}
 	}
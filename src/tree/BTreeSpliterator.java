@@ -0,0 +1,192 @@
+package tree;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the pairs of a BTreeSortedMap or BTreeSnapshot in a key
+ * range. It covers a run of children of one node, and splits by handing the
+ * first half of the run to a new spliterator. When the run is down to one
+ * child, it moves down into that child first. Subtree sizes give the exact
+ * number of pairs in each half, so the pieces report SIZED and SUBSIZED and
+ * nothing is copied. The map must not change while it is being traversed.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BTreeSpliterator<K extends Comparable<K>, V> implements Spliterator<KeyValuePair<K, V>> {
+
+	private static final int CHARACTERISTICS = ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+
+	private final K keyStart; // inclusive
+	private final K keyEnd; // exclusive
+
+	// part of the tree left to cover: children [lo, hi) of node, or keys [lo, hi) if it is a leaf
+	private BTreeNode<K, V> node;
+	private int lo, hi;
+	private long remaining; // pairs left to hand out
+
+	// where traversal is, once it has started; leaf is null before that
+	private LeafNode<K, V> leaf;
+	private int index;
+	private Deque<Frame<K, V>> path;
+
+	public BTreeSpliterator(BTreeNode<K, V> root, K keyStart, K keyEnd) {
+		this.keyStart = keyStart;
+		this.keyEnd = keyEnd;
+		if (root == null || keyStart.compareTo(keyEnd) >= 0) return;
+
+		this.node = root;
+		this.lo = 0;
+		this.hi = root.numKeys;
+		this.remaining = this.count(this.lo, this.hi);
+	}
+
+	private BTreeSpliterator(BTreeNode<K, V> node, int lo, int hi, K keyStart, K keyEnd, long remaining) {
+		this.keyStart = keyStart;
+		this.keyEnd = keyEnd;
+		this.node = node;
+		this.lo = lo;
+		this.hi = hi;
+		this.remaining = remaining;
+	}
+
+	@Override
+	public Spliterator<KeyValuePair<K, V>> trySplit() {
+		if (this.leaf != null || this.remaining < 2) return null;
+
+		// drop children that are all outside the range, and go down while only one is left
+		while (this.node instanceof IntermediateNode) {
+			IntermediateNode<K, V> intermediate = (IntermediateNode<K, V>) this.node;
+			this.lo = Math.max(this.lo, Helpers.chooseChildFromKeys(intermediate.keys, intermediate.numKeys, this.keyStart));
+			this.hi = Math.min(this.hi, Helpers.chooseChildFromKeys(intermediate.keys, intermediate.numKeys, this.keyEnd) + 1);
+			if (this.hi - this.lo > 1) break;
+
+			this.node = intermediate.children[this.lo];
+			this.lo = 0;
+			this.hi = this.node.numKeys;
+		}
+		if (this.node instanceof LeafNode) return null;
+
+		// the first half goes to the new spliterator, since it comes first
+		int mid = (this.lo + this.hi) >>> 1;
+		long firstHalf = this.count(this.lo, mid);
+		BTreeSpliterator<K, V> prefix = new BTreeSpliterator<>(this.node, this.lo, mid, this.keyStart, this.keyEnd, firstHalf);
+		this.lo = mid;
+		this.remaining -= firstHalf;
+		return prefix;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super KeyValuePair<K, V>> action) {
+		if (this.remaining == 0) return false;
+		if (this.leaf == null) this.start();
+		else if (this.index == this.leaf.numKeys) this.nextLeaf();
+
+		action.accept(new KeyValuePair<K, V>(this.leaf.keys[this.index], this.leaf.values[this.index]));
+		this.index++;
+		this.remaining--;
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super KeyValuePair<K, V>> action) {
+		while (this.tryAdvance(action));
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.remaining;
+	}
+
+	@Override
+	public int characteristics() {
+		return CHARACTERISTICS;
+	}
+
+	@Override
+	public Comparator<? super KeyValuePair<K, V>> getComparator() {
+		return CursorSpliterator.keyOrder();
+	}
+
+	/**
+	 * Count the pairs in the range under children [from, to) of the node,
+	 * or keys [from, to) if it is a leaf.
+	 */
+	private long count(int from, int to) {
+		return this.countLessThan(this.keyEnd, from, to) - this.countLessThan(this.keyStart, from, to);
+	}
+
+	private long countLessThan(K key, int from, int to) {
+		if (this.node instanceof LeafNode) {
+			int index = Helpers.firstIndexGreaterOrEqual(this.node.keys, this.node.numKeys, key);
+			return Math.max(from, Math.min(to, index)) - from;
+		}
+
+		// whole children before the one the key is in, plus part of that one
+		IntermediateNode<K, V> intermediate = (IntermediateNode<K, V>) this.node;
+		int childIndex = Helpers.chooseChildFromKeys(intermediate.keys, intermediate.numKeys, key);
+		if (childIndex < from) return 0;
+		long count = 0;
+		for (int i=from; i<Math.min(childIndex, to); i++) count += intermediate.children[i].size();
+		if (childIndex < to) count += intermediate.children[childIndex].rank(key);
+		return count;
+	}
+
+	/**
+	 * Go down to the first pair in the range. Every node visited on the way
+	 * goes on the path, along with the children of it still to visit.
+	 */
+	private void start() {
+		this.path = new ArrayDeque<>();
+		BTreeNode<K, V> current = this.node;
+		int from = this.lo;
+		int to = this.hi;
+		while (current instanceof IntermediateNode) {
+			IntermediateNode<K, V> intermediate = (IntermediateNode<K, V>) current;
+			int childIndex = Math.max(from, Helpers.chooseChildFromKeys(intermediate.keys, intermediate.numKeys, this.keyStart));
+			this.path.push(new Frame<>(intermediate, childIndex + 1, to));
+			current = intermediate.children[childIndex];
+			from = 0;
+			to = current.numKeys;
+		}
+		this.leaf = (LeafNode<K, V>) current;
+		this.index = Math.max(from, Helpers.firstIndexGreaterOrEqual(this.leaf.keys, this.leaf.numKeys, this.keyStart));
+		if (this.index == this.leaf.numKeys) this.nextLeaf();
+	}
+
+	/**
+	 * Move to the first pair of the next leaf, going back up the path as far
+	 * as needed. Leaves are never empty.
+	 */
+	private void nextLeaf() {
+		while (this.path.peek().next == this.path.peek().end) this.path.pop();
+		Frame<K, V> frame = this.path.peek();
+		BTreeNode<K, V> current = frame.node.children[frame.next++];
+		while (current instanceof IntermediateNode) {
+			IntermediateNode<K, V> intermediate = (IntermediateNode<K, V>) current;
+			this.path.push(new Frame<>(intermediate, 1, intermediate.numKeys));
+			current = intermediate.children[0];
+		}
+		this.leaf = (LeafNode<K, V>) current;
+		this.index = 0;
+	}
+
+	/**
+	 * An intermediate node on the way down, and the children of it left to visit.
+	 */
+	private static class Frame<K extends Comparable<K>, V> {
+		final IntermediateNode<K, V> node;
+		int next;
+		final int end;
+
+		Frame(IntermediateNode<K, V> node, int next, int end) {
+			this.node = node;
+			this.next = next;
+			this.end = end;
+		}
+	}
+
+}
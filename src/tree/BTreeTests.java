@@ -3,10 +3,21 @@ package tree;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -450,14 +461,954 @@ public class BTreeTests {
 		assertEquals(this.getContinuousList(1, 4), map.getPage(3).toString());
 	}
 	
+	@Test
+	public void testCursor() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(5);
+		Cursor<Integer, Integer> cursor = map.cursor();
+		
+		// empty map
+		cursor.seekFirst();
+		assertFalse(cursor.hasNext());
+		cursor.seek(3);
+		assertFalse(cursor.hasNext());
+		
+		// walk every pair in a 2-layered tree
+		for (int i=1; i<=18; i++) map.insert(i, i * 10);
+		cursor.seekFirst();
+		for (int i=1; i<=18; i++) {
+			assertTrue(cursor.hasNext());
+			cursor.next();
+			assertEquals(i, (int) cursor.getKey());
+			assertEquals(i * 10, (int) cursor.getValue());
+		}
+		assertFalse(cursor.hasNext());
+		
+		// seek to a key in the map, a key between leaves, and keys outside the map
+		cursor.seek(7);
+		cursor.next();
+		assertEquals(7, (int) cursor.getKey());
+		map.delete(10);
+		cursor.seek(10);
+		cursor.next();
+		assertEquals(11, (int) cursor.getKey());
+		cursor.seek(-5);
+		cursor.next();
+		assertEquals(1, (int) cursor.getKey());
+		cursor.seek(19);
+		assertFalse(cursor.hasNext());
+		
+		// cursor must be on a pair to read it
+		try {
+			cursor.next();
+			fail("expected NoSuchElementException");
+		} catch (NoSuchElementException e) {}
+		try {
+			cursor.getKey();
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {}
+	}
+	
+	@Test
+	public void testRankSelect() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(5);
+		
+		// empty map
+		assertEquals(0, map.rank(3));
+		assertNull(map.select(0));
+		assertEquals(0, map.countRange(0, 10));
+		
+		// even keys from 2 to 40, enough for a 2-layered tree
+		for (int i=2; i<=40; i+=2) map.insert(i, i);
+		assertEquals(20, map.size());
+		assertEquals(0, map.rank(-5));
+		assertEquals(0, map.rank(2));
+		assertEquals(1, map.rank(3));
+		assertEquals(1, map.rank(4));
+		assertEquals(9, map.rank(20));
+		assertEquals(20, map.rank(100));
+		for (int i=0; i<20; i++) assertEquals("(" + (2*i + 2) + ", " + (2*i + 2) + ")", map.select(i).toString());
+		assertNull(map.select(-1));
+		assertNull(map.select(20));
+		
+		// countRange agrees with getRange
+		assertEquals(map.getRange(5, 17).size(), map.countRange(5, 17));
+		assertEquals(map.getRange(-10, 100).size(), map.countRange(-10, 100));
+		assertEquals(0, map.countRange(17, 5));
+		
+		// counts stay correct through deletes
+		for (int i=4; i<=30; i+=4) map.delete(i);
+		map.verify(2, 41);
+		assertEquals(13, map.size());
+		assertEquals(6, map.rank(24));
+		assertEquals("(26, 26)", map.select(6).toString());
+		assertEquals(map.getRange(3, 35).size(), map.countRange(3, 35));
+	}
+	
+	@Test
+	public void testBulkLoad() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(5);
+		
+		// empty input
+		map.bulkLoad(new ArrayList<KeyValuePair<Integer, Integer>>().iterator(), 1);
+		assertEquals("", map.toString());
+		
+		// full leaves, with a repeated key
+		List<KeyValuePair<Integer, Integer>> pairs = new ArrayList<>();
+		for (int i=1; i<=12; i++) pairs.add(new KeyValuePair<>(i, i));
+		pairs.add(5, new KeyValuePair<>(5, 50));
+		map.bulkLoad(pairs.iterator(), 1);
+		assertEquals("1 6 11 \n"
+				+ "\tLeaf: 1:1 2:2 3:3 4:4 5:50 \n"
+				+ "\tLeaf: 6:6 7:7 8:8 9:9 10:10 \n"
+				+ "\tLeaf: 11:11 12:12 ",
+				map.toString());
+		map.verify(1, 13);
+		assertEquals(12, map.size());
+		
+		// half full nodes, with a short last group evened out with the one before it
+		pairs.clear();
+		for (int i=1; i<=29; i++) pairs.add(new KeyValuePair<>(i, i));
+		map.bulkLoad(pairs.iterator(), 0.6);
+		map.verify(1, 30);
+		assertEquals(29, map.size());
+		assertEquals(this.getContinuousList(1, 30), map.getRange(0, 30).toString());
+		
+		// the tree is usable afterwards
+		for (int i=30; i<=60; i++) map.insert(i, i);
+		for (int i=1; i<=40; i+=3) map.delete(i);
+		map.verify(2, 61);
+		
+		// out of order input is rejected and the map is left alone
+		pairs.clear();
+		pairs.add(new KeyValuePair<>(2, 2));
+		pairs.add(new KeyValuePair<>(1, 1));
+		String before = map.toString();
+		try {
+			map.bulkLoad(pairs.iterator(), 1);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {}
+		assertEquals(before, map.toString());
+		
+		// large random load compared against a reference
+		Map<Integer, String> reference = new HashMap<>();
+		List<KeyValuePair<Integer, String>> sortedPairs = new ArrayList<>();
+		for (int i=0; i<2000; i++) {
+			int key = i * 3 + (int)(Math.random() * 3);
+			reference.put(key, Integer.toString(key));
+			sortedPairs.add(new KeyValuePair<>(key, Integer.toString(key)));
+		}
+		BTreeSortedMap<Integer, String> treeMap = new BTreeSortedMap<>(4);
+		treeMap.bulkLoad(sortedPairs.iterator(), 0.75);
+		this.compareTreeWithReference(treeMap, reference, 0, 6000);
+	}
+	
+	@Test
+	public void testStats() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(5);
+		TreeStats.Snapshot empty = map.statsSnapshot();
+		assertEquals(0, empty.height);
+		assertEquals(0, empty.operations);
+		
+		// one leaf split, and a root for the first pair and for the split
+		for (int i=1; i<=6; i++) map.insert(i, i);
+		TreeStats.Snapshot stats = map.statsSnapshot();
+		assertEquals(1, stats.leafSplits);
+		assertEquals(0, stats.intermediateSplits);
+		assertEquals(2, stats.rootChanges);
+		assertEquals(6, stats.operations);
+		assertEquals(2, stats.height);
+		assertEquals("[1, 2]", Arrays.toString(stats.nodesPerLevel));
+		assertEquals(8.0 / 15, stats.averageFill, 1e-9);
+		
+		// empty the first leaf twice, borrowing from its neighbor, then remove it and the root
+		for (int i=1; i<=5; i++) map.delete(i);
+		stats = map.statsSnapshot().since(stats);
+		assertEquals(2, stats.borrows);
+		assertEquals(1, stats.nodesRemoved);
+		assertEquals(1, stats.rootChanges);
+		assertEquals(5, stats.operations);
+		assertEquals(1, stats.height);
+		
+		// gets count comparisons; counters alone leave out the shape
+		map.get(6);
+		TreeStats.Snapshot counters = map.stats().snapshot();
+		assertEquals(12, counters.operations);
+		assertEquals(-1, counters.height);
+		assertTrue(counters.comparisonsPerOperation() > 0);
+		
+		// the same counts come out of a periodic export
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		BlockingQueue<TreeStats.Snapshot> exported = new LinkedBlockingQueue<>();
+		try {
+			map.stats().exportEvery(executor, 1, TimeUnit.MILLISECONDS, exported::add);
+			assertEquals(12, exported.take().operations);
+		} catch (InterruptedException e) {
+			throw new AssertionError(e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testStreams() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(4);
+		assertEquals(0, map.stream(0, 10).count());
+		for (int i=1; i<=1000; i++) map.insert(i, i * 2);
+		
+		// streams see the same pairs as getRange, in the same order
+		List<Integer> keys = map.stream(100, 900).map(pair -> pair.key).collect(Collectors.toList());
+		assertEquals(800, keys.size());
+		assertEquals(100, (int) keys.get(0));
+		assertEquals(899, (int) keys.get(799));
+		assertEquals(map.getRange(100, 900).size(), keys.size());
+		assertEquals(0, map.stream(500, 500).count());
+		assertEquals(1000, map.stream(-5, 5000).count());
+		
+		// parallel streams add up to the same thing and keep the order
+		long sum = map.parallelStream(100, 900).mapToLong(pair -> pair.value).sum();
+		assertEquals(2 * (99 + 900) * 800 / 2, sum);
+		assertEquals(keys, map.parallelStream(100, 900).map(pair -> pair.key).collect(Collectors.toList()));
+		
+		// sizes are exact, and splits cover the range without overlapping
+		Spliterator<KeyValuePair<Integer, Integer>> suffix = map.spliterator(100, 900);
+		assertEquals(800, suffix.estimateSize());
+		assertTrue(suffix.hasCharacteristics(Spliterator.SORTED | Spliterator.SIZED | Spliterator.SUBSIZED));
+		Spliterator<KeyValuePair<Integer, Integer>> prefix = suffix.trySplit();
+		assertNotNull(prefix);
+		assertEquals(800, prefix.estimateSize() + suffix.estimateSize());
+		List<Integer> prefixKeys = new ArrayList<>();
+		prefix.forEachRemaining(pair -> prefixKeys.add(pair.key));
+		List<Integer> suffixKeys = new ArrayList<>();
+		suffix.forEachRemaining(pair -> suffixKeys.add(pair.key));
+		assertEquals(0, prefix.estimateSize());
+		assertEquals(800, prefixKeys.size() + suffixKeys.size());
+		assertEquals(prefixKeys.get(prefixKeys.size() - 1) + 1, (int) suffixKeys.get(0));
+		
+		// snapshots stream what they saw
+		BTreeSnapshot<Integer, Integer> snapshot = map.snapshot();
+		for (int i=1; i<=500; i++) map.delete(i);
+		assertEquals(1000, snapshot.parallelStream(0, 2000).count());
+		assertEquals(500, map.parallelStream(0, 2000).count());
+	}
+	
+	@Test
+	public void testDescending() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(4);
+		assertEquals(0, map.getPageBefore(10, 5).size());
+		for (int i=1; i<=100; i++) map.insert(i * 2, i);
+		
+		// pages before a key come back newest first, whether or not the key is in the map
+		assertEquals(Arrays.asList(98, 96, 94), this.getKeys(map.getPageBefore(100, 3)));
+		assertEquals(Arrays.asList(100, 98, 96), this.getKeys(map.getPageBefore(101, 3)));
+		assertEquals(Arrays.asList(4, 2), this.getKeys(map.getPageBefore(5, 10)));
+		assertEquals(0, map.getPageBefore(2, 10).size());
+		assertEquals(Arrays.asList(200, 198), this.getKeys(map.getPageBefore(1000, 2)));
+		
+		// ranges keep the same bounds as getRange
+		List<Integer> forward = this.getKeys(map.getRange(31, 77));
+		List<Integer> backward = this.getKeys(map.getRangeDescending(31, 77));
+		Collections.reverse(backward);
+		assertEquals(forward, backward);
+		
+		// a descending cursor starts from the end
+		Cursor<Integer, Integer> cursor = map.descendingCursor();
+		cursor.seekFirst();
+		cursor.next();
+		assertEquals(200, (int) cursor.getKey());
+		assertEquals(100, (int) cursor.getValue());
+		
+		// snapshots and other maps fall back to select, with the same results
+		BTreeSnapshot<Integer, Integer> snapshot = map.snapshot();
+		for (int i=1; i<=50; i++) map.delete(i * 4);
+		assertEquals(Arrays.asList(100, 98, 96), this.getKeys(snapshot.getPageBefore(101, 3)));
+		assertEquals(Arrays.asList(98, 94, 90), this.getKeys(map.getPageBefore(101, 3)));
+		assertEquals(100, snapshot.getRangeDescending(0, 1000).size());
+		
+		// compare with a reference after random changes
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		for (KeyValuePair<Integer, Integer> pair : map.getPage(1000)) reference.put(pair.key, pair.value);
+		for (int i=0; i<2000; i++) {
+			int key = (int)(Math.random() * 500);
+			if (i % 3 == 2) {
+				map.delete(key);
+				reference.remove(key);
+			} else {
+				map.insert(key, key);
+				reference.put(key, key);
+			}
+			int end = (int)(Math.random() * 520);
+			List<Integer> expected = new ArrayList<>(reference.headMap(end, false).descendingKeySet());
+			assertEquals(expected.subList(0, Math.min(5, expected.size())), this.getKeys(map.getPageBefore(end, 5)));
+		}
+		map.verify(0, 500);
+	}
+	
+	@Test
+	public void testDeleteRange() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(4);
+		map.deleteRange(0, 10);
+		for (int i=0; i<100000; i++) map.insert(i, i);
+		BTreeSnapshot<Integer, Integer> snapshot = map.snapshot();
+		
+		// dropping most of the map only visits the nodes along the two ends
+		long comparisonsBefore = map.stats().snapshot().comparisons;
+		map.deleteRange(10, 99990);
+		assertTrue(map.stats().snapshot().comparisons - comparisonsBefore < 1000);
+		map.verify(0, 100000);
+		assertEquals(20, map.size());
+		assertEquals(Arrays.asList(8, 9, 99990, 99991), this.getKeys(map.getRange(8, 99992)));
+		assertEquals(Arrays.asList(99990, 9, 8), this.getKeys(map.getPageBefore(99991, 3)));
+		assertEquals(100000, snapshot.size());
+		
+		// empty and backward ranges do nothing, and a range past everything empties the map
+		map.deleteRange(50, 60);
+		map.deleteRange(99995, 5);
+		assertEquals(20, map.size());
+		map.deleteRange(-1, 100000);
+		assertEquals(0, map.size());
+		assertEquals("", map.toString());
+		
+		// when leaves are merged, the leaves left at the two ends are merged too
+		BTreeSortedMap<Integer, Integer> merging = new BTreeSortedMap<>(16, true);
+		for (int i=0; i<2000; i++) merging.insert(i, i);
+		merging.deleteRange(5, 1995);
+		merging.verify(0, 2000);
+		assertTrue(merging.root instanceof LeafNode);
+		assertEquals(Arrays.asList(3, 4, 1995, 1996), this.getKeys(merging.getRange(3, 1997)));
+		
+		this.runRandomDeleteRangeTestCase(4, false);
+		this.runRandomDeleteRangeTestCase(5, false);
+		this.runRandomDeleteRangeTestCase(64, false);
+		this.runRandomDeleteRangeTestCase(4, true);
+		this.runRandomDeleteRangeTestCase(17, true);
+	}
+	
+	private void runRandomDeleteRangeTestCase(int maxChildren, boolean mergeLeaves) {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(maxChildren, mergeLeaves);
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		for (int round=0; round<200; round++) {
+			for (int i=0; i<100; i++) {
+				int key = (int)(Math.random() * 5000);
+				map.insert(key, key);
+				reference.put(key, key);
+			}
+			
+			int start = (int)(Math.random() * 5000);
+			int end = start + (int)(Math.random() * 500);
+			map.deleteRange(start, end);
+			reference.subMap(start, end).clear();
+			
+			map.verify(0, 5000);
+			assertEquals(reference.size(), map.size());
+			assertEquals(new ArrayList<>(reference.keySet()), this.getKeys(map.getPage(reference.size())));
+			List<Integer> descending = new ArrayList<>(reference.descendingKeySet());
+			assertEquals(descending, this.getKeys(map.getPageBefore(5000, reference.size())));
+			for (LeafNode<Integer, Integer> leaf = map.root.firstLeaf(); mergeLeaves && leaf != null; leaf = leaf.next) {
+				assertTrue(leaf.isRoot || leaf.numKeys >= maxChildren/2);
+			}
+		}
+	}
+	
+	@Test
+	public void testMergeLeaves() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(4, true);
+		for (int i=1; i<=8; i++) map.insert(i, i);
+		assertEquals("1 3 5 \n"
+				+ "\tLeaf: 1:1 2:2 \n"
+				+ "\tLeaf: 3:3 4:4 \n"
+				+ "\tLeaf: 5:5 6:6 7:7 8:8 ", map.toString());
+		
+		// a leaf that would drop below half full merges with its neighbor
+		map.delete(1);
+		assertEquals("2 5 \n"
+				+ "\tLeaf: 2:2 3:3 4:4 \n"
+				+ "\tLeaf: 5:5 6:6 7:7 8:8 ", map.toString());
+		
+		// if they do not fit in one leaf, the pairs are evened out instead
+		map.delete(2);
+		map.delete(3);
+		assertEquals("4 6 \n"
+				+ "\tLeaf: 4:4 5:5 \n"
+				+ "\tLeaf: 6:6 7:7 8:8 ", map.toString());
+		
+		// batch deletes and buffered deletes fix thinned out leaves too
+		BTreeSortedMap<Integer, Integer> batch = new BTreeSortedMap<>(16, true);
+		BTreeSortedMap<Integer, Integer> buffered = new BTreeSortedMap<>(16, true);
+		List<Integer> thinned = new ArrayList<>();
+		for (int i=0; i<2000; i++) {
+			batch.insert(i, i);
+			buffered.insert(i, i);
+			if (i % 16 != 0) thinned.add(i);
+		}
+		batch.deleteAll(thinned);
+		batch.verify(0, 2000);
+		buffered.setBufferSize(32);
+		for (int key : thinned) buffered.delete(key);
+		buffered.verify(0, 2000);
+		assertEquals(125, batch.size());
+		assertEquals(125, buffered.size());
+		
+		// bulk loading does not end on a leaf with one pair
+		BTreeSortedMap<Integer, Integer> loaded = new BTreeSortedMap<>(16, true);
+		List<KeyValuePair<Integer, Integer>> pairs = new ArrayList<>();
+		for (int i=0; i<16*12 + 1; i++) pairs.add(new KeyValuePair<>(i, i));
+		loaded.bulkLoad(pairs.iterator(), 0.75);
+		loaded.verify(0, 16*12 + 1);
+		assertTrue(loaded.root.lastLeaf().numKeys >= 8);
+		
+		// under churn, every leaf but the root stays at least half full
+		this.runRandomMergeLeavesTestCase(4);
+		this.runRandomMergeLeavesTestCase(17);
+	}
+	
+	private void runRandomMergeLeavesTestCase(int maxChildren) {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(maxChildren, true);
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		for (int i=0; i<5000; i++) {
+			int key = (int)(Math.random() * 1000);
+			double choice = Math.random();
+			if (choice < 0.45) {
+				map.delete(key);
+				reference.remove(key);
+			} else if (choice < 0.9) {
+				map.insert(key, key);
+				reference.put(key, key);
+			} else if (choice < 0.95) {
+				// batches go through insertAll and deleteAll instead of leaf by leaf
+				List<KeyValuePair<Integer, Integer>> pairs = new ArrayList<>();
+				List<Integer> deletes = new ArrayList<>();
+				for (int j=key; j<key + 40; j++) {
+					if (j % 3 == 0) pairs.add(new KeyValuePair<>(j, j));
+					else deletes.add(j);
+				}
+				map.insertAll(pairs);
+				for (KeyValuePair<Integer, Integer> pair : pairs) reference.put(pair.key, pair.value);
+				map.deleteAll(deletes);
+				reference.keySet().removeAll(deletes);
+			} else if (choice < 0.98) {
+				map.deleteRange(key, key + 30);
+				reference.subMap(key, key + 30).clear();
+			} else {
+				map.compact(maxChildren, 0.25);
+			}
+			
+			// every so often, switch between buffered and unbuffered mode
+			if (i % 1000 == 500) map.setBufferSize(maxChildren);
+			if (i % 1000 == 999) map.setBufferSize(0);
+		}
+		
+		map.verify(0, 1100);
+		assertEquals(new ArrayList<>(reference.keySet()), this.getKeys(map.getPage(reference.size())));
+	}
+	
+	@Test
+	public void testCompact() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(16);
+		assertTrue(map.compact(10));
+		for (int i=0; i<20000; i++) map.insert(i, i);
+		BTreeSnapshot<Integer, Integer> snapshot = map.snapshot();
+		
+		// thin out the leaves, which only borrow when they are empty
+		for (int i=0; i<20000; i++) if (i % 10 != 0) map.delete(i);
+		TreeStats.Snapshot before = map.statsSnapshot();
+		assertTrue(before.averageFill < 0.2);
+		
+		// each call does a little of the work, and the map stays valid between calls
+		int calls = 0;
+		while (!map.compact(64)) {
+			map.verify(0, 20000);
+			calls++;
+		}
+		assertTrue(calls > 10);
+		
+		// a second pass finishes merging what the first one brought together
+		while (!map.compact(64));
+		map.verify(0, 20000);
+		TreeStats.Snapshot after = map.statsSnapshot();
+		assertTrue(after.averageFill > 0.8);
+		assertTrue(after.height < before.height);
+		
+		// nothing was lost, and leaf links and snapshots still work
+		assertEquals(2000, map.size());
+		assertEquals(Arrays.asList(0, 10, 20), this.getKeys(map.getPage(3)));
+		assertEquals(Arrays.asList(19990, 19980), this.getKeys(map.getPageBefore(20000, 2)));
+		assertEquals(20000, snapshot.size());
+		assertEquals(19999, (int) snapshot.select(19999).key);
+		
+		// a fill factor below 1 leaves room for inserts
+		BTreeSortedMap<Integer, Integer> sparse = new BTreeSortedMap<>(16);
+		for (int i=0; i<20000; i++) sparse.insert(i, i);
+		for (int i=0; i<20000; i++) if (i % 10 != 0) sparse.delete(i);
+		while (!sparse.compact(1000, 0.5));
+		while (!sparse.compact(1000, 0.5));
+		sparse.verify(0, 20000);
+		assertEquals(0.5, sparse.statsSnapshot().averageFill, 0.1);
+	}
+	
+	@Test
+	public void testAppendMode() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(10);
+		map.setAppendMode(true);
+		for (int i=1; i<=12; i++) map.insert(i, i);
+		
+		// the full leaf keeps nine of its ten pairs
+		assertEquals("1 10 \n"
+				+ "\tLeaf: 1:1 2:2 3:3 4:4 5:5 6:6 7:7 8:8 9:9 \n"
+				+ "\tLeaf: 10:10 11:11 12:12 ", map.toString());
+		
+		// appends do not search, so they make no comparisons
+		long comparisonsBefore = map.stats().snapshot().comparisons;
+		for (int i=13; i<=10000; i++) map.insert(i, i);
+		assertEquals(comparisonsBefore, map.stats().snapshot().comparisons);
+		map.verify(0, 10001);
+		assertEquals(10000, map.size());
+		assertTrue(map.statsSnapshot().averageFill > 0.7);
+		
+		// without append mode the leaves end up half full
+		BTreeSortedMap<Integer, Integer> plain = new BTreeSortedMap<>(10);
+		for (int i=1; i<=10000; i++) plain.insert(i, i);
+		assertTrue(plain.statsSnapshot().averageFill < 0.6);
+		
+		// other changes move the right edge, and appends find it again
+		BTreeSnapshot<Integer, Integer> snapshot = map.snapshot();
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		for (int i=1; i<=10000; i++) reference.put(i, i);
+		int next = 10001;
+		for (int i=0; i<5000; i++) {
+			double choice = Math.random();
+			if (choice < 0.6) {
+				map.insert(next, next);
+				reference.put(next, next);
+				next++;
+			} else if (choice < 0.8) {
+				int key = (int)(Math.random() * next);
+				map.insert(key, -key);
+				reference.put(key, -key);
+			} else if (choice < 0.99) {
+				int key = next - 1 - (int)(Math.random() * 20);
+				map.delete(key);
+				reference.remove(key);
+			} else {
+				map.deleteRange(next - 200, next);
+				reference.subMap(next - 200, next).clear();
+			}
+		}
+		map.verify(-1, next);
+		assertEquals(new ArrayList<>(reference.keySet()), this.getKeys(map.getPage(reference.size())));
+		assertEquals(new ArrayList<>(reference.descendingKeySet()), this.getKeys(map.getPageBefore(next, reference.size())));
+		assertEquals(10000, snapshot.size());
+		assertEquals(10000, (int) snapshot.select(9999).key);
+	}
+	
+	@Test
+	public void testBufferedMode() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(4);
+		for (int i=1; i<=6; i++) map.insert(i, i);
+		map.setBufferSize(2);
+		long leafWritesBefore = map.stats().snapshot().leafWrites;
+		
+		// writes wait in the root, and reads see them there
+		map.insert(7, 7);
+		map.delete(2);
+		assertEquals("1 3 | -2 +7:7 \n"
+				+ "\tLeaf: 1:1 2:2 \n"
+				+ "\tLeaf: 3:3 4:4 5:5 6:6 ", map.toString());
+		assertEquals(leafWritesBefore, map.stats().snapshot().leafWrites);
+		assertEquals(7, (int) map.get(7));
+		assertNull(map.get(2));
+		assertEquals(Arrays.asList(1, 3, 4, 5, 6, 7), this.getKeys(map.getRange(0, 10)));
+		
+		// a third message overflows the buffer, so the messages for the first leaf go down together
+		map.insert(0, 0);
+		assertEquals("0 3 | +7:7 \n"
+				+ "\tLeaf: 0:0 1:1 \n"
+				+ "\tLeaf: 3:3 4:4 5:5 6:6 ", map.toString());
+		assertEquals(leafWritesBefore + 1, map.stats().snapshot().leafWrites);
+		map.verify(0, 8);
+		
+		// counting and scanning merge in the pending message without pushing it down
+		assertEquals(7, map.size());
+		assertEquals(6, map.rank(7));
+		assertEquals(7, map.rank(8));
+		assertEquals(7, (int) map.select(6).key);
+		assertNull(map.select(7));
+		assertEquals(3, map.countRange(5, 10));
+		assertEquals(Arrays.asList(5, 6, 7), this.getKeys(map.getPage(5, 10)));
+		Cursor<Integer, Integer> cursor = map.cursor();
+		cursor.seek(6);
+		cursor.next();
+		cursor.next();
+		assertEquals(7, (int) cursor.getValue());
+		assertFalse(cursor.hasNext());
+		assertEquals(leafWritesBefore + 1, map.stats().snapshot().leafWrites);
+		
+		// changing the buffer size pushes everything down
+		map.setBufferSize(2);
+		assertEquals("0 3 5 \n"
+				+ "\tLeaf: 0:0 1:1 \n"
+				+ "\tLeaf: 3:3 4:4 \n"
+				+ "\tLeaf: 5:5 6:6 7:7 ", map.toString());
+		
+		this.runRandomBufferedTestCase(4, 3, 5000);
+		this.runRandomBufferedTestCase(16, 64, 20000);
+	}
+	
+	public void runRandomBufferedTestCase(int maxChildren, int bufferSize, int numOperations) {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(maxChildren);
+		map.setBufferSize(bufferSize);
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		BTreeSnapshot<Integer, Integer> snapshot = null;
+		List<Integer> snapshotKeys = null;
+		
+		for (int i=0; i<numOperations; i++) {
+			int key = (int)(Math.random() * 1000);
+			double choice = Math.random();
+			if (choice < 0.5) {
+				map.insert(key, i);
+				reference.put(key, i);
+			} else if (choice < 0.85) {
+				map.delete(key);
+				reference.remove(key);
+			} else if (choice < 0.95) {
+				assertEquals(reference.get(key), map.get(key));
+			} else if (choice < 0.97) {
+				assertEquals(reference.subMap(key, key + 50).entrySet().stream()
+						.map(e -> new KeyValuePair<>(e.getKey(), e.getValue()).toString()).collect(Collectors.toList()).toString(),
+						map.getRange(key, key + 50).toString());
+			} else if (choice < 0.99) {
+				// none of these push messages down, so the leaves are not written
+				long leafWrites = map.stats().snapshot().leafWrites;
+				List<Integer> referenceKeys = new ArrayList<>(reference.keySet());
+				assertEquals(reference.size(), map.size());
+				assertEquals(reference.headMap(key).size(), map.rank(key));
+				int index = (int) (Math.random() * (reference.size() + 1));
+				assertEquals(index < reference.size() ? referenceKeys.get(index) : null,
+						map.select(index) == null ? null : map.select(index).key);
+				assertEquals(new ArrayList<>(reference.tailMap(key).keySet()).subList(0, Math.min(20, reference.tailMap(key).size())),
+						this.getKeys(map.getPage(key, 20)));
+				assertEquals(referenceKeys, this.getKeys(map.getPage(reference.size() + 1)));
+				assertEquals(leafWrites, map.stats().snapshot().leafWrites);
+			} else {
+				snapshot = map.snapshot();
+				snapshotKeys = new ArrayList<>(reference.keySet());
+			}
+			map.verify(0, 1000);
+		}
+		
+		// empty the map through the buffers
+		for (int key : new ArrayList<>(reference.keySet())) {
+			map.delete(key);
+			reference.remove(key);
+			assertNull(map.get(key));
+			map.verify(0, 1000);
+		}
+		assertEquals(0, map.size());
+		
+		// pushing the last deletes down leaves nothing
+		map.setBufferSize(0);
+		assertEquals("", map.toString());
+		if (snapshot != null) assertEquals(snapshotKeys, this.getKeys(snapshot.getPage(snapshotKeys.size() + 1)));
+	}
+	
+	@Test
+	public void testLeafFilters() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(8);
+		map.setFilterBitsPerKey(10);
+		for (int i=0; i<1000; i+=2) map.insert(i, i);
+		
+		// every missing key is ruled out by fences or a filter, or let through by a filter
+		TreeStats.Snapshot before = map.stats().snapshot();
+		for (int i=0; i<1000; i++) assertEquals(i % 2 == 0 ? (Integer) i : null, map.get(i));
+		TreeStats.Snapshot stats = map.stats().snapshot().since(before);
+		assertEquals(500, stats.fenceRejections + stats.filterRejections + stats.filterFalsePositives);
+		assertTrue(stats.filterRejections > 0);
+		assertTrue(stats.filterFalsePositiveRate() < 0.1);
+		assertEquals(map.statsSnapshot().nodesPerLevel[map.statsSnapshot().height - 1], stats.filterBuilds);
+		
+		// inserts add their keys to the leaf's filter, and only deletes, splits and merges drop it
+		before = map.stats().snapshot();
+		for (int i=1; i<1000; i+=2) assertNull(map.get(i));
+		map.insert(501, 501);
+		assertEquals(501, (int) map.get(501));
+		assertEquals(0, map.stats().snapshot().since(before).filterBuilds);
+		map.delete(501);
+		assertNull(map.get(501));
+		assertEquals(1, map.stats().snapshot().since(before).filterBuilds);
+		
+		// appends add their keys too
+		BTreeSortedMap<Integer, Integer> appending = new BTreeSortedMap<>(8);
+		appending.setFilterBitsPerKey(10);
+		appending.setAppendMode(true);
+		for (int i=0; i<1000; i++) {
+			appending.insert(i, i);
+			assertEquals(i, (int) appending.get(i));
+		}
+		appending.verify(0, 1000);
+		
+		// a different size rebuilds them
+		map.setFilterBitsPerKey(4);
+		before = map.stats().snapshot();
+		for (int i=1; i<1000; i+=2) map.get(i);
+		assertEquals(map.statsSnapshot().nodesPerLevel[map.statsSnapshot().height - 1],
+				map.stats().snapshot().since(before).filterBuilds);
+		
+		this.runRandomFilterTestCase(new BTreeSortedMap<>(4, true), 5000);
+		BTreeSortedMap<Integer, Integer> buffered = new BTreeSortedMap<>(8);
+		buffered.setBufferSize(16);
+		this.runRandomFilterTestCase(buffered, 5000);
+	}
+	
+	private void runRandomFilterTestCase(BTreeSortedMap<Integer, Integer> map, int numOperations) {
+		map.setFilterBitsPerKey(6);
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		
+		for (int i=0; i<numOperations; i++) {
+			int key = (int)(Math.random() * 1000);
+			double choice = Math.random();
+			if (choice < 0.3) {
+				map.insert(key, i);
+				reference.put(key, i);
+			} else if (choice < 0.5) {
+				map.delete(key);
+				reference.remove(key);
+			} else if (choice < 0.51) {
+				// batches and repacking change leaves without going through insert or delete
+				List<KeyValuePair<Integer, Integer>> pairs = new ArrayList<>();
+				for (int j=key; j<key + 20; j+=3) pairs.add(new KeyValuePair<>(j, -j));
+				map.insertAll(pairs);
+				for (KeyValuePair<Integer, Integer> pair : pairs) reference.put(pair.key, pair.value);
+				map.deleteAll(Arrays.asList(key + 1, key + 4, key + 30));
+				reference.keySet().removeAll(Arrays.asList(key + 1, key + 4, key + 30));
+			} else if (choice < 0.52) {
+				map.deleteRange(key, key + 25);
+				reference.subMap(key, key + 25).clear();
+				map.compact(10);
+			} else {
+				assertEquals(reference.get(key), map.get(key));
+			}
+		}
+		map.verify(0, 1100);
+		for (int key=0; key<1100; key++) assertEquals(reference.get(key), map.get(key));
+	}
+	
+	@Test
+	public void testFinger() {
+		BTreeSortedMap<Integer, Integer> map = new BTreeSortedMap<>(16);
+		BTreeFinger<Integer, Integer> finger = map.finger();
+		assertNull(finger.get(5));
+		for (int i=0; i<20000; i+=2) finger.insert(i, i);
+		map.verify(0, 20000);
+		assertEquals(10000, map.size());
+		
+		// nearby keys need far fewer comparisons than searching from the root
+		long before = map.stats().snapshot().comparisons;
+		for (int i=0; i<20000; i++) assertEquals(i % 2 == 0 ? (Integer) i : null, finger.get(i));
+		long withFinger = map.stats().snapshot().comparisons - before;
+		before = map.stats().snapshot().comparisons;
+		for (int i=0; i<20000; i++) map.get(i);
+		long withoutFinger = map.stats().snapshot().comparisons - before;
+		assertTrue(withFinger * 2 < withoutFinger);
+		
+		// a snapshot keeps what it saw when the finger inserts
+		BTreeSnapshot<Integer, Integer> snapshot = map.snapshot();
+		for (int i=1; i<20000; i+=2) finger.insert(i, i);
+		map.verify(0, 20000);
+		assertEquals(20000, map.size());
+		assertEquals(10000, snapshot.size());
+		assertNull(snapshot.get(1));
+		
+		// the finger stays correct while the map changes under it
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+		for (int i=0; i<20000; i++) reference.put(i, i);
+		int key = 10000;
+		for (int i=0; i<20000; i++) {
+			key = Math.max(0, Math.min(30000, key + (int)(Math.random() * 21) - 10));
+			double choice = Math.random();
+			if (choice < 0.4) {
+				finger.insert(key, -key);
+				reference.put(key, -key);
+			} else if (choice < 0.8) {
+				assertEquals(reference.get(key), finger.get(key));
+			} else if (choice < 0.99) {
+				map.delete(key);
+				reference.remove(key);
+			} else {
+				map.deleteRange(key - 50, key + 50);
+				reference.subMap(key - 50, key + 50).clear();
+			}
+		}
+		map.verify(-100, 30100);
+		assertEquals(new ArrayList<>(reference.keySet()), this.getKeys(map.getPage(reference.size())));
+		
+		// fingers see each other's changes, including nodes one of them copies away from a snapshot
+		BTreeFinger<Integer, Integer> other = map.finger();
+		for (int i=0; i<20000; i++) {
+			if (i % 500 == 0) snapshot = map.snapshot();
+			key = Math.max(0, Math.min(30000, key + (int)(Math.random() * 201) - 100));
+			BTreeFinger<Integer, Integer> writer = i % 2 == 0 ? finger : other;
+			BTreeFinger<Integer, Integer> reader = i % 2 == 0 ? other : finger;
+			assertEquals(reference.get(key), reader.get(key));
+			writer.insert(key, i);
+			reference.put(key, i);
+			assertEquals((Integer) i, reader.get(key));
+		}
+		map.verify(-100, 30100);
+		assertEquals(new ArrayList<>(reference.keySet()), this.getKeys(map.getPage(reference.size())));
+	}
+	
 	@Test
 	public void randomInsertTestCases() {
 		this.runRandomInsertTestCase(-1000, 1000, 1000, 4, false);
+		this.runRandomInsertTestCase(-1000, 1000, 1000, 64, false);
 	}
 	
 	@Test
 	public void randomDeleteTestCases() {
 		this.runRandomDeleteTestCase(-1000, 1000, 1000, 1000, 4, false);
+		this.runRandomDeleteTestCase(-1000, 1000, 1000, 1000, 64, false);
+	}
+	
+	@Test
+	public void testBatchOps() {
+		BTreeSortedMap<Integer, Integer> treeMap = new BTreeSortedMap<>(4);
+		for (int i=0; i<23; i++) treeMap.insert(i, i);
+		
+		// this leaves the root's first child with one child holding one leaf; merging it
+		// into its neighbor gives that grandchild neighbors, so it must be fixed as well
+		List<Integer> deletes = new ArrayList<>();
+		for (int i=0; i<6; i++) deletes.add(i);
+		treeMap.deleteAll(deletes);
+		treeMap.verify(6, 23);
+		assertEquals(17, treeMap.size());
+		for (int i=6; i<23; i++) assertEquals(i, (int) treeMap.get(i));
+	}
+	
+	@Test
+	public void randomBatchTestCases() {
+		this.runRandomBatchTestCase(-1000, 1000, 20, 100, 4);
+		this.runRandomBatchTestCase(-1000, 1000, 20, 400, 64);
+	}
+	
+	public void runRandomBatchTestCase(int rangeMin, int rangeMax, int numBatches, int batchSize, 
+			int maxChildren) {
+		BTreeSortedMap<Integer, String> treeMap = new BTreeSortedMap<>(maxChildren);
+		TreeMap<Integer, String> reference = new TreeMap<>();
+		
+		try {
+			for (int b=0; b<numBatches; b++) {
+				// insert a batch, which may repeat keys
+				List<KeyValuePair<Integer, String>> inserts = new ArrayList<>();
+				for (int i=0; i<batchSize; i++) {
+					int key = (int)(Math.random() * (rangeMax - rangeMin) + rangeMin);
+					String value = key + "-" + b + "-" + i;
+					inserts.add(new KeyValuePair<>(key, value));
+					reference.put(key, value);
+				}
+				treeMap.insertAll(inserts);
+				this.compareTreeWithReference(treeMap, reference, reference.firstKey(), reference.lastKey() + 1);
+				
+				// delete a smaller batch, which may include keys not in the map
+				List<Integer> deletes = new ArrayList<>();
+				for (int i=0; i<batchSize/2 + b * 10; i++) {
+					int key = (int)(Math.random() * (rangeMax - rangeMin) + rangeMin);
+					deletes.add(key);
+					reference.remove(key);
+				}
+				treeMap.deleteAll(deletes);
+				if (reference.isEmpty()) treeMap.verify(0, 0);
+				else this.compareTreeWithReference(treeMap, reference, reference.firstKey(), reference.lastKey() + 1);
+				
+				// leaf links must still cover every pair in order
+				assertEquals(new ArrayList<>(reference.keySet()).toString(), 
+						this.getKeys(treeMap.getRange(rangeMin, rangeMax)).toString());
+			}
+			
+			// delete everything in one batch
+			treeMap.deleteAll(new ArrayList<>(reference.keySet()));
+			assertEquals("", treeMap.toString());
+			assertEquals(0, treeMap.size());
+			
+		} catch (AssertionError ae) {
+			System.err.println("Error with tree: ");
+			System.err.println(treeMap);
+			System.err.println(ae.getMessage());
+			throw ae;
+		}
+	}
+	
+	@Test
+	public void randomSnapshotTestCases() {
+		this.runRandomSnapshotTestCase(-1000, 1000, 3000, 4);
+		this.runRandomSnapshotTestCase(-1000, 1000, 3000, 64);
+	}
+	
+	public void runRandomSnapshotTestCase(int rangeMin, int rangeMax, int numOperations, int maxChildren) {
+		BTreeSortedMap<Integer, String> treeMap = new BTreeSortedMap<>(maxChildren);
+		TreeMap<Integer, String> reference = new TreeMap<>();
+		List<BTreeSnapshot<Integer, String>> snapshots = new ArrayList<>();
+		List<TreeMap<Integer, String>> snapshotReferences = new ArrayList<>();
+		
+		try {
+			for (int i=0; i<numOperations; i++) {
+				int key = (int)(Math.random() * (rangeMax - rangeMin) + rangeMin);
+				
+				// mix single changes with batches, and take a snapshot now and then
+				if (i % 300 == 0) {
+					snapshots.add(treeMap.snapshot());
+					snapshotReferences.add(new TreeMap<>(reference));
+				} else if (i % 100 == 0) {
+					List<KeyValuePair<Integer, String>> inserts = new ArrayList<>();
+					for (int j=0; j<50; j++) inserts.add(new KeyValuePair<>(key + j, "batch" + i));
+					treeMap.insertAll(inserts);
+					for (KeyValuePair<Integer, String> pair : inserts) reference.put(pair.key, pair.value);
+				} else if (i % 100 == 50) {
+					List<Integer> deletes = new ArrayList<>();
+					for (int j=0; j<50; j++) deletes.add(key + j);
+					treeMap.deleteAll(deletes);
+					for (Integer delete : deletes) reference.remove(delete);
+				} else if (i % 3 == 2) {
+					treeMap.delete(key);
+					reference.remove(key);
+				} else {
+					treeMap.insert(key, "value" + i);
+					reference.put(key, "value" + i);
+				}
+			}
+			
+			// the map and its leaf links are still right
+			if (!reference.isEmpty()) 
+				this.compareTreeWithReference(treeMap, reference, reference.firstKey(), reference.lastKey() + 1);
+			assertEquals(new ArrayList<>(reference.keySet()).toString(), 
+					this.getKeys(treeMap.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE)).toString());
+			
+			// every snapshot still has exactly what the map had when it was taken
+			for (int s=0; s<snapshots.size(); s++) {
+				BTreeSnapshot<Integer, String> snapshot = snapshots.get(s);
+				TreeMap<Integer, String> snapshotReference = snapshotReferences.get(s);
+				
+				assertEquals(snapshotReference.size(), snapshot.size());
+				List<KeyValuePair<Integer, String>> pairs = snapshot.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+				assertEquals(new ArrayList<>(snapshotReference.keySet()), this.getKeys(pairs));
+				for (KeyValuePair<Integer, String> pair : pairs) assertEquals(snapshotReference.get(pair.key), pair.value);
+				for (Map.Entry<Integer, String> entry : snapshotReference.entrySet()) {
+					assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+				}
+				assertEquals(snapshotReference.subMap(-100, 100).size(), snapshot.countRange(-100, 100));
+				assertEquals(new ArrayList<>(snapshotReference.subMap(-100, 100).keySet()).toString(),
+						this.getKeys(snapshot.getRange(-100, 100)).toString());
+			}
+			
+			try {
+				snapshots.get(0).insert(0, "");
+				fail("expected UnsupportedOperationException");
+			} catch (UnsupportedOperationException e) {}
+			
+		} catch (AssertionError ae) {
+			System.err.println("Error with tree: ");
+			System.err.println(treeMap);
+			System.err.println(ae.getMessage());
+			throw ae;
+		}
 	}
 	
 	public void runRandomDeleteTestCase(int rangeMin, int rangeMax, int mapSize, int numDelete, 
@@ -566,6 +1517,12 @@ public class BTreeTests {
 		assertEquals(reference.size(), treeMap.size());
 	}
 	
+	private <K, V> List<K> getKeys(List<KeyValuePair<K, V>> pairs) {
+		List<K> keys = new ArrayList<>();
+		for (KeyValuePair<K, V> pair : pairs) keys.add(pair.key);
+		return keys;
+	}
+	
 	private String getContinuousList(int start, int end) {
 		List<KeyValuePair<Integer, Integer>> list = new LinkedList<>();
 		for (int i=start; i<end; i++) list.add(new KeyValuePair<Integer, Integer>(i, i));
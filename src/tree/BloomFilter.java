@@ -0,0 +1,84 @@
+package tree;
+
+/**
+ * Bloom filter over the keys of one leaf, used by BTreeSortedMap to rule out
+ * keys that are not in the leaf without searching it. It never says a key in
+ * the leaf is missing, and says a missing key might be there about
+ * 0.6185^bitsPerKey of the time while it holds no more keys than it was sized
+ * for. Keys inserted into the leaf are added to its filter, but bits are
+ * never cleared, so a leaf that loses keys, splits or merges drops its filter
+ * and builds a new one when it is next read.
+ *
+ * Keys are hashed with hashCode, so keys that compareTo says are equal must
+ * have equal hash codes.
+ */
+public class BloomFilter {
+
+	final int bitsPerKey;
+	private final int numHashes;
+	private final long[] bits;
+
+	/**
+	 * @param capacity number of keys to size the filter for, so that keys
+	 * added later up to that many keep the false positive rate
+	 */
+	public BloomFilter(Comparable<?>[] keys, int numKeys, int capacity, int bitsPerKey) {
+		this.bitsPerKey = bitsPerKey;
+		this.numHashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * Math.log(2))));
+		this.bits = new long[Math.max(1, (int) (((long) Math.max(numKeys, capacity) * bitsPerKey + 63) / 64))];
+		for (int i=0; i<numKeys; i++) this.add(keys[i]);
+	}
+
+	private BloomFilter(BloomFilter filter) {
+		this.bitsPerKey = filter.bitsPerKey;
+		this.numHashes = filter.numHashes;
+		this.bits = filter.bits.clone();
+	}
+
+	/**
+	 * Add a key, so that mightContain returns true for it from now on.
+	 */
+	public void add(Object key) {
+		int numBits = this.bits.length * 64;
+		long hash = hash(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+		for (int j=0; j<this.numHashes; j++) {
+			int bit = (h1 & Integer.MAX_VALUE) % numBits;
+			this.bits[bit >>> 6] |= 1L << bit;
+			h1 += h2;
+		}
+	}
+
+	/**
+	 * Returns a filter with the same keys that can be added to without
+	 * changing this one.
+	 */
+	public BloomFilter copy() {
+		return new BloomFilter(this);
+	}
+
+	/**
+	 * @return false if the key is certainly not one of the filter's keys
+	 */
+	public boolean mightContain(Object key) {
+		int numBits = this.bits.length * 64;
+		long hash = hash(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+		for (int j=0; j<this.numHashes; j++) {
+			int bit = (h1 & Integer.MAX_VALUE) % numBits;
+			if ((this.bits[bit >>> 6] & (1L << bit)) == 0) return false;
+			h1 += h2;
+		}
+		return true;
+	}
+
+	/**
+	 * Spread the hash code over 64 bits, whose two halves serve as the two
+	 * hashes that every probe is made from.
+	 */
+	private static long hash(Object key) {
+		long hash = key.hashCode() * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 31);
+	}
+
+}
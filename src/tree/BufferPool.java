@@ -0,0 +1,193 @@
+package tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed number of in-memory frames caching fixed-size pages of a file.
+ * A page has to be pinned while it is being used, and only unpinned pages
+ * can be evicted. Victims are picked with the CLOCK algorithm, and dirty
+ * pages are written back to the file before their frame is reused.
+ */
+public class BufferPool {
+
+	private final FileChannel channel;
+	private final int pageSize;
+
+	private final ByteBuffer[] frames;
+	private final int[] pageIds; // page held by each frame, or -1
+	private final int[] pinCounts;
+	private final boolean[] dirty;
+	private final boolean[] referenced; // CLOCK reference bits
+	private final Map<Integer, Integer> frameOfPage;
+	private int clockHand;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long writes;
+
+	public BufferPool(FileChannel channel, int pageSize, int numFrames) {
+		if (numFrames < 1) throw new IllegalArgumentException("buffer pool needs at least one frame");
+
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.frames = new ByteBuffer[numFrames];
+		this.pageIds = new int[numFrames];
+		this.pinCounts = new int[numFrames];
+		this.dirty = new boolean[numFrames];
+		this.referenced = new boolean[numFrames];
+		this.frameOfPage = new HashMap<>();
+		for (int i=0; i<numFrames; i++) {
+			this.frames[i] = ByteBuffer.allocateDirect(pageSize);
+			this.pageIds[i] = -1;
+		}
+	}
+
+	public int pageSize() {
+		return this.pageSize;
+	}
+
+	/**
+	 * Bring a page into memory if it is not there already and pin it.
+	 * Pages past the end of the file read as zeros.
+	 * @return the buffer holding the page, valid until the page is unpinned
+	 */
+	public ByteBuffer pin(int page) {
+		Integer frame = this.frameOfPage.get(page);
+		if (frame != null) {
+			this.hits++;
+		} else {
+			this.misses++;
+			frame = this.victim();
+			this.load(frame, page);
+		}
+
+		this.pinCounts[frame]++;
+		this.referenced[frame] = true;
+		return this.frames[frame];
+	}
+
+	/**
+	 * Let go of a page pinned earlier.
+	 */
+	public void unpin(int page) {
+		int frame = this.frameOf(page);
+		if (this.pinCounts[frame] == 0) throw new IllegalStateException("page " + page + " is not pinned");
+		this.pinCounts[frame]--;
+	}
+
+	/**
+	 * Record that a pinned page has changed and must be written back.
+	 */
+	public void markDirty(int page) {
+		this.dirty[this.frameOf(page)] = true;
+	}
+
+	/**
+	 * Write every dirty page back to the file. Does not force it to disk.
+	 */
+	public void flush() {
+		for (int i=0; i<this.frames.length; i++) {
+			if (this.dirty[i]) this.writeBack(i);
+		}
+	}
+
+	public long hits() {
+		return this.hits;
+	}
+
+	public long misses() {
+		return this.misses;
+	}
+
+	public long evictions() {
+		return this.evictions;
+	}
+
+	public long writes() {
+		return this.writes;
+	}
+
+	/**
+	 * Get the number of pages pinned right now.
+	 */
+	public int pinnedPages() {
+		int pinned = 0;
+		for (int count : this.pinCounts) {
+			if (count > 0) pinned++;
+		}
+		return pinned;
+	}
+
+	private int frameOf(int page) {
+		Integer frame = this.frameOfPage.get(page);
+		if (frame == null) throw new IllegalStateException("page " + page + " is not in the buffer pool");
+		return frame;
+	}
+
+	/**
+	 * Pick a frame to load a new page into, writing back its old page if dirty.
+	 */
+	private int victim() {
+		// two full turns of the clock clear every reference bit, so a third means everything is pinned
+		for (int step=0; step<3*this.frames.length; step++) {
+			int frame = this.clockHand;
+			this.clockHand = (this.clockHand + 1) % this.frames.length;
+
+			if (this.pinCounts[frame] > 0) continue;
+			if (this.referenced[frame]) {
+				this.referenced[frame] = false;
+				continue;
+			}
+
+			if (this.pageIds[frame] != -1) {
+				if (this.dirty[frame]) this.writeBack(frame);
+				this.frameOfPage.remove(this.pageIds[frame]);
+				this.pageIds[frame] = -1;
+				this.evictions++;
+			}
+			return frame;
+		}
+		throw new IllegalStateException("every page in the buffer pool is pinned");
+	}
+
+	private void load(int frame, int page) {
+		ByteBuffer buffer = this.frames[frame];
+		buffer.clear();
+		try {
+			while (buffer.hasRemaining()) {
+				int read = this.channel.read(buffer, (long) page * this.pageSize + buffer.position());
+				if (read < 0) break;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		// anything past the end of the file is zeros
+		while (buffer.hasRemaining()) buffer.put((byte) 0);
+		buffer.clear();
+
+		this.pageIds[frame] = page;
+		this.dirty[frame] = false;
+		this.frameOfPage.put(page, frame);
+	}
+
+	private void writeBack(int frame) {
+		ByteBuffer buffer = this.frames[frame].duplicate();
+		buffer.clear();
+		try {
+			while (buffer.hasRemaining())
+				this.channel.write(buffer, (long) this.pageIds[frame] * this.pageSize + buffer.position());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.dirty[frame] = false;
+		this.writes++;
+	}
+
+}
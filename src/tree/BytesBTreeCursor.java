@@ -0,0 +1,102 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over a BytesBTreeSortedMap. Works like BTreeCursor. Leaves only
+ * keep the part of each key after their prefix, so getKey puts the whole
+ * key back together in a new array.
+ * @param <V> type of values
+ */
+public class BytesBTreeCursor<V> {
+	
+	private final BytesBTreeSortedMap<V> map;
+	
+	// pair that next() will move onto; leaf is null when there are no more pairs
+	private BytesLeafNode<V> nextLeaf;
+	private int nextIndex;
+	
+	// pair the cursor is on; leaf is null before the first call to next()
+	private BytesLeafNode<V> currentLeaf;
+	private int currentIndex;
+	
+	public BytesBTreeCursor(BytesBTreeSortedMap<V> map) {
+		this.map = map;
+	}
+
+	/**
+	 * Move the cursor to just before the first pair whose key is greater than
+	 * or equal to the given key. The key does not have to be in the map.
+	 */
+	public void seek(byte[] key) {
+		this.currentLeaf = null;
+		if (this.map.root == null) {
+			this.nextLeaf = null;
+			return;
+		}
+		
+		this.nextLeaf = this.map.root.findLeaf(key);
+		this.nextIndex = this.nextLeaf.search(key);
+		this.skipToNextLeafIfDone();
+	}
+
+	/**
+	 * Move the cursor to just before the first pair in the map.
+	 */
+	public void seekFirst() {
+		this.currentLeaf = null;
+		this.nextLeaf = this.map.root == null ? null : this.map.root.firstLeaf();
+		this.nextIndex = 0;
+	}
+
+	/**
+	 * Returns whether there is another pair after the cursor's position.
+	 */
+	public boolean hasNext() {
+		return this.nextLeaf != null;
+	}
+
+	/**
+	 * Move the cursor onto the next pair. Throws NoSuchElementException if
+	 * there is none.
+	 */
+	public void next() {
+		if (this.nextLeaf == null) throw new NoSuchElementException();
+		
+		this.currentLeaf = this.nextLeaf;
+		this.currentIndex = this.nextIndex;
+		
+		this.nextIndex++;
+		this.skipToNextLeafIfDone();
+	}
+
+	/**
+	 * Get the key of the pair the cursor is on. Throws IllegalStateException
+	 * if next has not been called since the last seek.
+	 */
+	public byte[] getKey() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.keyAt(this.currentIndex);
+	}
+
+	/**
+	 * Get the value of the pair the cursor is on. Throws IllegalStateException
+	 * if next has not been called since the last seek.
+	 */
+	public V getValue() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.values[this.currentIndex];
+	}
+	
+	/**
+	 * If the next index has run off the end of its leaf, move it to the start
+	 * of the following leaf. Leaves are never empty, so one step is enough.
+	 */
+	private void skipToNextLeafIfDone() {
+		if (this.nextIndex >= this.nextLeaf.numKeys) {
+			this.nextLeaf = this.nextLeaf.next;
+			this.nextIndex = 0;
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+package tree;
+
+import java.util.Arrays;
+
+/**
+ * A node in a B tree whose keys are byte strings. Works the same way as
+ * BTreeNode, except that the bytes every key in the node starts with are
+ * stored once, as the node's prefix, and each key only keeps the bytes after
+ * it. A search compares the key with the prefix once, and then only compares
+ * the rest of the key inside the node.
+ * @param <V> type of values
+ */
+public abstract class BytesBTreeNode<V> {
+
+	protected static final byte[] EMPTY = new byte[0];
+
+	public final int mc;
+	protected byte[] prefix; // every key in this node starts with this; never changed in place
+	protected byte[][] suffixes; // key i is prefix followed by suffixes[i]; max length = mc, plus one to overflow into
+	protected int numKeys; // number of slots in use
+	protected boolean isRoot; // used for testing
+
+	public BytesBTreeNode(int maxChildren) {
+		this.mc = maxChildren;
+		this.prefix = EMPTY;
+		this.suffixes = new byte[maxChildren + 1][];
+		this.numKeys = 0;
+		this.isRoot = false;
+	}
+
+	/**
+	 * Given a key, get the value at that key. Returns null if not found.
+	 */
+	public abstract V get(byte[] key);
+
+	/**
+	 * Insert a key value pair into the node.
+	 * @return new node to be inserted in the parent node right after this one if necessary
+	 */
+	public abstract BytesBTreeNode<V> insert(byte[] key, V value);
+
+	/**
+	 * Delete a key value pair.
+	 * @param neighbor sibling node to take data from if this node needs more;
+	 * must be same type as this
+	 * @param neighborOnLeft whether the neighbor comes right before this node
+	 * @return whether this node should be deleted by parent
+	 */
+	public abstract boolean delete(byte[] key, BytesBTreeNode<V> neighbor, boolean neighborOnLeft);
+
+	/**
+	 * Runs in constant time.
+	 * @return number of key value pairs in tree with this node as root
+	 */
+	public abstract int size();
+
+	/**
+	 * Find the leaf under this node where the given key is or would be stored.
+	 */
+	protected abstract BytesLeafNode<V> findLeaf(byte[] key);
+
+	/**
+	 * @return leftmost leaf under this node
+	 */
+	protected abstract BytesLeafNode<V> firstLeaf();
+
+	/**
+	 * @return lowest key under this node
+	 */
+	protected abstract byte[] firstKey();
+
+	/**
+	 * @return highest key under this node
+	 */
+	protected abstract byte[] lastKey();
+
+	/**
+	 * Used for testing purposes. Throws assertion error if invalid.
+	 * @param min minimum key (inclusive), or null for no bound
+	 * @param max maximum key (exclusive), or null for no bound
+	 */
+	protected abstract void verify(byte[] min, byte[] max);
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if two sibling
+	 * nodes have different depths.
+	 * @return depth of tree starting with this as root
+	 */
+	protected abstract int getDepth();
+
+	/**
+	 * Get the whole key in a slot, prefix included.
+	 */
+	protected byte[] keyAt(int index) {
+		byte[] suffix = this.suffixes[index];
+		byte[] key = Arrays.copyOf(this.prefix, this.prefix.length + suffix.length);
+		System.arraycopy(suffix, 0, key, this.prefix.length, suffix.length);
+		return key;
+	}
+
+	/**
+	 * Compare a key with this node's prefix.
+	 * @return 0 if the key starts with the prefix; otherwise negative if the key
+	 * is less than every key in this node, or positive if it is greater than all of them
+	 */
+	protected int compareWithPrefix(byte[] key) {
+		int length = Math.min(this.prefix.length, key.length);
+		for (int i=0; i<length; i++) {
+			int difference = (key[i] & 0xff) - (this.prefix[i] & 0xff);
+			if (difference != 0) return difference;
+		}
+		return key.length < this.prefix.length ? -1 : 0;
+	}
+
+	/**
+	 * Get the first slot in [from, numKeys) whose key is greater than or equal
+	 * to the given key, or numKeys if there is none. The key must start with
+	 * the prefix, so only the bytes after it are compared.
+	 */
+	protected int firstIndexGreaterOrEqual(byte[] key, int from) {
+		int low = from;
+		int high = this.numKeys;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (Helpers.compareUnsigned(this.suffixes[mid], 0, key, this.prefix.length) >= 0) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Same as firstIndexGreaterOrEqual, for the first key strictly greater.
+	 */
+	protected int firstIndexGreater(byte[] key, int from) {
+		int low = from;
+		int high = this.numKeys;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (Helpers.compareUnsigned(this.suffixes[mid], 0, key, this.prefix.length) > 0) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns whether the key in a slot equals the given key, which must
+	 * start with the prefix.
+	 */
+	protected boolean keyAtIndexEquals(int index, byte[] key) {
+		return index < this.numKeys
+				&& Helpers.compareUnsigned(this.suffixes[index], 0, key, this.prefix.length) == 0;
+	}
+
+	/**
+	 * Store a key in a slot, making the prefix shorter first if the key does
+	 * not start with it.
+	 */
+	protected void putKey(int index, byte[] key) {
+		if (this.compareWithPrefix(key) != 0) this.shortenPrefix(key);
+		this.suffixes[index] = Arrays.copyOfRange(key, this.prefix.length, key.length);
+	}
+
+	/**
+	 * Shift suffixes to the right and store a key in the freed slot. The
+	 * subclass shifts its own arrays and counts the new slot.
+	 */
+	protected void insertKey(int index, byte[] key) {
+		Helpers.insertAt(this.suffixes, this.numKeys, index, null);
+		this.putKey(index, key);
+	}
+
+	/**
+	 * Cut the prefix back to what it has in common with a key, moving the
+	 * bytes cut off to the front of every suffix. If the node has no keys yet,
+	 * the whole key becomes the prefix instead.
+	 */
+	private void shortenPrefix(byte[] key) {
+		// unused slots are null, so look at all of them in case a shift moved a key past numKeys
+		boolean hasKeys = false;
+		for (byte[] suffix : this.suffixes) hasKeys |= suffix != null;
+		if (!hasKeys) {
+			this.prefix = key.clone();
+			return;
+		}
+
+		int length = Helpers.commonPrefixLength(this.prefix, 0, key, 0);
+		for (int i=0; i<this.suffixes.length; i++) {
+			byte[] suffix = this.suffixes[i];
+			if (suffix == null) continue;
+			byte[] longer = Arrays.copyOfRange(this.prefix, length, this.prefix.length + suffix.length);
+			System.arraycopy(suffix, 0, longer, this.prefix.length - length, suffix.length);
+			this.suffixes[i] = longer;
+		}
+		this.prefix = Arrays.copyOf(this.prefix, length);
+	}
+
+	/**
+	 * Make the prefix as long as the keys allow again, after keys were removed
+	 * or moved to another node. Keys are sorted, so everything between the
+	 * first and last key shares what those two share.
+	 * @param from first slot holding a key
+	 */
+	protected void lengthenPrefix(int from) {
+		if (this.numKeys - from < 1) return;
+		byte[] first = this.suffixes[from];
+		byte[] last = this.suffixes[this.numKeys - 1];
+		int extra = Helpers.commonPrefixLength(first, 0, last, 0);
+		if (extra == 0) return;
+
+		byte[] longer = Arrays.copyOf(this.prefix, this.prefix.length + extra);
+		System.arraycopy(first, 0, longer, this.prefix.length, extra);
+		for (int i=from; i<this.numKeys; i++) {
+			this.suffixes[i] = Arrays.copyOfRange(this.suffixes[i], extra, this.suffixes[i].length);
+		}
+		this.prefix = longer;
+	}
+
+	/**
+	 * Get the shortest key that is greater than lower and no greater than
+	 * upper, to tell two neighboring nodes apart in their parent.
+	 * @param lower highest key in the left node
+	 * @param upper lowest key in the right node, which is greater than lower
+	 */
+	protected static byte[] shortestSeparator(byte[] lower, byte[] upper) {
+		return Arrays.copyOf(upper, Helpers.commonPrefixLength(lower, 0, upper, 0) + 1);
+	}
+
+}
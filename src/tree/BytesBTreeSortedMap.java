@@ -0,0 +1,172 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A B tree keyed by byte strings, compared byte by byte as unsigned values,
+ * with the same behavior as BTreeSortedMap. It is meant for byte[] keys that
+ * share long prefixes, like URLs or paths. Each node stores the prefix its
+ * keys share once, and intermediate nodes keep short separators instead of
+ * whole keys, so nodes take less memory and a search skips the shared bytes.
+ *
+ * Keys are copied in, so arrays passed in may be changed afterwards. Keys
+ * handed back are new arrays. To use strings as keys, encode them as UTF-8,
+ * which sorts them by code point.
+ * @param <V> type of values
+ */
+public class BytesBTreeSortedMap<V> {
+	
+	// Root of B tree. Null if map is empty.
+	protected BytesBTreeNode<V> root;
+	
+	private final int mc;
+	
+	public BytesBTreeSortedMap(int maxKeys) {
+		this.mc = maxKeys;
+	}
+
+	/**
+	 * Insert a key value pair.
+	 */
+	public void insert(byte[] key, V value) {
+		// if tree is empty, make the root into a leaf and add pair
+		if (root == null) {
+			root = new BytesLeafNode<V>(this.mc);
+			root.isRoot = true;
+			root.insert(key, value);
+			return;
+		}
+		
+		// insert into existing tree and get new node if one was made
+		BytesBTreeNode<V> newNode = root.insert(key, value);
+		if (newNode == null) return;
+		
+		// the new node always holds the upper half of the split
+		BytesIntermediateNode<V> newRoot = new BytesIntermediateNode<V>(this.mc);
+		newRoot.children[0] = root;
+		newRoot.children[1] = newNode;
+		newRoot.numKeys = 2;
+		newRoot.putKey(1, BytesBTreeNode.shortestSeparator(root.lastKey(), newNode.firstKey()));
+		newRoot.subtreeSize = root.size() + newNode.size();
+		
+		// replace current root
+		this.root.isRoot = false;
+		newRoot.isRoot = true;
+		this.root = newRoot;
+	}
+
+	/**
+	 * Delete a key value pair.
+	 */
+	public void delete(byte[] key) {
+		// if root is null, nothing you can do
+		if (this.root == null) return;
+		
+		// delete
+		if (this.root.delete(key, null, false)) {
+			
+			// if intermediate node only has one child, replace it with its child 
+			if (this.root instanceof BytesIntermediateNode) {
+				this.root = ((BytesIntermediateNode<V>) this.root).children[0];
+			} 
+			
+			// if leaf node is empty, replace it with null
+			else {
+				this.root = null;
+			}
+		}
+	}
+
+	/**
+	 * Given a key, get a value. Return null if not found.
+	 */
+	public V get(byte[] key) {
+		return root == null ? null : root.get(key);
+	}
+	
+	/**
+	 * Get a cursor positioned before the first key value pair. Use seek to move
+	 * it somewhere else.
+	 */
+	public BytesBTreeCursor<V> cursor() {
+		return new BytesBTreeCursor<V>(this);
+	}
+	
+	/**
+	 * Given a starting key and an ending key, get all key value pairs starting with
+	 * keyStart (inclusive) and ending before keyEnd (exclusive). Returns empty if 
+	 * nothing found.
+	 */
+	public List<KeyValuePair<byte[], V>> getRange(byte[] keyStart, byte[] keyEnd) {
+		List<KeyValuePair<byte[], V>> entries = new ArrayList<>();
+		BytesBTreeCursor<V> cursor = this.cursor();
+		cursor.seek(keyStart);
+		
+		while (cursor.hasNext()) {
+			cursor.next();
+			if (Helpers.compareUnsigned(cursor.getKey(), 0, keyEnd, 0) >= 0) break;
+			entries.add(new KeyValuePair<byte[], V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Given a starting key and a number of elements return, get all key value pairs
+	 * starting with keyStart. If there are not enough pairs after keyStart, returns
+	 * the longest possible list it can. Returns empty if nothing found.
+	 */
+	public List<KeyValuePair<byte[], V>> getPage(byte[] keyStart, int numElements) {
+		BytesBTreeCursor<V> cursor = this.cursor();
+		cursor.seek(keyStart);
+		return this.copyPage(cursor, numElements);
+	}
+	
+	/**
+	 * Gets the first numValues elements in this sorted map. If numValues is greater
+	 * than the size of this data structure, returns the entire data structure.
+	 */
+	public List<KeyValuePair<byte[], V>> getPage(int numElements) {
+		BytesBTreeCursor<V> cursor = this.cursor();
+		cursor.seekFirst();
+		return this.copyPage(cursor, numElements);
+	}
+	
+	/**
+	 * Get the number of key value pairs in this map.
+	 */
+	public int size() {
+		return this.root == null ? 0 : this.root.size();
+	}
+	
+	@Override
+	public String toString() {
+		return root == null ? "" : root.toString();
+	}
+	
+	/**
+	 * Copy up to numElements pairs that come after the cursor's position.
+	 */
+	private List<KeyValuePair<byte[], V>> copyPage(BytesBTreeCursor<V> cursor, int numElements) {
+		List<KeyValuePair<byte[], V>> entries = new ArrayList<>();
+		while (entries.size() < numElements && cursor.hasNext()) {
+			cursor.next();
+			entries.add(new KeyValuePair<byte[], V>(cursor.getKey(), cursor.getValue()));
+		}
+		return entries;
+	}
+	
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 * @param min minimum key (inclusive), or null for no bound
+	 * @param max maximum key (exclusive), or null for no bound
+	 */
+	protected void verify(byte[] min, byte[] max) {
+		if (this.root != null) {
+			this.root.verify(min, max);
+			this.root.getDepth();
+		}
+	}
+
+}
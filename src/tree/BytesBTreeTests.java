@@ -0,0 +1,120 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class BytesBTreeTests {
+
+	@Test
+	public void testPrefixesAndSeparators() {
+		BytesBTreeSortedMap<Integer> map = new BytesBTreeSortedMap<>(4);
+		assertEquals("", map.toString());
+		assertNull(map.get(bytes("user/alice")));
+
+		String[] names = {"alice", "bob", "carol", "dave", "erin"};
+		for (int i=0; i<names.length; i++) map.insert(bytes("user/" + names[i]), i);
+		map.verify(null, null);
+
+		// the root only needs enough of carol to tell her apart from bob
+		assertEquals("user/c \n"
+				+ "\tLeaf: user/alice:0 user/bob:1 \n"
+				+ "\tLeaf: user/carol:2 user/dave:3 user/erin:4 ",
+				map.toString());
+
+		// after the split, each leaf stores the shared part once
+		BytesIntermediateNode<Integer> root = (BytesIntermediateNode<Integer>) map.root;
+		assertEquals("user/", string(root.children[0].prefix));
+		assertEquals("alice", string(root.children[0].suffixes[0]));
+		assertEquals("user/", string(root.children[1].prefix));
+
+		// a key that does not share the prefix makes the leaf's prefix shorter
+		map.insert(bytes("users"), 5);
+		map.verify(null, null);
+		assertEquals("user", string(root.children[1].prefix));
+		assertEquals(5, (int) map.get(bytes("users")));
+		assertEquals(2, (int) map.get(bytes("user/carol")));
+		assertNull(map.get(bytes("user/")));
+		assertNull(map.get(bytes("user/carolyn")));
+
+		// keys are copied in and out
+		byte[] key = bytes("user/frank");
+		map.insert(key, 6);
+		key[5] = 'x';
+		assertEquals(6, (int) map.get(bytes("user/frank")));
+		assertEquals("[user/dave, user/erin, user/frank]", keys(map.getRange(bytes("user/d"), bytes("user/g"))));
+		assertEquals("[user/bob, user/carol]", keys(map.getPage(bytes("user/b"), 2)));
+
+		// delete down to nothing
+		for (String name : names) map.delete(bytes("user/" + name));
+		map.delete(bytes("users"));
+		map.delete(bytes("user/frank"));
+		assertEquals("", map.toString());
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void randomTestCases() {
+		this.runRandomTestCase(2000, 4);
+		this.runRandomTestCase(2000, 64);
+	}
+
+	public void runRandomTestCase(int numOperations, int maxChildren) {
+		BytesBTreeSortedMap<String> treeMap = new BytesBTreeSortedMap<>(maxChildren);
+		TreeMap<String, String> reference = new TreeMap<>();
+		String[] prefixes = {"", "a", "https://example.com/", "https://example.com/items/", "https://example.org/"};
+
+		try {
+			for (int i=0; i<numOperations; i++) {
+				// ASCII strings sort the same way as their bytes
+				String key = prefixes[(int)(Math.random() * prefixes.length)] + (int)(Math.random() * 300);
+
+				// insert twice as often as delete so the tree grows
+				if (i % 3 == 2) {
+					treeMap.delete(bytes(key));
+					reference.remove(key);
+				} else {
+					treeMap.insert(bytes(key), key);
+					reference.put(key, key);
+				}
+
+				treeMap.verify(null, null);
+				assertEquals(reference.size(), treeMap.size());
+			}
+
+			// every pair is found, and scans return them in order
+			for (Map.Entry<String, String> entry : reference.entrySet())
+				assertEquals(entry.getValue(), treeMap.get(bytes(entry.getKey())));
+			assertEquals(reference.keySet().toString(), keys(treeMap.getPage(reference.size() + 1)));
+			assertEquals(reference.subMap("https://example.com/", "https://example.com/items/2").keySet().toString(),
+					keys(treeMap.getRange(bytes("https://example.com/"), bytes("https://example.com/items/2"))));
+
+		} catch (AssertionError ae) {
+			System.err.println("Error with tree: ");
+			System.err.println(treeMap);
+			System.err.println(ae.getMessage());
+			throw ae;
+		}
+	}
+
+	private static byte[] bytes(String key) {
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] key) {
+		return new String(key, StandardCharsets.UTF_8);
+	}
+
+	private static <V> String keys(List<KeyValuePair<byte[], V>> pairs) {
+		List<String> keys = new ArrayList<>();
+		for (KeyValuePair<byte[], V> pair : pairs) keys.add(string(pair.key));
+		return keys.toString();
+	}
+
+}
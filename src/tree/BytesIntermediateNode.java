@@ -0,0 +1,302 @@
+package tree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An intermediate node in a BytesBTreeSortedMap. Instead of a copy of each
+ * child's lowest key, slot i > 0 holds a separator: the shortest key that is
+ * greater than every key in child i - 1 and no greater than any key in child
+ * i. Slot 0 is never searched, so it holds no key. Separators are usually
+ * much shorter than whole keys, and the prefix they share is stored once.
+ * @param <V> type of values
+ */
+public class BytesIntermediateNode<V> extends BytesBTreeNode<V> {
+
+	protected BytesBTreeNode<V>[] children; // max length = mk + 1, parallel to suffixes
+	protected int subtreeSize; // number of key value pairs in all leaves under this node
+
+	@SuppressWarnings("unchecked")
+	public BytesIntermediateNode(int maxChildren) {
+		super(maxChildren);
+		this.children = (BytesBTreeNode<V>[]) new BytesBTreeNode[maxChildren + 1];
+	}
+
+	/**
+	 * Get the index of the child a key belongs under.
+	 */
+	private int chooseChild(byte[] key) {
+		int comparison = this.compareWithPrefix(key);
+		if (comparison < 0) return 0;
+		if (comparison > 0) return this.numKeys - 1;
+		return this.firstIndexGreater(key, 1) - 1;
+	}
+
+	@Override
+	public V get(byte[] key) {
+		return this.children[this.chooseChild(key)].get(key);
+	}
+
+	@Override
+	public BytesBTreeNode<V> insert(byte[] key, V value) {
+		// find where the key should go
+		int insertIndex = this.chooseChild(key);
+
+		// insert into child node
+		BytesBTreeNode<V> insertChild = this.children[insertIndex];
+		int childSizeBefore = insertChild.size();
+		BytesBTreeNode<V> newChildNode = insertChild.insert(key, value);
+		this.subtreeSize += insertChild.size() - childSizeBefore;
+
+		// if no splitting is necessary, return null
+		if (newChildNode == null) return null;
+		this.subtreeSize += newChildNode.size();
+
+		// add separator and new child to arrays
+		this.insertChild(insertIndex + 1, separator(insertChild, newChildNode), newChildNode);
+
+		// if there was room in this node for a new child, return
+		if (this.numKeys <= this.mc) return null;
+
+		// split arrays in two (adding plus one because we split by children)
+		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
+
+		// last half goes in new node; the separator in front of it moves up to the parent instead
+		BytesIntermediateNode<V> newNode = new BytesIntermediateNode<V>(this.mc);
+		newNode.prefix = this.prefix;
+		System.arraycopy(this.children, splitIndex, newNode.children, 0, numMoved);
+		System.arraycopy(this.suffixes, splitIndex, newNode.suffixes, 0, numMoved);
+		newNode.suffixes[0] = null;
+		newNode.numKeys = numMoved;
+		for (int i=0; i<numMoved; i++) newNode.subtreeSize += newNode.children[i].size();
+
+		// first half stays in this node
+		this.subtreeSize -= newNode.subtreeSize;
+		Arrays.fill(this.children, splitIndex, this.numKeys, null);
+		Arrays.fill(this.suffixes, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
+
+		// each half has fewer separators, so they may share more
+		this.lengthenPrefix(1);
+		newNode.lengthenPrefix(1);
+
+		// return new node
+		return newNode;
+	}
+
+	@Override
+	public boolean delete(byte[] key, BytesBTreeNode<V> neighbor, boolean neighborOnLeft) {
+		// find where to delete
+		int deleteIndex = this.chooseChild(key);
+
+		// delete from child, using neighbor for extra data
+		int neighborIndex = deleteIndex == 0 ? 1 : deleteIndex - 1;
+		BytesBTreeNode<V> deleteChild = this.children[deleteIndex];
+		BytesBTreeNode<V> deleteChildNeighbor = this.children[neighborIndex];
+		int neighborSizeBefore = deleteChildNeighbor.size();
+		int childrenSizeBefore = deleteChild.size() + neighborSizeBefore;
+		boolean shouldDeleteChild = deleteChild.delete(key, deleteChildNeighbor, deleteIndex != 0);
+
+		// the child may have given pairs to or taken pairs from its neighbor, so count both
+		int childrenSizeAfter = deleteChildNeighbor.size() + (shouldDeleteChild ? 0 : deleteChild.size());
+		this.subtreeSize += childrenSizeAfter - childrenSizeBefore;
+
+		// delete child if necessary
+		if (shouldDeleteChild) this.removeChild(deleteIndex);
+
+		// if something moved between the child and its neighbor, the boundary between them moved too
+		else if (deleteChildNeighbor.size() != neighborSizeBefore) {
+			int right = Math.max(deleteIndex, neighborIndex);
+			this.putKey(right, separator(this.children[right - 1], this.children[right]));
+		}
+
+		// if there are enough children in this node, return
+		if (this.numKeys >= this.mc/2) return false;
+
+		// If the neighbor is null, this must be the root. Tell the data structure
+		// to replace this if there is only one child.
+		if (neighbor == null) return this.numKeys == 1;
+
+		BytesIntermediateNode<V> neighborIntermediateNode = (BytesIntermediateNode<V>)neighbor;
+
+		// if neighbor does not have enough keys, move data and tell parent to delete this node
+		if (this.numKeys + neighborIntermediateNode.numKeys < this.mc) {
+			if (neighborOnLeft) {
+				byte[] junction = separator(neighborIntermediateNode.children[neighborIntermediateNode.numKeys - 1], this.children[0]);
+				for (int i=0; i<this.numKeys; i++) {
+					neighborIntermediateNode.insertChild(neighborIntermediateNode.numKeys,
+							i == 0 ? junction : this.keyAt(i), this.children[i]);
+				}
+			} else {
+				byte[] junction = separator(this.children[this.numKeys - 1], neighborIntermediateNode.children[0]);
+				for (int i=this.numKeys - 1; i>=0; i--) {
+					neighborIntermediateNode.prependChild(this.children[i],
+							i == this.numKeys - 1 ? junction : this.keyAt(i + 1));
+				}
+			}
+			neighborIntermediateNode.subtreeSize += this.subtreeSize;
+			return true;
+		}
+
+		// if neighbor has enough keys, take the child closest to this node
+		BytesBTreeNode<V> transferredChild;
+		if (neighborOnLeft) {
+			transferredChild = neighborIntermediateNode.children[neighborIntermediateNode.numKeys - 1];
+			neighborIntermediateNode.removeChild(neighborIntermediateNode.numKeys - 1);
+			this.prependChild(transferredChild, separator(transferredChild, this.children[0]));
+		} else {
+			transferredChild = neighborIntermediateNode.children[0];
+			neighborIntermediateNode.removeChild(0);
+			this.insertChild(this.numKeys, separator(this.children[this.numKeys - 1], transferredChild), transferredChild);
+		}
+		this.subtreeSize += transferredChild.size();
+		neighborIntermediateNode.subtreeSize -= transferredChild.size();
+
+		return false;
+	}
+
+	/**
+	 * Get the separator to put in front of the right one of two neighboring nodes.
+	 */
+	private static <V> byte[] separator(BytesBTreeNode<V> left, BytesBTreeNode<V> right) {
+		return shortestSeparator(left.lastKey(), right.firstKey());
+	}
+
+	/**
+	 * Shift separators and children to the right to make room for a new child.
+	 * Arrays must have room for one more child.
+	 * @param index where the child goes, at least 1
+	 * @param separator separator to put in front of the child
+	 */
+	private void insertChild(int index, byte[] separator, BytesBTreeNode<V> child) {
+		this.insertKey(index, separator);
+		Helpers.insertAt(this.children, this.numKeys, index, child);
+		this.numKeys++;
+	}
+
+	/**
+	 * Add a child in front of all the others.
+	 * @param separator separator to put in front of the child that was first until now
+	 */
+	private void prependChild(BytesBTreeNode<V> child, byte[] separator) {
+		Helpers.insertAt(this.suffixes, this.numKeys, 0, null);
+		Helpers.insertAt(this.children, this.numKeys, 0, child);
+		this.numKeys++;
+		this.putKey(1, separator);
+	}
+
+	/**
+	 * Shift separators and children to the left over the child at index.
+	 */
+	private void removeChild(int index) {
+		Helpers.removeAt(this.suffixes, this.numKeys, index);
+		Helpers.removeAt(this.children, this.numKeys, index);
+		this.numKeys--;
+
+		// the first child's separator is never used
+		this.suffixes[0] = null;
+	}
+
+	@Override
+	public int size() {
+		return this.subtreeSize;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		// add list of separators at top
+		for (int i=1; i<this.numKeys; i++) {
+			sb.append(new String(this.keyAt(i), StandardCharsets.UTF_8));
+			sb.append(" ");
+		}
+
+		// add each child on a new line, indenting everything by one tab
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append("\n\t");
+			sb.append(this.children[i].toString().replaceAll("\n", "\n\t"));
+		}
+
+		return sb.toString();
+	}
+
+	@Override
+	public void verify(byte[] min, byte[] max) {
+		// check that unused slots have been cleared
+		for (int i=0; i<this.children.length; i++) {
+			if ((i < this.numKeys) != (this.children[i] != null))
+				throw new AssertionError("Intermediate node: #keys != #children");
+			if ((i > 0 && i < this.numKeys) != (this.suffixes[i] != null))
+				throw new AssertionError("Intermediate node: #separators != #children - 1");
+		}
+
+		// check that children do not exceed max children
+		if (this.numKeys > this.mc)
+			throw new AssertionError("Intermediate node: #children > maxChildren");
+
+		// check that the cached subtree size matches the children
+		int childSizes = 0;
+		for (int i=0; i<this.numKeys; i++) childSizes += this.children[i].size();
+		if (this.subtreeSize != childSizes)
+			throw new AssertionError("Intermediate node: subtree size (" + this.subtreeSize
+					+ ") != sum of children (" + childSizes + ")");
+
+		// check that all separators are within range and in order
+		for (int i=1; i<this.numKeys; i++) {
+			byte[] key = this.keyAt(i);
+			if (min != null && Helpers.compareUnsigned(key, 0, min, 0) <= 0)
+				throw new AssertionError("Intermediate node: separator (" + Arrays.toString(key) + ") <= min");
+			if (max != null && Helpers.compareUnsigned(key, 0, max, 0) >= 0)
+				throw new AssertionError("Intermediate node: separator (" + Arrays.toString(key) + ") >= max");
+			if (i > 1 && Helpers.compareUnsigned(this.suffixes[i - 1], 0, this.suffixes[i], 0) >= 0)
+				throw new AssertionError("Intermediate node: separators not in order");
+		}
+
+		// check that this is at least half full
+		if (!this.isRoot && this.numKeys < this.mc/2)
+			throw new AssertionError("Intermediate node: #children < maxChildren/2");
+
+		// the root should have at least two children if it is not a leaf
+		if (this.isRoot && this.numKeys < 2)
+			throw new AssertionError("Intermediate node: #children in root < 2");
+
+		// check that all children are valid
+		for (int i=0; i<this.numKeys; i++) {
+			this.children[i].verify(i == 0 ? min : this.keyAt(i), i == this.numKeys - 1 ? max : this.keyAt(i + 1));
+		}
+	}
+
+	@Override
+	public int getDepth() {
+		int depthFound = -1;
+		for (int i=0; i<this.numKeys; i++) {
+			int childDepth = this.children[i].getDepth();
+			if (depthFound == -1) depthFound = childDepth;
+			if (childDepth != depthFound) throw new AssertionError("Sibling depths not equal");
+		}
+		return depthFound;
+	}
+
+	@Override
+	protected BytesLeafNode<V> findLeaf(byte[] key) {
+		return this.children[this.chooseChild(key)].findLeaf(key);
+	}
+
+	@Override
+	protected BytesLeafNode<V> firstLeaf() {
+		return this.children[0].firstLeaf();
+	}
+
+	@Override
+	protected byte[] firstKey() {
+		return this.children[0].firstKey();
+	}
+
+	@Override
+	protected byte[] lastKey() {
+		return this.children[this.numKeys - 1].lastKey();
+	}
+
+}
@@ -0,0 +1,207 @@
+package tree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BytesLeafNode<V> extends BytesBTreeNode<V> {
+
+	protected V[] values; // max length = mk, parallel to suffixes
+	protected BytesLeafNode<V> previous, next; // used for getRange
+
+	@SuppressWarnings("unchecked")
+	public BytesLeafNode(int maxKeys) {
+		super(maxKeys);
+		this.values = (V[]) new Object[maxKeys + 1];
+	}
+
+	@Override
+	public V get(byte[] key) {
+		if (this.compareWithPrefix(key) != 0) return null;
+		int getIndex = this.firstIndexGreaterOrEqual(key, 0);
+		return this.keyAtIndexEquals(getIndex, key) ? this.values[getIndex] : null;
+	}
+
+	/**
+	 * Get the first slot whose key is greater than or equal to the given key,
+	 * or numKeys if there is none.
+	 */
+	protected int search(byte[] key) {
+		int comparison = this.compareWithPrefix(key);
+		if (comparison < 0) return 0;
+		if (comparison > 0) return this.numKeys;
+		return this.firstIndexGreaterOrEqual(key, 0);
+	}
+
+	@Override
+	public BytesBTreeNode<V> insert(byte[] key, V value) {
+
+		// find where the key should go in the sorted array
+		int comparison = this.compareWithPrefix(key);
+		int insertIndex = comparison < 0 ? 0 
+				: comparison > 0 ? this.numKeys 
+				: this.firstIndexGreaterOrEqual(key, 0);
+
+		// if key at index is equal to given key, replace value, don't insert
+		if (comparison == 0 && this.keyAtIndexEquals(insertIndex, key)) {
+			this.values[insertIndex] = value;
+			return null;
+		}
+
+		// add key value pair
+		this.insertEntry(insertIndex, key, value);
+
+		// if node doesn't have to be split, you're done
+		if (this.numKeys <= this.mc) return null;
+
+		// when node is full, split in two
+		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
+
+		// last half goes in new node, which starts out with the same prefix
+		BytesLeafNode<V> newNode = new BytesLeafNode<V>(this.mc);
+		newNode.prefix = this.prefix;
+		System.arraycopy(this.suffixes, splitIndex, newNode.suffixes, 0, numMoved);
+		System.arraycopy(this.values, splitIndex, newNode.values, 0, numMoved);
+		newNode.numKeys = numMoved;
+
+		// shrink this node down to the first half
+		Arrays.fill(this.suffixes, splitIndex, this.numKeys, null);
+		Arrays.fill(this.values, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
+
+		// each half has fewer keys, so they may share more
+		this.lengthenPrefix(0);
+		newNode.lengthenPrefix(0);
+
+		// create links to the new node
+		newNode.next = this.next;
+		newNode.previous = this;
+		if (this.next != null) this.next.previous = newNode;
+		this.next = newNode;
+
+		return newNode;
+	}
+
+	@Override
+	public boolean delete(byte[] key, BytesBTreeNode<V> neighbor, boolean neighborOnLeft) {
+		// find the key if it exists
+		if (this.compareWithPrefix(key) != 0) return false;
+		int deleteIndex = this.firstIndexGreaterOrEqual(key, 0);
+
+		// if key to delete not found, return
+		if (!this.keyAtIndexEquals(deleteIndex, key)) return false;
+
+		// remove key value pair
+		this.removeEntry(deleteIndex);
+
+		// if leaf is not empty, return
+		if (this.numKeys > 0) return false;
+
+		// if neighbor is null or doesn't have enough keys, delete this node
+		if (neighbor == null || neighbor.numKeys <= 1) {
+			// remove links to this node
+			if (this.previous != null) this.previous.next = this.next;
+			if (this.next != null) this.next.previous = this.previous;
+
+			return true;
+		}
+
+		BytesLeafNode<V> neighborLeafNode = (BytesLeafNode<V>)neighbor;
+
+		// if neighbor has enough keys, take the one closest to this node
+		int removalLocation = neighborOnLeft ? neighborLeafNode.numKeys - 1 : 0;
+		this.insertEntry(0, neighborLeafNode.keyAt(removalLocation), neighborLeafNode.values[removalLocation]);
+		neighborLeafNode.removeEntry(removalLocation);
+
+		return false;
+	}
+
+	/**
+	 * Shift suffixes and values to the right to make room for a new pair.
+	 * Arrays must have room for one more pair.
+	 */
+	private void insertEntry(int index, byte[] key, V value) {
+		this.insertKey(index, key);
+		Helpers.insertAt(this.values, this.numKeys, index, value);
+		this.numKeys++;
+	}
+
+	/**
+	 * Shift suffixes and values to the left over the pair at index.
+	 */
+	private void removeEntry(int index) {
+		Helpers.removeAt(this.suffixes, this.numKeys, index);
+		Helpers.removeAt(this.values, this.numKeys, index);
+		this.numKeys--;
+	}
+
+	@Override
+	public int size() {
+		return this.numKeys;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Leaf: ");
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append(new String(this.keyAt(i), StandardCharsets.UTF_8));
+			sb.append(":");
+			sb.append(this.values[i]);
+			sb.append(" ");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void verify(byte[] min, byte[] max) {
+		// check that keys do not exceed max children
+		if (this.numKeys > this.mc) throw new AssertionError("Leaf node: #keys > max children");
+
+		// check that slots past the last key have been cleared
+		for (int i=this.numKeys; i<this.values.length; i++) {
+			if (this.suffixes[i] != null || this.values[i] != null)
+				throw new AssertionError("Leaf node: unused slot not cleared");
+		}
+
+		// check that all keys are within range
+		for (int i=0; i<this.numKeys; i++) {
+			byte[] key = this.keyAt(i);
+			if (min != null && Helpers.compareUnsigned(key, 0, min, 0) < 0)
+				throw new AssertionError("Leaf node: key (" + Arrays.toString(key) + ") < min");
+			if (max != null && Helpers.compareUnsigned(key, 0, max, 0) >= 0)
+				throw new AssertionError("Leaf node: key (" + Arrays.toString(key) + ") >= max");
+		}
+
+		// check that all keys are in order
+		for (int i=0; i<this.numKeys-1; i++) {
+			if (Helpers.compareUnsigned(this.suffixes[i], 0, this.suffixes[i+1], 0) >= 0)
+				throw new AssertionError("Leaf node: keys not in order");
+		}
+	}
+
+	@Override
+	public int getDepth() {
+		return 0;
+	}
+
+	@Override
+	protected BytesLeafNode<V> findLeaf(byte[] key) {
+		return this;
+	}
+
+	@Override
+	protected BytesLeafNode<V> firstLeaf() {
+		return this;
+	}
+
+	@Override
+	protected byte[] firstKey() {
+		return this.keyAt(0);
+	}
+
+	@Override
+	protected byte[] lastKey() {
+		return this.keyAt(this.numKeys - 1);
+	}
+
+}
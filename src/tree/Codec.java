@@ -0,0 +1,28 @@
+package tree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns keys or values into a fixed number of bytes and back, so they can be
+ * stored outside the Java heap. See Codecs for common types.
+ * @param <T> type being encoded
+ */
+public interface Codec<T> {
+	
+	/**
+	 * Get the number of bytes every encoded value takes up.
+	 */
+	public int size();
+	
+	/**
+	 * Write a value into a buffer, using exactly size() bytes starting at offset.
+	 * Does not change the buffer's position.
+	 */
+	public void write(ByteBuffer buffer, int offset, T value);
+	
+	/**
+	 * Read back a value written by write. Does not change the buffer's position.
+	 */
+	public T read(ByteBuffer buffer, int offset);
+
+}
@@ -0,0 +1,83 @@
+package tree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs for common key and value types.
+ */
+public class Codecs {
+	
+	public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+		@Override
+		public int size() {
+			return Integer.BYTES;
+		}
+
+		@Override
+		public void write(ByteBuffer buffer, int offset, Integer value) {
+			buffer.putInt(offset, value);
+		}
+
+		@Override
+		public Integer read(ByteBuffer buffer, int offset) {
+			return buffer.getInt(offset);
+		}
+	};
+	
+	public static final Codec<Long> LONG = new Codec<Long>() {
+		@Override
+		public int size() {
+			return Long.BYTES;
+		}
+
+		@Override
+		public void write(ByteBuffer buffer, int offset, Long value) {
+			buffer.putLong(offset, value);
+		}
+
+		@Override
+		public Long read(ByteBuffer buffer, int offset) {
+			return buffer.getLong(offset);
+		}
+	};
+	
+	/**
+	 * Get a codec for strings up to a certain length once encoded in UTF-8.
+	 * Each string takes up maxBytes plus 4 bytes for its length, no matter
+	 * how long it is. Writing a longer string throws IllegalArgumentException.
+	 * @param maxBytes largest number of UTF-8 bytes a string can have
+	 * @return codec for strings
+	 */
+	public static Codec<String> string(int maxBytes) {
+		return new Codec<String>() {
+			@Override
+			public int size() {
+				return Integer.BYTES + maxBytes;
+			}
+
+			@Override
+			public void write(ByteBuffer buffer, int offset, String value) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				if (bytes.length > maxBytes) 
+					throw new IllegalArgumentException("string is " + bytes.length 
+							+ " bytes, more than the limit of " + maxBytes);
+				
+				ByteBuffer view = buffer.duplicate();
+				view.position(offset);
+				view.putInt(bytes.length);
+				view.put(bytes);
+			}
+
+			@Override
+			public String read(ByteBuffer buffer, int offset) {
+				byte[] bytes = new byte[buffer.getInt(offset)];
+				ByteBuffer view = buffer.duplicate();
+				view.position(offset + Integer.BYTES);
+				view.get(bytes);
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+		};
+	}
+
+}
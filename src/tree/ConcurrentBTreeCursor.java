@@ -0,0 +1,142 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over a ConcurrentBTreeSortedMap. It copies the pairs of one leaf
+ * at a time, copying again if a writer changed the leaf in the middle, then
+ * follows the right link. Anything not past the last key it copied is
+ * skipped, so a leaf that splits in between does not make it see a pair twice.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class ConcurrentBTreeCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+
+	private final ConcurrentBTreeSortedMap<K, V> map;
+
+	// pairs copied from the current leaf; pairs [index, count) have not been visited yet
+	private final K[] keys;
+	private final V[] values;
+	private int count;
+	private int index;
+
+	// leaf to copy once the buffer runs out, or null at the end of the map
+	private ConcurrentNode<K, V> nextLeaf;
+	private K lastCopied; // every key copied so far is <= this; null before anything is copied
+
+	// pair the cursor is on, kept apart from the buffer since hasNext may refill it
+	private K currentKey;
+	private V currentValue;
+	private boolean onPair;
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentBTreeCursor(ConcurrentBTreeSortedMap<K, V> map) {
+		this.map = map;
+		this.keys = (K[]) new Comparable[map.root.mc + 1];
+		this.values = (V[]) new Object[map.root.mc + 1];
+	}
+
+	@Override
+	public void seek(K key) {
+		this.reset(this.map.findNode(key, 0, null));
+		this.copyLeaf(key);
+	}
+
+	@Override
+	public void seekFirst() {
+		this.reset(this.map.leftmostLeaf());
+		this.copyLeaf(null);
+	}
+
+	@Override
+	public boolean hasNext() {
+		// leaves can be empty, so keep going until one has something
+		while (this.index == this.count && this.nextLeaf != null) this.copyLeaf(null);
+		return this.index < this.count;
+	}
+
+	@Override
+	public void next() {
+		if (!this.hasNext()) throw new NoSuchElementException();
+		this.currentKey = this.keys[this.index];
+		this.currentValue = this.values[this.index];
+		this.index++;
+		this.onPair = true;
+	}
+
+	@Override
+	public K getKey() {
+		if (!this.onPair) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentKey;
+	}
+
+	@Override
+	public V getValue() {
+		if (!this.onPair) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentValue;
+	}
+
+	private void reset(ConcurrentNode<K, V> leaf) {
+		this.nextLeaf = leaf;
+		this.lastCopied = null;
+		this.count = 0;
+		this.index = 0;
+		this.onPair = false;
+	}
+
+	/**
+	 * Copy the pairs of the next leaf into the buffer, starting at a key if
+	 * one is given, and move nextLeaf to the leaf after it.
+	 */
+	private void copyLeaf(K from) {
+		ConcurrentNode<K, V> leaf = this.nextLeaf;
+		while (true) {
+			ConcurrentNode<K, V> right = null;
+			boolean covered = false;
+
+			for (int attempt=0; ; attempt++) {
+				long stamp = leaf.beginRead(attempt);
+				try {
+					right = leaf.right;
+					covered = from == null || leaf.covers(from);
+					if (covered) this.copyPairs(leaf, from);
+				} catch (RuntimeException e) {
+					// a writer was partway through changing the leaf, unless the read was valid
+					if (leaf.endRead(stamp, attempt)) throw e;
+					continue;
+				}
+				if (leaf.endRead(stamp, attempt)) break;
+			}
+
+			// the leaf may have split since this cursor found it
+			if (!covered) {
+				leaf = right;
+				continue;
+			}
+
+			this.index = 0;
+			if (this.count > 0) this.lastCopied = this.keys[this.count - 1];
+			this.nextLeaf = right;
+			return;
+		}
+	}
+
+	/**
+	 * Copy the pairs in a leaf that come after both from and the last key
+	 * copied into the buffer. The copy is only good if the read is validated.
+	 */
+	private void copyPairs(ConcurrentNode<K, V> leaf, K from) {
+		int numKeys = leaf.numKeys;
+		int start = 0;
+		if (from != null) start = Helpers.firstIndexGreaterOrEqual(leaf.keys, numKeys, from);
+		if (this.lastCopied != null) {
+			start = Math.max(start, Helpers.firstIndexGreaterOrEqual(leaf.keys, numKeys, this.lastCopied));
+			if (start < numKeys && leaf.keys[start].compareTo(this.lastCopied) == 0) start++;
+		}
+
+		this.count = Math.max(0, numKeys - start);
+		System.arraycopy(leaf.keys, start, this.keys, 0, this.count);
+		System.arraycopy(leaf.values, start, this.values, 0, this.count);
+	}
+
+}
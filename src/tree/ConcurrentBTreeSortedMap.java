@@ -0,0 +1,284 @@
+package tree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * B tree that many threads can read and change at once. It is a B-link
+ * tree (Lehman and Yao): every node has a high key and a link to its right
+ * sibling, so a thread that lands on a node after it was split just moves
+ * right instead of starting over.
+ *
+ * Every node has its own latch. Readers going down the tree do not take
+ * latches at all: they read a node optimistically, check that no writer
+ * latched it in the meantime, and read it again if one did. The right
+ * links cover splits that happen between levels, so a reader never starts
+ * over from the root. A writer only latches the leaf it changes, plus the
+ * parents it adds split-off nodes to, latching each parent before letting
+ * go of the child.
+ *
+ * Deleting never merges nodes, so leaves can become empty. Cursors are
+ * weakly consistent: they see every pair that was there when the cursor
+ * started and was not deleted before the cursor reached it. rank, select
+ * and countRange walk the leaves, so they take linear time.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class ConcurrentBTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
+
+	private final int mc;
+	private final LongAdder size;
+	private final Object rootLock; // held while replacing the root
+
+	protected volatile ConcurrentNode<K, V> root;
+
+	public ConcurrentBTreeSortedMap(int maxKeys) {
+		this.mc = maxKeys;
+		this.size = new LongAdder();
+		this.rootLock = new Object();
+		this.root = new ConcurrentNode<K, V>(maxKeys, 0);
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		Deque<ConcurrentNode<K, V>> path = new ArrayDeque<>();
+		ConcurrentNode<K, V> node = this.lockForWrite(this.findNode(key, 0, path), key);
+		try {
+			if (node.put(key, value)) this.size.increment();
+
+			// split full nodes from the bottom up, latching each parent before letting go of the child
+			while (node.isOverfull()) {
+				ConcurrentNode<K, V> sibling = node.split();
+				ConcurrentNode<K, V> parent = this.lockParent(node, sibling, path);
+				if (parent == null) break;
+
+				try {
+					parent.insertChild(sibling.keys[0], sibling);
+				} finally {
+					node.unlockWrite();
+					node = parent;
+				}
+			}
+		} finally {
+			node.unlockWrite();
+		}
+	}
+
+	@Override
+	public void delete(K key) {
+		ConcurrentNode<K, V> leaf = this.lockForWrite(this.findNode(key, 0, null), key);
+		try {
+			if (leaf.remove(key)) this.size.decrement();
+		} finally {
+			leaf.unlockWrite();
+		}
+	}
+
+	@Override
+	public V get(K key) {
+		ConcurrentNode<K, V> node = this.root;
+		while (true) {
+			ConcurrentNode<K, V> next = null;
+			V value = null;
+
+			for (int attempt=0; ; attempt++) {
+				long stamp = node.beginRead(attempt);
+				next = null;
+				try {
+					if (!node.covers(key)) next = node.right;
+					else if (node.isLeaf()) value = node.get(key);
+					else next = node.childFor(key);
+				} catch (RuntimeException e) {
+					// a writer was partway through changing the node, unless the read was valid
+					if (node.endRead(stamp, attempt)) throw e;
+					continue;
+				}
+				if (node.endRead(stamp, attempt)) break;
+			}
+
+			if (next == null) return value;
+			node = next;
+		}
+	}
+
+	@Override
+	public Cursor<K, V> cursor() {
+		return new ConcurrentBTreeCursor<K, V>(this);
+	}
+
+	@Override
+	public int size() {
+		return this.size.intValue();
+	}
+
+	@Override
+	public int rank(K key) {
+		Cursor<K, V> cursor = this.cursor();
+		cursor.seekFirst();
+
+		int count = 0;
+		while (cursor.hasNext()) {
+			cursor.next();
+			if (cursor.getKey().compareTo(key) >= 0) break;
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		if (index < 0) return null;
+
+		Cursor<K, V> cursor = this.cursor();
+		cursor.seekFirst();
+		for (int i=0; i<=index; i++) {
+			if (!cursor.hasNext()) return null;
+			cursor.next();
+		}
+		return new KeyValuePair<K, V>(cursor.getKey(), cursor.getValue());
+	}
+
+	@Override
+	public int countRange(K keyStart, K keyEnd) {
+		Cursor<K, V> cursor = this.cursor();
+		cursor.seek(keyStart);
+
+		int count = 0;
+		while (cursor.hasNext()) {
+			cursor.next();
+			if (cursor.getKey().compareTo(keyEnd) >= 0) break;
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return this.root.toString();
+	}
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 * Must not run while other threads change the map.
+	 * @param min minimum value (inclusive)
+	 * @param max maximum value (exclusive)
+	 */
+	protected void verify(K min, K max) {
+		int pairs = this.root.verify(min, null);
+		if (pairs != this.size()) throw new AssertionError("size (" + this.size() + ") != #pairs (" + pairs + ")");
+		if (this.root.right != null) throw new AssertionError("root has a right sibling");
+
+		ConcurrentNode<K, V> leaf = this.leftmostLeaf();
+		for (; leaf != null; leaf = leaf.right) {
+			if (leaf.numKeys > 0 && leaf.keys[leaf.numKeys - 1].compareTo(max) >= 0)
+				throw new AssertionError("Leaf node: key (" + leaf.keys[leaf.numKeys - 1] + ") >= max (" + max + ")");
+		}
+	}
+
+	/**
+	 * Go down the tree to the node on a certain level whose range holds a key.
+	 * Nothing is latched when this returns, so the node may have been split
+	 * by the time the caller latches it.
+	 * @param path if not null, gets the last node visited on each level above, top first
+	 */
+	protected ConcurrentNode<K, V> findNode(K key, int level, Deque<ConcurrentNode<K, V>> path) {
+		ConcurrentNode<K, V> node = this.root;
+		while (true) {
+			ConcurrentNode<K, V> next = null;
+			boolean descending = false;
+
+			for (int attempt=0; ; attempt++) {
+				long stamp = node.beginRead(attempt);
+				try {
+					descending = node.covers(key);
+					if (!descending) next = node.right;
+					else if (node.level != level) next = node.childFor(key);
+					else next = null;
+				} catch (RuntimeException e) {
+					if (node.endRead(stamp, attempt)) throw e;
+					continue;
+				}
+				if (node.endRead(stamp, attempt)) break;
+			}
+
+			if (descending && next == null) return node;
+			if (descending && path != null) path.push(node);
+			node = next;
+		}
+	}
+
+	/**
+	 * Get the first leaf. Nothing is latched when this returns.
+	 */
+	protected ConcurrentNode<K, V> leftmostLeaf() {
+		ConcurrentNode<K, V> node = this.root;
+		while (!node.isLeaf()) {
+			ConcurrentNode<K, V> next = null;
+			for (int attempt=0; ; attempt++) {
+				long stamp = node.beginRead(attempt);
+				next = node.children[0];
+				if (node.endRead(stamp, attempt)) break;
+			}
+			node = next;
+		}
+		return node;
+	}
+
+	/**
+	 * Latch a node for writing, then move right until reaching the node that
+	 * holds the key, latching each node before letting go of the one before it.
+	 * @return the node holding the key, latched for writing; if this throws,
+	 * nothing is left latched
+	 */
+	private ConcurrentNode<K, V> lockForWrite(ConcurrentNode<K, V> node, K key) {
+		node.lockWrite();
+		try {
+			while (!node.covers(key)) {
+				ConcurrentNode<K, V> right = node.right;
+				right.lockWrite();
+				node.unlockWrite();
+				node = right;
+			}
+			return node;
+		} catch (RuntimeException | Error e) {
+			node.unlockWrite();
+			throw e;
+		}
+	}
+
+	/**
+	 * Latch the parent that a node's new sibling should be added to. If the
+	 * node is the root, make a new root holding the node and its sibling instead.
+	 * @param node node that was just split, latched for writing
+	 * @param sibling node split off from it
+	 * @param path nodes visited on the way down, which are good guesses for the parent
+	 * @return the parent latched for writing, or null if a new root was made
+	 */
+	private ConcurrentNode<K, V> lockParent(ConcurrentNode<K, V> node, ConcurrentNode<K, V> sibling,
+			Deque<ConcurrentNode<K, V>> path) {
+		K lowKey = sibling.keys[0];
+		ConcurrentNode<K, V> parent = path.poll();
+
+		if (parent == null) {
+			synchronized (this.rootLock) {
+				if (this.root == node) {
+					ConcurrentNode<K, V> newRoot = new ConcurrentNode<K, V>(this.mc, node.level + 1);
+					newRoot.keys[0] = node.keys[0];
+					newRoot.children[0] = node;
+					newRoot.keys[1] = lowKey;
+					newRoot.children[1] = sibling;
+					newRoot.numKeys = 2;
+					this.root = newRoot;
+					return null;
+				}
+			}
+
+			// the tree grew since this thread went down it, so look for the parent from the new root
+			parent = this.findNode(lowKey, node.level + 1, null);
+		}
+
+		return this.lockForWrite(parent, lowKey);
+	}
+
+}
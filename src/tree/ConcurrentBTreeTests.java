@@ -0,0 +1,156 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ConcurrentBTreeTests {
+
+	@Test
+	public void testMatchesReferenceSingleThreaded() {
+		for (int maxChildren : new int[] {3, 4, 64}) {
+			ConcurrentBTreeSortedMap<Integer, Integer> map = new ConcurrentBTreeSortedMap<>(maxChildren);
+			TreeMap<Integer, Integer> reference = new TreeMap<>();
+			
+			for (int i=0; i<3000; i++) {
+				int key = (int)(Math.random() * 2000) - 1000;
+				if (i % 3 == 2) {
+					map.delete(key);
+					reference.remove(key);
+				} else {
+					map.insert(key, i);
+					reference.put(key, i);
+				}
+			}
+			map.verify(-1000, 1000);
+			
+			assertEquals(reference.size(), map.size());
+			for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+				assertEquals(entry.getValue(), map.get(entry.getKey()));
+				assertEquals(reference.headMap(entry.getKey()).size(), map.rank(entry.getKey()));
+			}
+			assertEquals(new ArrayList<>(reference.subMap(-100, 100).keySet()), this.getKeys(map.getRange(-100, 100)));
+			assertEquals(reference.subMap(-100, 100).size(), map.countRange(-100, 100));
+			assertEquals(reference.firstKey(), map.select(0).key);
+			assertNull(map.select(reference.size()));
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void testThrowingWriteLetsGoOfLatches() {
+		ConcurrentBTreeSortedMap<Integer, Integer> map = new ConcurrentBTreeSortedMap<>(4);
+		map.insert(1, 1);
+		map.insert(2, 2);
+		
+		// the root is a leaf, so a null key is first compared once the leaf is latched
+		for (int i=0; i<10; i++) {
+			try {
+				map.insert(null, 0);
+				fail("inserted a null key");
+			} catch (NullPointerException e) {
+			}
+			try {
+				map.delete(null);
+				fail("deleted a null key");
+			} catch (NullPointerException e) {
+			}
+		}
+		
+		// writers and readers of the same leaves still get through
+		for (int i=0; i<100; i++) map.insert(i, -i);
+		for (int i=0; i<100; i+=2) map.delete(i);
+		for (int i=0; i<100; i++) assertEquals(i % 2 == 0 ? null : (Integer) (-i), map.get(i));
+		map.verify(0, 100);
+	}
+	
+	@Test
+	public void testStress() throws Exception {
+		ConcurrentBTreeSortedMap<Integer, Integer> map = new ConcurrentBTreeSortedMap<>(8);
+		int numWriters = 8;
+		int keysPerWriter = 5000;
+		
+		// each writer owns the keys equal to its number mod numWriters, so the final contents are known
+		List<Map<Integer, Integer>> references = new ArrayList<>();
+		for (int t=0; t<numWriters; t++) references.add(new ConcurrentHashMap<>());
+		
+		AtomicBoolean done = new AtomicBoolean();
+		List<Throwable> errors = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0; t<numWriters; t++) {
+			int writer = t;
+			threads.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				Map<Integer, Integer> reference = references.get(writer);
+				for (int i=0; i<20000; i++) {
+					int key = random.nextInt(keysPerWriter) * numWriters + writer;
+					if (i % 3 == 2) {
+						map.delete(key);
+						reference.remove(key);
+					} else {
+						map.insert(key, i);
+						reference.put(key, i);
+					}
+					
+					// other writers never touch this writer's keys
+					if (!Objects.equals(reference.get(key), map.get(key)))
+						throw new AssertionError("lost write to " + key);
+				}
+			}));
+		}
+		
+		// readers check that scans always come back in order while the tree splits around them
+		for (int t=0; t<4; t++) {
+			threads.add(new Thread(() -> {
+				while (!done.get()) {
+					Cursor<Integer, Integer> cursor = map.cursor();
+					cursor.seek(ThreadLocalRandom.current().nextInt(numWriters * keysPerWriter));
+					Integer previous = null;
+					for (int i=0; i<200 && cursor.hasNext(); i++) {
+						cursor.next();
+						if (previous != null && previous >= cursor.getKey())
+							throw new AssertionError("cursor went from " + previous + " to " + cursor.getKey());
+						previous = cursor.getKey();
+					}
+				}
+			}));
+		}
+		
+		for (Thread thread : threads) {
+			thread.setUncaughtExceptionHandler((th, e) -> {
+				synchronized (errors) {
+					errors.add(e);
+				}
+			});
+			thread.start();
+		}
+		for (Thread thread : threads.subList(0, numWriters)) thread.join();
+		done.set(true);
+		for (Thread thread : threads) thread.join();
+		
+		if (!errors.isEmpty()) throw new AssertionError(errors.get(0));
+		map.verify(0, numWriters * keysPerWriter);
+		
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (Map<Integer, Integer> reference : references) expected.putAll(reference);
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		assertEquals(new ArrayList<>(expected.keySet()), this.getKeys(map.getRange(0, numWriters * keysPerWriter)));
+	}
+	
+	private List<Integer> getKeys(List<KeyValuePair<Integer, Integer>> pairs) {
+		List<Integer> keys = new ArrayList<>();
+		for (KeyValuePair<Integer, Integer> pair : pairs) keys.add(pair.key);
+		return keys;
+	}
+
+}
@@ -0,0 +1,258 @@
+package tree;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A node in a ConcurrentBTreeSortedMap. Besides its keys, every node knows
+ * its high key, which every key under it is less than, and its right
+ * sibling on the same level. When a node is split, the keys it gave away
+ * can still be found by following the right link, so a thread that reached
+ * the node before the split only has to move right.
+ *
+ * Fields may only be changed while holding the node's lock in write mode.
+ * Readers usually do not take the lock at all: the lock's stamp acts as a
+ * version number, and a read is thrown away and tried again if a writer
+ * locked the node while it was going on. See beginRead and endRead.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class ConcurrentNode<K extends Comparable<K>, V> {
+
+	// optimistic reads of a node tried before falling back to its read lock
+	private static final int OPTIMISTIC_TRIES = 4;
+
+	public final int mc;
+	protected final int level; // 0 for leaves
+	protected final StampedLock lock;
+	private long writeStamp; // from the write lock, while a writer holds it
+
+	protected K[] keys; // for intermediate nodes, keys[i] is a lower bound of children[i] for i > 0
+	protected V[] values; // leaves only, parallel to keys
+	protected ConcurrentNode<K, V>[] children; // intermediate nodes only, parallel to keys
+	protected int numKeys;
+
+	protected K highKey; // every key under this node is < highKey; null if there is no bound
+	protected ConcurrentNode<K, V> right; // next node on the same level, or null
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentNode(int maxChildren, int level) {
+		this.mc = maxChildren;
+		this.level = level;
+		this.lock = new StampedLock();
+		this.keys = (K[]) new Comparable[maxChildren + 1];
+		if (level == 0) this.values = (V[]) new Object[maxChildren + 1];
+		else this.children = (ConcurrentNode<K, V>[]) new ConcurrentNode[maxChildren + 1];
+	}
+
+	/**
+	 * Start reading this node. The first few attempts do not write to shared
+	 * memory at all; after that the reader takes the read lock so it cannot be
+	 * starved by a stream of writers. Fields read before endRead returns true
+	 * may be inconsistent, so reading them can even throw.
+	 * @param attempt number of earlier attempts at this read
+	 * @return stamp to pass to endRead
+	 */
+	public long beginRead(int attempt) {
+		return attempt < OPTIMISTIC_TRIES ? this.lock.tryOptimisticRead() : this.lock.readLock();
+	}
+
+	/**
+	 * Finish reading this node.
+	 * @return true if nothing changed the node since beginRead, so what was read can be used
+	 */
+	public boolean endRead(long stamp, int attempt) {
+		if (attempt < OPTIMISTIC_TRIES) return this.lock.validate(stamp);
+		this.lock.unlockRead(stamp);
+		return true;
+	}
+
+	/**
+	 * Latch this node for writing.
+	 */
+	public void lockWrite() {
+		this.writeStamp = this.lock.writeLock();
+	}
+
+	/**
+	 * Let go of the write latch, which the calling thread must hold.
+	 */
+	public void unlockWrite() {
+		this.lock.unlockWrite(this.writeStamp);
+	}
+
+	public boolean isLeaf() {
+		return this.level == 0;
+	}
+
+	/**
+	 * Returns whether a key belongs under this node rather than somewhere to its right.
+	 */
+	public boolean covers(K key) {
+		return this.highKey == null || key.compareTo(this.highKey) < 0;
+	}
+
+	/**
+	 * Given a key this node covers, get the child it belongs under.
+	 */
+	public ConcurrentNode<K, V> childFor(K key) {
+		return this.children[Helpers.chooseChildFromKeys(this.keys, this.numKeys, key)];
+	}
+
+	/**
+	 * Given a key in a leaf, get its value. Returns null if not found.
+	 */
+	public V get(K key) {
+		int index = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		return Helpers.elementAtIndexEqualsKey(this.keys, this.numKeys, index, key) ? this.values[index] : null;
+	}
+
+	/**
+	 * Put a pair in a leaf, replacing the value if the key is already there.
+	 * The leaf may be left with one key too many, so check isOverfull.
+	 * @return true if the key was not there before
+	 */
+	public boolean put(K key, V value) {
+		int index = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		if (Helpers.elementAtIndexEqualsKey(this.keys, this.numKeys, index, key)) {
+			this.keys[index] = key;
+			this.values[index] = value;
+			return false;
+		}
+
+		Helpers.insertAt(this.keys, this.numKeys, index, key);
+		Helpers.insertAt(this.values, this.numKeys, index, value);
+		this.numKeys++;
+		return true;
+	}
+
+	/**
+	 * Remove a key from a leaf. Leaves are never merged, so this one may end up empty.
+	 * @return true if the key was there
+	 */
+	public boolean remove(K key) {
+		int index = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		if (!Helpers.elementAtIndexEqualsKey(this.keys, this.numKeys, index, key)) return false;
+
+		Helpers.removeAt(this.keys, this.numKeys, index);
+		Helpers.removeAt(this.values, this.numKeys, index);
+		this.numKeys--;
+		return true;
+	}
+
+	/**
+	 * Add a child that was split off from one of this node's children. The
+	 * node may be left with one child too many, so check isOverfull.
+	 * @param lowKey lower bound of the new child, which is the old child's new high key
+	 */
+	public void insertChild(K lowKey, ConcurrentNode<K, V> child) {
+		// keys[0] is never searched, since smaller keys can end up in the first child over time
+		int index = Helpers.firstIndexGreaterOrEqual(this.keys, 1, this.numKeys, lowKey);
+		Helpers.insertAt(this.keys, this.numKeys, index, lowKey);
+		Helpers.insertAt(this.children, this.numKeys, index, child);
+		this.numKeys++;
+	}
+
+	public boolean isOverfull() {
+		return this.numKeys > this.mc;
+	}
+
+	/**
+	 * Move the upper half of this node into a new right sibling. The sibling
+	 * is linked in before this returns, so it must not be locked by anyone.
+	 * @return the new sibling, whose first key is its lower bound
+	 */
+	public ConcurrentNode<K, V> split() {
+		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
+
+		ConcurrentNode<K, V> sibling = new ConcurrentNode<K, V>(this.mc, this.level);
+		System.arraycopy(this.keys, splitIndex, sibling.keys, 0, numMoved);
+		Arrays.fill(this.keys, splitIndex, this.numKeys, null);
+		if (this.isLeaf()) {
+			System.arraycopy(this.values, splitIndex, sibling.values, 0, numMoved);
+			Arrays.fill(this.values, splitIndex, this.numKeys, null);
+		} else {
+			System.arraycopy(this.children, splitIndex, sibling.children, 0, numMoved);
+			Arrays.fill(this.children, splitIndex, this.numKeys, null);
+		}
+		sibling.numKeys = numMoved;
+		this.numKeys = splitIndex;
+
+		sibling.highKey = this.highKey;
+		sibling.right = this.right;
+		this.highKey = sibling.keys[0];
+		this.right = sibling;
+		return sibling;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		if (this.isLeaf()) {
+			sb.append("Leaf: ");
+			for (int i=0; i<this.numKeys; i++) {
+				sb.append(this.keys[i]);
+				sb.append(":");
+				sb.append(this.values[i]);
+				sb.append(" ");
+			}
+			return sb.toString();
+		}
+
+		// add list of keys at top, then each child on a new line, indenting everything by one tab
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append(this.keys[i]);
+			sb.append(" ");
+		}
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append("\n\t");
+			sb.append(this.children[i].toString().replaceAll("\n", "\n\t"));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 * Must not run while other threads change the tree.
+	 * @param min minimum key (inclusive)
+	 * @param max maximum key (exclusive), or null for no bound
+	 * @return number of pairs under this node
+	 */
+	public int verify(K min, K max) {
+		String type = this.isLeaf() ? "Leaf node" : "Intermediate node";
+
+		if (this.numKeys > this.mc) throw new AssertionError(type + ": #keys > max children");
+		if (max == null ? this.highKey != null : this.highKey == null || this.highKey.compareTo(max) != 0)
+			throw new AssertionError(type + ": high key (" + this.highKey + ") != max (" + max + ")");
+
+		// check that all keys are within range and in order
+		for (int i=0; i<this.numKeys; i++) {
+			K key = this.keys[i];
+			if (i > 0 || this.isLeaf()) {
+				if (key.compareTo(min) < 0)
+					throw new AssertionError(type + ": key (" + key + ") < min (" + min + ")");
+				if (max != null && key.compareTo(max) >= 0)
+					throw new AssertionError(type + ": key (" + key + ") >= max (" + max + ")");
+			}
+			if (i > (this.isLeaf() ? 0 : 1) && this.keys[i - 1].compareTo(key) >= 0)
+				throw new AssertionError(type + ": keys not in order");
+		}
+
+		if (this.isLeaf()) return this.numKeys;
+		if (this.numKeys == 0) throw new AssertionError("Intermediate node: no children");
+
+		// check that children are one level down, linked left to right, and valid
+		int size = 0;
+		for (int i=0; i<this.numKeys; i++) {
+			ConcurrentNode<K, V> child = this.children[i];
+			if (child.level != this.level - 1) throw new AssertionError("Intermediate node: child on wrong level");
+			if (i < this.numKeys - 1 && child.right != this.children[i + 1])
+				throw new AssertionError("Intermediate node: child's right link skips a sibling");
+			size += child.verify(i == 0 ? min : this.keys[i], i < this.numKeys - 1 ? this.keys[i + 1] : max);
+		}
+		return size;
+	}
+
+}
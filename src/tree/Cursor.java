@@ -0,0 +1,47 @@
+package tree;
+
+/**
+ * A position in a sorted map that walks forward through key value pairs in
+ * order. A cursor reads the map lazily, one pair at a time, so scanning a
+ * range does not allocate anything per pair. If the map is modified, the
+ * cursor must be moved with seek before it is used again.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public interface Cursor<K, V> {
+	
+	/**
+	 * Move the cursor to just before the first pair whose key is greater than
+	 * or equal to the given key. The key does not have to be in the map.
+	 */
+	public void seek(K key);
+	
+	/**
+	 * Move the cursor to just before the first pair in the map.
+	 */
+	public void seekFirst();
+	
+	/**
+	 * Returns whether there is another pair after the cursor's position.
+	 */
+	public boolean hasNext();
+	
+	/**
+	 * Move the cursor onto the next pair. Throws NoSuchElementException if
+	 * there is none.
+	 */
+	public void next();
+	
+	/**
+	 * Get the key of the pair the cursor is on. Throws IllegalStateException
+	 * if next has not been called since the last seek.
+	 */
+	public K getKey();
+	
+	/**
+	 * Get the value of the pair the cursor is on. Throws IllegalStateException
+	 * if next has not been called since the last seek.
+	 */
+	public V getValue();
+
+}
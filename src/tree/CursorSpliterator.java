@@ -0,0 +1,59 @@
+package tree;
+
+import java.util.Comparator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over a key range of any SortedMap, read through a cursor. It
+ * does not know how many pairs are in the range, so it can only split by
+ * copying batches of pairs into arrays, which is what AbstractSpliterator does.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class CursorSpliterator<K extends Comparable<K>, V> extends Spliterators.AbstractSpliterator<KeyValuePair<K, V>> {
+
+	private final Cursor<K, V> cursor;
+	private final K keyStart; // inclusive
+	private final K keyEnd; // exclusive
+	private boolean started;
+	private boolean done;
+
+	public CursorSpliterator(Cursor<K, V> cursor, K keyStart, K keyEnd) {
+		super(Long.MAX_VALUE, ORDERED | SORTED | DISTINCT | NONNULL);
+		this.cursor = cursor;
+		this.keyStart = keyStart;
+		this.keyEnd = keyEnd;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super KeyValuePair<K, V>> action) {
+		// seek as late as possible, so the spliterator sees the map as it is when traversal starts
+		if (!this.started) {
+			this.cursor.seek(this.keyStart);
+			this.started = true;
+		}
+		if (this.done || !this.cursor.hasNext()) return false;
+
+		this.cursor.next();
+		if (this.cursor.getKey().compareTo(this.keyEnd) >= 0) {
+			this.done = true;
+			return false;
+		}
+		action.accept(new KeyValuePair<K, V>(this.cursor.getKey(), this.cursor.getValue()));
+		return true;
+	}
+
+	@Override
+	public Comparator<? super KeyValuePair<K, V>> getComparator() {
+		return keyOrder();
+	}
+
+	/**
+	 * Order of pairs by key, which is the order sorted maps hand them out in.
+	 */
+	static <K extends Comparable<K>, V> Comparator<KeyValuePair<K, V>> keyOrder() {
+		return (a, b) -> a.key.compareTo(b.key);
+	}
+
+}
@@ -0,0 +1,309 @@
+package tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.zip.CRC32;
+
+/**
+ * BTreeSortedMap whose changes survive a crash. Every insert and delete is
+ * recorded in a WriteAheadLog and forced to disk before the call returns.
+ * Threads that change the map at the same time share one force through
+ * group commit, and insertAll and deleteAll force once for the whole batch.
+ *
+ * checkpoint writes the whole map to a file and empties the log. Opening
+ * the same directory again loads the last checkpoint and replays the log
+ * on top of it. Methods are safe to call from several threads, except that
+ * cursors must not be used while other threads change the map. Range reads
+ * hold the lock for the whole read, and streams read from a snapshot taken
+ * when they are created.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class DurableBTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K, V>, Closeable {
+
+	// first byte of every log record
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+
+	private final int mc;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+	private final Path checkpointFile;
+	private final WriteAheadLog log;
+	private final BTreeSortedMap<K, V> tree;
+
+	/**
+	 * Open a map kept in a directory, creating it if it does not exist.
+	 */
+	public DurableBTreeSortedMap(Path directory, int maxKeys, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		Files.createDirectories(directory);
+		this.mc = maxKeys;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.checkpointFile = directory.resolve("checkpoint");
+		this.tree = this.loadCheckpoint();
+
+		this.log = new WriteAheadLog(directory.resolve("log"));
+		this.log.replay(this::redo);
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		byte[] record = this.insertRecord(key, value);
+		long sequenceNumber;
+		synchronized (this) {
+			sequenceNumber = this.log.append(record);
+			this.tree.insert(key, value);
+		}
+		this.sync(sequenceNumber);
+	}
+
+	@Override
+	public void delete(K key) {
+		byte[] record = this.deleteRecord(key);
+		long sequenceNumber;
+		synchronized (this) {
+			sequenceNumber = this.log.append(record);
+			this.tree.delete(key);
+		}
+		this.sync(sequenceNumber);
+	}
+
+	@Override
+	public void insertAll(Collection<KeyValuePair<K, V>> pairs) {
+		List<byte[]> records = new ArrayList<>(pairs.size());
+		for (KeyValuePair<K, V> pair : pairs) records.add(this.insertRecord(pair.key, pair.value));
+
+		long sequenceNumber = 0;
+		synchronized (this) {
+			for (byte[] record : records) sequenceNumber = this.log.append(record);
+			this.tree.insertAll(pairs);
+		}
+		this.sync(sequenceNumber);
+	}
+
+	@Override
+	public void deleteAll(Collection<K> keys) {
+		List<byte[]> records = new ArrayList<>(keys.size());
+		for (K key : keys) records.add(this.deleteRecord(key));
+
+		long sequenceNumber = 0;
+		synchronized (this) {
+			for (byte[] record : records) sequenceNumber = this.log.append(record);
+			this.tree.deleteAll(keys);
+		}
+		this.sync(sequenceNumber);
+	}
+
+	@Override
+	public void deleteRange(K keyStart, K keyEnd) {
+		long sequenceNumber = 0;
+		synchronized (this) {
+			// the log records single keys, so write a delete for each key in the range
+			for (KeyValuePair<K, V> pair : this.tree.getRange(keyStart, keyEnd)) {
+				sequenceNumber = this.log.append(this.deleteRecord(pair.key));
+			}
+			this.tree.deleteRange(keyStart, keyEnd);
+		}
+		this.sync(sequenceNumber);
+	}
+
+	@Override
+	public synchronized V get(K key) {
+		return this.tree.get(key);
+	}
+
+	@Override
+	public synchronized Cursor<K, V> cursor() {
+		return this.tree.cursor();
+	}
+
+	@Override
+	public synchronized Cursor<K, V> descendingCursor() {
+		return this.tree.descendingCursor();
+	}
+
+	@Override
+	public synchronized List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
+		return this.tree.getRange(keyStart, keyEnd);
+	}
+
+	@Override
+	public synchronized List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
+		return this.tree.getPage(keyStart, numElements);
+	}
+
+	@Override
+	public synchronized List<KeyValuePair<K, V>> getPage(int numElements) {
+		return this.tree.getPage(numElements);
+	}
+
+	@Override
+	public synchronized List<KeyValuePair<K, V>> getRangeDescending(K keyStart, K keyEnd) {
+		return this.tree.getRangeDescending(keyStart, keyEnd);
+	}
+
+	@Override
+	public synchronized List<KeyValuePair<K, V>> getPageBefore(K keyEnd, int numElements) {
+		return this.tree.getPageBefore(keyEnd, numElements);
+	}
+
+	/**
+	 * Reads from a snapshot of the map, so the spliterator and the streams
+	 * built on it can be used while other threads change the map.
+	 */
+	@Override
+	public synchronized Spliterator<KeyValuePair<K, V>> spliterator(K keyStart, K keyEnd) {
+		return this.tree.snapshot().spliterator(keyStart, keyEnd);
+	}
+
+	@Override
+	public synchronized int size() {
+		return this.tree.size();
+	}
+
+	@Override
+	public synchronized int rank(K key) {
+		return this.tree.rank(key);
+	}
+
+	@Override
+	public synchronized KeyValuePair<K, V> select(int index) {
+		return this.tree.select(index);
+	}
+
+	@Override
+	public synchronized int countRange(K keyStart, K keyEnd) {
+		return this.tree.countRange(keyStart, keyEnd);
+	}
+
+	/**
+	 * Write the whole map to the checkpoint file and empty the log. Makes
+	 * opening the map faster and keeps the log from growing forever.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		int pairSize = this.keyCodec.size() + this.valueCodec.size();
+		ByteBuffer contents = ByteBuffer.allocate(Integer.BYTES + this.tree.size() * pairSize + Integer.BYTES);
+		contents.putInt(this.tree.size());
+		Cursor<K, V> cursor = this.tree.cursor();
+		cursor.seekFirst();
+		while (cursor.hasNext()) {
+			cursor.next();
+			this.keyCodec.write(contents, contents.position(), cursor.getKey());
+			this.valueCodec.write(contents, contents.position() + this.keyCodec.size(), cursor.getValue());
+			contents.position(contents.position() + pairSize);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(contents.array(), 0, contents.position());
+		contents.putInt((int) crc.getValue());
+		contents.flip();
+
+		// write a new file and move it over the old one so a crash leaves one or the other
+		Path temporary = this.checkpointFile.resolveSibling(this.checkpointFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (contents.hasRemaining()) channel.write(contents);
+			channel.force(true);
+		}
+		Files.move(temporary, this.checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// the rename must be on disk before the log is emptied, or a crash could
+		// leave the old checkpoint with an empty log
+		try (FileChannel directory = FileChannel.open(this.checkpointFile.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+		this.log.truncate();
+	}
+
+	/**
+	 * Get the log, mostly to look at how many records and syncs it has done.
+	 */
+	public WriteAheadLog log() {
+		return this.log;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return this.tree.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.log.close();
+	}
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 */
+	protected synchronized void verify(K min, K max) {
+		this.tree.verify(min, max);
+	}
+
+	private void sync(long sequenceNumber) {
+		try {
+			this.log.sync(sequenceNumber);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private byte[] insertRecord(K key, V value) {
+		Objects.requireNonNull(value, "durable maps cannot store null values");
+		ByteBuffer record = ByteBuffer.allocate(1 + this.keyCodec.size() + this.valueCodec.size());
+		record.put(0, INSERT);
+		this.keyCodec.write(record, 1, key);
+		this.valueCodec.write(record, 1 + this.keyCodec.size(), value);
+		return record.array();
+	}
+
+	private byte[] deleteRecord(K key) {
+		ByteBuffer record = ByteBuffer.allocate(1 + this.keyCodec.size());
+		record.put(0, DELETE);
+		this.keyCodec.write(record, 1, key);
+		return record.array();
+	}
+
+	/**
+	 * Apply a record read back from the log.
+	 */
+	private void redo(ByteBuffer record) {
+		K key = this.keyCodec.read(record, 1);
+		if (record.get(0) == INSERT) this.tree.insert(key, this.valueCodec.read(record, 1 + this.keyCodec.size()));
+		else this.tree.delete(key);
+	}
+
+	private BTreeSortedMap<K, V> loadCheckpoint() throws IOException {
+		BTreeSortedMap<K, V> tree = new BTreeSortedMap<>(this.mc);
+		if (!Files.exists(this.checkpointFile)) return tree;
+
+		ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(this.checkpointFile));
+		CRC32 crc = new CRC32();
+		crc.update(contents.array(), 0, contents.limit() - Integer.BYTES);
+		if ((int) crc.getValue() != contents.getInt(contents.limit() - Integer.BYTES))
+			throw new IOException("checkpoint " + this.checkpointFile + " is corrupt");
+
+		int size = contents.getInt(0);
+		int pairSize = this.keyCodec.size() + this.valueCodec.size();
+		List<KeyValuePair<K, V>> pairs = new ArrayList<>(size);
+		for (int i=0; i<size; i++) {
+			int offset = Integer.BYTES + i * pairSize;
+			pairs.add(new KeyValuePair<K, V>(this.keyCodec.read(contents, offset),
+					this.valueCodec.read(contents, offset + this.keyCodec.size())));
+		}
+		tree.bulkLoad(pairs.iterator(), 1.0);
+		return tree;
+	}
+
+}
@@ -0,0 +1,178 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class DurableBTreeTests {
+
+	@Test
+	public void testRecoverFromLogAndCheckpoint() throws IOException {
+		Path directory = Files.createTempDirectory("btree");
+		TreeMap<Integer, Long> reference = new TreeMap<>();
+		
+		try {
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				this.randomChanges(map, reference, 500);
+			}
+			
+			// without a checkpoint everything comes back from the log
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				this.assertMatches(reference, map);
+				map.checkpoint();
+				assertEquals(0, Files.size(directory.resolve("log")));
+				this.randomChanges(map, reference, 500);
+			}
+			
+			// then from the checkpoint plus what was logged after it
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				this.assertMatches(reference, map);
+			}
+		} finally {
+			this.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testTornRecordIgnored() throws IOException {
+		Path directory = Files.createTempDirectory("btree");
+		
+		try {
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				map.insert(1, 10L);
+				map.insert(2, 20L);
+			}
+			
+			// a record cut off in the middle of being written, like after a crash
+			long intactLength = Files.size(directory.resolve("log"));
+			try (FileChannel channel = FileChannel.open(directory.resolve("log"), StandardOpenOption.APPEND)) {
+				channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 13, 1, 2, 3}));
+			}
+			
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				assertEquals(2, map.size());
+				assertEquals(20L, (long) map.get(2));
+				assertEquals(intactLength, Files.size(directory.resolve("log")));
+				map.insert(3, 30L);
+			}
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				assertEquals(3, map.size());
+			}
+		} finally {
+			this.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testGroupCommit() throws Exception {
+		Path directory = Files.createTempDirectory("btree");
+		
+		try {
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				List<Thread> threads = new ArrayList<>();
+				for (int t=0; t<8; t++) {
+					int first = t * 200;
+					threads.add(new Thread(() -> {
+						for (int i=first; i<first + 200; i++) map.insert(i, (long) i);
+					}));
+				}
+				for (Thread thread : threads) thread.start();
+				for (Thread thread : threads) thread.join();
+				
+				assertEquals(1600, map.size());
+				assertEquals(1600, map.log().appended());
+				assertTrue(map.log().syncs() <= 1600);
+				map.verify(0, 1600);
+				
+				// a batch is forced once
+				long syncs = map.log().syncs();
+				List<KeyValuePair<Integer, Long>> batch = new ArrayList<>();
+				for (int i=2000; i<2100; i++) batch.add(new KeyValuePair<>(i, (long) i));
+				map.insertAll(batch);
+				assertEquals(syncs + 1, map.log().syncs());
+			}
+			
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				assertEquals(1700, map.size());
+			}
+		} finally {
+			this.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void testRangeReadsWhileWriting() throws Exception {
+		Path directory = Files.createTempDirectory("btree");
+		
+		try {
+			try (DurableBTreeSortedMap<Integer, Long> map = this.open(directory)) {
+				for (int i=0; i<1000; i+=2) map.insert(i, (long) i);
+				
+				// the writer only changes odd keys, so every even key is always there
+				Thread writer = new Thread(() -> {
+					for (int i=0; i<2000; i++) {
+						int key = 2 * (i % 500) + 1;
+						if (i % 1000 < 500) map.insert(key, (long) key);
+						else map.delete(key);
+					}
+				});
+				writer.start();
+				while (writer.isAlive()) {
+					List<KeyValuePair<Integer, Long>> range = map.getRange(100, 900);
+					assertTrue(range.size() >= 400);
+					for (int i=1; i<range.size(); i++) assertTrue(range.get(i - 1).key < range.get(i).key);
+					assertEquals(500, map.getPageBefore(1000, 1000).stream().filter(pair -> pair.key % 2 == 0).count());
+					assertEquals(500, map.stream(0, 1000).filter(pair -> pair.key % 2 == 0).count());
+				}
+				writer.join();
+				map.verify(0, 1000);
+			}
+		} finally {
+			this.deleteDirectory(directory);
+		}
+	}
+	
+	private DurableBTreeSortedMap<Integer, Long> open(Path directory) throws IOException {
+		return new DurableBTreeSortedMap<>(directory, 8, Codecs.INTEGER, Codecs.LONG);
+	}
+	
+	private void randomChanges(DurableBTreeSortedMap<Integer, Long> map, TreeMap<Integer, Long> reference, int numOperations) {
+		for (int i=0; i<numOperations; i++) {
+			int key = (int)(Math.random() * 300);
+			if (i % 3 == 2) {
+				map.delete(key);
+				reference.remove(key);
+			} else {
+				map.insert(key, (long) i);
+				reference.put(key, (long) i);
+			}
+		}
+	}
+	
+	private void assertMatches(TreeMap<Integer, Long> reference, DurableBTreeSortedMap<Integer, Long> map) {
+		assertEquals(reference.size(), map.size());
+		for (Map.Entry<Integer, Long> entry : reference.entrySet())
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		if (!reference.isEmpty()) map.verify(reference.firstKey(), reference.lastKey() + 1);
+	}
+	
+	private void deleteDirectory(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+		}
+	}
+
+}
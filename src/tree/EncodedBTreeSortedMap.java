@@ -0,0 +1,101 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sorted map that turns each key into bytes with a KeyEncoder and stores
+ * it in a BytesBTreeSortedMap. Searches compare the encoded bytes directly,
+ * so keys made of several fields, like (tenant, timestamp, id), are ordered
+ * without ever calling their compareTo. Keys are encoded once on the way in
+ * and decoded only when getRange and getPage copy pairs out.
+ *
+ * The order of the map is the order of the encodings, so keys do not need
+ * to be Comparable at all.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class EncodedBTreeSortedMap<K, V> {
+
+	private final BytesBTreeSortedMap<V> tree;
+	private final KeyEncoder<K> encoder;
+
+	public EncodedBTreeSortedMap(int maxKeys, KeyEncoder<K> encoder) {
+		this.tree = new BytesBTreeSortedMap<V>(maxKeys);
+		this.encoder = encoder;
+	}
+
+	/**
+	 * Insert a key value pair.
+	 */
+	public void insert(K key, V value) {
+		this.tree.insert(this.encoder.encode(key), value);
+	}
+
+	/**
+	 * Delete a key value pair.
+	 */
+	public void delete(K key) {
+		this.tree.delete(this.encoder.encode(key));
+	}
+
+	/**
+	 * Given a key, get a value. Return null if not found.
+	 */
+	public V get(K key) {
+		return this.tree.get(this.encoder.encode(key));
+	}
+
+	/**
+	 * Given a starting key and an ending key, get all key value pairs starting with
+	 * keyStart (inclusive) and ending before keyEnd (exclusive). Returns empty if
+	 * nothing found.
+	 */
+	public List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
+		return this.decode(this.tree.getRange(this.encoder.encode(keyStart), this.encoder.encode(keyEnd)));
+	}
+
+	/**
+	 * Given a starting key and a number of elements return, get all key value pairs
+	 * starting with keyStart. If there are not enough pairs after keyStart, returns
+	 * the longest possible list it can. Returns empty if nothing found.
+	 */
+	public List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
+		return this.decode(this.tree.getPage(this.encoder.encode(keyStart), numElements));
+	}
+
+	/**
+	 * Gets the first numValues elements in this sorted map. If numValues is greater
+	 * than the size of this data structure, returns the entire data structure.
+	 */
+	public List<KeyValuePair<K, V>> getPage(int numElements) {
+		return this.decode(this.tree.getPage(numElements));
+	}
+
+	/**
+	 * Get the number of key value pairs in this map.
+	 */
+	public int size() {
+		return this.tree.size();
+	}
+
+	@Override
+	public String toString() {
+		return this.tree.toString();
+	}
+
+	private List<KeyValuePair<K, V>> decode(List<KeyValuePair<byte[], V>> pairs) {
+		List<KeyValuePair<K, V>> entries = new ArrayList<>(pairs.size());
+		for (KeyValuePair<byte[], V> pair : pairs)
+			entries.add(new KeyValuePair<K, V>(this.encoder.decode(pair.key), pair.value));
+		return entries;
+	}
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 */
+	protected void verify() {
+		this.tree.verify(null, null);
+	}
+
+}
@@ -0,0 +1,152 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class EncodedBTreeTests {
+
+	@Test
+	public void testEncodersKeepOrder() {
+		Random random = new Random(22);
+		String[] strings = {"", "a", "a\0", "a\0b", "ab", "b", "é", "中"};
+
+		for (int i=0; i<1000; i++) {
+			int a = random.nextInt(), b = i % 2 == 0 ? random.nextInt() : random.nextInt(5) - 2;
+			assertEquals(Integer.signum(Integer.compare(a, b)), order(KeyEncoders.INTEGER, a, b));
+			assertEquals(a, (int) KeyEncoders.INTEGER.decode(KeyEncoders.INTEGER.encode(a)));
+
+			long c = random.nextLong(), d = random.nextLong();
+			assertEquals(Integer.signum(Long.compare(c, d)), order(KeyEncoders.LONG, c, d));
+			assertEquals(c, (long) KeyEncoders.LONG.decode(KeyEncoders.LONG.encode(c)));
+		}
+
+		for (String s : strings) {
+			assertEquals(s, KeyEncoders.STRING.decode(KeyEncoders.STRING.encode(s)));
+			for (String t : strings)
+				assertEquals(Integer.signum(s.compareTo(t)), order(KeyEncoders.STRING, s, t));
+		}
+
+		// a string is still before the strings it starts when another field follows it
+		assertTrue(order(EventKey.ENCODER, new EventKey("a", 9, 9), new EventKey("a\0", 0, 0)) < 0);
+		assertTrue(order(EventKey.ENCODER, new EventKey("a", 9, 9), new EventKey("ab", 0, 0)) < 0);
+	}
+
+	@Test
+	public void randomTestCases() {
+		this.runRandomTestCase(2000, 4);
+		this.runRandomTestCase(2000, 64);
+	}
+
+	public void runRandomTestCase(int numOperations, int maxChildren) {
+		EncodedBTreeSortedMap<EventKey, String> treeMap = new EncodedBTreeSortedMap<>(maxChildren, EventKey.ENCODER);
+		TreeMap<EventKey, String> reference = new TreeMap<>();
+		String[] tenants = {"", "acme", "acme-labs", "globex"};
+
+		try {
+			for (int i=0; i<numOperations; i++) {
+				EventKey key = new EventKey(tenants[(int)(Math.random() * tenants.length)],
+						(long)(Math.random() * 20) - 10, (long)(Math.random() * 10));
+
+				// insert twice as often as delete so the tree grows
+				if (i % 3 == 2) {
+					treeMap.delete(key);
+					reference.remove(key);
+				} else {
+					treeMap.insert(key, key.toString());
+					reference.put(key, key.toString());
+				}
+
+				treeMap.verify();
+				assertEquals(reference.size(), treeMap.size());
+			}
+
+			// every pair is found, and scans return them in order with the keys decoded
+			for (Map.Entry<EventKey, String> entry : reference.entrySet())
+				assertEquals(entry.getValue(), treeMap.get(entry.getKey()));
+			assertEquals(new ArrayList<>(reference.keySet()), keys(treeMap.getPage(reference.size() + 1)));
+
+			EventKey start = new EventKey("acme", -3, 0), end = new EventKey("acme-labs", 0, 0);
+			assertEquals(new ArrayList<>(reference.subMap(start, end).keySet()), keys(treeMap.getRange(start, end)));
+			assertEquals(new ArrayList<>(reference.tailMap(start).keySet()).subList(0, Math.min(5, reference.tailMap(start).size())),
+					keys(treeMap.getPage(start, 5)));
+
+		} catch (AssertionError ae) {
+			System.err.println("Error with tree: ");
+			System.err.println(treeMap);
+			System.err.println(ae.getMessage());
+			throw ae;
+		}
+	}
+
+	/**
+	 * Composite key ordered by tenant, then timestamp, then id.
+	 */
+	private static class EventKey implements Comparable<EventKey> {
+
+		static final KeyEncoder<EventKey> ENCODER = new KeyEncoder<EventKey>() {
+			@Override
+			public void write(ByteArrayOutputStream out, EventKey key) {
+				KeyEncoders.STRING.write(out, key.tenant);
+				KeyEncoders.LONG.write(out, key.timestamp);
+				KeyEncoders.LONG.write(out, key.id);
+			}
+
+			@Override
+			public EventKey read(ByteBuffer in) {
+				return new EventKey(KeyEncoders.STRING.read(in), KeyEncoders.LONG.read(in), KeyEncoders.LONG.read(in));
+			}
+		};
+
+		final String tenant;
+		final long timestamp, id;
+
+		EventKey(String tenant, long timestamp, long id) {
+			this.tenant = tenant;
+			this.timestamp = timestamp;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(EventKey other) {
+			int c = this.tenant.compareTo(other.tenant);
+			if (c != 0) return c;
+			c = Long.compare(this.timestamp, other.timestamp);
+			return c != 0 ? c : Long.compare(this.id, other.id);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof EventKey && this.compareTo((EventKey) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return (this.tenant.hashCode() * 31 + Long.hashCode(this.timestamp)) * 31 + Long.hashCode(this.id);
+		}
+
+		@Override
+		public String toString() {
+			return this.tenant + "/" + this.timestamp + "/" + this.id;
+		}
+	}
+
+	private static <K> int order(KeyEncoder<K> encoder, K a, K b) {
+		return Integer.signum(Helpers.compareUnsigned(encoder.encode(a), 0, encoder.encode(b), 0));
+	}
+
+	private static <V> List<EventKey> keys(List<KeyValuePair<EventKey, V>> pairs) {
+		List<EventKey> keys = new ArrayList<>();
+		for (KeyValuePair<EventKey, V> pair : pairs) keys.add(pair.key);
+		return keys;
+	}
+
+}
@@ -1,51 +1,173 @@
 package tree;
 
-import java.util.List;
-
 public class Helpers {
-	
+
 	/**
-	 * Given a list of keys in an intermediate node, get the index of the child
-	 * that should be searched for the given search term.
-	 * @param list list of elements
+	 * Given the keys in an intermediate node, get the index of the child
+	 * that should be searched for the given search term. Uses binary search.
+	 * @param keys array of keys, sorted in its first size slots
+	 * @param size number of keys in use
 	 * @param searchTerm value to look for
-	 * @return if searchTerm < list[1]: 0 </br>
-	 * else if searchTerm >= list[list.size() - 1]: list.size() - 1 </br>
-	 * else: the last index less than the search term
-	 */
-	public static <T extends Comparable<T>> int chooseChildFromKeys(List<T> list, T searchTerm) {
-		for (int i=0; i<list.size(); i++) {
-			if (searchTerm.compareTo(list.get(i)) < 0) 
-				return i == 0 ? 0 : i - 1;
+	 * @return if searchTerm < keys[1]: 0 </br>
+	 * else if searchTerm >= keys[size - 1]: size - 1 </br>
+	 * else: the last index less than or equal to the search term
+	 */
+	public static <T extends Comparable<T>> int chooseChildFromKeys(T[] keys, int size, T searchTerm) {
+		int low = 0;
+		int high = size - 1;
+
+		// invariant: keys[0..low) <= searchTerm < keys(high..size)
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (searchTerm.compareTo(keys[mid]) < 0) high = mid - 1;
+			else low = mid + 1;
 		}
-		return list.size() - 1;
+
+		// high is now the last index whose key is <= searchTerm
+		return high < 0 ? 0 : high;
 	}
-	
+
 	/**
-	 * Get the first index in a list at which the value is greater than or 
-	 * equal to the given comparable. Returns list.size() if search term is 
-	 * greater than all elements in the list.
-	 * @param list list of elements
+	 * Get the first index in an array at which the value is greater than or
+	 * equal to the given comparable. Uses binary search. Returns size if search
+	 * term is greater than all elements in the array.
+	 * @param keys array of keys, sorted in its first size slots
+	 * @param size number of keys in use
 	 * @param searchTerm value to look for
-	 * @return first index in list such that list[index] >= searchTerm
+	 * @return first index in keys such that keys[index] >= searchTerm
 	 */
-	public static <T extends Comparable<T>> int firstIndexGreaterOrEqual(List<T> list, T searchTerm) {
-		for (int i=0; i<list.size(); i++)
-			if (searchTerm.compareTo(list.get(i)) <= 0) 
-				return i;
-		return list.size();
+	public static <T extends Comparable<T>> int firstIndexGreaterOrEqual(T[] keys, int size, T searchTerm) {
+		return firstIndexGreaterOrEqual(keys, 0, size, searchTerm);
 	}
-	
+
+	/**
+	 * Get the first index in part of an array at which the value is greater than
+	 * or equal to the given comparable. Uses binary search. Returns to if search
+	 * term is greater than all elements in that part of the array.
+	 * @param keys array of keys, sorted from index from to index to
+	 * @param from first index to search (inclusive)
+	 * @param to last index to search (exclusive)
+	 * @param searchTerm value to look for
+	 * @return first index in [from, to) such that keys[index] >= searchTerm, or to
+	 */
+	public static <T extends Comparable<T>> int firstIndexGreaterOrEqual(T[] keys, int from, int to, T searchTerm) {
+		int low = from;
+		int high = to;
+
+		// invariant: keys[from..low) < searchTerm <= keys[high..to)
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (searchTerm.compareTo(keys[mid]) <= 0) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
+
 	/**
-	 * Returns whether the element at a certain index in the list is equal to
+	 * Returns whether the element at a certain index in the array is equal to
 	 * the given search term. This method is for convenience because
 	 * checks like this are common.
-	 * @param list list to look in
-	 * @param index index within the list of element in question
-	 * @param searchTerm key to compare to element in list
-	 * @return true if element in list is within range and equals searchTerm; else false
+	 * @param keys array to look in
+	 * @param size number of keys in use
+	 * @param index index within the array of element in question
+	 * @param searchTerm key to compare to element in array
+	 * @return true if element in array is within range and equals searchTerm; else false
+	 */
+	public static <T extends Comparable<T>> boolean elementAtIndexEqualsKey(T[] keys, int size, int index, T searchTerm) {
+		return index >= 0 && index < size && keys[index].compareTo(searchTerm) == 0;
+	}
+
+	/**
+	 * Same as chooseChildFromKeys, for primitive long keys.
+	 */
+	public static int chooseChildFromKeys(long[] keys, int size, long searchTerm) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (searchTerm < keys[mid]) high = mid - 1;
+			else low = mid + 1;
+		}
+		return high < 0 ? 0 : high;
+	}
+
+	/**
+	 * Same as firstIndexGreaterOrEqual, for primitive long keys.
+	 */
+	public static int firstIndexGreaterOrEqual(long[] keys, int size, long searchTerm) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (searchTerm <= keys[mid]) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Same as insertAt, for primitive long arrays.
+	 */
+	public static void insertAt(long[] array, int size, int index, long element) {
+		System.arraycopy(array, index, array, index + 1, size - index);
+		array[index] = element;
+	}
+
+	/**
+	 * Same as removeAt, for primitive long arrays. Nothing needs clearing.
+	 */
+	public static void removeAt(long[] array, int size, int index) {
+		System.arraycopy(array, index + 1, array, index, size - index - 1);
+	}
+
+	/**
+	 * Compare two byte strings byte by byte as unsigned values, starting at an
+	 * offset in each. If one runs out first, it is the smaller one.
+	 * @return negative, zero or positive like compareTo
+	 */
+	public static int compareUnsigned(byte[] a, int aFrom, byte[] b, int bFrom) {
+		int length = Math.min(a.length - aFrom, b.length - bFrom);
+		for (int i=0; i<length; i++) {
+			int difference = (a[aFrom + i] & 0xff) - (b[bFrom + i] & 0xff);
+			if (difference != 0) return difference;
+		}
+		return (a.length - aFrom) - (b.length - bFrom);
+	}
+	
+	/**
+	 * Get the number of bytes two byte strings have in common at the start,
+	 * starting at an offset in each.
+	 */
+	public static int commonPrefixLength(byte[] a, int aFrom, byte[] b, int bFrom) {
+		int length = Math.min(a.length - aFrom, b.length - bFrom);
+		int i = 0;
+		while (i < length && a[aFrom + i] == b[bFrom + i]) i++;
+		return i;
+	}
+
+	/**
+	 * Insert an element into an array, shifting everything after it one slot
+	 * to the right. The array must have room for size + 1 elements.
+	 * @param array array to insert into
+	 * @param size number of elements in use before inserting
+	 * @param index index the new element should end up at
+	 * @param element element to insert
+	 */
+	public static <T> void insertAt(T[] array, int size, int index, T element) {
+		System.arraycopy(array, index, array, index + 1, size - index);
+		array[index] = element;
+	}
+
+	/**
+	 * Remove an element from an array, shifting everything after it one slot
+	 * to the left. The slot that is freed up at the end is cleared so it does
+	 * not hold on to a stale reference.
+	 * @param array array to remove from
+	 * @param size number of elements in use before removing
+	 * @param index index of element to remove
 	 */
-	public static <T extends Comparable<T>> boolean elementAtIndexEqualsKey(List<T> list, int index, T searchTerm) {
-		return index >= 0 && index < list.size() && list.get(index).compareTo(searchTerm) == 0;
+	public static <T> void removeAt(T[] array, int size, int index) {
+		System.arraycopy(array, index + 1, array, index, size - index - 1);
+		array[size - 1] = null;
 	}
 }
@@ -1,101 +1,161 @@
 package tree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class IntermediateNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 	
-	protected List<BTreeNode<K, V>> children; // max length = mk + 1
+	protected BTreeNode<K, V>[] children; // max length = mk + 1, parallel to keys
+	protected int subtreeSize; // number of key value pairs in all leaves under this node
+	
+	// in buffered mode, changes to pairs under this node that have not reached the leaves;
+	// they are newer than any message further down. Null if there are none.
+	protected MessageBuffer<K, V> buffer;
 
-	public IntermediateNode(int maxChildren) {
-		super(maxChildren);
-		this.children = new ArrayList<>();
+	@SuppressWarnings("unchecked")
+	public IntermediateNode(int maxChildren, TreeStats stats) {
+		super(maxChildren, stats);
+		this.children = (BTreeNode<K, V>[]) new BTreeNode[maxChildren + 1];
 	}
 
 	@Override
 	public V get(K key) {
-		return this.children.get(Helpers.chooseChildFromKeys(this.keys, key)).get(key);
+		return this.get(key, 0);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected V get(K key, int filterBitsPerKey) {
+		// a pending message is newer than anything below it
+		if (this.buffer != null && this.buffer.size > 0) {
+			this.stats.searched(this.buffer.size);
+			int index = this.buffer.indexOf(key);
+			if (index >= 0) {
+				Object value = this.buffer.values[index];
+				return value == MessageBuffer.DELETE ? null : (V) value;
+			}
+		}
+		
+		this.stats.searched(this.numKeys);
+		return this.children[Helpers.chooseChildFromKeys(this.keys, this.numKeys, key)].get(key, filterBitsPerKey);
 	}
 
 	@Override
 	public BTreeNode<K, V> insert(K key, V value) {
 		// find where the key should go in the sorted list
-		int insertIndex = Helpers.chooseChildFromKeys(this.keys, key);
+		this.stats.searched(this.numKeys);
+		int insertIndex = Helpers.chooseChildFromKeys(this.keys, this.numKeys, key);
 		
 		// insert into child node and set its key correctly
-		BTreeNode<K, V> insertChild = this.children.get(insertIndex);
+		BTreeNode<K, V> insertChild = this.writableChild(insertIndex);
+		int childSizeBefore = insertChild.size();
 		BTreeNode<K, V> newChildNode = insertChild.insert(key, value);
-		this.keys.set(insertIndex, insertChild.getMin());
+		this.keys[insertIndex] = insertChild.getMin();
+		this.subtreeSize += insertChild.size() - childSizeBefore;
 		
 		// if no splitting is necessary, return null
 		if (newChildNode == null) return null;
+		this.subtreeSize += newChildNode.size();
 		
-		// add key and new child to lists
-		this.keys.add(insertIndex + 1, newChildNode.getMin());
-		this.children.add(insertIndex + 1, newChildNode);
+		// add key and new child to arrays
+		this.insertChild(insertIndex + 1, newChildNode.getMin(), newChildNode);
 		
 		// if there was room in this node for a new child, return
-		if (this.keys.size() <= this.mc) return null; 
-		
-		// split list in two (adding plus one because we split by children)
+		if (this.numKeys <= this.mc) return null; 
+		return this.split();
+	}
+	
+	/**
+	 * Add a child split off this node's last child during an append, after all
+	 * the other children. This node's size must already count the child's pairs.
+	 * @return new node to go after this one in the parent if this node split, or null
+	 */
+	protected BTreeNode<K, V> appendSplitChild(BTreeNode<K, V> child) {
+		this.insertChild(this.numKeys, child.getMin(), child);
+		if (this.numKeys <= this.mc) return null;
+		return this.split();
+	}
+	
+	/**
+	 * Split a node with one child too many in half.
+	 * @return new node holding the last half, to go after this one in the parent
+	 */
+	private IntermediateNode<K, V> split() {
+		// split arrays in two (adding plus one because we split by children)
+		this.stats.intermediateSplits.increment();
 		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
 		
 		// last half goes in new node
-		IntermediateNode<K, V> newNode = new IntermediateNode<K, V>(this.mc);
-		newNode.children.addAll(this.children.subList(splitIndex, this.children.size()));
-		newNode.keys.addAll(this.keys.subList(splitIndex, this.keys.size()));
+		IntermediateNode<K, V> newNode = new IntermediateNode<K, V>(this.mc, this.stats);
+		System.arraycopy(this.children, splitIndex, newNode.children, 0, numMoved);
+		System.arraycopy(this.keys, splitIndex, newNode.keys, 0, numMoved);
+		newNode.numKeys = numMoved;
+		for (int i=0; i<numMoved; i++) newNode.subtreeSize += newNode.children[i].size();
 		
-		// first half goes in this node
-		this.children = new ArrayList<>(this.children.subList(0, splitIndex));
-		this.keys = new ArrayList<>(this.keys.subList(0, splitIndex));
+		// first half stays in this node
+		this.subtreeSize -= newNode.subtreeSize;
+		Arrays.fill(this.children, splitIndex, this.numKeys, null);
+		Arrays.fill(this.keys, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
 		
 		// return new node
 		return newNode;
 	}
 	
 	@Override
-	public boolean delete(K key, BTreeNode<K, V> neighbor) {
+	public boolean delete(K key, BTreeNode<K, V> neighbor, boolean mergeLeaves) {
 		// find where to delete
-		int deleteIndex = Helpers.chooseChildFromKeys(this.keys, key);
+		this.stats.searched(this.numKeys);
+		int deleteIndex = Helpers.chooseChildFromKeys(this.keys, this.numKeys, key);
 		
 		// delete from child, using neighbor for extra data
-		BTreeNode<K, V> deleteChild = this.children.get(deleteIndex);
-		BTreeNode<K, V> deleteChildNeighbor = deleteIndex == 0 
-				? this.children.get(1)
-				: this.children.get(deleteIndex - 1);
-		boolean shouldDeleteChild = deleteChild.delete(key, deleteChildNeighbor);
+		int neighborIndex = deleteIndex == 0 ? 1 : deleteIndex - 1;
+		BTreeNode<K, V> deleteChild = this.writableChild(deleteIndex);
+		BTreeNode<K, V> deleteChildNeighbor = this.writableChild(neighborIndex);
+		int childrenSizeBefore = deleteChild.size() + deleteChildNeighbor.size();
+		boolean shouldDeleteChild = deleteChild.delete(key, deleteChildNeighbor, mergeLeaves);
+		
+		// the child may have given pairs to or taken pairs from its neighbor, so count both
+		int childrenSizeAfter = deleteChildNeighbor.size() + (shouldDeleteChild ? 0 : deleteChild.size());
+		this.subtreeSize += childrenSizeAfter - childrenSizeBefore;
 		
 		// reset key pointing to neighbor
-		int neighborIndex = deleteIndex == 0 ? 1 : deleteIndex - 1;
-		this.keys.set(neighborIndex, deleteChildNeighbor.getMin());
+		this.keys[neighborIndex] = deleteChildNeighbor.getMin();
 		
 		// delete child if necessary
-		if (shouldDeleteChild) {
-			this.children.remove(deleteIndex);
-			this.keys.remove(deleteIndex);
-		}
+		if (shouldDeleteChild) this.removeChild(deleteIndex);
 		
 		// if child not deleted, reset its key
-		else this.keys.set(deleteIndex, deleteChild.getMin());
+		else this.keys[deleteIndex] = deleteChild.getMin();
 		
 		// if there are enough children in this node, return
-		if (this.children.size() >= this.mc/2) return false;
+		if (this.numKeys >= this.mc/2) return false;
 		
 		// If the neighbor is null, this must be the root. Tell the data structure
 		// to replace this if there is only one child.
-		if (neighbor == null) return this.children.size() == 1;
+		if (neighbor == null) return this.numKeys == 1;
 		
 		IntermediateNode<K, V> neighborIntermediateNode = (IntermediateNode<K, V>)neighbor;
 
 		// if neighbor does not have enough keys, move data and tell parent to delete this node
-		if (this.children.size() + neighborIntermediateNode.children.size() < this.mc) {
+		if (this.numKeys + neighborIntermediateNode.numKeys < this.mc) {
+			int neighborSize = neighborIntermediateNode.numKeys;
 			if (neighborIntermediateNode.getMin().compareTo(this.getMin()) < 0) {
-				neighborIntermediateNode.keys.addAll(this.keys);
-				neighborIntermediateNode.children.addAll(this.children);
+				System.arraycopy(this.keys, 0, neighborIntermediateNode.keys, neighborSize, this.numKeys);
+				System.arraycopy(this.children, 0, neighborIntermediateNode.children, neighborSize, this.numKeys);
 			} else {
-				neighborIntermediateNode.keys.addAll(0, this.keys);
-				neighborIntermediateNode.children.addAll(0, this.children);
+				System.arraycopy(neighborIntermediateNode.keys, 0, neighborIntermediateNode.keys, this.numKeys, neighborSize);
+				System.arraycopy(neighborIntermediateNode.children, 0, neighborIntermediateNode.children, this.numKeys, neighborSize);
+				System.arraycopy(this.keys, 0, neighborIntermediateNode.keys, 0, this.numKeys);
+				System.arraycopy(this.children, 0, neighborIntermediateNode.children, 0, this.numKeys);
 			}
+			neighborIntermediateNode.numKeys += this.numKeys;
+			neighborIntermediateNode.subtreeSize += this.subtreeSize;
+			this.stats.nodesRemoved.increment();
 			return true;
 		}
 		
@@ -105,63 +165,616 @@ public class IntermediateNode<K extends Comparable<K>, V> extends BTreeNode<K, V
 		int insertionLocation, removalLocation;
 		if (neighborIntermediateNode.getMin().compareTo(this.getMin()) < 0) {
 			insertionLocation = 0;
-			removalLocation = neighborIntermediateNode.keys.size() - 1;
+			removalLocation = neighborIntermediateNode.numKeys - 1;
 		} else {
-			insertionLocation = this.keys.size();
+			insertionLocation = this.numKeys;
 			removalLocation = 0;
 		}
 		
-		// transfer key
-		this.keys.add(insertionLocation, neighborIntermediateNode.keys.get(removalLocation));
-		neighborIntermediateNode.keys.remove(removalLocation);
-		
-		// transfer value
-		this.children.add(insertionLocation, neighborIntermediateNode.children.get(removalLocation));
-		neighborIntermediateNode.children.remove(removalLocation);
+		// transfer key and child
+		this.stats.borrows.increment();
+		BTreeNode<K, V> transferredChild = neighborIntermediateNode.children[removalLocation];
+		this.insertChild(insertionLocation, neighborIntermediateNode.keys[removalLocation], transferredChild);
+		neighborIntermediateNode.removeChild(removalLocation);
+		this.subtreeSize += transferredChild.size();
+		neighborIntermediateNode.subtreeSize -= transferredChild.size();
 		
 		return false;
 	}
 	
+	/**
+	 * Add a message to this node's buffer in buffered mode. While the buffer
+	 * holds more than bufferSize messages, the messages for the child with the
+	 * most of them are pushed down to it in one batch. A child that is an
+	 * intermediate node adds them to its own buffer, and a leaf applies them.
+	 * @param value value to insert, or MessageBuffer.DELETE
+	 * @param mergeLeaves whether leaves left less than half full are merged with
+	 * or evened out with a neighbor
+	 * @return new nodes to be inserted in the parent right after this one, in
+	 * order; empty if this node did not split
+	 */
+	protected List<BTreeNode<K, V>> receive(K key, Object value, int bufferSize, boolean mergeLeaves) {
+		if (this.buffer == null) this.buffer = new MessageBuffer<K, V>(bufferSize + 1);
+		this.stats.searched(this.buffer.size);
+		this.buffer.put(key, value);
+		return this.flushWhileFull(bufferSize, mergeLeaves);
+	}
+	
+	/**
+	 * Same as receive, for a run of messages from the parent's buffer, which
+	 * are newer than the ones here.
+	 */
+	private List<BTreeNode<K, V>> receive(MessageBuffer<K, V> messages, int from, int to, int bufferSize, boolean mergeLeaves) {
+		if (this.buffer == null) this.buffer = new MessageBuffer<K, V>(bufferSize + 1);
+		for (int i=from; i<to; i++) this.buffer.put(messages.keys[i], messages.values[i]);
+		return this.flushWhileFull(bufferSize, mergeLeaves);
+	}
+	
+	private List<BTreeNode<K, V>> flushWhileFull(int bufferSize, boolean mergeLeaves) {
+		while (this.buffer.size > bufferSize) {
+			List<BTreeNode<K, V>> newNodes = this.flushLargestRun(bufferSize, mergeLeaves);
+			
+			// messages went along with the nodes they belong to, and are flushed from there later
+			if (!newNodes.isEmpty()) return newNodes;
+		}
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Push the messages for the child with the most of them down to it, then
+	 * fix up the children the way insertAll and deleteAll do.
+	 * @return new nodes to be inserted in the parent right after this one
+	 */
+	private List<BTreeNode<K, V>> flushLargestRun(int bufferSize, boolean mergeLeaves) {
+		// find the child with the longest run of messages
+		int child = 0, from = 0, to = 0;
+		int start = 0;
+		for (int i=0; i<this.numKeys && start < this.buffer.size; i++) {
+			int end = i == this.numKeys - 1 ? this.buffer.size
+					: Helpers.firstIndexGreaterOrEqual(this.buffer.keys, start, this.buffer.size, this.keys[i + 1]);
+			if (end - start > to - from) {
+				child = i;
+				from = start;
+				to = end;
+			}
+			start = end;
+		}
+		
+		BTreeNode<K, V> flushed = this.writableChild(child);
+		List<BTreeNode<K, V>> newChildren = flushed instanceof IntermediateNode
+				? ((IntermediateNode<K, V>) flushed).receive(this.buffer, from, to, bufferSize, mergeLeaves)
+				: ((LeafNode<K, V>) flushed).applyAll(this.buffer.keys, this.buffer.values, from, to);
+		this.buffer.removeRange(from, to);
+		
+		// gather the children, leaving out a leaf that was emptied
+		List<BTreeNode<K, V>> allChildren = new ArrayList<>(this.numKeys + newChildren.size());
+		for (int i=0; i<this.numKeys; i++) {
+			if (i != child || flushed.size() > 0) allChildren.add(this.children[i]);
+			else this.stats.nodesRemoved.increment();
+			if (i == child) allChildren.addAll(newChildren);
+		}
+		this.removeAllChildren();
+		
+		if (allChildren.size() <= this.mc) {
+			for (BTreeNode<K, V> node : allChildren) this.appendChild(node);
+			this.rebalanceUnderfullChildren(mergeLeaves);
+			this.refreshFromChildren();
+			return Collections.emptyList();
+		}
+		
+		// too many children for one node, so split and give each node the messages in its range
+		List<BTreeNode<K, V>> newNodes = this.spreadChildren(allChildren);
+		for (int n=newNodes.size() - 1; n>=0; n--) {
+			IntermediateNode<K, V> node = (IntermediateNode<K, V>) newNodes.get(n);
+			node.buffer = this.buffer.splitOff(node.keys[0]);
+		}
+		this.rebalanceUnderfullChildren(mergeLeaves);
+		this.refreshFromChildren();
+		for (BTreeNode<K, V> node : newNodes) {
+			((IntermediateNode<K, V>) node).rebalanceUnderfullChildren(mergeLeaves);
+			((IntermediateNode<K, V>) node).refreshFromChildren();
+		}
+		return newNodes;
+	}
+	
+	/**
+	 * Take every message out of the buffers in this subtree, and add the ones
+	 * for keys not in the map yet to it, so that newer messages win when the
+	 * map is filled from the top down. Subtrees shared with a snapshot are
+	 * skipped, since their buffers were emptied before the snapshot was taken.
+	 */
+	protected void takeMessages(Map<K, Object> messages) {
+		if (this.shared) return;
+		if (this.buffer != null) {
+			for (int i=0; i<this.buffer.size; i++) messages.putIfAbsent(this.buffer.keys[i], this.buffer.values[i]);
+			this.buffer = null;
+		}
+		if (this.children[0] instanceof LeafNode) return;
+		for (int i=0; i<this.numKeys; i++) ((IntermediateNode<K, V>) this.children[i]).takeMessages(messages);
+	}
+	
+	/**
+	 * Add the messages in this subtree for keys from keyStart (inclusive) to
+	 * keyEnd (exclusive) to a map, keeping the newest message for each key.
+	 * Only children whose ranges overlap the keys are visited.
+	 * @param keyStart null for no lower bound
+	 * @param keyEnd null for no upper bound
+	 */
+	protected void collectMessages(K keyStart, K keyEnd, Map<K, Object> messages) {
+		if (this.buffer != null) {
+			int start = keyStart == null ? 0 : Helpers.firstIndexGreaterOrEqual(this.buffer.keys, this.buffer.size, keyStart);
+			for (int i=start; i<this.buffer.size && (keyEnd == null || this.buffer.keys[i].compareTo(keyEnd) < 0); i++) {
+				messages.putIfAbsent(this.buffer.keys[i], this.buffer.values[i]);
+			}
+		}
+		if (this.children[0] instanceof LeafNode) return;
+		
+		int first = keyStart == null ? 0 : Helpers.chooseChildFromKeys(this.keys, this.numKeys, keyStart);
+		int last = keyEnd == null ? this.numKeys - 1 : Helpers.chooseChildFromKeys(this.keys, this.numKeys, keyEnd);
+		for (int i=first; i<=last; i++) ((IntermediateNode<K, V>) this.children[i]).collectMessages(keyStart, keyEnd, messages);
+	}
+	
+	@Override
+	public List<BTreeNode<K, V>> insertAll(K[] keys, V[] values, int from, int to) {
+		// hand each child the run of the batch that belongs under it
+		List<BTreeNode<K, V>> allChildren = new ArrayList<>(this.numKeys + 1);
+		int start = from;
+		for (int i=0; i<this.numKeys; i++) {
+			int end = i == this.numKeys - 1 ? to
+					: Helpers.firstIndexGreaterOrEqual(keys, start, to, this.keys[i + 1]);
+			
+			BTreeNode<K, V> child = start < end ? this.writableChild(i) : this.children[i];
+			allChildren.add(child);
+			if (start < end) allChildren.addAll(child.insertAll(keys, values, start, end));
+			start = end;
+		}
+		
+		// if no child split, only the keys and size need updating
+		if (allChildren.size() == this.numKeys) {
+			this.refreshFromChildren();
+			return Collections.emptyList();
+		}
+		
+		// otherwise lay the children out over as few nodes as will hold them
+		this.removeAllChildren();
+		return this.spreadChildren(allChildren);
+	}
+	
+	/**
+	 * Lay children out evenly, in order, over this empty node and as few new
+	 * nodes as will hold them.
+	 * @return the new nodes, which go after this one in the parent
+	 */
+	private List<BTreeNode<K, V>> spreadChildren(List<BTreeNode<K, V>> allChildren) {
+		int count = allChildren.size();
+		int numNodes = (count + this.mc - 1) / this.mc;
+		this.stats.intermediateSplits.add(numNodes - 1);
+		List<BTreeNode<K, V>> newNodes = new ArrayList<>(numNodes - 1);
+		IntermediateNode<K, V> node = this;
+		int start = 0;
+		for (int n=0; n<numNodes; n++) {
+			int end = (int) ((long) count * (n + 1) / numNodes);
+			if (n > 0) {
+				node = new IntermediateNode<K, V>(this.mc, this.stats);
+				newNodes.add(node);
+			}
+			for (int i=start; i<end; i++) node.appendChild(allChildren.get(i));
+			start = end;
+		}
+		
+		return newNodes;
+	}
+	
+	@Override
+	public void deleteAll(K[] keys, int from, int to, boolean mergeLeaves) {
+		// hand each child the run of the batch that belongs under it
+		int start = from;
+		for (int i=0; i<this.numKeys && start < to; i++) {
+			int end = i == this.numKeys - 1 ? to
+					: Helpers.firstIndexGreaterOrEqual(keys, start, to, this.keys[i + 1]);
+			
+			if (start < end) this.writableChild(i).deleteAll(keys, start, end, mergeLeaves);
+			start = end;
+		}
+		
+		// drop children that are now empty
+		int kept = 0;
+		for (int i=0; i<this.numKeys; i++) {
+			if (this.children[i].size() > 0) this.children[kept++] = this.children[i];
+		}
+		Arrays.fill(this.children, kept, this.numKeys, null);
+		Arrays.fill(this.keys, kept, this.numKeys, null);
+		this.stats.nodesRemoved.add(this.numKeys - kept);
+		this.numKeys = kept;
+		
+		this.rebalanceUnderfullChildren(mergeLeaves);
+		this.refreshFromChildren();
+	}
+	
+	@Override
+	public void deleteRange(K keyStart, K keyEnd, K max, boolean mergeLeaves) {
+		this.stats.searched(this.numKeys);
+		int first = Helpers.chooseChildFromKeys(this.keys, this.numKeys, keyStart);
+		int last = Helpers.chooseChildFromKeys(this.keys, this.numKeys, keyEnd);
+		K firstMax = first == this.numKeys - 1 ? max : this.keys[first + 1];
+		K lastMax = last == this.numKeys - 1 ? max : this.keys[last + 1];
+		
+		// children [from, to) lie wholly inside the range; the ones at the ends may not
+		int from = keyStart.compareTo(this.keys[first]) <= 0 ? first : first + 1;
+		int to = lastMax != null && lastMax.compareTo(keyEnd) <= 0 ? last + 1 : last;
+		boolean trimFirst = from > first;
+		boolean trimLast = to == last && !(last == first && trimFirst);
+		
+		if (from < to) {
+			// take the leaves of the whole children out of the chain in one step
+			LeafNode<K, V> before = this.children[from].firstLeaf().previous;
+			LeafNode<K, V> after = this.children[to - 1].lastLeaf().next;
+			if (before != null) before.next = after;
+			if (after != null) after.previous = before;
+			
+			int removed = to - from;
+			System.arraycopy(this.keys, to, this.keys, from, this.numKeys - to);
+			System.arraycopy(this.children, to, this.children, from, this.numKeys - to);
+			Arrays.fill(this.keys, this.numKeys - removed, this.numKeys, null);
+			Arrays.fill(this.children, this.numKeys - removed, this.numKeys, null);
+			this.numKeys -= removed;
+			this.stats.nodesRemoved.add(removed);
+			last -= removed;
+		}
+		
+		// trim the children holding the ends of the range
+		if (trimFirst) this.writableChild(first).deleteRange(keyStart, keyEnd, firstMax, mergeLeaves);
+		if (trimLast) this.writableChild(last).deleteRange(keyStart, keyEnd, lastMax, mergeLeaves);
+		
+		// drop children that are now empty, then fix the ones left less than half full
+		int kept = 0;
+		for (int i=0; i<this.numKeys; i++) {
+			if (this.children[i].size() > 0) this.children[kept++] = this.children[i];
+		}
+		Arrays.fill(this.children, kept, this.numKeys, null);
+		Arrays.fill(this.keys, kept, this.numKeys, null);
+		this.stats.nodesRemoved.add(this.numKeys - kept);
+		this.numKeys = kept;
+		
+		this.rebalanceUnderfullChildren(mergeLeaves);
+		this.refreshFromChildren();
+	}
+	
+	/**
+	 * Merge or even out intermediate children that are less than half full,
+	 * and leaf children too if mergeLeaves is set. A child can only be fixed
+	 * if it has a neighbor, so a node left with one underfull child relies on
+	 * its parent to fix it.
+	 */
+	private void rebalanceUnderfullChildren(boolean mergeLeaves) {
+		int i = 0;
+		while (i < this.numKeys && this.numKeys > 1) {
+			BTreeNode<K, V> child = this.children[i];
+			if (child.numKeys >= this.mc/2 || (child instanceof LeafNode && !mergeLeaves)) {
+				i++;
+				continue;
+			}
+			
+			// a merged leaf is gone, so the one after it is checked next
+			if (child instanceof LeafNode) {
+				if (!this.rebalanceLeaves(i)) i++;
+				continue;
+			}
+			
+			// pair the child with its left neighbor, or its right one if it is first
+			int left = i == 0 ? 0 : i - 1;
+			this.rebalanceChildren(left, mergeLeaves);
+			i = left;
+		}
+	}
+	
+	/**
+	 * Fix a leaf child that is less than half full the way a leaf delete does,
+	 * by merging it into its left neighbor, or its right one if it is first,
+	 * or evening out the pairs between them if they do not fit in one leaf.
+	 * @param index index of the underfull leaf
+	 * @return whether the leaf was merged and removed
+	 */
+	private boolean rebalanceLeaves(int index) {
+		int neighborIndex = index == 0 ? 1 : index - 1;
+		LeafNode<K, V> leaf = (LeafNode<K, V>) this.writableChild(index);
+		LeafNode<K, V> neighbor = (LeafNode<K, V>) this.writableChild(neighborIndex);
+		boolean merged = leaf.fixUnderflow(neighbor);
+		if (merged) this.removeChild(index);
+		
+		// pairs moved between the two leaves, so their lowest keys may have changed
+		int left = Math.min(index, neighborIndex);
+		for (int i=left; i<=left + 1 && i<this.numKeys; i++) this.keys[i] = this.children[i].getMin();
+		return merged;
+	}
+	
+	/**
+	 * Fix two neighboring intermediate children when one of them is less than
+	 * half full. If they fit in one node, the right one is merged into the left
+	 * and removed. Otherwise their children are split evenly between them.
+	 * @param left index of the left child; the right child is at left + 1
+	 * @param mergeLeaves whether underfull leaves under them are fixed too
+	 */
+	private void rebalanceChildren(int left, boolean mergeLeaves) {
+		IntermediateNode<K, V> leftNode = (IntermediateNode<K, V>) this.writableChild(left);
+		IntermediateNode<K, V> rightNode = (IntermediateNode<K, V>) this.writableChild(left + 1);
+		int total = leftNode.numKeys + rightNode.numKeys;
+		
+		if (total <= this.mc) {
+			this.mergeChildren(left);
+			
+			// an underfull child that was alone in its node has neighbors now
+			leftNode.rebalanceUnderfullChildren(mergeLeaves);
+			return;
+		}
+		
+		// gather both nodes' children, then deal half to each
+		this.stats.borrows.increment();
+		List<BTreeNode<K, V>> allChildren = new ArrayList<>(total);
+		for (int i=0; i<leftNode.numKeys; i++) allChildren.add(leftNode.children[i]);
+		for (int i=0; i<rightNode.numKeys; i++) allChildren.add(rightNode.children[i]);
+		
+		leftNode.removeAllChildren();
+		rightNode.removeAllChildren();
+		for (int i=0; i<total; i++) (i < total/2 ? leftNode : rightNode).appendChild(allChildren.get(i));
+		
+		// pending messages follow the children they belong to
+		leftNode.takeBufferOf(rightNode);
+		if (leftNode.buffer != null) rightNode.buffer = leftNode.buffer.splitOff(rightNode.keys[0]);
+		this.keys[left + 1] = rightNode.getMin();
+		leftNode.rebalanceUnderfullChildren(mergeLeaves);
+		rightNode.rebalanceUnderfullChildren(mergeLeaves);
+	}
+	
+	/**
+	 * Move all the children of an intermediate child into its left neighbor,
+	 * and remove it. They must fit in one node.
+	 * @param left index of the left child; the right child is at left + 1
+	 */
+	private void mergeChildren(int left) {
+		IntermediateNode<K, V> leftNode = (IntermediateNode<K, V>) this.writableChild(left);
+		IntermediateNode<K, V> rightNode = (IntermediateNode<K, V>) this.writableChild(left + 1);
+		System.arraycopy(rightNode.keys, 0, leftNode.keys, leftNode.numKeys, rightNode.numKeys);
+		System.arraycopy(rightNode.children, 0, leftNode.children, leftNode.numKeys, rightNode.numKeys);
+		leftNode.numKeys += rightNode.numKeys;
+		leftNode.subtreeSize += rightNode.subtreeSize;
+		leftNode.takeBufferOf(rightNode);
+		this.removeChild(left + 1);
+		this.stats.nodesRemoved.increment();
+	}
+	
+	/**
+	 * One step of compaction. Go down to the node just above the leaves that
+	 * holds the key, repack its leaves, and on the way back up merge each
+	 * intermediate node on the path with its neighbors while their children fit.
+	 * @param key key in the part of the tree to compact
+	 * @param max every key under this node is less than this; null if there is
+	 * no such bound
+	 * @param keysPerLeaf number of pairs to put in each repacked leaf
+	 * @param childrenPerNode most children a merged intermediate node may have
+	 * @param mergeLeaves whether leaves less than half full are merged with or
+	 * evened out with a neighbor afterwards
+	 * @return first key after the repacked leaves, or null if they were the last ones
+	 */
+	protected K compact(K key, K max, int keysPerLeaf, int childrenPerNode, boolean mergeLeaves) {
+		if (this.children[0] instanceof LeafNode) {
+			this.repackLeaves(keysPerLeaf);
+			
+			// dealing out a little more than whole leaves' worth can leave them all under half full
+			if (mergeLeaves) {
+				this.rebalanceUnderfullChildren(true);
+				this.refreshFromChildren();
+			}
+			return max;
+		}
+		
+		int index = Helpers.chooseChildFromKeys(this.keys, this.numKeys, key);
+		K childMax = index == this.numKeys - 1 ? max : this.keys[index + 1];
+		IntermediateNode<K, V> child = (IntermediateNode<K, V>) this.writableChild(index);
+		K next = child.compact(key, childMax, keysPerLeaf, childrenPerNode, mergeLeaves);
+		
+		// merge to the right first, then to the left, so index stays on the merged child
+		while (index + 1 < this.numKeys && this.childrenFit(index, childrenPerNode)) this.mergeChildren(index);
+		while (index > 0 && this.childrenFit(index - 1, childrenPerNode)) this.mergeChildren(--index);
+		
+		this.rebalanceUnderfullChildren(mergeLeaves);
+		this.refreshFromChildren();
+		return next;
+	}
+	
+	/**
+	 * Move the messages of the node to the right of this one into this node's
+	 * buffer, after the ones already here.
+	 */
+	private void takeBufferOf(IntermediateNode<K, V> right) {
+		if (right.buffer == null || right.buffer.size == 0) return;
+		if (this.buffer == null) this.buffer = right.buffer;
+		else this.buffer.addAll(right.buffer);
+		right.buffer = null;
+	}
+	
+	/**
+	 * Returns whether two neighboring intermediate children would fit in one
+	 * node with at most limit children.
+	 */
+	private boolean childrenFit(int left, int limit) {
+		return this.children[left].numKeys + this.children[left + 1].numKeys <= limit;
+	}
+	
+	/**
+	 * Spread the pairs in this node's leaves over as few leaves as will hold
+	 * them at keysPerLeaf each. The leaves that are kept are the first ones, which
+	 * are already linked in order, and the rest are cut out of the chain.
+	 */
+	@SuppressWarnings("unchecked")
+	private void repackLeaves(int keysPerLeaf) {
+		int numLeaves = Math.max(1, (this.subtreeSize + keysPerLeaf - 1) / keysPerLeaf);
+		if (numLeaves >= this.numKeys) return;
+		
+		// gather every pair in order
+		K[] allKeys = (K[]) new Comparable[this.subtreeSize];
+		V[] allValues = (V[]) new Object[this.subtreeSize];
+		int count = 0;
+		for (int i=0; i<this.numKeys; i++) {
+			LeafNode<K, V> leaf = (LeafNode<K, V>) this.children[i];
+			System.arraycopy(leaf.keys, 0, allKeys, count, leaf.numKeys);
+			System.arraycopy(leaf.values, 0, allValues, count, leaf.numKeys);
+			count += leaf.numKeys;
+		}
+		
+		// deal them out evenly
+		int start = 0;
+		for (int n=0; n<numLeaves; n++) {
+			int end = (int) ((long) count * (n + 1) / numLeaves);
+			LeafNode<K, V> leaf = (LeafNode<K, V>) this.writableChild(n);
+			leaf.filter = null;
+			Arrays.fill(leaf.keys, null);
+			Arrays.fill(leaf.values, null);
+			System.arraycopy(allKeys, start, leaf.keys, 0, end - start);
+			System.arraycopy(allValues, start, leaf.values, 0, end - start);
+			leaf.numKeys = end - start;
+			start = end;
+		}
+		
+		// leaves past the last one kept are left out of the chain
+		LeafNode<K, V> last = (LeafNode<K, V>) this.children[numLeaves - 1];
+		LeafNode<K, V> after = ((LeafNode<K, V>) this.children[this.numKeys - 1]).next;
+		last.next = after;
+		if (after != null) after.previous = last;
+		
+		Arrays.fill(this.children, numLeaves, this.numKeys, null);
+		Arrays.fill(this.keys, numLeaves, this.numKeys, null);
+		this.stats.nodesRemoved.add(this.numKeys - numLeaves);
+		this.numKeys = numLeaves;
+		this.refreshFromChildren();
+	}
+	
+	/**
+	 * Empty this node so children can be appended to it again.
+	 */
+	private void removeAllChildren() {
+		Arrays.fill(this.keys, null);
+		Arrays.fill(this.children, null);
+		this.numKeys = 0;
+		this.subtreeSize = 0;
+	}
+	
+	/**
+	 * Reset every key to its child's lowest key and recount the pairs under
+	 * this node. Used after a batch changes many children at once.
+	 */
+	private void refreshFromChildren() {
+		this.subtreeSize = 0;
+		for (int i=0; i<this.numKeys; i++) {
+			this.keys[i] = this.children[i].getMin();
+			this.subtreeSize += this.children[i].size();
+		}
+	}
+	
+	/**
+	 * Add a child after all the other children, keyed by its lowest key.
+	 * Used when building a tree from the bottom up.
+	 */
+	protected void appendChild(BTreeNode<K, V> child) {
+		this.keys[this.numKeys] = child.getMin();
+		this.children[this.numKeys] = child;
+		this.numKeys++;
+		this.subtreeSize += child.size();
+	}
+	
+	/**
+	 * Shift keys and children to the right to make room for a new child.
+	 * Arrays must have room for one more child.
+	 */
+	private void insertChild(int index, K key, BTreeNode<K, V> child) {
+		Helpers.insertAt(this.keys, this.numKeys, index, key);
+		Helpers.insertAt(this.children, this.numKeys, index, child);
+		this.numKeys++;
+	}
+	
+	/**
+	 * Shift keys and children to the left over the child at index.
+	 */
+	private void removeChild(int index) {
+		Helpers.removeAt(this.keys, this.numKeys, index);
+		Helpers.removeAt(this.children, this.numKeys, index);
+		this.numKeys--;
+	}
+	
 	@Override
 	public int size() {
+		return this.subtreeSize;
+	}
+	
+	@Override
+	public int rank(K key) {
+		int childIndex = Helpers.chooseChildFromKeys(this.keys, this.numKeys, key);
+		
+		// every pair in a child to the left of the chosen one is smaller than key
 		int count = 0;
-		for (BTreeNode<K, V> node : this.children) {
-			count += node.size();
+		for (int i=0; i<childIndex; i++) {
+			count += this.children[i].size();
+		}
+		return count + this.children[childIndex].rank(key);
+	}
+	
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		// skip over whole children until the index lands inside one
+		int i = 0;
+		while (index >= this.children[i].size()) {
+			index -= this.children[i].size();
+			i++;
 		}
-		return count;
+		return this.children[i].select(index);
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		
-		// add list of keys at top
-		for (K key : this.keys) {
-			sb.append(key);
+		// add list of keys at top, then any pending messages
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append(this.keys[i]);
 			sb.append(" ");
 		}
+		if (this.buffer != null && this.buffer.size > 0) sb.append("| " + this.buffer);
 		
 		// add each child on a new line, indenting everything by one tab
-		for (BTreeNode<K, V> child : children) {
+		for (int i=0; i<this.numKeys; i++) {
 			sb.append("\n\t");
-			sb.append(child.toString().replaceAll("\n", "\n\t"));
+			sb.append(this.children[i].toString().replaceAll("\n", "\n\t"));
 		}
 		
 		return sb.toString();
 	}
 	
 	@Override
-	public void verify(K min, K max) {
+	public void verify(K min, K max, boolean mergeLeaves) {
 		// check that number of keys == number of children
-		if (this.keys.size() != this.children.size()) 
+		if (this.keys.length != this.children.length) 
 			throw new AssertionError("Intermediate node: #keys != #children");
+		for (int i=0; i<this.keys.length; i++) {
+			if ((i < this.numKeys) != (this.children[i] != null))
+				throw new AssertionError("Intermediate node: #keys != #children");
+			if (i >= this.numKeys && this.keys[i] != null)
+				throw new AssertionError("Intermediate node: unused slot not cleared");
+		}
 		
 		// check that children do not exceed max children
-		if (this.children.size() > this.mc) 
+		if (this.numKeys > this.mc) 
 			throw new AssertionError("Intermediate node: #children > maxChildren");
 		
+		// check that the cached subtree size matches the children
+		int childSizes = 0;
+		for (int i=0; i<this.numKeys; i++) childSizes += this.children[i].size();
+		if (this.subtreeSize != childSizes)
+			throw new AssertionError("Intermediate node: subtree size (" + this.subtreeSize 
+					+ ") != sum of children (" + childSizes + ")");
+		
 		// check that all keys are within range
-		for (K key : this.keys) {
+		for (int i=0; i<this.numKeys; i++) {
+			K key = this.keys[i];
 			if (key.compareTo(min) < 0) 
 				throw new AssertionError("Intermediate node: key (" + key + ") < min (" + min + ")");
 			if (key.compareTo(max) >= 0) 
@@ -169,30 +782,41 @@ public class IntermediateNode<K extends Comparable<K>, V> extends BTreeNode<K, V
 		}
 		
 		// check that all keys are in order
-		for (int i=0; i<this.keys.size()-1; i++) {
-			if (this.keys.get(i).compareTo(this.keys.get(i+1)) >= 0) 
+		for (int i=0; i<this.numKeys-1; i++) {
+			if (this.keys[i].compareTo(this.keys[i+1]) >= 0) 
 				throw new AssertionError("Intermediate node: keys not in order");
 		}
 		
+		// check that pending messages are in order and within range
+		if (this.buffer != null) {
+			for (int i=0; i<this.buffer.size; i++) {
+				K key = this.buffer.keys[i];
+				if (key.compareTo(min) < 0 || key.compareTo(max) >= 0)
+					throw new AssertionError("Intermediate node: message (" + key + ") out of range");
+				if (i > 0 && this.buffer.keys[i - 1].compareTo(key) >= 0)
+					throw new AssertionError("Intermediate node: messages not in order");
+			}
+		}
+		
 		// check that this is at least half full
-		if (!this.isRoot && this.children.size() < this.mc/2) 
+		if (!this.isRoot && this.numKeys < this.mc/2) 
 			throw new AssertionError("Intermediate node: #children < maxChildren/2");
 		
 		// the root should have at least two children if it is not a leaf
-		if (this.isRoot && this.children.size() < 2) 
+		if (this.isRoot && this.numKeys < 2) 
 			throw new AssertionError("Intermediate node: #children in root < 2");
 		
 		// check that all children are valid
-		for (int i=0; i<this.keys.size() - 1; i++)
-			this.children.get(i).verify(this.keys.get(i), this.keys.get(i + 1));
-		this.children.get(this.children.size() - 1).verify(this.keys.get(this.keys.size() - 1), max);
+		for (int i=0; i<this.numKeys - 1; i++)
+			this.children[i].verify(this.keys[i], this.keys[i + 1], mergeLeaves);
+		this.children[this.numKeys - 1].verify(this.keys[this.numKeys - 1], max, mergeLeaves);
 	}
 	
 	@Override
 	public int getDepth() {
 		int depthFound = -1;
-		for (BTreeNode<K, V> child : this.children) {
-			int childDepth = child.getDepth();
+		for (int i=0; i<this.numKeys; i++) {
+			int childDepth = this.children[i].getDepth();
 			if (depthFound == -1) depthFound = childDepth;
 			if (childDepth != depthFound) throw new AssertionError("Sibling depths not equal");
 		}
@@ -201,32 +825,66 @@ public class IntermediateNode<K extends Comparable<K>, V> extends BTreeNode<K, V
 	
 	@Override
 	public LeafNode<K, V> toLeafNode() {
-		List<K> keys = new ArrayList<>();
-		List<V> values = new ArrayList<>();
+		LeafNode<K, V> acc = new LeafNode<>(this.mc, this.size(), this.stats);
 		
-		for (BTreeNode<K, V> child : this.children) {
-			LeafNode<K, V> leaf = child.toLeafNode();
-			keys.addAll(leaf.keys);
-			values.addAll(leaf.values);
+		for (int i=0; i<this.numKeys; i++) {
+			LeafNode<K, V> leaf = this.children[i].toLeafNode();
+			System.arraycopy(leaf.keys, 0, acc.keys, acc.numKeys, leaf.numKeys);
+			System.arraycopy(leaf.values, 0, acc.values, acc.numKeys, leaf.numKeys);
+			acc.numKeys += leaf.numKeys;
 		}
 		
-		LeafNode<K, V> acc = new LeafNode<>(this.mc);
-		acc.keys = keys;
-		acc.values = values;
-		
 		return acc;
 	}
 
 	@Override
-	public List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
-		return this.children.get(Helpers.chooseChildFromKeys(this.keys, keyStart))
-				.getRange(keyStart, keyEnd);
+	protected LeafNode<K, V> findLeaf(K key) {
+		return this.children[Helpers.chooseChildFromKeys(this.keys, this.numKeys, key)].findLeaf(key);
+	}
+	
+	@Override
+	protected IntermediateNode<K, V> copy() {
+		IntermediateNode<K, V> copy = new IntermediateNode<K, V>(this.mc, this.stats);
+		System.arraycopy(this.keys, 0, copy.keys, 0, this.numKeys);
+		System.arraycopy(this.children, 0, copy.children, 0, this.numKeys);
+		copy.numKeys = this.numKeys;
+		copy.subtreeSize = this.subtreeSize;
+		copy.isRoot = this.isRoot;
+		if (this.buffer != null) copy.buffer = this.buffer.copy();
+		
+		// the children are now under both this node and the copy
+		for (int i=0; i<this.numKeys; i++) this.children[i].shared = true;
+		return copy;
+	}
+	
+	/**
+	 * Get a child that can be changed, copying it first if it is part of a snapshot.
+	 */
+	protected BTreeNode<K, V> writableChild(int index) {
+		if (this.children[index].shared) this.children[index] = this.children[index].copy();
+		return this.children[index];
 	}
 	
 	@Override
-	public List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
-		return this.children.get(Helpers.chooseChildFromKeys(this.keys, keyStart))
-				.getPage(keyStart, numElements);
+	protected LeafNode<K, V> firstLeaf() {
+		return this.children[0].firstLeaf();
+	}
+	
+	@Override
+	protected LeafNode<K, V> lastLeaf() {
+		return this.children[this.numKeys - 1].lastLeaf();
+	}
+
+	/**
+	 * In buffered mode, a pending message can be for a key lower than any in
+	 * the leaves, so that key counts as the lowest. This keeps the message
+	 * inside this node's range in the parent.
+	 */
+	@Override
+	protected K getMin() {
+		if (this.buffer == null || this.buffer.size == 0 || this.numKeys == 0) return super.getMin();
+		K first = this.buffer.keys[0];
+		return first.compareTo(this.keys[0]) < 0 ? first : this.keys[0];
 	}
 
 }
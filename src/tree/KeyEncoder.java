@@ -0,0 +1,44 @@
+package tree;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns keys into byte strings that sort, compared byte by byte as unsigned
+ * values, in the same order as the keys themselves, and back. Encoders can be
+ * written one after another, so a key made of several fields is encoded by
+ * writing each field's encoding in order. See KeyEncoders for common types.
+ * @param <K> type being encoded
+ */
+public interface KeyEncoder<K> {
+
+	/**
+	 * Write the encoding of a key. No key's encoding may be the start of
+	 * another key's encoding, so that whatever is written after it does not
+	 * change the order.
+	 */
+	public void write(ByteArrayOutputStream out, K key);
+
+	/**
+	 * Read back a key written by write, starting at the buffer's position and
+	 * moving the position past it.
+	 */
+	public K read(ByteBuffer in);
+
+	/**
+	 * Get the encoding of a key in a new array.
+	 */
+	public default byte[] encode(K key) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.write(out, key);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Get the key an array holds the encoding of.
+	 */
+	public default K decode(byte[] bytes) {
+		return this.read(ByteBuffer.wrap(bytes));
+	}
+
+}
@@ -0,0 +1,69 @@
+package tree;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Key encoders for common key types.
+ */
+public class KeyEncoders {
+
+	// numbers are written big endian with the sign bit flipped, so negative numbers come first
+	public static final KeyEncoder<Integer> INTEGER = new KeyEncoder<Integer>() {
+		@Override
+		public void write(ByteArrayOutputStream out, Integer key) {
+			int bits = key ^ Integer.MIN_VALUE;
+			for (int shift=24; shift>=0; shift-=8) out.write(bits >>> shift);
+		}
+
+		@Override
+		public Integer read(ByteBuffer in) {
+			return in.getInt() ^ Integer.MIN_VALUE;
+		}
+	};
+
+	public static final KeyEncoder<Long> LONG = new KeyEncoder<Long>() {
+		@Override
+		public void write(ByteArrayOutputStream out, Long key) {
+			long bits = key ^ Long.MIN_VALUE;
+			for (int shift=56; shift>=0; shift-=8) out.write((int) (bits >>> shift));
+		}
+
+		@Override
+		public Long read(ByteBuffer in) {
+			return in.getLong() ^ Long.MIN_VALUE;
+		}
+	};
+
+	/**
+	 * Strings as UTF-8, which sorts them by code point. This is the same order
+	 * as String.compareTo unless characters outside the basic multilingual
+	 * plane are involved. Each string ends with the bytes 0 0, and a 0 byte
+	 * inside the string is written as 0 1, so a string sorts before any longer
+	 * string it is the start of, even when more fields follow it.
+	 */
+	public static final KeyEncoder<String> STRING = new KeyEncoder<String>() {
+		@Override
+		public void write(ByteArrayOutputStream out, String key) {
+			for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+				out.write(b);
+				if (b == 0) out.write(1);
+			}
+			out.write(0);
+			out.write(0);
+		}
+
+		@Override
+		public String read(ByteBuffer in) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			while (true) {
+				byte b = in.get();
+				if (b == 0 && in.get() == 0) break;
+				bytes.write(b);
+			}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	};
+
+}
@@ -1,24 +1,59 @@
 package tree;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class LeafNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 	
-	protected List<V> values; // max length = mk
-	protected LeafNode<K, V> previous, next; // used for getRange
+	protected V[] values; // max length = mk, parallel to keys
+	protected LeafNode<K, V> previous, next; // used by cursors
+	protected BloomFilter filter; // over the keys, built when first needed; null once keys are removed
 
-	public LeafNode(int maxKeys) {
-		super(maxKeys);
-		this.values = new ArrayList<>();
+	public LeafNode(int maxKeys, TreeStats stats) {
+		this(maxKeys, maxKeys + 1, stats);
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected LeafNode(int maxKeys, int capacity, TreeStats stats) {
+		super(maxKeys, capacity, stats);
+		this.values = (V[]) new Object[capacity];
 	}
 
 	@Override
 	public V get(K key) {
-		int getIndex = Helpers.firstIndexGreaterOrEqual(this.keys, key);
-		if (Helpers.elementAtIndexEqualsKey(this.keys, getIndex, key))
-			return this.values.get(getIndex);
+		return this.get(key, 0);
+	}
+
+	@Override
+	protected V get(K key, int filterBitsPerKey) {
+		if (filterBitsPerKey > 0) {
+			// the lowest and highest keys act as fences around the keys this leaf can hold
+			this.stats.comparisons.add(2);
+			if (this.numKeys == 0 || key.compareTo(this.keys[0]) < 0
+					|| key.compareTo(this.keys[this.numKeys - 1]) > 0) {
+				this.stats.fenceRejections.increment();
+				return null;
+			}
+			
+			BloomFilter filter = this.filter;
+			if (filter == null || filter.bitsPerKey != filterBitsPerKey) {
+				filter = new BloomFilter(this.keys, this.numKeys, this.mc, filterBitsPerKey);
+				this.filter = filter;
+				this.stats.filterBuilds.increment();
+			}
+			if (!filter.mightContain(key)) {
+				this.stats.filterRejections.increment();
+				return null;
+			}
+		}
+		
+		this.stats.searched(this.numKeys);
+		int getIndex = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		if (Helpers.elementAtIndexEqualsKey(this.keys, this.numKeys, getIndex, key))
+			return this.values[getIndex];
+		if (filterBitsPerKey > 0) this.stats.filterFalsePositives.increment();
 		return null;
 	}
 
@@ -26,35 +61,41 @@ public class LeafNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 	public BTreeNode<K, V> insert(K key, V value) {
 		
 		// find where the key should go in the sorted list
-		int insertIndex = Helpers.firstIndexGreaterOrEqual(this.keys, key);
+		this.stats.leafWrites.increment();
+		this.stats.searched(this.numKeys);
+		int insertIndex = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
 		
 		// if key at index is equal to given key, replace value, don't insert
-		if (Helpers.elementAtIndexEqualsKey(this.keys, insertIndex, key)) {
+		if (Helpers.elementAtIndexEqualsKey(this.keys, this.numKeys, insertIndex, key)) {
 			// must set key too because keys are equivalent according to the compare()
 			// method, but there could be different data that the compare() method ignores
-			this.keys.set(insertIndex, key);
-			this.values.set(insertIndex, value);
+			this.keys[insertIndex] = key;
+			this.values[insertIndex] = value;
 			return null;
 		}
 		
 		// add key value pair
-		this.keys.add(insertIndex, key);
-		this.values.add(insertIndex, value);
+		this.insertEntry(insertIndex, key, value);
 
 		// if node doesn't have to be split, you're done
-		if (this.keys.size() <= this.mc) return null;
+		if (this.numKeys <= this.mc) return null;
 
 		// when node is full, split in two
+		this.stats.leafSplits.increment();
 		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
 		
 		// last half goes in new node
-		LeafNode<K, V> newNode = new LeafNode<K, V>(this.mc);
-		newNode.keys.addAll(this.keys.subList(splitIndex, this.keys.size()));
-		newNode.values.addAll(this.values.subList(splitIndex, this.values.size()));
+		LeafNode<K, V> newNode = new LeafNode<K, V>(this.mc, this.stats);
+		System.arraycopy(this.keys, splitIndex, newNode.keys, 0, numMoved);
+		System.arraycopy(this.values, splitIndex, newNode.values, 0, numMoved);
+		newNode.numKeys = numMoved;
 		
-		// replace this node with first half
-		this.keys = new ArrayList<>(this.keys.subList(0, splitIndex));
-		this.values = new ArrayList<>(this.values.subList(0, splitIndex));
+		// shrink this node down to the first half
+		this.filter = null;
+		Arrays.fill(this.keys, splitIndex, this.numKeys, null);
+		Arrays.fill(this.values, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
 		
 		// create links to the new node
 		newNode.next = this.next;
@@ -65,30 +106,74 @@ public class LeafNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 		return newNode;
 	}
 	
+	/**
+	 * Add a pair whose key is greater than every key in this leaf, which must
+	 * be the rightmost leaf. If the leaf is full, it keeps nine tenths of its
+	 * pairs, and the rest go to a new leaf along with the new pair, so that
+	 * leaves filled by appends end up nearly full instead of half full.
+	 * @return new leaf to be inserted in the parent after this one, or null
+	 */
+	protected LeafNode<K, V> append(K key, V value) {
+		this.stats.leafWrites.increment();
+		if (this.numKeys < this.mc) {
+			this.keys[this.numKeys] = key;
+			this.values[this.numKeys] = value;
+			this.numKeys++;
+			if (this.filter != null) this.filter.add(key);
+			return null;
+		}
+		this.filter = null;
+		
+		this.stats.leafSplits.increment();
+		int splitIndex = this.mc - this.mc/10;
+		int numMoved = this.numKeys - splitIndex;
+		
+		// the last tenth and the new pair go in the new node
+		LeafNode<K, V> newNode = new LeafNode<K, V>(this.mc, this.stats);
+		System.arraycopy(this.keys, splitIndex, newNode.keys, 0, numMoved);
+		System.arraycopy(this.values, splitIndex, newNode.values, 0, numMoved);
+		newNode.keys[numMoved] = key;
+		newNode.values[numMoved] = value;
+		newNode.numKeys = numMoved + 1;
+		
+		Arrays.fill(this.keys, splitIndex, this.numKeys, null);
+		Arrays.fill(this.values, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
+		
+		// create links to the new node
+		newNode.previous = this;
+		this.next = newNode;
+		
+		return newNode;
+	}
+	
 	@Override
-	public boolean delete(K key, BTreeNode<K, V> neighbor) {
+	public boolean delete(K key, BTreeNode<K, V> neighbor, boolean mergeLeaves) {
 		// find the key if it exists
-		int deleteIndex = Helpers.firstIndexGreaterOrEqual(this.keys, key);
+		this.stats.leafWrites.increment();
+		this.stats.searched(this.numKeys);
+		int deleteIndex = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
 		
 		// if key to delete not found, return
-		if (!Helpers.elementAtIndexEqualsKey(this.keys, deleteIndex, key)) return false;
+		if (!Helpers.elementAtIndexEqualsKey(this.keys, this.numKeys, deleteIndex, key)) return false;
 		
 		// before deleting anything, record the lowest value in this
 		K minBeforeRemoval = this.getMin();
 		
 		// remove key value pair
-		this.keys.remove(deleteIndex);
-		this.values.remove(deleteIndex);
+		this.removeEntry(deleteIndex);
+		if (mergeLeaves) return this.fixUnderflow((LeafNode<K, V>) neighbor);
 		
 		// if leaf is not empty, return
-		if (this.keys.size() > 0) return false;
+		if (this.numKeys > 0) return false;
 		
 		// if neighbor is null or doesn't have enough keys, delete this node
-		if (neighbor == null || neighbor.keys.size() <= 1) {
+		if (neighbor == null || neighbor.numKeys <= 1) {
 			// remove links to this node
 			if (this.previous != null) this.previous.next = this.next;
 			if (this.next != null) this.next.previous = this.previous;
 			
+			this.stats.nodesRemoved.increment();
 			return true;
 		}
 		
@@ -99,49 +184,280 @@ public class LeafNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 		// using the recorded min key, calculate where to remove from neighbor
 		int removalLocation;
 		if (neighborLeafNode.getMin().compareTo(minBeforeRemoval) < 0) {
-			removalLocation = neighborLeafNode.keys.size() - 1;
+			removalLocation = neighborLeafNode.numKeys - 1;
 		} else {
 			removalLocation = 0;
 		}
 		
-		// transfer key
-		this.keys.add(neighborLeafNode.keys.get(removalLocation));
-		neighborLeafNode.keys.remove(removalLocation);
+		// transfer key value pair
+		this.stats.borrows.increment();
+		this.insertEntry(0, neighborLeafNode.keys[removalLocation], neighborLeafNode.values[removalLocation]);
+		neighborLeafNode.removeEntry(removalLocation);
 		
-		// transfer value
-		this.values.add(neighborLeafNode.values.get(removalLocation));
-		neighborLeafNode.values.remove(removalLocation);
+		return false;
+	}
+	
+	/**
+	 * Keep this leaf at least half full after a delete. If this leaf and its
+	 * neighbor fit in one leaf, move everything into the neighbor and tell the
+	 * parent to delete this one. Otherwise even out the pairs between them.
+	 * @param neighbor sibling leaf, or null if this is the root
+	 * @return whether this node should be deleted by parent
+	 */
+	protected boolean fixUnderflow(LeafNode<K, V> neighbor) {
+		if (this.numKeys >= this.mc/2 || neighbor == null) return this.numKeys == 0;
+		boolean neighborOnLeft = neighbor == this.previous;
+		this.filter = null;
+		neighbor.filter = null;
 		
+		if (this.numKeys + neighbor.numKeys <= this.mc) {
+			if (neighborOnLeft) {
+				System.arraycopy(this.keys, 0, neighbor.keys, neighbor.numKeys, this.numKeys);
+				System.arraycopy(this.values, 0, neighbor.values, neighbor.numKeys, this.numKeys);
+			} else {
+				System.arraycopy(neighbor.keys, 0, neighbor.keys, this.numKeys, neighbor.numKeys);
+				System.arraycopy(neighbor.values, 0, neighbor.values, this.numKeys, neighbor.numKeys);
+				System.arraycopy(this.keys, 0, neighbor.keys, 0, this.numKeys);
+				System.arraycopy(this.values, 0, neighbor.values, 0, this.numKeys);
+			}
+			neighbor.numKeys += this.numKeys;
+			
+			// remove links to this node
+			if (this.previous != null) this.previous.next = this.next;
+			if (this.next != null) this.next.previous = this.previous;
+			
+			this.stats.nodesRemoved.increment();
+			return true;
+		}
+		
+		// take pairs from the side of the neighbor closest to this leaf until both hold about the same
+		this.stats.borrows.increment();
+		int numMoved = (neighbor.numKeys - this.numKeys) / 2;
+		int neighborLeft = neighbor.numKeys - numMoved;
+		if (neighborOnLeft) {
+			System.arraycopy(this.keys, 0, this.keys, numMoved, this.numKeys);
+			System.arraycopy(this.values, 0, this.values, numMoved, this.numKeys);
+			System.arraycopy(neighbor.keys, neighborLeft, this.keys, 0, numMoved);
+			System.arraycopy(neighbor.values, neighborLeft, this.values, 0, numMoved);
+		} else {
+			System.arraycopy(neighbor.keys, 0, this.keys, this.numKeys, numMoved);
+			System.arraycopy(neighbor.values, 0, this.values, this.numKeys, numMoved);
+			System.arraycopy(neighbor.keys, numMoved, neighbor.keys, 0, neighborLeft);
+			System.arraycopy(neighbor.values, numMoved, neighbor.values, 0, neighborLeft);
+		}
+		Arrays.fill(neighbor.keys, neighborLeft, neighbor.numKeys, null);
+		Arrays.fill(neighbor.values, neighborLeft, neighbor.numKeys, null);
+		neighbor.numKeys = neighborLeft;
+		this.numKeys += numMoved;
 		return false;
 	}
 	
+	@Override
+	public List<BTreeNode<K, V>> insertAll(K[] keys, V[] values, int from, int to) {
+		return this.applyAll(keys, values, from, to);
+	}
+	
+	/**
+	 * Same as insertAll, except that a value of MessageBuffer.DELETE deletes
+	 * its key instead. If every pair is deleted, this leaf is taken out of the
+	 * chain, and its parent must remove it.
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<BTreeNode<K, V>> applyAll(K[] keys, Object[] values, int from, int to) {
+		// merge the batch with this leaf's pairs into new arrays
+		this.stats.leafWrites.increment();
+		int maxCount = this.numKeys + to - from;
+		K[] mergedKeys = (K[]) new Comparable[maxCount];
+		V[] mergedValues = (V[]) new Object[maxCount];
+		int count = 0;
+		int i = 0;
+		int j = from;
+		while (i < this.numKeys || j < to) {
+			int comparison = i == this.numKeys ? 1 
+					: j == to ? -1 
+					: this.keys[i].compareTo(keys[j]);
+			
+			if (comparison < 0) {
+				mergedKeys[count] = this.keys[i];
+				mergedValues[count] = this.values[i];
+				i++;
+				count++;
+				continue;
+			}
+			
+			// equal keys take the batch's key and value, like insert does
+			if (values[j] != MessageBuffer.DELETE) {
+				mergedKeys[count] = keys[j];
+				mergedValues[count] = (V) values[j];
+				count++;
+				if (this.filter != null) this.filter.add(keys[j]);
+			} else {
+				this.filter = null;
+			}
+			if (comparison == 0) i++;
+			j++;
+		}
+		
+		// an empty leaf will be removed by its parent, so take it out of the chain now
+		if (count == 0) {
+			Arrays.fill(this.keys, null);
+			Arrays.fill(this.values, null);
+			this.numKeys = 0;
+			if (this.previous != null) this.previous.next = this.next;
+			if (this.next != null) this.next.previous = this.previous;
+			return Collections.emptyList();
+		}
+		
+		// if everything fits, copy it back into this node
+		Arrays.fill(this.keys, null);
+		Arrays.fill(this.values, null);
+		if (count <= this.mc) {
+			System.arraycopy(mergedKeys, 0, this.keys, 0, count);
+			System.arraycopy(mergedValues, 0, this.values, 0, count);
+			this.numKeys = count;
+			return Collections.emptyList();
+		}
+		
+		// otherwise split evenly into as few leaves as will hold everything
+		this.filter = null;
+		int numLeaves = (count + this.mc - 1) / this.mc;
+		this.stats.leafSplits.add(numLeaves - 1);
+		List<BTreeNode<K, V>> newNodes = new ArrayList<>(numLeaves - 1);
+		LeafNode<K, V> leaf = this;
+		int start = 0;
+		for (int n=0; n<numLeaves; n++) {
+			int end = (int) ((long) count * (n + 1) / numLeaves);
+			if (n > 0) {
+				LeafNode<K, V> newLeaf = new LeafNode<K, V>(this.mc, this.stats);
+				newLeaf.next = leaf.next;
+				newLeaf.previous = leaf;
+				if (leaf.next != null) leaf.next.previous = newLeaf;
+				leaf.next = newLeaf;
+				leaf = newLeaf;
+				newNodes.add(newLeaf);
+			}
+			System.arraycopy(mergedKeys, start, leaf.keys, 0, end - start);
+			System.arraycopy(mergedValues, start, leaf.values, 0, end - start);
+			leaf.numKeys = end - start;
+			start = end;
+		}
+		
+		return newNodes;
+	}
+	
+	@Override
+	public void deleteAll(K[] keys, int from, int to, boolean mergeLeaves) {
+		// walk both sorted lists together, keeping the pairs not in the batch
+		this.stats.leafWrites.increment();
+		this.filter = null;
+		int kept = 0;
+		int j = from;
+		for (int i=0; i<this.numKeys; i++) {
+			while (j < to && keys[j].compareTo(this.keys[i]) < 0) j++;
+			if (j < to && keys[j].compareTo(this.keys[i]) == 0) continue;
+			
+			this.keys[kept] = this.keys[i];
+			this.values[kept] = this.values[i];
+			kept++;
+		}
+		Arrays.fill(this.keys, kept, this.numKeys, null);
+		Arrays.fill(this.values, kept, this.numKeys, null);
+		this.numKeys = kept;
+		
+		// an empty leaf will be removed by its parent, so take it out of the chain now
+		if (this.numKeys == 0) {
+			if (this.previous != null) this.previous.next = this.next;
+			if (this.next != null) this.next.previous = this.previous;
+		}
+	}
+	
+	@Override
+	public void deleteRange(K keyStart, K keyEnd, K max, boolean mergeLeaves) {
+		this.stats.leafWrites.increment();
+		this.filter = null;
+		int from = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, keyStart);
+		int to = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, keyEnd);
+		
+		// shift the pairs after the range over it
+		System.arraycopy(this.keys, to, this.keys, from, this.numKeys - to);
+		System.arraycopy(this.values, to, this.values, from, this.numKeys - to);
+		int kept = this.numKeys - (to - from);
+		Arrays.fill(this.keys, kept, this.numKeys, null);
+		Arrays.fill(this.values, kept, this.numKeys, null);
+		this.numKeys = kept;
+		
+		// an empty leaf will be removed by its parent, so take it out of the chain now
+		if (this.numKeys == 0) {
+			if (this.previous != null) this.previous.next = this.next;
+			if (this.next != null) this.next.previous = this.previous;
+		}
+	}
+	
+	/**
+	 * Shift keys and values to the right to make room for a new pair.
+	 * Arrays must have room for one more pair.
+	 */
+	private void insertEntry(int index, K key, V value) {
+		Helpers.insertAt(this.keys, this.numKeys, index, key);
+		Helpers.insertAt(this.values, this.numKeys, index, value);
+		this.numKeys++;
+		if (this.filter != null) this.filter.add(key);
+	}
+	
+	/**
+	 * Shift keys and values to the left over the pair at index.
+	 */
+	private void removeEntry(int index) {
+		Helpers.removeAt(this.keys, this.numKeys, index);
+		Helpers.removeAt(this.values, this.numKeys, index);
+		this.numKeys--;
+		this.filter = null;
+	}
+	
 	@Override
 	public int size() {
-		return this.keys.size();
+		return this.numKeys;
+	}
+	
+	@Override
+	public int rank(K key) {
+		return Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+	}
+	
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		return new KeyValuePair<K, V>(this.keys[index], this.values[index]);
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder("Leaf: ");
-		for (int i=0; i<this.keys.size(); i++) {
-			sb.append(this.keys.get(i));
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append(this.keys[i]);
 			sb.append(":");
-			sb.append(this.values.get(i));
+			sb.append(this.values[i]);
 			sb.append(" ");
 		}
 		return sb.toString();
 	}
 	
 	@Override
-	public void verify(K min, K max) {
+	public void verify(K min, K max, boolean mergeLeaves) {
 		// check that keys and values have same size
-		if (this.keys.size() != this.values.size()) throw new AssertionError("Leaf node: #keys != #values");
+		if (this.keys.length != this.values.length) throw new AssertionError("Leaf node: #keys != #values");
+		
+		// check that slots past the last key have been cleared
+		for (int i=this.numKeys; i<this.keys.length; i++) {
+			if (this.keys[i] != null || this.values[i] != null)
+				throw new AssertionError("Leaf node: unused slot not cleared");
+		}
 		
 		// check that keys do not exceed max children
-		if (this.keys.size() > this.mc) throw new AssertionError("Leaf node: #keys > max children");
+		if (this.numKeys > this.mc) throw new AssertionError("Leaf node: #keys > max children");
 		
 		// check that all keys are within range
-		for (K key : this.keys) {
+		for (int i=0; i<this.numKeys; i++) {
+			K key = this.keys[i];
 			if (key.compareTo(min) < 0) 
 				throw new AssertionError("Leaf node: key (" + key + ") < min (" + min + ")");
 			if (key.compareTo(max) >= 0)
@@ -149,10 +465,14 @@ public class LeafNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 		}
 		
 		// check that all keys are in order
-		for (int i=0; i<this.keys.size()-1; i++) {
-			if (this.keys.get(i).compareTo(this.keys.get(i+1)) >= 0) 
+		for (int i=0; i<this.numKeys-1; i++) {
+			if (this.keys[i].compareTo(this.keys[i+1]) >= 0) 
 				throw new AssertionError("Leaf node: keys not in order");
 		}
+		
+		// check that this is at least half full if leaves are merged
+		if (mergeLeaves && !this.isRoot && this.numKeys < this.mc/2) 
+			throw new AssertionError("Leaf node: #keys < maxChildren/2");
 	}
 	
 	@Override
@@ -166,56 +486,38 @@ public class LeafNode<K extends Comparable<K>, V> extends BTreeNode<K, V> {
 	}
 
 	@Override
-	public List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
-		LeafNode<K, V> node = this;
-		List<KeyValuePair<K, V>> allEntries = new LinkedList<>();
+	protected LeafNode<K, V> copy() {
+		LeafNode<K, V> copy = new LeafNode<K, V>(this.mc, this.stats);
+		System.arraycopy(this.keys, 0, copy.keys, 0, this.numKeys);
+		System.arraycopy(this.values, 0, copy.values, 0, this.numKeys);
+		copy.numKeys = this.numKeys;
+		copy.isRoot = this.isRoot;
+		copy.filter = this.filter == null ? null : this.filter.copy();
 		
-		// iterative because this loop could be long and we don't want a stack overflow error
-		while (node != null) {
-			List<KeyValuePair<K, V>> nodeEntries = node.getEntriesInRange(keyStart, keyEnd);
-			allEntries.addAll(nodeEntries);
-			if (node != this && nodeEntries.size() < node.keys.size()) break;
-			node = node.next;
-		}
+		// snapshots do not follow leaf links, so only the live tree's neighbors need to point at the copy
+		copy.previous = this.previous;
+		copy.next = this.next;
+		if (this.previous != null) this.previous.next = copy;
+		if (this.next != null) this.next.previous = copy;
+		this.previous = null;
+		this.next = null;
 		
-		return allEntries;
+		return copy;
+	}
+
+	@Override
+	protected LeafNode<K, V> findLeaf(K key) {
+		return this;
 	}
 	
 	@Override
-	public List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
-		LeafNode<K, V> node = this;
-		List<KeyValuePair<K, V>> allEntries = new LinkedList<>();
-		int elementsCounted = 0;
-		int indexInLeaf = Helpers.firstIndexGreaterOrEqual(this.keys, keyStart);
-		
-		// if indexInLeaf >= leaf size, that means no keys were found
-		if (indexInLeaf >= this.keys.size()) return new LinkedList<>();
-		
-		// iterative because this loop could be long and we don't want a stack overflow error
-		while (node != null && elementsCounted < numElements) {
-			allEntries.add(new KeyValuePair<K, V>(node.keys.get(indexInLeaf), node.values.get(indexInLeaf)));
-			
-			elementsCounted++;
-			indexInLeaf++;
-			if (indexInLeaf == node.keys.size()) {
-				indexInLeaf = 0;
-				node = node.next;
-			}
-		}
-		
-		return allEntries;
+	protected LeafNode<K, V> firstLeaf() {
+		return this;
 	}
 	
-	private List<KeyValuePair<K, V>> getEntriesInRange(K keyStart, K keyEnd) {
-		List<KeyValuePair<K, V>> entries = new LinkedList<>();
-		
-		for (int i=0; i<this.keys.size(); i++) {
-			K key = this.keys.get(i);
-			if (keyStart.compareTo(key) <= 0 && key.compareTo(keyEnd) < 0)
-				entries.add(new KeyValuePair<K, V>(key, this.values.get(i)));
-		}
-		
-		return entries;
+	@Override
+	protected LeafNode<K, V> lastLeaf() {
+		return this;
 	}
 
 }
@@ -0,0 +1,101 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over a LongBTreeSortedMap. Works like BTreeCursor, but hands keys
+ * back as primitive longs so walking a range never boxes.
+ * @param <V> type of values
+ */
+public class LongBTreeCursor<V> {
+	
+	private final LongBTreeSortedMap<V> map;
+	
+	// pair that next() will move onto; leaf is null when there are no more pairs
+	private LongLeafNode<V> nextLeaf;
+	private int nextIndex;
+	
+	// pair the cursor is on; leaf is null before the first call to next()
+	private LongLeafNode<V> currentLeaf;
+	private int currentIndex;
+	
+	public LongBTreeCursor(LongBTreeSortedMap<V> map) {
+		this.map = map;
+	}
+
+	/**
+	 * Move the cursor to just before the first pair whose key is greater than
+	 * or equal to the given key. The key does not have to be in the map.
+	 */
+	public void seek(long key) {
+		this.currentLeaf = null;
+		if (this.map.root == null) {
+			this.nextLeaf = null;
+			return;
+		}
+		
+		this.nextLeaf = this.map.root.findLeaf(key);
+		this.nextIndex = Helpers.firstIndexGreaterOrEqual(this.nextLeaf.keys, this.nextLeaf.numKeys, key);
+		this.skipToNextLeafIfDone();
+	}
+
+	/**
+	 * Move the cursor to just before the first pair in the map.
+	 */
+	public void seekFirst() {
+		this.currentLeaf = null;
+		this.nextLeaf = this.map.root == null ? null : this.map.root.firstLeaf();
+		this.nextIndex = 0;
+	}
+
+	/**
+	 * Returns whether there is another pair after the cursor's position.
+	 */
+	public boolean hasNext() {
+		return this.nextLeaf != null;
+	}
+
+	/**
+	 * Move the cursor onto the next pair. Throws NoSuchElementException if
+	 * there is none.
+	 */
+	public void next() {
+		if (this.nextLeaf == null) throw new NoSuchElementException();
+		
+		this.currentLeaf = this.nextLeaf;
+		this.currentIndex = this.nextIndex;
+		
+		this.nextIndex++;
+		this.skipToNextLeafIfDone();
+	}
+
+	/**
+	 * Get the key of the pair the cursor is on. Throws IllegalStateException
+	 * if next has not been called since the last seek.
+	 */
+	public long getKey() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.keys[this.currentIndex];
+	}
+
+	/**
+	 * Get the value of the pair the cursor is on. Throws IllegalStateException
+	 * if next has not been called since the last seek.
+	 */
+	public V getValue() {
+		if (this.currentLeaf == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentLeaf.values[this.currentIndex];
+	}
+	
+	/**
+	 * If the next index has run off the end of its leaf, move it to the start
+	 * of the following leaf. Leaves are never empty, so one step is enough.
+	 */
+	private void skipToNextLeafIfDone() {
+		if (this.nextIndex >= this.nextLeaf.numKeys) {
+			this.nextLeaf = this.nextLeaf.next;
+			this.nextIndex = 0;
+		}
+	}
+
+}
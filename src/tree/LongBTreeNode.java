@@ -0,0 +1,86 @@
+package tree;
+
+/**
+ * A node in a B tree whose keys are primitive longs. Works the same way as
+ * BTreeNode, but keys are stored in a long array so they are never boxed.
+ * @param <V> type of values
+ */
+public abstract class LongBTreeNode<V> {
+	
+	public final int mc;
+	protected long[] keys; // max length = mc, with one extra slot to overflow into before a split
+	protected int numKeys; // number of slots in keys that are in use
+	protected boolean isRoot; // used for testing
+	
+	public LongBTreeNode(int maxChildren) {
+		this.mc = maxChildren;
+		this.keys = new long[maxChildren + 1];
+		this.numKeys = 0;
+		this.isRoot = false;
+	}
+	
+	/**
+	 * Given a key, get the value at that key. Returns null if not found.
+	 * @param key key to look for
+	 * @return value found or null if not found
+	 */
+	public abstract V get(long key);
+	
+	/**
+	 * Insert a key value pair into the node.
+	 * @param key key to insert
+	 * @param value value associated with key
+	 * @return new node to be inserted in the parent node if necessary
+	 */
+	public abstract LongBTreeNode<V> insert(long key, V value);
+	
+	/**
+	 * Delete a key value pair.
+	 * @param key key to delete
+	 * @param neighbor sibling node to take data from if this node needs more;
+	 * must be same type as this
+	 * @return whether this node should be deleted by parent
+	 */
+	public abstract boolean delete(long key, LongBTreeNode<V> neighbor);
+	
+	/**
+	 * Runs in constant time.
+	 * @return number of key value pairs in tree with this node as root
+	 */
+	public abstract int size();
+	
+	/**
+	 * Find the leaf under this node where the given key is or would be stored.
+	 * @param key key to look for
+	 * @return leaf the key belongs in
+	 */
+	protected abstract LongLeafNode<V> findLeaf(long key);
+	
+	/**
+	 * @return leftmost leaf under this node
+	 */
+	protected abstract LongLeafNode<V> firstLeaf();
+	
+	/**
+	 * Used for testing purposes. Throws assertion error if invalid.
+	 * @param min minimum value (inclusive)
+	 * @param max maximum value (exclusive)
+	 */
+	protected abstract void verify(long min, long max);
+	
+	/**
+	 * Used for testing purposes. Throws an assertion error if two sibling
+	 * nodes have different depths.
+	 * @return depth of tree starting with this as root
+	 */
+	protected abstract int getDepth();
+	
+	/**
+	 * Convenience method to get the lowest key. Runs in constant time.
+	 * @return lowest key
+	 */
+	protected long getMin() {
+		return this.keys[0];
+	}
+	
+}
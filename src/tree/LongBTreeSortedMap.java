@@ -0,0 +1,168 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A B tree keyed by primitive longs. It has the same behavior as
+ * BTreeSortedMap, but keys are kept in long arrays and compared directly,
+ * so inserts, deletes, lookups and scans never box a key. Keys are only
+ * boxed when getRange and getPage copy pairs out into a list.
+ * @param <V> type of values
+ */
+public class LongBTreeSortedMap<V> {
+	
+	// Root of B tree. Null if map is empty.
+	protected LongBTreeNode<V> root;
+	
+	private final int mc;
+	
+	public LongBTreeSortedMap(int maxKeys) {
+		this.mc = maxKeys;
+	}
+
+	/**
+	 * Insert a key value pair.
+	 */
+	public void insert(long key, V value) {
+		// if tree is empty, make the root into a leaf and add pair
+		if (root == null) {
+			root = new LongLeafNode<V>(this.mc);
+			root.isRoot = true;
+			root.insert(key, value);
+			return;
+		}
+		
+		// insert into existing tree and get new node if one was made
+		LongBTreeNode<V> newNode = root.insert(key, value);
+		if (newNode == null) return;
+		
+		// the new node always holds the upper half of the split
+		LongIntermediateNode<V> newRoot = new LongIntermediateNode<V>(this.mc);
+		newRoot.keys[0] = root.getMin();
+		newRoot.keys[1] = newNode.getMin();
+		newRoot.children[0] = root;
+		newRoot.children[1] = newNode;
+		newRoot.numKeys = 2;
+		newRoot.subtreeSize = root.size() + newNode.size();
+		
+		// replace current root
+		this.root.isRoot = false;
+		newRoot.isRoot = true;
+		this.root = newRoot;
+	}
+
+	/**
+	 * Delete a key value pair.
+	 */
+	public void delete(long key) {
+		// if root is null, nothing you can do
+		if (this.root == null) return;
+		
+		// delete
+		if (this.root.delete(key, null)) {
+			
+			// if intermediate node only has one child, replace it with its child 
+			if (this.root instanceof LongIntermediateNode) {
+				this.root = ((LongIntermediateNode<V>) this.root).children[0];
+			} 
+			
+			// if leaf node is empty, replace it with null
+			else {
+				this.root = null;
+			}
+		}
+	}
+
+	/**
+	 * Given a key, get a value. Return null if not found.
+	 */
+	public V get(long key) {
+		return root == null ? null : root.get(key);
+	}
+	
+	/**
+	 * Get a cursor positioned before the first key value pair. Use seek to move
+	 * it somewhere else.
+	 */
+	public LongBTreeCursor<V> cursor() {
+		return new LongBTreeCursor<V>(this);
+	}
+	
+	/**
+	 * Given a starting key and an ending key, get all key value pairs starting with
+	 * keyStart (inclusive) and ending before keyEnd (exclusive). Returns empty if 
+	 * nothing found.
+	 */
+	public List<KeyValuePair<Long, V>> getRange(long keyStart, long keyEnd) {
+		List<KeyValuePair<Long, V>> entries = new ArrayList<>();
+		LongBTreeCursor<V> cursor = this.cursor();
+		cursor.seek(keyStart);
+		
+		while (cursor.hasNext()) {
+			cursor.next();
+			if (cursor.getKey() >= keyEnd) break;
+			entries.add(new KeyValuePair<Long, V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Given a starting key and a number of elements return, get all key value pairs
+	 * starting with keyStart. If there are not enough pairs after keyStart, returns
+	 * the longest possible list it can. Returns empty if nothing found.
+	 */
+	public List<KeyValuePair<Long, V>> getPage(long keyStart, int numElements) {
+		LongBTreeCursor<V> cursor = this.cursor();
+		cursor.seek(keyStart);
+		return this.copyPage(cursor, numElements);
+	}
+	
+	/**
+	 * Gets the first numValues elements in this sorted map. If numValues is greater
+	 * than the size of this data structure, returns the entire data structure.
+	 */
+	public List<KeyValuePair<Long, V>> getPage(int numElements) {
+		LongBTreeCursor<V> cursor = this.cursor();
+		cursor.seekFirst();
+		return this.copyPage(cursor, numElements);
+	}
+	
+	/**
+	 * Get the number of key value pairs in this map.
+	 */
+	public int size() {
+		return this.root == null ? 0 : this.root.size();
+	}
+	
+	@Override
+	public String toString() {
+		return root == null ? "" : root.toString();
+	}
+	
+	/**
+	 * Copy up to numElements pairs that come after the cursor's position.
+	 */
+	private List<KeyValuePair<Long, V>> copyPage(LongBTreeCursor<V> cursor, int numElements) {
+		List<KeyValuePair<Long, V>> entries = new ArrayList<>();
+		while (entries.size() < numElements && cursor.hasNext()) {
+			cursor.next();
+			entries.add(new KeyValuePair<Long, V>(cursor.getKey(), cursor.getValue()));
+		}
+		return entries;
+	}
+	
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 * @param min minimum value (inclusive)
+	 * @param max maximum value (exclusive)
+	 */
+	protected void verify(long min, long max) {
+		if (this.root != null) {
+			this.root.verify(min, max);
+			this.root.getDepth();
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class LongBTreeTests {
+
+	@Test
+	public void testInsertAndDelete() {
+		LongBTreeSortedMap<Integer> map = new LongBTreeSortedMap<>(5);
+		
+		// size 0
+		assertEquals("", map.toString());
+		assertNull(map.get(1));
+		
+		// same shape as the generic tree
+		for (long i=1; i<=18; i++) map.insert(i, (int) i);
+		assertEquals("1 10 \n"
+				+ "\t1 4 7 \n"
+				+ "\t\tLeaf: 1:1 2:2 3:3 \n"
+				+ "\t\tLeaf: 4:4 5:5 6:6 \n"
+				+ "\t\tLeaf: 7:7 8:8 9:9 \n"
+				+ "\t10 13 16 \n"
+				+ "\t\tLeaf: 10:10 11:11 12:12 \n"
+				+ "\t\tLeaf: 13:13 14:14 15:15 \n"
+				+ "\t\tLeaf: 16:16 17:17 18:18 ",
+				map.toString());
+		map.verify(1, 19);
+		assertEquals(18, map.size());
+		
+		// keys at the edges of the long range
+		map.insert(Long.MIN_VALUE, -1);
+		map.insert(Long.MAX_VALUE - 1, -2);
+		assertEquals(-1, (int) map.get(Long.MIN_VALUE));
+		assertEquals(-2, (int) map.get(Long.MAX_VALUE - 1));
+		map.verify(Long.MIN_VALUE, Long.MAX_VALUE);
+		
+		// delete down to nothing
+		map.delete(Long.MIN_VALUE);
+		map.delete(Long.MAX_VALUE - 1);
+		for (long i=1; i<=18; i++) map.delete(i);
+		assertEquals("", map.toString());
+		assertEquals(0, map.size());
+	}
+	
+	@Test
+	public void testGetRangeAndPage() {
+		LongBTreeSortedMap<Integer> map = new LongBTreeSortedMap<>(5);
+		assertEquals("[]", map.getRange(0, 10).toString());
+		assertEquals("[]", map.getPage(10).toString());
+		
+		for (long i=1; i<=18; i++) map.insert(i, (int) i);
+		assertEquals("[(3, 3), (4, 4), (5, 5)]", map.getRange(3, 6).toString());
+		assertEquals("[(17, 17), (18, 18)]", map.getRange(17, 100).toString());
+		assertEquals("[(9, 9), (10, 10)]", map.getPage(9, 2).toString());
+		assertEquals("[(1, 1), (2, 2)]", map.getPage(2).toString());
+		
+		// the cursor hands out primitive keys
+		LongBTreeCursor<Integer> cursor = map.cursor();
+		cursor.seek(16);
+		long sum = 0;
+		while (cursor.hasNext()) {
+			cursor.next();
+			sum += cursor.getKey();
+		}
+		assertEquals(16 + 17 + 18, sum);
+	}
+	
+	@Test
+	public void randomTestCases() {
+		this.runRandomTestCase(-1000, 1000, 2000, 4);
+		this.runRandomTestCase(-1000, 1000, 2000, 64);
+	}
+	
+	public void runRandomTestCase(int rangeMin, int rangeMax, int numOperations, int maxChildren) {
+		LongBTreeSortedMap<String> treeMap = new LongBTreeSortedMap<>(maxChildren);
+		TreeMap<Long, String> reference = new TreeMap<>();
+		
+		try {
+			for (int i=0; i<numOperations; i++) {
+				long key = (long)(Math.random() * (rangeMax - rangeMin) + rangeMin);
+				
+				// insert twice as often as delete so the tree grows
+				if (i % 3 == 2) {
+					treeMap.delete(key);
+					reference.remove(key);
+				} else {
+					treeMap.insert(key, Long.toString(key));
+					reference.put(key, Long.toString(key));
+				}
+				
+				if (!reference.isEmpty()) treeMap.verify(reference.firstKey(), reference.lastKey() + 1);
+				assertEquals(reference.size(), treeMap.size());
+			}
+			
+			// every pair is found, and scans return them in order
+			for (Map.Entry<Long, String> entry : reference.entrySet()) 
+				assertEquals(entry.getValue(), treeMap.get(entry.getKey()));
+			List<KeyValuePair<Long, String>> expected = new ArrayList<>();
+			for (Map.Entry<Long, String> entry : reference.entrySet()) 
+				expected.add(new KeyValuePair<>(entry.getKey(), entry.getValue()));
+			assertEquals(expected.toString(), treeMap.getRange(rangeMin, rangeMax).toString());
+			
+		} catch (AssertionError ae) {
+			System.err.println("Error with tree: ");
+			System.err.println(treeMap);
+			System.err.println(ae.getMessage());
+			throw ae;
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+package tree;
+
+import java.util.Arrays;
+
+public class LongIntermediateNode<V> extends LongBTreeNode<V> {
+	
+	protected LongBTreeNode<V>[] children; // max length = mk + 1, parallel to keys
+	protected int subtreeSize; // number of key value pairs in all leaves under this node
+
+	@SuppressWarnings("unchecked")
+	public LongIntermediateNode(int maxChildren) {
+		super(maxChildren);
+		this.children = (LongBTreeNode<V>[]) new LongBTreeNode[maxChildren + 1];
+	}
+
+	@Override
+	public V get(long key) {
+		return this.children[Helpers.chooseChildFromKeys(this.keys, this.numKeys, key)].get(key);
+	}
+
+	@Override
+	public LongBTreeNode<V> insert(long key, V value) {
+		// find where the key should go in the sorted array
+		int insertIndex = Helpers.chooseChildFromKeys(this.keys, this.numKeys, key);
+		
+		// insert into child node and set its key correctly
+		LongBTreeNode<V> insertChild = this.children[insertIndex];
+		int childSizeBefore = insertChild.size();
+		LongBTreeNode<V> newChildNode = insertChild.insert(key, value);
+		this.keys[insertIndex] = insertChild.getMin();
+		this.subtreeSize += insertChild.size() - childSizeBefore;
+		
+		// if no splitting is necessary, return null
+		if (newChildNode == null) return null;
+		this.subtreeSize += newChildNode.size();
+		
+		// add key and new child to arrays
+		this.insertChild(insertIndex + 1, newChildNode.getMin(), newChildNode);
+		
+		// if there was room in this node for a new child, return
+		if (this.numKeys <= this.mc) return null; 
+		
+		// split arrays in two (adding plus one because we split by children)
+		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
+		
+		// last half goes in new node
+		LongIntermediateNode<V> newNode = new LongIntermediateNode<V>(this.mc);
+		System.arraycopy(this.children, splitIndex, newNode.children, 0, numMoved);
+		System.arraycopy(this.keys, splitIndex, newNode.keys, 0, numMoved);
+		newNode.numKeys = numMoved;
+		for (int i=0; i<numMoved; i++) newNode.subtreeSize += newNode.children[i].size();
+		
+		// first half stays in this node
+		this.subtreeSize -= newNode.subtreeSize;
+		Arrays.fill(this.children, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
+		
+		// return new node
+		return newNode;
+	}
+	
+	@Override
+	public boolean delete(long key, LongBTreeNode<V> neighbor) {
+		// find where to delete
+		int deleteIndex = Helpers.chooseChildFromKeys(this.keys, this.numKeys, key);
+		
+		// delete from child, using neighbor for extra data
+		LongBTreeNode<V> deleteChild = this.children[deleteIndex];
+		LongBTreeNode<V> deleteChildNeighbor = deleteIndex == 0 
+				? this.children[1]
+				: this.children[deleteIndex - 1];
+		int childrenSizeBefore = deleteChild.size() + deleteChildNeighbor.size();
+		boolean shouldDeleteChild = deleteChild.delete(key, deleteChildNeighbor);
+		
+		// the child may have given pairs to or taken pairs from its neighbor, so count both
+		int childrenSizeAfter = deleteChildNeighbor.size() + (shouldDeleteChild ? 0 : deleteChild.size());
+		this.subtreeSize += childrenSizeAfter - childrenSizeBefore;
+		
+		// reset key pointing to neighbor
+		int neighborIndex = deleteIndex == 0 ? 1 : deleteIndex - 1;
+		this.keys[neighborIndex] = deleteChildNeighbor.getMin();
+		
+		// delete child if necessary
+		if (shouldDeleteChild) this.removeChild(deleteIndex);
+		
+		// if child not deleted, reset its key
+		else this.keys[deleteIndex] = deleteChild.getMin();
+		
+		// if there are enough children in this node, return
+		if (this.numKeys >= this.mc/2) return false;
+		
+		// If the neighbor is null, this must be the root. Tell the data structure
+		// to replace this if there is only one child.
+		if (neighbor == null) return this.numKeys == 1;
+		
+		LongIntermediateNode<V> neighborIntermediateNode = (LongIntermediateNode<V>)neighbor;
+
+		// if neighbor does not have enough keys, move data and tell parent to delete this node
+		if (this.numKeys + neighborIntermediateNode.numKeys < this.mc) {
+			int neighborSize = neighborIntermediateNode.numKeys;
+			if (neighborIntermediateNode.getMin() < this.getMin()) {
+				System.arraycopy(this.keys, 0, neighborIntermediateNode.keys, neighborSize, this.numKeys);
+				System.arraycopy(this.children, 0, neighborIntermediateNode.children, neighborSize, this.numKeys);
+			} else {
+				System.arraycopy(neighborIntermediateNode.keys, 0, neighborIntermediateNode.keys, this.numKeys, neighborSize);
+				System.arraycopy(neighborIntermediateNode.children, 0, neighborIntermediateNode.children, this.numKeys, neighborSize);
+				System.arraycopy(this.keys, 0, neighborIntermediateNode.keys, 0, this.numKeys);
+				System.arraycopy(this.children, 0, neighborIntermediateNode.children, 0, this.numKeys);
+			}
+			neighborIntermediateNode.numKeys += this.numKeys;
+			neighborIntermediateNode.subtreeSize += this.subtreeSize;
+			return true;
+		}
+		
+		// if neighbor has enough keys, take one of them
+
+		// calculate where to insert to this and remove from neighbor
+		int insertionLocation, removalLocation;
+		if (neighborIntermediateNode.getMin() < this.getMin()) {
+			insertionLocation = 0;
+			removalLocation = neighborIntermediateNode.numKeys - 1;
+		} else {
+			insertionLocation = this.numKeys;
+			removalLocation = 0;
+		}
+		
+		// transfer key and child
+		LongBTreeNode<V> transferredChild = neighborIntermediateNode.children[removalLocation];
+		this.insertChild(insertionLocation, neighborIntermediateNode.keys[removalLocation], transferredChild);
+		neighborIntermediateNode.removeChild(removalLocation);
+		this.subtreeSize += transferredChild.size();
+		neighborIntermediateNode.subtreeSize -= transferredChild.size();
+		
+		return false;
+	}
+	
+	/**
+	 * Shift keys and children to the right to make room for a new child.
+	 * Arrays must have room for one more child.
+	 */
+	private void insertChild(int index, long key, LongBTreeNode<V> child) {
+		Helpers.insertAt(this.keys, this.numKeys, index, key);
+		Helpers.insertAt(this.children, this.numKeys, index, child);
+		this.numKeys++;
+	}
+	
+	/**
+	 * Shift keys and children to the left over the child at index.
+	 */
+	private void removeChild(int index) {
+		Helpers.removeAt(this.keys, this.numKeys, index);
+		Helpers.removeAt(this.children, this.numKeys, index);
+		this.numKeys--;
+	}
+	
+	@Override
+	public int size() {
+		return this.subtreeSize;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		
+		// add list of keys at top
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append(this.keys[i]);
+			sb.append(" ");
+		}
+		
+		// add each child on a new line, indenting everything by one tab
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append("\n\t");
+			sb.append(this.children[i].toString().replaceAll("\n", "\n\t"));
+		}
+		
+		return sb.toString();
+	}
+	
+	@Override
+	public void verify(long min, long max) {
+		// check that unused slots have been cleared
+		for (int i=0; i<this.children.length; i++) {
+			if ((i < this.numKeys) != (this.children[i] != null))
+				throw new AssertionError("Intermediate node: #keys != #children");
+		}
+		
+		// check that children do not exceed max children
+		if (this.numKeys > this.mc) 
+			throw new AssertionError("Intermediate node: #children > maxChildren");
+		
+		// check that the cached subtree size matches the children
+		int childSizes = 0;
+		for (int i=0; i<this.numKeys; i++) childSizes += this.children[i].size();
+		if (this.subtreeSize != childSizes)
+			throw new AssertionError("Intermediate node: subtree size (" + this.subtreeSize 
+					+ ") != sum of children (" + childSizes + ")");
+		
+		// check that all keys are within range
+		for (int i=0; i<this.numKeys; i++) {
+			long key = this.keys[i];
+			if (key < min) 
+				throw new AssertionError("Intermediate node: key (" + key + ") < min (" + min + ")");
+			if (key >= max) 
+				throw new AssertionError("Intermediate node: key (" + key + ") >= max (" + max + ")");
+		}
+		
+		// check that all keys are in order
+		for (int i=0; i<this.numKeys-1; i++) {
+			if (this.keys[i] >= this.keys[i+1]) 
+				throw new AssertionError("Intermediate node: keys not in order");
+		}
+		
+		// check that this is at least half full
+		if (!this.isRoot && this.numKeys < this.mc/2) 
+			throw new AssertionError("Intermediate node: #children < maxChildren/2");
+		
+		// the root should have at least two children if it is not a leaf
+		if (this.isRoot && this.numKeys < 2) 
+			throw new AssertionError("Intermediate node: #children in root < 2");
+		
+		// check that all children are valid
+		for (int i=0; i<this.numKeys - 1; i++)
+			this.children[i].verify(this.keys[i], this.keys[i + 1]);
+		this.children[this.numKeys - 1].verify(this.keys[this.numKeys - 1], max);
+	}
+	
+	@Override
+	public int getDepth() {
+		int depthFound = -1;
+		for (int i=0; i<this.numKeys; i++) {
+			int childDepth = this.children[i].getDepth();
+			if (depthFound == -1) depthFound = childDepth;
+			if (childDepth != depthFound) throw new AssertionError("Sibling depths not equal");
+		}
+		return depthFound;
+	}
+	
+	@Override
+	protected LongLeafNode<V> findLeaf(long key) {
+		return this.children[Helpers.chooseChildFromKeys(this.keys, this.numKeys, key)].findLeaf(key);
+	}
+	
+	@Override
+	protected LongLeafNode<V> firstLeaf() {
+		return this.children[0].firstLeaf();
+	}
+
+}
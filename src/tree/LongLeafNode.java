@@ -0,0 +1,187 @@
+package tree;
+
+import java.util.Arrays;
+
+public class LongLeafNode<V> extends LongBTreeNode<V> {
+	
+	protected V[] values; // max length = mk, parallel to keys
+	protected LongLeafNode<V> previous, next; // used for getRange
+
+	@SuppressWarnings("unchecked")
+	public LongLeafNode(int maxKeys) {
+		super(maxKeys);
+		this.values = (V[]) new Object[maxKeys + 1];
+	}
+
+	@Override
+	public V get(long key) {
+		int getIndex = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		if (getIndex < this.numKeys && this.keys[getIndex] == key)
+			return this.values[getIndex];
+		return null;
+	}
+
+	@Override
+	public LongBTreeNode<V> insert(long key, V value) {
+		
+		// find where the key should go in the sorted array
+		int insertIndex = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		
+		// if key at index is equal to given key, replace value, don't insert
+		if (insertIndex < this.numKeys && this.keys[insertIndex] == key) {
+			this.values[insertIndex] = value;
+			return null;
+		}
+		
+		// add key value pair
+		this.insertEntry(insertIndex, key, value);
+
+		// if node doesn't have to be split, you're done
+		if (this.numKeys <= this.mc) return null;
+
+		// when node is full, split in two
+		int splitIndex = (this.mc + 1)/2;
+		int numMoved = this.numKeys - splitIndex;
+		
+		// last half goes in new node
+		LongLeafNode<V> newNode = new LongLeafNode<V>(this.mc);
+		System.arraycopy(this.keys, splitIndex, newNode.keys, 0, numMoved);
+		System.arraycopy(this.values, splitIndex, newNode.values, 0, numMoved);
+		newNode.numKeys = numMoved;
+		
+		// shrink this node down to the first half
+		Arrays.fill(this.values, splitIndex, this.numKeys, null);
+		this.numKeys = splitIndex;
+		
+		// create links to the new node
+		newNode.next = this.next;
+		newNode.previous = this;
+		if (this.next != null) this.next.previous = newNode;
+		this.next = newNode;
+		
+		return newNode;
+	}
+	
+	@Override
+	public boolean delete(long key, LongBTreeNode<V> neighbor) {
+		// find the key if it exists
+		int deleteIndex = Helpers.firstIndexGreaterOrEqual(this.keys, this.numKeys, key);
+		
+		// if key to delete not found, return
+		if (deleteIndex >= this.numKeys || this.keys[deleteIndex] != key) return false;
+		
+		// before deleting anything, record the lowest value in this
+		long minBeforeRemoval = this.getMin();
+		
+		// remove key value pair
+		this.removeEntry(deleteIndex);
+		
+		// if leaf is not empty, return
+		if (this.numKeys > 0) return false;
+		
+		// if neighbor is null or doesn't have enough keys, delete this node
+		if (neighbor == null || neighbor.numKeys <= 1) {
+			// remove links to this node
+			if (this.previous != null) this.previous.next = this.next;
+			if (this.next != null) this.next.previous = this.previous;
+			
+			return true;
+		}
+		
+		LongLeafNode<V> neighborLeafNode = (LongLeafNode<V>)neighbor;
+		
+		// if neighbor has enough keys, take one of them
+
+		// using the recorded min key, calculate where to remove from neighbor
+		int removalLocation;
+		if (neighborLeafNode.getMin() < minBeforeRemoval) {
+			removalLocation = neighborLeafNode.numKeys - 1;
+		} else {
+			removalLocation = 0;
+		}
+		
+		// transfer key value pair
+		this.insertEntry(0, neighborLeafNode.keys[removalLocation], neighborLeafNode.values[removalLocation]);
+		neighborLeafNode.removeEntry(removalLocation);
+		
+		return false;
+	}
+	
+	/**
+	 * Shift keys and values to the right to make room for a new pair.
+	 * Arrays must have room for one more pair.
+	 */
+	private void insertEntry(int index, long key, V value) {
+		Helpers.insertAt(this.keys, this.numKeys, index, key);
+		Helpers.insertAt(this.values, this.numKeys, index, value);
+		this.numKeys++;
+	}
+	
+	/**
+	 * Shift keys and values to the left over the pair at index.
+	 */
+	private void removeEntry(int index) {
+		Helpers.removeAt(this.keys, this.numKeys, index);
+		Helpers.removeAt(this.values, this.numKeys, index);
+		this.numKeys--;
+	}
+	
+	@Override
+	public int size() {
+		return this.numKeys;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Leaf: ");
+		for (int i=0; i<this.numKeys; i++) {
+			sb.append(this.keys[i]);
+			sb.append(":");
+			sb.append(this.values[i]);
+			sb.append(" ");
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public void verify(long min, long max) {
+		// check that keys do not exceed max children
+		if (this.numKeys > this.mc) throw new AssertionError("Leaf node: #keys > max children");
+		
+		// check that slots past the last key have been cleared
+		for (int i=this.numKeys; i<this.values.length; i++) {
+			if (this.values[i] != null) throw new AssertionError("Leaf node: unused slot not cleared");
+		}
+		
+		// check that all keys are within range
+		for (int i=0; i<this.numKeys; i++) {
+			long key = this.keys[i];
+			if (key < min) 
+				throw new AssertionError("Leaf node: key (" + key + ") < min (" + min + ")");
+			if (key >= max)
+				throw new AssertionError("Leaf node: key (" + key + ") >= max (" + max + ")");
+		}
+		
+		// check that all keys are in order
+		for (int i=0; i<this.numKeys-1; i++) {
+			if (this.keys[i] >= this.keys[i+1]) 
+				throw new AssertionError("Leaf node: keys not in order");
+		}
+	}
+	
+	@Override
+	public int getDepth() {
+		return 0;
+	}
+	
+	@Override
+	protected LongLeafNode<V> findLeaf(long key) {
+		return this;
+	}
+	
+	@Override
+	protected LongLeafNode<V> firstLeaf() {
+		return this;
+	}
+
+}
@@ -0,0 +1,129 @@
+package tree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor that merges pending messages, sorted by key, into the pairs of
+ * another cursor. A message is either a value to insert or
+ * MessageBuffer.DELETE, and replaces or hides the pair with its key. The
+ * messages are read from the live map at every seek.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class MergingCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+
+	private final Cursor<K, V> pairs;
+	private final NavigableMap<K, Object> messages;
+
+	// whether the underlying cursor is on a pair that has not been merged yet
+	private boolean onPair;
+
+	// next message at or after the seek key
+	private Iterator<Map.Entry<K, Object>> pending;
+	private Map.Entry<K, Object> message;
+
+	// pair that next() will move onto, found ahead of time since a message may hide it
+	private boolean hasNextPair;
+	private K nextKey;
+	private V nextValue;
+
+	// pair the cursor is on
+	private boolean onCurrent;
+	private K currentKey;
+	private V currentValue;
+
+	public MergingCursor(Cursor<K, V> pairs, NavigableMap<K, Object> messages) {
+		this.pairs = pairs;
+		this.messages = messages;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.pairs.seek(key);
+		this.start(this.messages.tailMap(key, true));
+	}
+
+	@Override
+	public void seekFirst() {
+		this.pairs.seekFirst();
+		this.start(this.messages);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.hasNextPair;
+	}
+
+	@Override
+	public void next() {
+		if (!this.hasNextPair) throw new NoSuchElementException();
+
+		this.onCurrent = true;
+		this.currentKey = this.nextKey;
+		this.currentValue = this.nextValue;
+		this.findNextPair();
+	}
+
+	@Override
+	public K getKey() {
+		if (!this.onCurrent) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentKey;
+	}
+
+	@Override
+	public V getValue() {
+		if (!this.onCurrent) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentValue;
+	}
+
+	private void start(Map<K, Object> messages) {
+		this.onCurrent = false;
+		this.onPair = this.advancePairs();
+		this.pending = messages.entrySet().iterator();
+		this.message = this.pending.hasNext() ? this.pending.next() : null;
+		this.findNextPair();
+	}
+
+	private boolean advancePairs() {
+		if (!this.pairs.hasNext()) return false;
+		this.pairs.next();
+		return true;
+	}
+
+	/**
+	 * Walk the pairs and the messages together up to the next pair that a
+	 * delete message does not hide.
+	 */
+	@SuppressWarnings("unchecked")
+	private void findNextPair() {
+		while (this.onPair || this.message != null) {
+			int comparison = !this.onPair ? 1 : this.message == null ? -1
+					: this.pairs.getKey().compareTo(this.message.getKey());
+			if (comparison < 0) {
+				this.setNextPair(this.pairs.getKey(), this.pairs.getValue());
+				this.onPair = this.advancePairs();
+				return;
+			}
+
+			// the message is newer than the pair with its key, if there is one
+			Map.Entry<K, Object> newest = this.message;
+			if (comparison == 0) this.onPair = this.advancePairs();
+			this.message = this.pending.hasNext() ? this.pending.next() : null;
+			if (newest.getValue() != MessageBuffer.DELETE) {
+				this.setNextPair(newest.getKey(), (V) newest.getValue());
+				return;
+			}
+		}
+		this.hasNextPair = false;
+	}
+
+	private void setNextPair(K key, V value) {
+		this.hasNextPair = true;
+		this.nextKey = key;
+		this.nextValue = value;
+	}
+
+}
@@ -0,0 +1,111 @@
+package tree;
+
+import java.util.Arrays;
+
+/**
+ * Inserts and deletes waiting in an intermediate node to be pushed down to
+ * the leaves, used by the buffered mode of BTreeSortedMap. It holds at most
+ * one message per key, sorted by key, and a newer message for a key replaces
+ * the older one. A message's value is the value to insert, or DELETE.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class MessageBuffer<K extends Comparable<K>, V> {
+
+	// value of a message that deletes its key
+	static final Object DELETE = new Object();
+
+	protected K[] keys;
+	protected Object[] values;
+	protected int size;
+
+	@SuppressWarnings("unchecked")
+	public MessageBuffer(int capacity) {
+		this.keys = (K[]) new Comparable[Math.max(1, capacity)];
+		this.values = new Object[this.keys.length];
+	}
+
+	/**
+	 * Add a message, replacing any message already here for the same key.
+	 */
+	public void put(K key, Object value) {
+		int index = Helpers.firstIndexGreaterOrEqual(this.keys, this.size, key);
+		if (Helpers.elementAtIndexEqualsKey(this.keys, this.size, index, key)) {
+			this.keys[index] = key;
+			this.values[index] = value;
+			return;
+		}
+
+		if (this.size == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, this.size * 2);
+			this.values = Arrays.copyOf(this.values, this.size * 2);
+		}
+		Helpers.insertAt(this.keys, this.size, index, key);
+		Helpers.insertAt(this.values, this.size, index, value);
+		this.size++;
+	}
+
+	/**
+	 * @return index of the message for key, or -1 if there is none
+	 */
+	public int indexOf(K key) {
+		int index = Helpers.firstIndexGreaterOrEqual(this.keys, this.size, key);
+		return Helpers.elementAtIndexEqualsKey(this.keys, this.size, index, key) ? index : -1;
+	}
+
+	/**
+	 * Remove the messages from index from (inclusive) to index to (exclusive).
+	 */
+	public void removeRange(int from, int to) {
+		System.arraycopy(this.keys, to, this.keys, from, this.size - to);
+		System.arraycopy(this.values, to, this.values, from, this.size - to);
+		Arrays.fill(this.keys, this.size - (to - from), this.size, null);
+		Arrays.fill(this.values, this.size - (to - from), this.size, null);
+		this.size -= to - from;
+	}
+
+	/**
+	 * Move the messages whose keys are greater than or equal to key into a new buffer.
+	 */
+	public MessageBuffer<K, V> splitOff(K key) {
+		int from = Helpers.firstIndexGreaterOrEqual(this.keys, this.size, key);
+		MessageBuffer<K, V> split = new MessageBuffer<K, V>(this.size - from);
+		System.arraycopy(this.keys, from, split.keys, 0, this.size - from);
+		System.arraycopy(this.values, from, split.values, 0, this.size - from);
+		split.size = this.size - from;
+		this.removeRange(from, this.size);
+		return split;
+	}
+
+	/**
+	 * Add every message of a buffer whose keys are all greater than the keys here.
+	 */
+	public void addAll(MessageBuffer<K, V> other) {
+		if (this.size + other.size > this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, this.size + other.size);
+			this.values = Arrays.copyOf(this.values, this.size + other.size);
+		}
+		System.arraycopy(other.keys, 0, this.keys, this.size, other.size);
+		System.arraycopy(other.values, 0, this.values, this.size, other.size);
+		this.size += other.size;
+	}
+
+	public MessageBuffer<K, V> copy() {
+		MessageBuffer<K, V> copy = new MessageBuffer<K, V>(this.keys.length);
+		System.arraycopy(this.keys, 0, copy.keys, 0, this.size);
+		System.arraycopy(this.values, 0, copy.values, 0, this.size);
+		copy.size = this.size;
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<this.size; i++) {
+			sb.append(this.values[i] == DELETE ? "-" + this.keys[i] : "+" + this.keys[i] + ":" + this.values[i]);
+			sb.append(" ");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,54 @@
+package tree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Storage for tree nodes laid out as fixed-size slots of bytes. Slots are
+ * named by int ids instead of Java references, so a tree built on a store
+ * does not put one object per node on the heap.
+ */
+public interface NodeStore {
+	
+	/**
+	 * Get the size in bytes of every slot.
+	 */
+	public int slotSize();
+	
+	/**
+	 * Reserve a slot and return its id. The slot's contents are unspecified.
+	 */
+	public int allocate();
+	
+	/**
+	 * Give a slot back so it can be handed out again by allocate.
+	 */
+	public void free(int slot);
+	
+	/**
+	 * Get the buffer a slot lives in. The slot's bytes start at offset(slot).
+	 * Stores that move slots in and out of memory only promise the buffer
+	 * holds the slot until the next call to buffer, bufferForWrite or release,
+	 * so callers should not hold on to it.
+	 */
+	public ByteBuffer buffer(int slot);
+	
+	/**
+	 * Same as buffer, for callers that are going to change the slot's bytes.
+	 */
+	public default ByteBuffer bufferForWrite(int slot) {
+		return this.buffer(slot);
+	}
+	
+	/**
+	 * Tell the store the caller is done with every buffer it has been given,
+	 * so stores that move slots in and out of memory can let go of them.
+	 */
+	public default void release() {
+	}
+	
+	/**
+	 * Get the index in buffer(slot) where a slot's bytes start.
+	 */
+	public int offset(int slot);
+
+}
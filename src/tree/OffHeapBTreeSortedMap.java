@@ -0,0 +1,675 @@
+package tree;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A B tree whose nodes live in fixed-size slots of a NodeStore instead of
+ * as Java objects. Keys and values are written into the slots with codecs,
+ * and links between nodes are slot ids rather than references, so a large
+ * tree puts almost nothing on the Java heap for the garbage collector to
+ * trace. By default the slots are kept in direct memory slabs.
+ *
+ * The tree splits, merges and borrows exactly like BTreeSortedMap. Values
+ * cannot be null, since codecs have no way to store null.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class OffHeapBTreeSortedMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
+
+	public static final int DEFAULT_SLOTS_PER_SLAB = 4096;
+
+	// slot id used in place of a null reference
+	protected static final int NULL = -1;
+
+	// layout of the header at the start of every slot
+	private static final int IS_LEAF = 0; // byte, 1 for leaves
+	private static final int NUM_KEYS = 4; // int
+	private static final int SUBTREE_SIZE = 8; // int, intermediate nodes only
+	private static final int PREVIOUS = 12; // int slot id, leaves only
+	private static final int NEXT = 16; // int slot id, leaves only
+	private static final int HEADER_SIZE = 20;
+
+	// after the header come mc + 1 keys, then mc + 1 values (leaves) or child ids (intermediate nodes)
+
+	protected final NodeStore store;
+	protected final Codec<K> keyCodec;
+	protected final Codec<V> valueCodec;
+
+	private final int mc;
+	private final int keySize;
+	private final int entriesOffset;
+	private final byte[] scratch; // used to move bytes around inside slots
+
+	// Root of B tree. NULL if map is empty.
+	protected int root;
+
+	public OffHeapBTreeSortedMap(int maxKeys, Codec<K> keyCodec, Codec<V> valueCodec) {
+		this(maxKeys, keyCodec, valueCodec, DEFAULT_SLOTS_PER_SLAB);
+	}
+
+	public OffHeapBTreeSortedMap(int maxKeys, Codec<K> keyCodec, Codec<V> valueCodec, int slotsPerSlab) {
+		this(maxKeys, keyCodec, valueCodec,
+				new SlabNodeStore(slotSize(maxKeys, keyCodec, valueCodec), slotsPerSlab));
+	}
+
+	/**
+	 * Build a tree on top of any node store.
+	 * @param store store whose slots are at least slotSize(maxKeys, keyCodec, valueCodec) bytes
+	 */
+	protected OffHeapBTreeSortedMap(int maxKeys, Codec<K> keyCodec, Codec<V> valueCodec, NodeStore store) {
+		if (store.slotSize() < slotSize(maxKeys, keyCodec, valueCodec))
+			throw new IllegalArgumentException("slots of " + store.slotSize() + " bytes are too small for "
+					+ maxKeys + " keys; need " + slotSize(maxKeys, keyCodec, valueCodec));
+
+		this.mc = maxKeys;
+		this.store = store;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.keySize = keyCodec.size();
+		this.entriesOffset = HEADER_SIZE + (maxKeys + 1) * this.keySize;
+		this.scratch = new byte[store.slotSize()];
+		this.root = NULL;
+	}
+
+	/**
+	 * Get the number of bytes one node takes up for a certain node size and codecs.
+	 */
+	public static int slotSize(int maxKeys, Codec<?> keyCodec, Codec<?> valueCodec) {
+		return HEADER_SIZE + (maxKeys + 1) * (keyCodec.size() + Math.max(valueCodec.size(), Integer.BYTES));
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		try {
+			Objects.requireNonNull(value, "off-heap maps cannot store null values");
+
+			// if tree is empty, make the root into a leaf and add pair
+			if (this.root == NULL) {
+				this.root = this.newNode(true);
+				this.insert(this.root, key, value);
+				return;
+			}
+
+			// insert into existing tree and get new node if one was made
+			int newNode = this.insert(this.root, key, value);
+			if (newNode == NULL) return;
+
+			// the new node always holds the upper half of the split
+			int newRoot = this.newNode(false);
+			this.copyKeys(this.root, 0, newRoot, 0, 1);
+			this.copyKeys(newNode, 0, newRoot, 1, 1);
+			this.setChild(newRoot, 0, this.root);
+			this.setChild(newRoot, 1, newNode);
+			this.setNumKeys(newRoot, 2);
+			this.setSubtreeSize(newRoot, this.size(this.root) + this.size(newNode));
+			this.root = newRoot;
+		} finally {
+			this.store.release();
+		}
+	}
+
+	@Override
+	public void delete(K key) {
+		try {
+			// if root is null, nothing you can do
+			if (this.root == NULL) return;
+
+			// delete, then replace the root with its only child or with nothing
+			if (this.delete(this.root, key, NULL)) {
+				int oldRoot = this.root;
+				this.root = this.isLeaf(oldRoot) ? NULL : this.child(oldRoot, 0);
+				this.store.free(oldRoot);
+			}
+		} finally {
+			this.store.release();
+		}
+	}
+
+	@Override
+	public V get(K key) {
+		try {
+			if (this.root == NULL) return null;
+
+			int leaf = this.findLeaf(this.root, key);
+			int numKeys = this.numKeys(leaf);
+			int index = this.firstIndexGreaterOrEqual(leaf, numKeys, key);
+			if (index < numKeys && this.key(leaf, index).compareTo(key) == 0) return this.value(leaf, index);
+			return null;
+		} finally {
+			this.store.release();
+		}
+	}
+
+	@Override
+	public Cursor<K, V> cursor() {
+		return new OffHeapCursor<K, V>(this);
+	}
+
+	@Override
+	public int size() {
+		try {
+			return this.root == NULL ? 0 : this.size(this.root);
+		} finally {
+			this.store.release();
+		}
+	}
+
+	@Override
+	public int rank(K key) {
+		try {
+			if (this.root == NULL) return 0;
+
+			int node = this.root;
+			int count = 0;
+			while (!this.isLeaf(node)) {
+				int childIndex = this.chooseChild(node, this.numKeys(node), key);
+
+				// every pair in a child to the left of the chosen one is smaller than key
+				for (int i=0; i<childIndex; i++) count += this.size(this.child(node, i));
+				node = this.child(node, childIndex);
+			}
+			return count + this.firstIndexGreaterOrEqual(node, this.numKeys(node), key);
+		} finally {
+			this.store.release();
+		}
+	}
+
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		try {
+			if (this.root == NULL || index < 0 || index >= this.size(this.root)) return null;
+
+			int node = this.root;
+			while (!this.isLeaf(node)) {
+				// skip over whole children until the index lands inside one
+				int i = 0;
+				while (index >= this.size(this.child(node, i))) {
+					index -= this.size(this.child(node, i));
+					i++;
+				}
+				node = this.child(node, i);
+			}
+			return new KeyValuePair<K, V>(this.key(node, index), this.value(node, index));
+		} finally {
+			this.store.release();
+		}
+	}
+
+	@Override
+	public int countRange(K keyStart, K keyEnd) {
+		if (keyStart.compareTo(keyEnd) >= 0) return 0;
+		return this.rank(keyEnd) - this.rank(keyStart);
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return this.root == NULL ? "" : this.toString(this.root);
+		} finally {
+			this.store.release();
+		}
+	}
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if invalid.
+	 * @param min minimum value (inclusive)
+	 * @param max maximum value (exclusive)
+	 */
+	protected void verify(K min, K max) {
+		try {
+			if (this.root != NULL) {
+				this.verify(this.root, min, max, true);
+				this.getDepth(this.root);
+			}
+		} finally {
+			this.store.release();
+		}
+	}
+
+	/**
+	 * Insert a key value pair under a node.
+	 * @return new node to be inserted in the parent node if necessary, or NULL
+	 */
+	private int insert(int node, K key, V value) {
+		int numKeys = this.numKeys(node);
+
+		if (this.isLeaf(node)) {
+			// if key is already there, replace value, don't insert
+			int insertIndex = this.firstIndexGreaterOrEqual(node, numKeys, key);
+			if (insertIndex < numKeys && this.key(node, insertIndex).compareTo(key) == 0) {
+				this.setKey(node, insertIndex, key);
+				this.setValue(node, insertIndex, value);
+				return NULL;
+			}
+
+			// add key value pair
+			this.moveEntries(node, insertIndex, numKeys, 1);
+			this.setKey(node, insertIndex, key);
+			this.setValue(node, insertIndex, value);
+			this.setNumKeys(node, ++numKeys);
+
+			// if node doesn't have to be split, you're done
+			if (numKeys <= this.mc) return NULL;
+
+			// last half goes in new node
+			int newNode = this.splitOff(node, numKeys, true);
+
+			// create links to the new node
+			int next = this.next(node);
+			this.setNext(newNode, next);
+			this.setPrevious(newNode, node);
+			if (next != NULL) this.setPrevious(next, newNode);
+			this.setNext(node, newNode);
+
+			return newNode;
+		}
+
+		// insert into child node and set its key correctly
+		int insertIndex = this.chooseChild(node, numKeys, key);
+		int insertChild = this.child(node, insertIndex);
+		int childSizeBefore = this.size(insertChild);
+		int newChildNode = this.insert(insertChild, key, value);
+		this.copyKeys(insertChild, 0, node, insertIndex, 1);
+		this.setSubtreeSize(node, this.size(node) + this.size(insertChild) - childSizeBefore);
+
+		// if no splitting is necessary, return
+		if (newChildNode == NULL) return NULL;
+		this.setSubtreeSize(node, this.size(node) + this.size(newChildNode));
+
+		// add key and new child
+		this.moveEntries(node, insertIndex + 1, numKeys, 1);
+		this.copyKeys(newChildNode, 0, node, insertIndex + 1, 1);
+		this.setChild(node, insertIndex + 1, newChildNode);
+		this.setNumKeys(node, ++numKeys);
+
+		// if there was room in this node for a new child, return
+		if (numKeys <= this.mc) return NULL;
+
+		// last half goes in new node
+		int newNode = this.splitOff(node, numKeys, false);
+		int movedSize = 0;
+		for (int i=0; i<this.numKeys(newNode); i++) movedSize += this.size(this.child(newNode, i));
+		this.setSubtreeSize(newNode, movedSize);
+		this.setSubtreeSize(node, this.size(node) - movedSize);
+		return newNode;
+	}
+
+	/**
+	 * Move the upper half of an overfull node into a new node.
+	 * @return the new node
+	 */
+	private int splitOff(int node, int numKeys, boolean isLeaf) {
+		int splitIndex = (this.mc + 1)/2;
+		int newNode = this.newNode(isLeaf);
+		this.copyEntries(node, splitIndex, newNode, 0, numKeys - splitIndex);
+		this.setNumKeys(newNode, numKeys - splitIndex);
+		this.setNumKeys(node, splitIndex);
+		return newNode;
+	}
+
+	/**
+	 * Delete a key value pair under a node.
+	 * @param neighbor sibling node to take data from if this node needs more, or NULL
+	 * @return whether this node should be deleted by parent
+	 */
+	private boolean delete(int node, K key, int neighbor) {
+		int numKeys = this.numKeys(node);
+
+		if (this.isLeaf(node)) {
+			// if key to delete not found, return
+			int deleteIndex = this.firstIndexGreaterOrEqual(node, numKeys, key);
+			if (deleteIndex >= numKeys || this.key(node, deleteIndex).compareTo(key) != 0) return false;
+
+			// before deleting anything, record the lowest value in this
+			K minBeforeRemoval = this.key(node, 0);
+
+			// remove key value pair
+			this.moveEntries(node, deleteIndex + 1, numKeys, -1);
+			this.setNumKeys(node, --numKeys);
+
+			// if leaf is not empty, return
+			if (numKeys > 0) return false;
+
+			// if neighbor is null or doesn't have enough keys, delete this node
+			if (neighbor == NULL || this.numKeys(neighbor) <= 1) {
+				int previous = this.previous(node);
+				int next = this.next(node);
+				if (previous != NULL) this.setNext(previous, next);
+				if (next != NULL) this.setPrevious(next, previous);
+				return true;
+			}
+
+			// if neighbor has enough keys, take one of them
+			int neighborNumKeys = this.numKeys(neighbor);
+			int removalLocation = this.key(neighbor, 0).compareTo(minBeforeRemoval) < 0
+					? neighborNumKeys - 1 : 0;
+			this.copyEntries(neighbor, removalLocation, node, 0, 1);
+			this.setNumKeys(node, 1);
+			this.moveEntries(neighbor, removalLocation + 1, neighborNumKeys, -1);
+			this.setNumKeys(neighbor, neighborNumKeys - 1);
+			return false;
+		}
+
+		// delete from child, using neighbor for extra data
+		int deleteIndex = this.chooseChild(node, numKeys, key);
+		int neighborIndex = deleteIndex == 0 ? 1 : deleteIndex - 1;
+		int deleteChild = this.child(node, deleteIndex);
+		int deleteChildNeighbor = this.child(node, neighborIndex);
+		int childrenSizeBefore = this.size(deleteChild) + this.size(deleteChildNeighbor);
+		boolean shouldDeleteChild = this.delete(deleteChild, key, deleteChildNeighbor);
+
+		// the child may have given pairs to or taken pairs from its neighbor, so count both
+		int childrenSizeAfter = this.size(deleteChildNeighbor) + (shouldDeleteChild ? 0 : this.size(deleteChild));
+		this.setSubtreeSize(node, this.size(node) + childrenSizeAfter - childrenSizeBefore);
+
+		// reset key pointing to neighbor
+		this.copyKeys(deleteChildNeighbor, 0, node, neighborIndex, 1);
+
+		// delete child if necessary, otherwise reset its key
+		if (shouldDeleteChild) {
+			this.moveEntries(node, deleteIndex + 1, numKeys, -1);
+			this.setNumKeys(node, --numKeys);
+			this.store.free(deleteChild);
+		} else {
+			this.copyKeys(deleteChild, 0, node, deleteIndex, 1);
+		}
+
+		// if there are enough children in this node, return
+		if (numKeys >= this.mc/2) return false;
+
+		// If the neighbor is null, this must be the root. Tell the data structure
+		// to replace this if there is only one child.
+		if (neighbor == NULL) return numKeys == 1;
+
+		int neighborNumKeys = this.numKeys(neighbor);
+		boolean neighborIsLeft = this.key(neighbor, 0).compareTo(this.key(node, 0)) < 0;
+
+		// if neighbor does not have enough keys, move data and tell parent to delete this node
+		if (numKeys + neighborNumKeys < this.mc) {
+			if (neighborIsLeft) {
+				this.copyEntries(node, 0, neighbor, neighborNumKeys, numKeys);
+			} else {
+				this.moveEntries(neighbor, 0, neighborNumKeys, numKeys);
+				this.copyEntries(node, 0, neighbor, 0, numKeys);
+			}
+			this.setNumKeys(neighbor, neighborNumKeys + numKeys);
+			this.setSubtreeSize(neighbor, this.size(neighbor) + this.size(node));
+			return true;
+		}
+
+		// if neighbor has enough keys, take one of them
+		int insertionLocation = neighborIsLeft ? 0 : numKeys;
+		int removalLocation = neighborIsLeft ? neighborNumKeys - 1 : 0;
+		int transferredSize = this.size(this.child(neighbor, removalLocation));
+
+		this.moveEntries(node, insertionLocation, numKeys, 1);
+		this.copyEntries(neighbor, removalLocation, node, insertionLocation, 1);
+		this.setNumKeys(node, numKeys + 1);
+		this.moveEntries(neighbor, removalLocation + 1, neighborNumKeys, -1);
+		this.setNumKeys(neighbor, neighborNumKeys - 1);
+
+		this.setSubtreeSize(node, this.size(node) + transferredSize);
+		this.setSubtreeSize(neighbor, this.size(neighbor) - transferredSize);
+		return false;
+	}
+
+	/**
+	 * Find the leaf under a node where the given key is or would be stored.
+	 */
+	protected int findLeaf(int node, K key) {
+		while (!this.isLeaf(node)) node = this.child(node, this.chooseChild(node, this.numKeys(node), key));
+		return node;
+	}
+
+	/**
+	 * Find the leftmost leaf under a node.
+	 */
+	protected int firstLeaf(int node) {
+		while (!this.isLeaf(node)) node = this.child(node, 0);
+		return node;
+	}
+
+	/**
+	 * Binary search for the child of an intermediate node that should hold key.
+	 * Same as Helpers.chooseChildFromKeys.
+	 */
+	private int chooseChild(int node, int numKeys, K key) {
+		int low = 0;
+		int high = numKeys - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (key.compareTo(this.key(node, mid)) < 0) high = mid - 1;
+			else low = mid + 1;
+		}
+		return high < 0 ? 0 : high;
+	}
+
+	/**
+	 * Binary search for the first key in a node that is >= key.
+	 * Same as Helpers.firstIndexGreaterOrEqual.
+	 */
+	protected int firstIndexGreaterOrEqual(int node, int numKeys, K key) {
+		int low = 0;
+		int high = numKeys;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (key.compareTo(this.key(node, mid)) <= 0) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
+
+	// ----- reading and writing the fields of a slot -----
+
+	private int newNode(boolean isLeaf) {
+		int node = this.store.allocate();
+		ByteBuffer buffer = this.store.bufferForWrite(node);
+		int offset = this.store.offset(node);
+		buffer.put(offset + IS_LEAF, (byte) (isLeaf ? 1 : 0));
+		buffer.putInt(offset + NUM_KEYS, 0);
+		buffer.putInt(offset + SUBTREE_SIZE, 0);
+		buffer.putInt(offset + PREVIOUS, NULL);
+		buffer.putInt(offset + NEXT, NULL);
+		return node;
+	}
+
+	protected boolean isLeaf(int node) {
+		return this.store.buffer(node).get(this.store.offset(node) + IS_LEAF) == 1;
+	}
+
+	protected int numKeys(int node) {
+		return this.store.buffer(node).getInt(this.store.offset(node) + NUM_KEYS);
+	}
+
+	private void setNumKeys(int node, int numKeys) {
+		this.store.bufferForWrite(node).putInt(this.store.offset(node) + NUM_KEYS, numKeys);
+	}
+
+	/**
+	 * Number of pairs under a node. Runs in constant time.
+	 */
+	private int size(int node) {
+		return this.isLeaf(node) ? this.numKeys(node)
+				: this.store.buffer(node).getInt(this.store.offset(node) + SUBTREE_SIZE);
+	}
+
+	private void setSubtreeSize(int node, int size) {
+		this.store.bufferForWrite(node).putInt(this.store.offset(node) + SUBTREE_SIZE, size);
+	}
+
+	protected int previous(int leaf) {
+		return this.store.buffer(leaf).getInt(this.store.offset(leaf) + PREVIOUS);
+	}
+
+	private void setPrevious(int leaf, int previous) {
+		this.store.bufferForWrite(leaf).putInt(this.store.offset(leaf) + PREVIOUS, previous);
+	}
+
+	protected int next(int leaf) {
+		return this.store.buffer(leaf).getInt(this.store.offset(leaf) + NEXT);
+	}
+
+	private void setNext(int leaf, int next) {
+		this.store.bufferForWrite(leaf).putInt(this.store.offset(leaf) + NEXT, next);
+	}
+
+	protected K key(int node, int index) {
+		return this.keyCodec.read(this.store.buffer(node),
+				this.store.offset(node) + HEADER_SIZE + index * this.keySize);
+	}
+
+	private void setKey(int node, int index, K key) {
+		this.keyCodec.write(this.store.bufferForWrite(node),
+				this.store.offset(node) + HEADER_SIZE + index * this.keySize, key);
+	}
+
+	protected V value(int leaf, int index) {
+		return this.valueCodec.read(this.store.buffer(leaf),
+				this.store.offset(leaf) + this.entriesOffset + index * this.valueCodec.size());
+	}
+
+	private void setValue(int leaf, int index, V value) {
+		this.valueCodec.write(this.store.bufferForWrite(leaf),
+				this.store.offset(leaf) + this.entriesOffset + index * this.valueCodec.size(), value);
+	}
+
+	private int child(int node, int index) {
+		return this.store.buffer(node).getInt(this.store.offset(node) + this.entriesOffset + index * Integer.BYTES);
+	}
+
+	private void setChild(int node, int index, int child) {
+		this.store.bufferForWrite(node).putInt(this.store.offset(node) + this.entriesOffset + index * Integer.BYTES, child);
+	}
+
+	/**
+	 * Width in bytes of the value or child id that goes with each key.
+	 */
+	private int entrySize(int node) {
+		return this.isLeaf(node) ? this.valueCodec.size() : Integer.BYTES;
+	}
+
+	/**
+	 * Shift keys and their values or children in [from, to) by distance slots,
+	 * to the right if distance is positive and to the left if negative.
+	 */
+	private void moveEntries(int node, int from, int to, int distance) {
+		this.copyEntries(node, from, node, from + distance, to - from);
+	}
+
+	/**
+	 * Copy count keys and their values or children from one node to another,
+	 * or to another place in the same node. Both nodes must be the same type.
+	 */
+	private void copyEntries(int source, int sourceIndex, int destination, int destinationIndex, int count) {
+		int entrySize = this.entrySize(source);
+		this.copyKeys(source, sourceIndex, destination, destinationIndex, count);
+		this.copyBytes(source, this.entriesOffset + sourceIndex * entrySize,
+				destination, this.entriesOffset + destinationIndex * entrySize, count * entrySize);
+	}
+
+	/**
+	 * Copy count encoded keys from one node to another without decoding them.
+	 */
+	private void copyKeys(int source, int sourceIndex, int destination, int destinationIndex, int count) {
+		this.copyBytes(source, HEADER_SIZE + sourceIndex * this.keySize,
+				destination, HEADER_SIZE + destinationIndex * this.keySize, count * this.keySize);
+	}
+
+	/**
+	 * Copy bytes between slots through the scratch array, so the source and
+	 * destination are allowed to overlap.
+	 */
+	private void copyBytes(int source, int sourceOffset, int destination, int destinationOffset, int length) {
+		if (length <= 0) return;
+
+		ByteBuffer sourceBuffer = this.store.buffer(source);
+		sourceBuffer.position(this.store.offset(source) + sourceOffset);
+		sourceBuffer.get(this.scratch, 0, length);
+
+		ByteBuffer destinationBuffer = this.store.bufferForWrite(destination);
+		destinationBuffer.position(this.store.offset(destination) + destinationOffset);
+		destinationBuffer.put(this.scratch, 0, length);
+	}
+
+	// ----- testing -----
+
+	private String toString(int node) {
+		StringBuilder sb = new StringBuilder();
+		int numKeys = this.numKeys(node);
+
+		if (this.isLeaf(node)) {
+			sb.append("Leaf: ");
+			for (int i=0; i<numKeys; i++) {
+				sb.append(this.key(node, i));
+				sb.append(":");
+				sb.append(this.value(node, i));
+				sb.append(" ");
+			}
+			return sb.toString();
+		}
+
+		// add list of keys at top, then each child on a new line, indenting everything by one tab
+		for (int i=0; i<numKeys; i++) {
+			sb.append(this.key(node, i));
+			sb.append(" ");
+		}
+		for (int i=0; i<numKeys; i++) {
+			sb.append("\n\t");
+			sb.append(this.toString(this.child(node, i)).replaceAll("\n", "\n\t"));
+		}
+		return sb.toString();
+	}
+
+	private void verify(int node, K min, K max, boolean isRoot) {
+		int numKeys = this.numKeys(node);
+		String type = this.isLeaf(node) ? "Leaf node" : "Intermediate node";
+
+		// check that keys do not exceed max children
+		if (numKeys > this.mc) throw new AssertionError(type + ": #keys > max children");
+
+		// check that all keys are within range and in order
+		for (int i=0; i<numKeys; i++) {
+			K key = this.key(node, i);
+			if (key.compareTo(min) < 0)
+				throw new AssertionError(type + ": key (" + key + ") < min (" + min + ")");
+			if (key.compareTo(max) >= 0)
+				throw new AssertionError(type + ": key (" + key + ") >= max (" + max + ")");
+			if (i > 0 && this.key(node, i - 1).compareTo(key) >= 0)
+				throw new AssertionError(type + ": keys not in order");
+		}
+
+		if (this.isLeaf(node)) return;
+
+		// check that the cached subtree size matches the children
+		int childSizes = 0;
+		for (int i=0; i<numKeys; i++) childSizes += this.size(this.child(node, i));
+		if (this.size(node) != childSizes)
+			throw new AssertionError("Intermediate node: subtree size (" + this.size(node)
+					+ ") != sum of children (" + childSizes + ")");
+
+		// check that this is at least half full, and that the root has at least two children
+		if (!isRoot && numKeys < this.mc/2)
+			throw new AssertionError("Intermediate node: #children < maxChildren/2");
+		if (isRoot && numKeys < 2)
+			throw new AssertionError("Intermediate node: #children in root < 2");
+
+		// check that all children are valid
+		for (int i=0; i<numKeys - 1; i++)
+			this.verify(this.child(node, i), this.key(node, i), this.key(node, i + 1), false);
+		this.verify(this.child(node, numKeys - 1), this.key(node, numKeys - 1), max, false);
+	}
+
+	private int getDepth(int node) {
+		if (this.isLeaf(node)) return 0;
+
+		int depthFound = -1;
+		for (int i=0; i<this.numKeys(node); i++) {
+			int childDepth = this.getDepth(this.child(node, i));
+			if (depthFound == -1) depthFound = childDepth;
+			if (childDepth != depthFound) throw new AssertionError("Sibling depths not equal");
+		}
+		return depthFound + 1;
+	}
+
+}
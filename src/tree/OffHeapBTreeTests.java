@@ -0,0 +1,101 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class OffHeapBTreeTests {
+
+	@Test
+	public void testMatchesHeapTree() {
+		// the off-heap tree should have exactly the same shape as the heap tree
+		OffHeapBTreeSortedMap<Integer, Integer> offHeap = new OffHeapBTreeSortedMap<>(5, Codecs.INTEGER, Codecs.INTEGER, 8);
+		BTreeSortedMap<Integer, Integer> onHeap = new BTreeSortedMap<>(5);
+		
+		for (int i=1; i<=18; i++) {
+			offHeap.insert(i, i);
+			onHeap.insert(i, i);
+			assertEquals(onHeap.toString(), offHeap.toString());
+		}
+		offHeap.verify(1, 19);
+		
+		for (Integer x : new Integer[] {11, 12, 14, 15, 17, 18, 10, 16, 1, 2, 3, 5, 6, 4, 7, 8, 9, 13}) {
+			offHeap.delete(x);
+			onHeap.delete(x);
+			assertEquals(onHeap.toString(), offHeap.toString());
+		}
+		assertEquals("", offHeap.toString());
+	}
+	
+	@Test
+	public void testStringsAndSlotReuse() {
+		SlabNodeStore store = new SlabNodeStore(OffHeapBTreeSortedMap.slotSize(4, Codecs.string(8), Codecs.LONG), 4);
+		OffHeapBTreeSortedMap<String, Long> map = new OffHeapBTreeSortedMap<>(4, Codecs.string(8), Codecs.LONG, store);
+		
+		for (long i=0; i<100; i++) map.insert(String.format("k%03d", i), i);
+		assertEquals(100, map.size());
+		assertEquals(42L, (long) map.get("k042"));
+		assertNull(map.get("k100"));
+		assertEquals("[(k010, 10), (k011, 11)]", map.getRange("k010", "k012").toString());
+		int slotsWhenFull = store.slotsInUse();
+		
+		// deleted nodes go back to the store and get reused
+		for (long i=0; i<100; i++) map.delete(String.format("k%03d", i));
+		assertEquals(0, store.slotsInUse());
+		for (long i=0; i<100; i++) map.insert(String.format("k%03d", i), i);
+		assertEquals(slotsWhenFull, store.slotsInUse());
+		
+		// strings that do not fit the codec are rejected
+		try {
+			map.insert("much too long", 0L);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {}
+	}
+	
+	@Test
+	public void randomTestCases() {
+		this.runRandomTestCase(-1000, 1000, 3000, 4);
+		this.runRandomTestCase(-1000, 1000, 3000, 64);
+	}
+	
+	public void runRandomTestCase(int rangeMin, int rangeMax, int numOperations, int maxChildren) {
+		OffHeapBTreeSortedMap<Integer, String> treeMap = 
+				new OffHeapBTreeSortedMap<>(maxChildren, Codecs.INTEGER, Codecs.string(8), 16);
+		TreeMap<Integer, String> reference = new TreeMap<>();
+		
+		try {
+			for (int i=0; i<numOperations; i++) {
+				int key = (int)(Math.random() * (rangeMax - rangeMin) + rangeMin);
+				
+				// insert twice as often as delete so the tree grows
+				if (i % 3 == 2) {
+					treeMap.delete(key);
+					reference.remove(key);
+				} else {
+					treeMap.insert(key, Integer.toString(key));
+					reference.put(key, Integer.toString(key));
+				}
+				
+				if (!reference.isEmpty()) treeMap.verify(reference.firstKey(), reference.lastKey() + 1);
+				assertEquals(reference.size(), treeMap.size());
+			}
+			
+			for (Map.Entry<Integer, String> entry : reference.entrySet()) {
+				assertEquals(entry.getValue(), treeMap.get(entry.getKey()));
+				assertEquals(reference.headMap(entry.getKey()).size(), treeMap.rank(entry.getKey()));
+			}
+			assertEquals(reference.size(), treeMap.getRange(rangeMin, rangeMax).size());
+			assertEquals(reference.firstKey(), treeMap.select(0).key);
+			
+		} catch (AssertionError ae) {
+			System.err.println("Error with tree: ");
+			System.err.println(treeMap);
+			System.err.println(ae.getMessage());
+			throw ae;
+		}
+	}
+
+}
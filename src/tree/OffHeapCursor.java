@@ -0,0 +1,111 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over an OffHeapBTreeSortedMap. Works like BTreeCursor, following
+ * the slot ids that link leaves together. Like the map's methods, every step
+ * releases the store's buffers before returning, so a paged store does not
+ * keep a page pinned between steps.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class OffHeapCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+	
+	private final OffHeapBTreeSortedMap<K, V> map;
+	
+	// pair that next() will move onto; leaf is NULL when there are no more pairs
+	private int nextLeaf;
+	private int nextIndex;
+	
+	// pair the cursor is on; leaf is NULL before the first call to next()
+	private int currentLeaf;
+	private int currentIndex;
+	
+	public OffHeapCursor(OffHeapBTreeSortedMap<K, V> map) {
+		this.map = map;
+		this.nextLeaf = OffHeapBTreeSortedMap.NULL;
+		this.currentLeaf = OffHeapBTreeSortedMap.NULL;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.currentLeaf = OffHeapBTreeSortedMap.NULL;
+		if (this.map.root == OffHeapBTreeSortedMap.NULL) {
+			this.nextLeaf = OffHeapBTreeSortedMap.NULL;
+			return;
+		}
+		
+		try {
+			this.nextLeaf = this.map.findLeaf(this.map.root, key);
+			this.nextIndex = this.map.firstIndexGreaterOrEqual(this.nextLeaf, this.map.numKeys(this.nextLeaf), key);
+			this.skipToNextLeafIfDone();
+		} finally {
+			this.map.store.release();
+		}
+	}
+
+	@Override
+	public void seekFirst() {
+		this.currentLeaf = OffHeapBTreeSortedMap.NULL;
+		try {
+			this.nextLeaf = this.map.root == OffHeapBTreeSortedMap.NULL 
+					? OffHeapBTreeSortedMap.NULL : this.map.firstLeaf(this.map.root);
+			this.nextIndex = 0;
+		} finally {
+			this.map.store.release();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.nextLeaf != OffHeapBTreeSortedMap.NULL;
+	}
+
+	@Override
+	public void next() {
+		if (this.nextLeaf == OffHeapBTreeSortedMap.NULL) throw new NoSuchElementException();
+		
+		this.currentLeaf = this.nextLeaf;
+		this.currentIndex = this.nextIndex;
+		
+		this.nextIndex++;
+		try {
+			this.skipToNextLeafIfDone();
+		} finally {
+			this.map.store.release();
+		}
+	}
+
+	@Override
+	public K getKey() {
+		if (this.currentLeaf == OffHeapBTreeSortedMap.NULL) throw new IllegalStateException("cursor is not on a pair");
+		try {
+			return this.map.key(this.currentLeaf, this.currentIndex);
+		} finally {
+			this.map.store.release();
+		}
+	}
+
+	@Override
+	public V getValue() {
+		if (this.currentLeaf == OffHeapBTreeSortedMap.NULL) throw new IllegalStateException("cursor is not on a pair");
+		try {
+			return this.map.value(this.currentLeaf, this.currentIndex);
+		} finally {
+			this.map.store.release();
+		}
+	}
+	
+	/**
+	 * If the next index has run off the end of its leaf, move it to the start
+	 * of the following leaf. Leaves are never empty, so one step is enough.
+	 */
+	private void skipToNextLeafIfDone() {
+		if (this.nextIndex >= this.map.numKeys(this.nextLeaf)) {
+			this.nextLeaf = this.map.next(this.nextLeaf);
+			this.nextIndex = 0;
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * B tree kept in a file, one node per page, with only a fixed number of
+ * pages cached in memory at a time. It works exactly like
+ * OffHeapBTreeSortedMap on top of a PagedNodeStore.
+ *
+ * Changes are only guaranteed to be in the file after flush or close.
+ * Opening the same file again with the same node size and codecs brings
+ * back the tree as of the last flush or close, as long as nothing changed
+ * it after that. Pages evicted between flushes are written in place, and
+ * freed pages are reused, so after a crash with unflushed changes the file
+ * can hold a mix of old and new pages that is not a valid tree. Use
+ * DurableBTreeSortedMap when changes must survive a crash.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class PagedBTreeSortedMap<K extends Comparable<K>, V> extends OffHeapBTreeSortedMap<K, V> implements Closeable {
+
+	private final PagedNodeStore pagedStore;
+
+	// In buffered mode, inserts and deletes wait here, sorted by key, until
+	// more than bufferSize are pending. Zero when not buffering.
+	private int bufferSize;
+	private final TreeMap<K, Object> pending = new TreeMap<>();
+
+	/**
+	 * Open a tree in a file, creating it if it does not exist.
+	 * @param poolPages number of nodes cached in memory
+	 */
+	public PagedBTreeSortedMap(Path file, int maxKeys, Codec<K> keyCodec, Codec<V> valueCodec, int poolPages) throws IOException {
+		this(new PagedNodeStore(file, slotSize(maxKeys, keyCodec, valueCodec), poolPages), maxKeys, keyCodec, valueCodec);
+	}
+
+	private PagedBTreeSortedMap(PagedNodeStore store, int maxKeys, Codec<K> keyCodec, Codec<V> valueCodec) {
+		super(maxKeys, keyCodec, valueCodec, store);
+		this.pagedStore = store;
+		this.root = store.getRoot();
+	}
+
+	/**
+	 * Turn buffered mode on or off. In buffered mode, an insert or delete only
+	 * goes into a sorted buffer in memory, one message per key. When more than
+	 * messagesPerFlush messages are pending, they go down to the pages together
+	 * in key order, so writes to the same leaf and the nodes above it find
+	 * their pages still in the pool instead of reading and writing them once
+	 * per write. Reads merge in the pending messages without pushing them down.
+	 * flush and close push them down first.
+	 * @param messagesPerFlush most messages pending before they are pushed
+	 * down, or 0 to stop buffering, which pushes every message down
+	 */
+	public void setBufferSize(int messagesPerFlush) {
+		if (messagesPerFlush < 0) throw new IllegalArgumentException("buffer size must not be negative: " + messagesPerFlush);
+		this.applyPending();
+		this.bufferSize = messagesPerFlush;
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		if (this.bufferSize == 0) {
+			super.insert(key, value);
+			return;
+		}
+		Objects.requireNonNull(value, "off-heap maps cannot store null values");
+		this.pending.put(key, value);
+		if (this.pending.size() > this.bufferSize) this.applyPending();
+	}
+
+	@Override
+	public void delete(K key) {
+		if (this.bufferSize == 0) {
+			super.delete(key);
+			return;
+		}
+		this.pending.put(key, MessageBuffer.DELETE);
+		if (this.pending.size() > this.bufferSize) this.applyPending();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(K key) {
+		Object message = this.pending.get(key);
+		if (message != null) return message == MessageBuffer.DELETE ? null : (V) message;
+		return super.get(key);
+	}
+
+	@Override
+	public Cursor<K, V> cursor() {
+		if (this.bufferSize == 0 && this.pending.isEmpty()) return super.cursor();
+		return new MergingCursor<K, V>(super.cursor(), this.pending);
+	}
+
+	@Override
+	public int size() {
+		int size = super.size();
+		for (Map.Entry<K, Object> message : this.pending.entrySet()) size += this.sizeChange(message);
+		return size;
+	}
+
+	@Override
+	public int rank(K key) {
+		int rank = super.rank(key);
+		for (Map.Entry<K, Object> message : this.pending.headMap(key).entrySet()) rank += this.sizeChange(message);
+		return rank;
+	}
+
+	/**
+	 * Walks the pending messages in key order, keeping count of how far they
+	 * move the pairs in the pages.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public KeyValuePair<K, V> select(int index) {
+		if (index < 0) return null;
+
+		// change to the number of pairs before the current message made by the messages before it
+		int change = 0;
+		for (Map.Entry<K, Object> message : this.pending.entrySet()) {
+			int before = super.rank(message.getKey()) + change;
+			if (index < before) return super.select(index - change);
+			if (index == before && message.getValue() != MessageBuffer.DELETE)
+				return new KeyValuePair<K, V>(message.getKey(), (V) message.getValue());
+			change += this.sizeChange(message);
+		}
+		return super.select(index - change);
+	}
+
+	/**
+	 * How much a pending message changes the number of pairs: an insert of a
+	 * key that is not in the pages adds one, a delete of a key that is removes
+	 * one, and anything else replaces a pair or does nothing.
+	 */
+	private int sizeChange(Map.Entry<K, Object> message) {
+		boolean inPages = super.get(message.getKey()) != null;
+		if (message.getValue() == MessageBuffer.DELETE) return inPages ? -1 : 0;
+		return inPages ? 0 : 1;
+	}
+
+	/**
+	 * Push every pending message down to the pages, in key order.
+	 */
+	@SuppressWarnings("unchecked")
+	private void applyPending() {
+		for (Map.Entry<K, Object> message : this.pending.entrySet()) {
+			if (message.getValue() == MessageBuffer.DELETE) super.delete(message.getKey());
+			else super.insert(message.getKey(), (V) message.getValue());
+		}
+		this.pending.clear();
+	}
+
+	/**
+	 * Get the buffer pool caching this tree's pages, mostly to look at its statistics.
+	 */
+	public BufferPool pool() {
+		return this.pagedStore.pool();
+	}
+
+	/**
+	 * Write every change to the file and force it to disk.
+	 */
+	public void flush() throws IOException {
+		this.applyPending();
+		this.pagedStore.setRoot(this.root);
+		this.pagedStore.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.applyPending();
+		this.pagedStore.setRoot(this.root);
+		this.pagedStore.close();
+	}
+
+}
@@ -0,0 +1,136 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class PagedBTreeTests {
+
+	@Test
+	public void testMatchesReferenceAndPersists() throws IOException {
+		Path file = Files.createTempFile("btree", ".db");
+		TreeMap<Integer, Long> reference = new TreeMap<>();
+		
+		try {
+			// a pool much smaller than the tree forces pages in and out of the file
+			try (PagedBTreeSortedMap<Integer, Long> map = new PagedBTreeSortedMap<>(file, 8, Codecs.INTEGER, Codecs.LONG, 4)) {
+				for (int i=0; i<3000; i++) {
+					int key = (int)(Math.random() * 2000);
+					if (i % 3 == 2) {
+						map.delete(key);
+						reference.remove(key);
+					} else {
+						map.insert(key, (long) i);
+						reference.put(key, (long) i);
+					}
+				}
+				map.verify(0, 2000);
+				assertEquals(reference.size(), map.size());
+				assertTrue(map.pool().evictions() > 0);
+				assertTrue(map.pool().writes() > 0);
+			}
+			
+			// everything is still there after opening the file again
+			try (PagedBTreeSortedMap<Integer, Long> map = new PagedBTreeSortedMap<>(file, 8, Codecs.INTEGER, Codecs.LONG, 4)) {
+				map.verify(0, 2000);
+				assertEquals(reference.size(), map.size());
+				for (Map.Entry<Integer, Long> entry : reference.entrySet())
+					assertEquals(entry.getValue(), map.get(entry.getKey()));
+				assertEquals(reference.size(), map.getRange(0, 2000).size());
+				
+				// cursors let go of their pages after every step, like the map's methods
+				Cursor<Integer, Long> cursor = map.cursor();
+				cursor.seek(1000);
+				assertEquals(0, map.pool().pinnedPages());
+				cursor.next();
+				assertEquals(reference.ceilingKey(1000), cursor.getKey());
+				assertEquals(reference.ceilingEntry(1000).getValue(), cursor.getValue());
+				assertEquals(0, map.pool().pinnedPages());
+				cursor.seekFirst();
+				assertEquals(0, map.pool().pinnedPages());
+				
+				// pages freed before closing are reused instead of growing the file
+				long length = Files.size(file);
+				for (int key : reference.keySet().toArray(new Integer[0])) map.delete(key);
+				assertEquals(0, map.size());
+				for (int i=0; i<100; i++) map.insert(i, (long) i);
+				map.flush();
+				assertEquals(100, map.size());
+				assertEquals(length, Files.size(file));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void testBufferedMode() throws IOException {
+		Path file = Files.createTempFile("btree", ".db");
+		TreeMap<Integer, Long> reference = new TreeMap<>();
+		
+		try {
+			try (PagedBTreeSortedMap<Integer, Long> map = new PagedBTreeSortedMap<>(file, 8, Codecs.INTEGER, Codecs.LONG, 4)) {
+				map.setBufferSize(16);
+				for (int i=0; i<3000; i++) {
+					int key = (int)(Math.random() * 2000);
+					if (i % 3 == 2) {
+						map.delete(key);
+						reference.remove(key);
+					} else {
+						map.insert(key, (long) i);
+						reference.put(key, (long) i);
+					}
+					
+					// reads merge in the pending messages
+					if (i % 100 == 0) {
+						assertEquals(reference.get(key), map.get(key));
+						assertEquals(reference.size(), map.size());
+						assertEquals(reference.headMap(key).size(), map.rank(key));
+						Map.Entry<Integer, Long> entry = reference.higherEntry(key);
+						KeyValuePair<Integer, Long> selected = map.select(reference.headMap(key, true).size());
+						assertEquals(entry == null ? null : entry.getKey(), selected == null ? null : selected.key);
+						assertEquals(reference.subMap(key, key + 100).keySet().toString(),
+								map.getRange(key, key + 100).stream().map(pair -> pair.key).collect(Collectors.toList()).toString());
+						assertEquals(reference.headMap(key, false).descendingKeySet().stream().limit(5).collect(Collectors.toList()).toString(),
+								map.getPageBefore(key, 5).stream().map(pair -> pair.key).collect(Collectors.toList()).toString());
+					}
+				}
+			}
+			
+			// closing pushes the pending messages down
+			try (PagedBTreeSortedMap<Integer, Long> map = new PagedBTreeSortedMap<>(file, 8, Codecs.INTEGER, Codecs.LONG, 4)) {
+				map.verify(0, 2000);
+				assertEquals(reference.size(), map.size());
+				for (Map.Entry<Integer, Long> entry : reference.entrySet())
+					assertEquals(entry.getValue(), map.get(entry.getKey()));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void testWrongNodeSizeRejected() throws IOException {
+		Path file = Files.createTempFile("btree", ".db");
+		
+		try {
+			try (PagedBTreeSortedMap<Integer, Long> map = new PagedBTreeSortedMap<>(file, 8, Codecs.INTEGER, Codecs.LONG, 4)) {
+				map.insert(1, 1L);
+			}
+			try {
+				new PagedBTreeSortedMap<>(file, 16, Codecs.INTEGER, Codecs.LONG, 4);
+				fail("expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) {}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
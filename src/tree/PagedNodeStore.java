@@ -0,0 +1,192 @@
+package tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Node store that keeps every slot in its own page of a file and caches
+ * pages in a BufferPool, so a tree can be much larger than memory. Page 0
+ * holds a header with the page size, the free list and a root slot id the
+ * tree can save, which lets the file be opened again later.
+ *
+ * At most one page is pinned at a time: asking for another page's buffer
+ * unpins the previous one. Changes only reach the file when pages are
+ * evicted or the store is flushed or closed. Evicted pages overwrite the
+ * ones the saved root still points to, so the file only holds a consistent
+ * tree right after a flush or close.
+ */
+public class PagedNodeStore implements NodeStore, Closeable {
+
+	private static final int MAGIC = 0x42545245; // "BTRE"
+
+	// layout of the header page
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_PAGE_SIZE = 4;
+	private static final int HEADER_NUM_PAGES = 8;
+	private static final int HEADER_FREE_LIST = 12;
+	private static final int HEADER_ROOT = 16;
+	private static final int HEADER_SIZE = 20;
+
+	// page id that ends the free list; the header page is never free
+	private static final int NO_PAGE = 0;
+
+	private final FileChannel channel;
+	private final BufferPool pool;
+	private final int pageSize;
+
+	private int numPages; // including the header page
+	private int freeListHead; // freed pages are chained through their first int
+	private int root;
+	private int pinnedPage;
+	private ByteBuffer pinnedBuffer;
+
+	/**
+	 * Open a store in a file, creating it if it does not exist.
+	 * @param pageSize size of every page, which is also the slot size
+	 * @param poolPages number of pages cached in memory
+	 */
+	public PagedNodeStore(Path file, int pageSize, int poolPages) throws IOException {
+		if (pageSize < HEADER_SIZE) throw new IllegalArgumentException("pages must be at least " + HEADER_SIZE + " bytes");
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.pool = new BufferPool(this.channel, pageSize, poolPages);
+		this.pageSize = pageSize;
+		this.pinnedPage = NO_PAGE;
+
+		try {
+			if (this.channel.size() == 0) {
+				this.numPages = 1;
+				this.freeListHead = NO_PAGE;
+				this.root = -1;
+			} else {
+				this.readHeader();
+			}
+		} catch (IOException | RuntimeException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public int slotSize() {
+		return this.pageSize;
+	}
+
+	@Override
+	public int allocate() {
+		if (this.freeListHead == NO_PAGE) return this.numPages++;
+
+		int page = this.freeListHead;
+		this.freeListHead = this.buffer(page).getInt(0);
+		return page;
+	}
+
+	@Override
+	public void free(int slot) {
+		this.bufferForWrite(slot).putInt(0, this.freeListHead);
+		this.freeListHead = slot;
+	}
+
+	@Override
+	public ByteBuffer buffer(int slot) {
+		if (slot == NO_PAGE || slot >= this.numPages) throw new IllegalArgumentException("no page " + slot);
+
+		if (slot != this.pinnedPage) {
+			this.release();
+			this.pinnedBuffer = this.pool.pin(slot);
+			this.pinnedPage = slot;
+		}
+		return this.pinnedBuffer;
+	}
+
+	@Override
+	public ByteBuffer bufferForWrite(int slot) {
+		ByteBuffer buffer = this.buffer(slot);
+		this.pool.markDirty(slot);
+		return buffer;
+	}
+
+	@Override
+	public void release() {
+		if (this.pinnedPage == NO_PAGE) return;
+		this.pool.unpin(this.pinnedPage);
+		this.pinnedPage = NO_PAGE;
+		this.pinnedBuffer = null;
+	}
+
+	@Override
+	public int offset(int slot) {
+		return 0;
+	}
+
+	/**
+	 * Get the root slot id saved in the header, or -1 if none was saved.
+	 */
+	public int getRoot() {
+		return this.root;
+	}
+
+	/**
+	 * Save a root slot id in the header the next time the store is flushed.
+	 */
+	public void setRoot(int root) {
+		this.root = root;
+	}
+
+	/**
+	 * Get the buffer pool, mostly to look at its statistics.
+	 */
+	public BufferPool pool() {
+		return this.pool;
+	}
+
+	/**
+	 * Write every changed page and the header to the file and force it to disk.
+	 */
+	public void flush() throws IOException {
+		this.release();
+		this.pool.flush();
+		this.writeHeader();
+		this.channel.force(true);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	private void readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (this.channel.read(header, header.position()) < 0) break;
+		}
+		if (header.hasRemaining() || header.getInt(HEADER_MAGIC) != MAGIC)
+			throw new IllegalArgumentException("file is not a paged B tree");
+		if (header.getInt(HEADER_PAGE_SIZE) != this.pageSize)
+			throw new IllegalArgumentException("file has pages of " + header.getInt(HEADER_PAGE_SIZE)
+					+ " bytes, not " + this.pageSize);
+
+		this.numPages = header.getInt(HEADER_NUM_PAGES);
+		this.freeListHead = header.getInt(HEADER_FREE_LIST);
+		this.root = header.getInt(HEADER_ROOT);
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(HEADER_MAGIC, MAGIC);
+		header.putInt(HEADER_PAGE_SIZE, this.pageSize);
+		header.putInt(HEADER_NUM_PAGES, this.numPages);
+		header.putInt(HEADER_FREE_LIST, this.freeListHead);
+		header.putInt(HEADER_ROOT, this.root);
+		while (header.hasRemaining()) this.channel.write(header, header.position());
+	}
+
+}
@@ -0,0 +1,62 @@
+package tree;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor that walks backward through any SortedMap using rank and select.
+ * Each step costs one select, so maps that can follow links between leaves
+ * should use their own descending cursor instead.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class SelectDescendingCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+	
+	private final SortedMap<K, V> map;
+	
+	// position of the pair that next() will move onto; -1 when there are no more pairs
+	private int nextIndex = -1;
+	
+	// pair the cursor is on; null before the first call to next()
+	private KeyValuePair<K, V> current;
+	
+	public SelectDescendingCursor(SortedMap<K, V> map) {
+		this.map = map;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.current = null;
+		this.nextIndex = this.map.rank(key) - 1;
+	}
+
+	@Override
+	public void seekFirst() {
+		this.current = null;
+		this.nextIndex = this.map.size() - 1;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.nextIndex >= 0;
+	}
+
+	@Override
+	public void next() {
+		if (this.nextIndex < 0) throw new NoSuchElementException();
+		this.current = this.map.select(this.nextIndex);
+		this.nextIndex--;
+	}
+
+	@Override
+	public K getKey() {
+		if (this.current == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.current.key;
+	}
+
+	@Override
+	public V getValue() {
+		if (this.current == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.current.value;
+	}
+
+}
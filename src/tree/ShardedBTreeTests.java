@@ -0,0 +1,176 @@
+package tree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class ShardedBTreeTests {
+
+	@Test
+	public void testMatchesReference() {
+		ShardedSortedMap<Integer, Integer> map = new ShardedSortedMap<>(4, 8, Arrays.asList(-500, 0, 500));
+		TreeMap<Integer, Integer> reference = new TreeMap<>();
+
+		for (int i=0; i<3000; i++) {
+			int key = (int)(Math.random() * 2000) - 1000;
+			if (i % 3 == 2) {
+				map.delete(key);
+				reference.remove(key);
+			} else {
+				map.insert(key, i);
+				reference.put(key, i);
+			}
+
+			// batches are split across shards
+			if (i % 500 == 499) {
+				List<KeyValuePair<Integer, Integer>> pairs = new ArrayList<>();
+				List<Integer> keys = new ArrayList<>();
+				for (int j=0; j<50; j++) {
+					int k = (int)(Math.random() * 2000) - 1000;
+					pairs.add(new KeyValuePair<>(k, -j));
+					reference.put(k, -j);
+					keys.add((int)(Math.random() * 2000) - 1000);
+				}
+				map.insertAll(pairs);
+				map.deleteAll(keys);
+				for (int k : keys) reference.remove(k);
+			}
+			if (i % 1000 == 999) map.rebalance();
+		}
+		map.deleteRange(-50, 450);
+		reference.subMap(-50, 450).clear();
+		map.verify(-1000, 1000);
+
+		assertEquals(reference.size(), map.size());
+		for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+			assertEquals(reference.headMap(entry.getKey()).size(), map.rank(entry.getKey()));
+		}
+		assertEquals(new ArrayList<>(reference.subMap(-600, 600).keySet()), keys(map.getRange(-600, 600)));
+		assertEquals(reference.subMap(-600, 600).size(), map.countRange(-600, 600));
+		assertEquals(new ArrayList<>(reference.keySet()), keys(map.getPage(reference.size() + 1)));
+		assertEquals(new ArrayList<>(reference.tailMap(-520).keySet()).subList(0, 100), keys(map.getPage(-520, 100)));
+		assertEquals(reference.firstKey(), map.select(0).key);
+		assertEquals(reference.lastKey(), map.select(reference.size() - 1).key);
+		assertNull(map.select(reference.size()));
+
+		// cursors run across shard boundaries, including empty shards
+		Cursor<Integer, Integer> cursor = map.cursor();
+		cursor.seek(-510);
+		List<Integer> keys = new ArrayList<>();
+		while (cursor.hasNext()) {
+			cursor.next();
+			keys.add(cursor.getKey());
+		}
+		assertEquals(new ArrayList<>(reference.tailMap(-510).keySet()), keys);
+	}
+
+	@Test
+	public void testRebalance() {
+		ShardedSortedMap<Integer, Integer> map = new ShardedSortedMap<>(8, 4);
+		for (int i=0; i<1000; i++) map.insert(i, i);
+
+		// a single shard took every write, so it is split at its middle key
+		map.rebalance();
+		assertEquals(2, map.shardCount());
+		assertEquals(500, (int) map.shards.get(1).low);
+
+		// writes all go to the upper half, which is split again
+		for (int i=1000; i<1500; i++) map.insert(i, i);
+		map.rebalance();
+		assertEquals(3, map.shardCount());
+		assertEquals(1000, (int) map.shards.get(2).low);
+
+		// nothing was written, so no shard is hot
+		map.rebalance();
+		assertEquals(3, map.shardCount());
+		map.verify(0, 1500);
+
+		// too many shards are merged, coldest neighbors first
+		map = new ShardedSortedMap<>(8, 3, Arrays.asList(100, 200, 300, 400, 500));
+		for (int i=0; i<600; i++) map.insert(i, i);
+		for (int i=0; i<100; i++) map.insert(i, -i);
+		map.rebalance();
+		assertEquals(3, map.shardCount());
+		assertNull(map.shards.get(0).low);
+		assertEquals(100, (int) map.shards.get(1).low);
+		map.verify(0, 600);
+		assertEquals(600, map.size());
+		assertEquals(-50, (int) map.get(50));
+		assertEquals(450, (int) map.get(450));
+	}
+
+	@Test
+	public void testWritersDuringRebalance() throws Exception {
+		ShardedSortedMap<Integer, Integer> map = new ShardedSortedMap<>(8, 8);
+		int numWriters = 4;
+		List<Map<Integer, Integer>> references = new ArrayList<>();
+		for (int t=0; t<numWriters; t++) references.add(new ConcurrentHashMap<>());
+
+		// each writer owns the keys equal to its number mod numWriters
+		List<Throwable> errors = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0; t<numWriters; t++) {
+			int writer = t;
+			threads.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				Map<Integer, Integer> reference = references.get(writer);
+				for (int i=0; i<20000; i++) {
+					int key = random.nextInt(2000) * numWriters + writer;
+					if (i % 100 == 99) {
+						// batches are split over whatever shards there are at the time
+						List<KeyValuePair<Integer, Integer>> pairs = new ArrayList<>();
+						for (int j=0; j<20; j++) pairs.add(new KeyValuePair<>(random.nextInt(2000) * numWriters + writer, -i));
+						map.insertAll(pairs);
+						for (KeyValuePair<Integer, Integer> pair : pairs) reference.put(pair.key, pair.value);
+					} else if (i % 3 == 2) {
+						map.delete(key);
+						reference.remove(key);
+					} else {
+						map.insert(key, i);
+						reference.put(key, i);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.setUncaughtExceptionHandler((th, e) -> {
+				synchronized (errors) {
+					errors.add(e);
+				}
+			});
+			thread.start();
+		}
+		while (threads.stream().anyMatch(Thread::isAlive)) {
+			map.rebalance();
+			Thread.sleep(1);
+		}
+		for (Thread thread : threads) thread.join();
+		assertEquals(new ArrayList<Throwable>(), errors);
+
+		// shards were split while the writers ran, and no write to them was lost
+		assertTrue(map.shardCount() > 1);
+
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		for (Map<Integer, Integer> reference : references) expected.putAll(reference);
+		map.verify(0, 2000 * numWriters);
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+	}
+
+	private static <V> List<Integer> keys(List<KeyValuePair<Integer, V>> pairs) {
+		List<Integer> keys = new ArrayList<>();
+		for (KeyValuePair<Integer, V> pair : pairs) keys.add(pair.key);
+		return keys;
+	}
+
+}
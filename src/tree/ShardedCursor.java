@@ -0,0 +1,92 @@
+package tree;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor over a ShardedSortedMap. It walks one shard with that shard's own
+ * cursor, and moves on to the start of the next shard when it runs out. The
+ * list of shards is read when the cursor seeks, so a rebalance after that is
+ * not seen until the next seek.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class ShardedCursor<K extends Comparable<K>, V> implements Cursor<K, V> {
+
+	private final ShardedSortedMap<K, V> map;
+	private List<ShardedSortedMap.Shard<K, V>> shards; // as of the last seek
+
+	// cursor whose next pair is the next pair of the map, in shard shardIndex;
+	// null when there are no more pairs
+	private Cursor<K, V> nextCursor;
+	private int shardIndex;
+
+	// cursor on the pair this cursor is on; null before the first call to next()
+	private Cursor<K, V> currentCursor;
+
+	public ShardedCursor(ShardedSortedMap<K, V> map) {
+		this.map = map;
+	}
+
+	@Override
+	public void seek(K key) {
+		this.currentCursor = null;
+		this.shards = this.map.shards;
+		this.shardIndex = this.map.shardIndex(this.shards, key);
+		this.nextCursor = this.shards.get(this.shardIndex).map.cursor();
+		this.nextCursor.seek(key);
+		this.skipToNextShardIfDone();
+	}
+
+	@Override
+	public void seekFirst() {
+		this.currentCursor = null;
+		this.shards = this.map.shards;
+		this.shardIndex = 0;
+		this.nextCursor = this.shards.get(0).map.cursor();
+		this.nextCursor.seekFirst();
+		this.skipToNextShardIfDone();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.nextCursor != null;
+	}
+
+	@Override
+	public void next() {
+		if (this.nextCursor == null) throw new NoSuchElementException();
+
+		this.nextCursor.next();
+		this.currentCursor = this.nextCursor;
+		this.skipToNextShardIfDone();
+	}
+
+	@Override
+	public K getKey() {
+		if (this.currentCursor == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentCursor.getKey();
+	}
+
+	@Override
+	public V getValue() {
+		if (this.currentCursor == null) throw new IllegalStateException("cursor is not on a pair");
+		return this.currentCursor.getValue();
+	}
+
+	/**
+	 * If the shard has no pairs left, move to the first pair of the next shard
+	 * that has any. The current cursor is left alone, so it stays on its pair.
+	 */
+	private void skipToNextShardIfDone() {
+		while (!this.nextCursor.hasNext()) {
+			if (++this.shardIndex >= this.shards.size()) {
+				this.nextCursor = null;
+				return;
+			}
+			this.nextCursor = this.shards.get(this.shardIndex).map.cursor();
+			this.nextCursor.seekFirst();
+		}
+	}
+
+}
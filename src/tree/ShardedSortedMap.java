@@ -0,0 +1,573 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Sorted map whose key space is split into ranges, each kept in its own
+ * BTreeSortedMap with its own lock, so writes to different ranges do not
+ * wait for each other. Point operations find their shard with a binary
+ * search over the first key of each shard. Scans go through the shards in
+ * key order, and insertAll and deleteAll hand each shard its part of the
+ * batch on a separate thread of the common fork join pool.
+ *
+ * Writes to each shard are counted. rebalance splits shards that took far
+ * more than their share of writes since the last call, and merges the
+ * coldest neighbors while there are more than maxShards shards. It can be
+ * called while other threads use the map. New shards are built from
+ * snapshots of the old ones while those keep taking reads and writes, and
+ * the writes made in the meantime are replayed into them. Only the shards
+ * being replaced are locked, and only while that happens and the new list of
+ * shards is published. An operation that finds its shard was replaced
+ * starts over with the new list.
+ *
+ * Methods are safe to call from several threads, except that cursors must
+ * not be used while other threads change the map. Scans and batches lock
+ * one shard at a time, so they are not atomic across shards.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class ShardedSortedMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
+
+	// a shard is hot if it took more than this many times its share of writes
+	private static final int HOT_FACTOR = 2;
+
+	// shards built by rebalance leave room in their nodes, since hot shards keep being written to
+	private static final double FILL_FACTOR = 0.75;
+
+	// which part of an old shard's pairs goes into a new shard
+	private static final int WHOLE = 0, LOWER_HALF = 1, UPPER_HALF = 2;
+
+	private final int mc;
+	private final int maxShards;
+
+	// in key order; the first shard has no lower bound. Never changed, only
+	// replaced by rebalance, so it can be read without a lock.
+	volatile List<Shard<K, V>> shards;
+
+	/**
+	 * A range of keys, from low (inclusive) to the next shard's low (exclusive).
+	 */
+	static class Shard<K extends Comparable<K>, V> {
+		final K low; // null for the first shard
+		final BTreeSortedMap<K, V> map;
+		final ReentrantReadWriteLock lock;
+		final LongAdder writes; // since the last rebalance
+		volatile boolean retired; // replaced by rebalance; set under the write lock
+		TreeMap<K, Object> pending; // writes since rebalance copied this shard, under the lock
+
+		Shard(K low, BTreeSortedMap<K, V> map) {
+			this.low = low;
+			this.map = map;
+			this.lock = new ReentrantReadWriteLock();
+			this.writes = new LongAdder();
+		}
+	}
+
+	/**
+	 * Part of an old shard that rebalance puts in a new shard.
+	 */
+	private static class Piece {
+		final int shard; // index in the old list of shards
+		final int part; // WHOLE, LOWER_HALF or UPPER_HALF
+
+		Piece(int shard, int part) {
+			this.shard = shard;
+			this.part = part;
+		}
+	}
+
+	/**
+	 * Start with a single shard, which rebalance splits as writes come in.
+	 */
+	public ShardedSortedMap(int maxKeys, int maxShards) {
+		this(maxKeys, maxShards, new ArrayList<K>());
+	}
+
+	/**
+	 * Start with one shard before the first split key, and one starting at
+	 * each split key.
+	 * @param splitKeys first keys of every shard but the first, in increasing order
+	 */
+	public ShardedSortedMap(int maxKeys, int maxShards, List<K> splitKeys) {
+		if (maxShards < 1) throw new IllegalArgumentException("need at least one shard: " + maxShards);
+		this.mc = maxKeys;
+		this.maxShards = maxShards;
+		List<Shard<K, V>> shards = new ArrayList<>();
+		shards.add(new Shard<K, V>(null, new BTreeSortedMap<K, V>(maxKeys)));
+		for (K key : splitKeys) {
+			K previous = shards.get(shards.size() - 1).low;
+			if (previous != null && previous.compareTo(key) >= 0)
+				throw new IllegalArgumentException("split keys are not increasing: " + key);
+			shards.add(new Shard<K, V>(key, new BTreeSortedMap<K, V>(maxKeys)));
+		}
+		this.shards = Collections.unmodifiableList(shards);
+	}
+
+	@Override
+	public void insert(K key, V value) {
+		this.write(key, value);
+	}
+
+	@Override
+	public void delete(K key) {
+		this.write(key, MessageBuffer.DELETE);
+	}
+
+	/**
+	 * Each shard inserts its part of the batch on its own thread.
+	 */
+	@Override
+	public void insertAll(Collection<KeyValuePair<K, V>> pairs) {
+		this.writeInParallel(pairs, pair -> pair.key, pair -> pair.value, BTreeSortedMap::insertAll);
+	}
+
+	/**
+	 * Each shard deletes its part of the batch on its own thread.
+	 */
+	@Override
+	public void deleteAll(Collection<K> keys) {
+		this.writeInParallel(keys, key -> key, key -> MessageBuffer.DELETE, BTreeSortedMap::deleteAll);
+	}
+
+	@Override
+	public void deleteRange(K keyStart, K keyEnd) {
+		if (keyStart.compareTo(keyEnd) >= 0) return;
+		retry: while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			for (int i=this.shardIndex(shards, keyStart); i<shards.size() && startsBefore(shards, i, keyEnd); i++) {
+				Shard<K, V> shard = shards.get(i);
+				shard.lock.writeLock().lock();
+				try {
+					// deleting again from the shards done before is harmless
+					if (shard.retired) continue retry;
+					if (shard.pending != null) {
+						for (KeyValuePair<K, V> pair : shard.map.getRange(keyStart, keyEnd)) 
+							shard.pending.put(pair.key, MessageBuffer.DELETE);
+					}
+					shard.map.deleteRange(keyStart, keyEnd);
+					shard.writes.increment();
+				} finally {
+					shard.lock.writeLock().unlock();
+				}
+			}
+			return;
+		}
+	}
+
+	@Override
+	public V get(K key) {
+		while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			Shard<K, V> shard = shards.get(this.shardIndex(shards, key));
+			shard.lock.readLock().lock();
+			try {
+				if (!shard.retired) return shard.map.get(key);
+			} finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+	}
+
+	@Override
+	public Cursor<K, V> cursor() {
+		return new ShardedCursor<K, V>(this);
+	}
+
+	/**
+	 * Each shard holding part of the range is scanned under its own lock, in
+	 * key order, so the pairs come out sorted without merging.
+	 */
+	@Override
+	public List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
+		retry: while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			List<KeyValuePair<K, V>> entries = new ArrayList<>();
+			for (int i=this.shardIndex(shards, keyStart); i<shards.size() && startsBefore(shards, i, keyEnd); i++) {
+				Shard<K, V> shard = shards.get(i);
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					entries.addAll(shard.map.getRange(keyStart, keyEnd));
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return entries;
+		}
+	}
+
+	@Override
+	public List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
+		return this.getPage(keyStart, true, numElements);
+	}
+
+	@Override
+	public List<KeyValuePair<K, V>> getPage(int numElements) {
+		return this.getPage(null, false, numElements);
+	}
+
+	@Override
+	public int size() {
+		retry: while (true) {
+			int size = 0;
+			for (Shard<K, V> shard : this.shards) {
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					size += shard.map.size();
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return size;
+		}
+	}
+
+	@Override
+	public int rank(K key) {
+		retry: while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			int index = this.shardIndex(shards, key);
+			int rank = 0;
+			for (int i=0; i<=index; i++) {
+				Shard<K, V> shard = shards.get(i);
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					rank += i < index ? shard.map.size() : shard.map.rank(key);
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return rank;
+		}
+	}
+
+	@Override
+	public KeyValuePair<K, V> select(int index) {
+		if (index < 0) return null;
+		retry: while (true) {
+			int remaining = index;
+			for (Shard<K, V> shard : this.shards) {
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					if (remaining < shard.map.size()) return shard.map.select(remaining);
+					remaining -= shard.map.size();
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public int countRange(K keyStart, K keyEnd) {
+		if (keyStart.compareTo(keyEnd) >= 0) return 0;
+		retry: while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			int count = 0;
+			for (int i=this.shardIndex(shards, keyStart); i<shards.size() && startsBefore(shards, i, keyEnd); i++) {
+				Shard<K, V> shard = shards.get(i);
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					count += shard.map.countRange(keyStart, keyEnd);
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Split every shard that took more than twice its share of the writes
+	 * since the last call, where a shard's share is 1 / maxShards of them, at
+	 * its middle key. Then, while there are more than maxShards shards, merge
+	 * the two neighbors that took the fewest writes between them. Write
+	 * counts start over afterwards.
+	 *
+	 * The new shards are loaded from snapshots of the shards they replace,
+	 * without holding any locks. The replaced shards are only locked at the
+	 * end, to replay the writes made to them since their snapshot and to
+	 * publish the new list. One rebalance runs at a time.
+	 */
+	public synchronized void rebalance() {
+		List<Shard<K, V>> shards = this.shards;
+		long[] writes = new long[shards.size()];
+		long total = 0;
+		for (int i=0; i<shards.size(); i++) {
+			writes[i] = shards.get(i).writes.sumThenReset();
+			total += writes[i];
+		}
+
+		// split hot shards, guessing that each half took half of the writes
+		List<List<KeyValuePair<K, V>>> copies = new ArrayList<>(Collections.nCopies(shards.size(), null));
+		List<List<Piece>> groups = new ArrayList<>();
+		List<Long> heat = new ArrayList<>();
+		for (int i=0; i<shards.size(); i++) {
+			if (writes[i] * this.maxShards > HOT_FACTOR * total) copies.set(i, this.copy(shards.get(i), 2));
+			if (copies.get(i) != null) {
+				groups.add(new ArrayList<>(Collections.singletonList(new Piece(i, LOWER_HALF))));
+				groups.add(new ArrayList<>(Collections.singletonList(new Piece(i, UPPER_HALF))));
+				heat.add(writes[i] / 2);
+				heat.add(writes[i] - writes[i] / 2);
+			} else {
+				groups.add(new ArrayList<>(Collections.singletonList(new Piece(i, WHOLE))));
+				heat.add(writes[i]);
+			}
+		}
+
+		// merge the coldest neighbors until there are few enough shards
+		while (groups.size() > this.maxShards) {
+			int coldest = 0;
+			for (int i=1; i<groups.size() - 1; i++) {
+				if (heat.get(i) + heat.get(i + 1) < heat.get(coldest) + heat.get(coldest + 1)) coldest = i;
+			}
+			groups.get(coldest).addAll(groups.remove(coldest + 1));
+			heat.set(coldest, heat.get(coldest) + heat.remove(coldest + 1));
+		}
+
+		// load the new shards; a shard kept whole on its own stays as it is
+		List<Shard<K, V>> newShards = new ArrayList<>();
+		for (List<Piece> group : groups) {
+			Piece first = group.get(0);
+			if (group.size() == 1 && first.part == WHOLE) {
+				newShards.add(shards.get(first.shard));
+				continue;
+			}
+
+			List<KeyValuePair<K, V>> pairs = new ArrayList<>();
+			for (Piece piece : group) {
+				if (copies.get(piece.shard) == null) copies.set(piece.shard, this.copy(shards.get(piece.shard), 0));
+				List<KeyValuePair<K, V>> copy = copies.get(piece.shard);
+				int middle = copy.size() / 2;
+				pairs.addAll(piece.part == WHOLE ? copy 
+						: piece.part == LOWER_HALF ? copy.subList(0, middle) : copy.subList(middle, copy.size()));
+			}
+			K low = first.part == UPPER_HALF ? copies.get(first.shard).get(copies.get(first.shard).size() / 2).key 
+					: shards.get(first.shard).low;
+			newShards.add(this.load(low, pairs));
+		}
+
+		List<Shard<K, V>> replaced = new ArrayList<>();
+		for (int i=0; i<shards.size(); i++) if (copies.get(i) != null) replaced.add(shards.get(i));
+		if (replaced.isEmpty()) return;
+
+		// lock the replaced shards in key order, catch the new ones up, and swap them in
+		for (Shard<K, V> shard : replaced) shard.lock.writeLock().lock();
+		try {
+			for (Shard<K, V> shard : replaced) {
+				for (Map.Entry<K, Object> change : shard.pending.entrySet()) {
+					Shard<K, V> newShard = newShards.get(this.shardIndex(newShards, change.getKey()));
+					apply(newShard.map, change.getKey(), change.getValue());
+				}
+				shard.pending = null;
+				shard.retired = true;
+			}
+			this.shards = Collections.unmodifiableList(newShards);
+		} finally {
+			for (Shard<K, V> shard : replaced) shard.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of shards the key space is split into.
+	 */
+	public int shardCount() {
+		return this.shards.size();
+	}
+
+	@Override
+	public String toString() {
+		retry: while (true) {
+			StringBuilder sb = new StringBuilder();
+			for (Shard<K, V> shard : this.shards) {
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					sb.append("Shard from " + shard.low + ":\n" + shard.map + "\n");
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Index of the shard whose range holds the key: the last shard whose low
+	 * key is not greater than it.
+	 * @param shards list of shards read once from this.shards
+	 */
+	int shardIndex(List<Shard<K, V>> shards, K key) {
+		int lo = 1, hi = shards.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (shards.get(mid).low.compareTo(key) <= 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo - 1;
+	}
+
+	/**
+	 * Whether shard i holds any keys less than key.
+	 */
+	private static <K extends Comparable<K>, V> boolean startsBefore(List<Shard<K, V>> shards, int i, K key) {
+		K low = shards.get(i).low;
+		return low == null || low.compareTo(key) < 0;
+	}
+
+	/**
+	 * Insert or delete a key in the shard holding it, under its write lock.
+	 * @param value value to insert, or MessageBuffer.DELETE
+	 */
+	private void write(K key, Object value) {
+		while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			Shard<K, V> shard = shards.get(this.shardIndex(shards, key));
+			shard.lock.writeLock().lock();
+			try {
+				if (shard.retired) continue;
+				apply(shard.map, key, value);
+				if (shard.pending != null) shard.pending.put(key, value);
+				shard.writes.increment();
+				return;
+			} finally {
+				shard.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Insert a value, or delete the key if it is MessageBuffer.DELETE.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K extends Comparable<K>, V> void apply(BTreeSortedMap<K, V> map, K key, Object value) {
+		if (value == MessageBuffer.DELETE) map.delete(key);
+		else map.insert(key, (V) value);
+	}
+
+	/**
+	 * Split a batch into the parts for each shard, keeping batch order inside
+	 * each part, and hand the parts to their shards in parallel. Each shard
+	 * takes its part under its write lock. Parts whose shard was replaced in
+	 * the meantime are split again over the new shards and tried again.
+	 * @param valueOf value each item inserts, or MessageBuffer.DELETE
+	 */
+	private <T> void writeInParallel(Collection<T> batch, Function<T, K> keyOf, Function<T, Object> valueOf,
+			BiConsumer<BTreeSortedMap<K, V>, List<T>> change) {
+		Collection<T> remaining = batch;
+		while (!remaining.isEmpty()) {
+			List<Shard<K, V>> shards = this.shards;
+			List<List<T>> parts = new ArrayList<>();
+			for (int i=0; i<shards.size(); i++) parts.add(new ArrayList<T>());
+			for (T item : remaining) parts.get(this.shardIndex(shards, keyOf.apply(item))).add(item);
+
+			List<T> retry = Collections.synchronizedList(new ArrayList<T>());
+			IntStream.range(0, parts.size()).parallel().filter(i -> !parts.get(i).isEmpty()).forEach(i -> {
+				Shard<K, V> shard = shards.get(i);
+				shard.lock.writeLock().lock();
+				try {
+					if (shard.retired) {
+						retry.addAll(parts.get(i));
+						return;
+					}
+					change.accept(shard.map, parts.get(i));
+					if (shard.pending != null) {
+						for (T item : parts.get(i)) shard.pending.put(keyOf.apply(item), valueOf.apply(item));
+					}
+					shard.writes.add(parts.get(i).size());
+				} finally {
+					shard.lock.writeLock().unlock();
+				}
+			});
+			remaining = retry;
+		}
+	}
+
+	/**
+	 * Copy up to numElements pairs starting at keyStart, moving on to the
+	 * following shards until the page is full.
+	 * @param fromKey whether to start at keyStart, or else at the first pair of the map
+	 */
+	private List<KeyValuePair<K, V>> getPage(K keyStart, boolean fromKey, int numElements) {
+		retry: while (true) {
+			List<Shard<K, V>> shards = this.shards;
+			List<KeyValuePair<K, V>> entries = new ArrayList<>();
+			int first = fromKey ? this.shardIndex(shards, keyStart) : -1;
+			for (int i=Math.max(first, 0); i<shards.size() && entries.size() < numElements; i++) {
+				Shard<K, V> shard = shards.get(i);
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) continue retry;
+					int wanted = numElements - entries.size();
+					entries.addAll(i == first ? shard.map.getPage(keyStart, wanted) : shard.map.getPage(wanted));
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Start recording the writes to a shard, and copy its pairs from a
+	 * snapshot taken at the same moment. Only the snapshot is taken under the
+	 * shard's lock, so the shard keeps taking writes while it is copied.
+	 * @param minSize fewest pairs the shard must hold to be copied
+	 * @return the pairs in key order, or null if there were fewer than minSize
+	 */
+	private List<KeyValuePair<K, V>> copy(Shard<K, V> shard, int minSize) {
+		BTreeSnapshot<K, V> snapshot;
+		shard.lock.writeLock().lock();
+		try {
+			if (shard.map.size() < minSize) return null;
+			snapshot = shard.map.snapshot();
+			shard.pending = new TreeMap<>();
+		} finally {
+			shard.lock.writeLock().unlock();
+		}
+		return snapshot.getPage(snapshot.size());
+	}
+
+	/**
+	 * Build a shard from sorted pairs.
+	 */
+	private Shard<K, V> load(K low, List<KeyValuePair<K, V>> pairs) {
+		BTreeSortedMap<K, V> map = new BTreeSortedMap<K, V>(this.mc);
+		map.bulkLoad(pairs.iterator(), FILL_FACTOR);
+		return new Shard<K, V>(low, map);
+	}
+
+	/**
+	 * Used for testing purposes. Throws an assertion error if a shard is
+	 * invalid or holds a key outside its range.
+	 * @param min minimum value (inclusive)
+	 * @param max maximum value (exclusive)
+	 */
+	protected void verify(K min, K max) {
+		List<Shard<K, V>> shards = this.shards;
+		for (int i=0; i<shards.size(); i++) {
+			K low = i == 0 ? min : shards.get(i).low;
+			K high = i == shards.size() - 1 ? max : shards.get(i + 1).low;
+			if (i > 1 && shards.get(i - 1).low.compareTo(low) >= 0)
+				throw new AssertionError("shards out of order at " + low);
+			if (shards.get(i).retired) throw new AssertionError("retired shard at " + low);
+			shards.get(i).map.verify(low, high);
+		}
+	}
+
+}
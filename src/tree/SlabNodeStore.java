@@ -0,0 +1,79 @@
+package tree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node store that keeps slots in large direct byte buffers (slabs) outside
+ * the Java heap. The garbage collector sees one object per slab instead of
+ * one object per node. Slabs are added as the store grows, and freed slots
+ * are reused before new ones are handed out.
+ */
+public class SlabNodeStore implements NodeStore {
+	
+	private final int slotSize;
+	private final int slotsPerSlab;
+	private final List<ByteBuffer> slabs;
+	
+	private int numSlots; // number of slots ever handed out, including freed ones
+	private int[] freeSlots; // stack of freed slot ids
+	private int numFreeSlots;
+	
+	public SlabNodeStore(int slotSize, int slotsPerSlab) {
+		if ((long) slotSize * slotsPerSlab > Integer.MAX_VALUE) 
+			throw new IllegalArgumentException("slab of " + slotsPerSlab + " slots of " 
+					+ slotSize + " bytes is larger than 2GB");
+		this.slotSize = slotSize;
+		this.slotsPerSlab = slotsPerSlab;
+		this.slabs = new ArrayList<>();
+		this.freeSlots = new int[16];
+	}
+
+	@Override
+	public int slotSize() {
+		return this.slotSize;
+	}
+
+	@Override
+	public int allocate() {
+		if (this.numFreeSlots > 0) return this.freeSlots[--this.numFreeSlots];
+		
+		if (this.numSlots == this.slabs.size() * this.slotsPerSlab) 
+			this.slabs.add(ByteBuffer.allocateDirect(this.slotSize * this.slotsPerSlab));
+		return this.numSlots++;
+	}
+
+	@Override
+	public void free(int slot) {
+		if (this.numFreeSlots == this.freeSlots.length) 
+			this.freeSlots = Arrays.copyOf(this.freeSlots, this.freeSlots.length * 2);
+		this.freeSlots[this.numFreeSlots++] = slot;
+	}
+
+	@Override
+	public ByteBuffer buffer(int slot) {
+		return this.slabs.get(slot / this.slotsPerSlab);
+	}
+
+	@Override
+	public int offset(int slot) {
+		return (slot % this.slotsPerSlab) * this.slotSize;
+	}
+	
+	/**
+	 * Get the number of slots currently allocated and not freed.
+	 */
+	public int slotsInUse() {
+		return this.numSlots - this.numFreeSlots;
+	}
+	
+	/**
+	 * Get the number of bytes of direct memory reserved by the slabs.
+	 */
+	public long bytesReserved() {
+		return (long) this.slabs.size() * this.slotsPerSlab * this.slotSize;
+	}
+
+}
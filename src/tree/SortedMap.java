@@ -1,6 +1,11 @@
 package tree;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A map that lets you insert, delete, get, and get a list of values sorted by key.
@@ -19,33 +24,186 @@ public interface SortedMap<K extends Comparable<K>, V> {
 	 */
 	public void delete(K key);
 	
+	/**
+	 * Insert a batch of key value pairs. If a key appears more than once, the
+	 * value that comes last in the batch wins.
+	 */
+	public default void insertAll(Collection<KeyValuePair<K, V>> pairs) {
+		for (KeyValuePair<K, V> pair : pairs) this.insert(pair.key, pair.value);
+	}
+	
+	/**
+	 * Delete a batch of keys. Keys that are not in the map are ignored.
+	 */
+	public default void deleteAll(Collection<K> keys) {
+		for (K key : keys) this.delete(key);
+	}
+	
+	/**
+	 * Delete every key value pair from keyStart (inclusive) to keyEnd (exclusive),
+	 * the same pairs getRange returns.
+	 */
+	public default void deleteRange(K keyStart, K keyEnd) {
+		List<K> keys = new ArrayList<>();
+		for (KeyValuePair<K, V> pair : this.getRange(keyStart, keyEnd)) keys.add(pair.key);
+		if (!keys.isEmpty()) this.deleteAll(keys);
+	}
+	
 	/**
 	 * Given a key, get a value. Return null if not found.
 	 */
 	public V get(K key);
 	
+	/**
+	 * Get a cursor positioned before the first key value pair. Use seek to move
+	 * it somewhere else.
+	 */
+	public Cursor<K, V> cursor();
+	
+	/**
+	 * Get a cursor that walks backward, from greater keys to smaller ones. Its
+	 * seek moves it to just after the last pair whose key is less than the
+	 * given key, and seekFirst moves it to just after the last pair in the map.
+	 */
+	public default Cursor<K, V> descendingCursor() {
+		return new SelectDescendingCursor<K, V>(this);
+	}
+	
 	/**
 	 * Given a starting key and an ending key, get all key value pairs starting with
-	 * keyStart and ending with keyEnd, inclusive. Returns empty if nothing found.
+	 * keyStart (inclusive) and ending before keyEnd (exclusive). Returns empty if 
+	 * nothing found.
 	 */
-	public List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd);
+	public default List<KeyValuePair<K, V>> getRange(K keyStart, K keyEnd) {
+		List<KeyValuePair<K, V>> entries = new ArrayList<>();
+		Cursor<K, V> cursor = this.cursor();
+		cursor.seek(keyStart);
+		
+		while (cursor.hasNext()) {
+			cursor.next();
+			if (cursor.getKey().compareTo(keyEnd) >= 0) break;
+			entries.add(new KeyValuePair<K, V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
 	
 	/**
 	 * Given a starting key and a number of elements return, get all key value pairs
 	 * starting with keyStart. If there are not enough pairs after keyStart, returns
 	 * the longest possible list it can. Returns empty if nothing found.
 	 */
-	public List<KeyValuePair<K, V>> getPage(K keyStart, int numElements);
+	public default List<KeyValuePair<K, V>> getPage(K keyStart, int numElements) {
+		Cursor<K, V> cursor = this.cursor();
+		cursor.seek(keyStart);
+		
+		List<KeyValuePair<K, V>> entries = new ArrayList<>();
+		while (entries.size() < numElements && cursor.hasNext()) {
+			cursor.next();
+			entries.add(new KeyValuePair<K, V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
 	
 	/**
 	 * Gets the first numValues elements in this sorted map. If numValues is greater
 	 * than the size of this data structure, returns the entire data structure.
 	 */
-	public List<KeyValuePair<K, V>> getPage(int numElements);
+	public default List<KeyValuePair<K, V>> getPage(int numElements) {
+		Cursor<K, V> cursor = this.cursor();
+		cursor.seekFirst();
+		
+		List<KeyValuePair<K, V>> entries = new ArrayList<>();
+		while (entries.size() < numElements && cursor.hasNext()) {
+			cursor.next();
+			entries.add(new KeyValuePair<K, V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Same as getRange, but the pairs come from greatest key to least.
+	 */
+	public default List<KeyValuePair<K, V>> getRangeDescending(K keyStart, K keyEnd) {
+		List<KeyValuePair<K, V>> entries = new ArrayList<>();
+		Cursor<K, V> cursor = this.descendingCursor();
+		cursor.seek(keyEnd);
+		
+		while (cursor.hasNext()) {
+			cursor.next();
+			if (cursor.getKey().compareTo(keyStart) < 0) break;
+			entries.add(new KeyValuePair<K, V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Get the last numElements key value pairs before keyEnd (exclusive), from
+	 * greatest key to least. If there are not enough pairs before keyEnd, returns
+	 * the longest possible list it can. Returns empty if nothing found.
+	 */
+	public default List<KeyValuePair<K, V>> getPageBefore(K keyEnd, int numElements) {
+		Cursor<K, V> cursor = this.descendingCursor();
+		cursor.seek(keyEnd);
+		
+		List<KeyValuePair<K, V>> entries = new ArrayList<>();
+		while (entries.size() < numElements && cursor.hasNext()) {
+			cursor.next();
+			entries.add(new KeyValuePair<K, V>(cursor.getKey(), cursor.getValue()));
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Get a spliterator over the key value pairs from keyStart (inclusive) to
+	 * keyEnd (exclusive), in key order. The map must not change while it is
+	 * being traversed.
+	 */
+	public default Spliterator<KeyValuePair<K, V>> spliterator(K keyStart, K keyEnd) {
+		return new CursorSpliterator<K, V>(this.cursor(), keyStart, keyEnd);
+	}
+	
+	/**
+	 * Stream the key value pairs from keyStart (inclusive) to keyEnd (exclusive),
+	 * in key order, without copying them into a list first.
+	 */
+	public default Stream<KeyValuePair<K, V>> stream(K keyStart, K keyEnd) {
+		return StreamSupport.stream(this.spliterator(keyStart, keyEnd), false);
+	}
+	
+	/**
+	 * Same as stream, but the stream is parallel, so the range is split up
+	 * between worker threads.
+	 */
+	public default Stream<KeyValuePair<K, V>> parallelStream(K keyStart, K keyEnd) {
+		return StreamSupport.stream(this.spliterator(keyStart, keyEnd), true);
+	}
 	
 	/**
 	 * Get the number of key value pairs in this map.
 	 */
 	public int size();
+	
+	/**
+	 * Get the number of keys in this map that are less than the given key.
+	 * The key does not have to be in the map.
+	 */
+	public int rank(K key);
+	
+	/**
+	 * Get the key value pair at a position in sorted order, starting from 0.
+	 * Returns null if index is negative or not less than size().
+	 */
+	public KeyValuePair<K, V> select(int index);
+	
+	/**
+	 * Count the key value pairs from keyStart (inclusive) to keyEnd (exclusive),
+	 * the same pairs getRange returns. Returns 0 if keyEnd <= keyStart.
+	 */
+	public int countRange(K keyStart, K keyEnd);
 
 }
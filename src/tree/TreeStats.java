@@ -0,0 +1,175 @@
+package tree;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counters for what a BTreeSortedMap does to its nodes. Counters are
+ * LongAdders, which keep a separate cell per contending thread, so counting
+ * costs little enough to leave on all the time, and the counts can be read
+ * from any thread while the map is being used.
+ *
+ * Key comparisons are counted per node visited as the most comparisons a
+ * binary search over that node can take, which is at most one more than the
+ * search actually made.
+ */
+public class TreeStats {
+
+	final LongAdder leafSplits = new LongAdder();
+	final LongAdder intermediateSplits = new LongAdder();
+	final LongAdder borrows = new LongAdder(); // pairs or children moved over from a neighbor
+	final LongAdder nodesRemoved = new LongAdder(); // nodes emptied or merged into a neighbor
+	final LongAdder rootChanges = new LongAdder();
+	final LongAdder leafWrites = new LongAdder(); // leaves changed, once per insert, delete or batch
+	final LongAdder operations = new LongAdder();
+	final LongAdder comparisons = new LongAdder();
+	final LongAdder fenceRejections = new LongAdder(); // gets for keys outside the leaf's lowest and highest keys
+	final LongAdder filterRejections = new LongAdder(); // gets a leaf's Bloom filter ruled out
+	final LongAdder filterFalsePositives = new LongAdder(); // gets the filter let through for keys not in the leaf
+	final LongAdder filterBuilds = new LongAdder();
+
+	/**
+	 * Count the comparisons of a binary search over a node with some keys.
+	 */
+	void searched(int numKeys) {
+		this.comparisons.add(32 - Integer.numberOfLeadingZeros(numKeys));
+	}
+
+	/**
+	 * Get the current counts. The shape of the tree is left out, since only
+	 * the thread changing the map may look at its nodes; see
+	 * BTreeSortedMap.statsSnapshot for that.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this, -1, new int[0], Double.NaN);
+	}
+
+	/**
+	 * Pass a snapshot of the counts to a consumer every period, starting
+	 * after one period. Use Snapshot.since to turn the totals into rates.
+	 * Cancel the returned future to stop.
+	 */
+	public ScheduledFuture<?> exportEvery(ScheduledExecutorService executor, long period, TimeUnit unit,
+			Consumer<Snapshot> sink) {
+		return executor.scheduleAtFixedRate(() -> sink.accept(this.snapshot()), period, period, unit);
+	}
+
+	/**
+	 * Counts at one point in time, plus the shape of the tree if it was measured.
+	 */
+	public static class Snapshot {
+
+		public final long timeNanos; // from System.nanoTime
+		public final long leafSplits;
+		public final long intermediateSplits;
+		public final long borrows;
+		public final long nodesRemoved;
+		public final long rootChanges;
+		public final long leafWrites;
+		public final long operations;
+		public final long comparisons;
+		public final long fenceRejections;
+		public final long filterRejections;
+		public final long filterFalsePositives;
+		public final long filterBuilds;
+
+		public final int height; // levels of nodes, 0 if empty, -1 if not measured
+		public final int[] nodesPerLevel; // root level first, empty if not measured
+		public final double averageFill; // keys in use over key slots, NaN if not measured
+
+		Snapshot(TreeStats stats, int height, int[] nodesPerLevel, double averageFill) {
+			this(System.nanoTime(), stats.leafSplits.sum(), stats.intermediateSplits.sum(),
+					stats.borrows.sum(), stats.nodesRemoved.sum(), stats.rootChanges.sum(),
+					stats.leafWrites.sum(), stats.operations.sum(), stats.comparisons.sum(),
+					stats.fenceRejections.sum(), stats.filterRejections.sum(), stats.filterFalsePositives.sum(),
+					stats.filterBuilds.sum(), height, nodesPerLevel, averageFill);
+		}
+
+		private Snapshot(long timeNanos, long leafSplits, long intermediateSplits, long borrows,
+				long nodesRemoved, long rootChanges, long leafWrites, long operations, long comparisons,
+				long fenceRejections, long filterRejections, long filterFalsePositives, long filterBuilds, int height, int[] nodesPerLevel, double averageFill) {
+			this.timeNanos = timeNanos;
+			this.leafSplits = leafSplits;
+			this.intermediateSplits = intermediateSplits;
+			this.borrows = borrows;
+			this.nodesRemoved = nodesRemoved;
+			this.rootChanges = rootChanges;
+			this.leafWrites = leafWrites;
+			this.operations = operations;
+			this.comparisons = comparisons;
+			this.fenceRejections = fenceRejections;
+			this.filterRejections = filterRejections;
+			this.filterFalsePositives = filterFalsePositives;
+			this.filterBuilds = filterBuilds;
+			this.height = height;
+			this.nodesPerLevel = nodesPerLevel;
+			this.averageFill = averageFill;
+		}
+
+		/**
+		 * Average key comparisons per insert, delete or get.
+		 */
+		public double comparisonsPerOperation() {
+			return this.operations == 0 ? 0 : (double) this.comparisons / this.operations;
+		}
+
+		/**
+		 * Share of the gets that reached a leaf's Bloom filter for a key not in
+		 * the leaf that the filter failed to rule out.
+		 */
+		public double filterFalsePositiveRate() {
+			long missing = this.filterRejections + this.filterFalsePositives;
+			return missing == 0 ? 0 : (double) this.filterFalsePositives / missing;
+		}
+
+		/**
+		 * Get the counts between an earlier snapshot and this one. The shape is
+		 * this snapshot's.
+		 */
+		public Snapshot since(Snapshot earlier) {
+			return new Snapshot(this.timeNanos - earlier.timeNanos,
+					this.leafSplits - earlier.leafSplits,
+					this.intermediateSplits - earlier.intermediateSplits,
+					this.borrows - earlier.borrows,
+					this.nodesRemoved - earlier.nodesRemoved,
+					this.rootChanges - earlier.rootChanges,
+					this.leafWrites - earlier.leafWrites,
+					this.operations - earlier.operations,
+					this.comparisons - earlier.comparisons,
+					this.fenceRejections - earlier.fenceRejections,
+					this.filterRejections - earlier.filterRejections,
+					this.filterFalsePositives - earlier.filterFalsePositives,
+					this.filterBuilds - earlier.filterBuilds,
+					this.height, this.nodesPerLevel, this.averageFill);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("operations=").append(this.operations);
+			sb.append(" comparisons/op=").append(String.format("%.2f", this.comparisonsPerOperation()));
+			sb.append(" leafSplits=").append(this.leafSplits);
+			sb.append(" intermediateSplits=").append(this.intermediateSplits);
+			sb.append(" borrows=").append(this.borrows);
+			sb.append(" nodesRemoved=").append(this.nodesRemoved);
+			sb.append(" rootChanges=").append(this.rootChanges);
+			sb.append(" leafWrites=").append(this.leafWrites);
+			sb.append(" fenceRejections=").append(this.fenceRejections);
+			sb.append(" filterRejections=").append(this.filterRejections);
+			sb.append(" filterFalsePositives=").append(this.filterFalsePositives);
+			sb.append(" filterBuilds=").append(this.filterBuilds);
+			if (this.height >= 0) {
+				sb.append(" height=").append(this.height);
+				sb.append(" nodesPerLevel=").append(Arrays.toString(this.nodesPerLevel));
+				sb.append(" averageFill=").append(String.format("%.3f", this.averageFill));
+			}
+			return sb.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,207 @@
+package tree;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records, each stored as its length, a CRC32 checksum
+ * and its bytes. Appending only buffers a record in memory; sync makes it
+ * durable. When several threads call sync at once, one of them writes and
+ * forces everything appended so far while the others wait, so one force
+ * to disk covers the whole group.
+ *
+ * A crash can leave a torn record at the end of the file. replay stops at
+ * the first record that is cut short or fails its checksum and cuts the
+ * file off there.
+ */
+public class WriteAheadLog implements Closeable {
+
+	private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES; // length, checksum
+
+	private final FileChannel channel;
+	private final CRC32 crc;
+
+	private ByteBuffer pending; // records appended but not yet written
+	private ByteBuffer spare; // swapped with pending by the thread doing a sync
+	private long appended; // number of records appended so far
+	private long durable; // number of records known to be forced to disk
+	private boolean syncing;
+	private IOException failure; // set if a write failed, since buffered records were lost
+
+	private long syncs;
+
+	/**
+	 * Open a log in a file, creating it if it does not exist. Call replay
+	 * before appending if the file might already have records in it.
+	 */
+	public WriteAheadLog(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.channel.position(this.channel.size());
+		this.crc = new CRC32();
+		this.pending = ByteBuffer.allocate(4096);
+		this.spare = ByteBuffer.allocate(4096);
+	}
+
+	/**
+	 * Read every intact record from the start of the file, in order, then
+	 * drop anything after the last intact record so new records follow it.
+	 * @param action called with a buffer holding each record's bytes
+	 * @return number of records replayed
+	 */
+	public synchronized long replay(Consumer<ByteBuffer> action) throws IOException {
+		this.channel.position(0);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+
+		long validEnd = 0;
+		long count = 0;
+		CRC32 checksum = new CRC32();
+		while (true) {
+			byte[] record;
+			try {
+				int length = in.readInt();
+				int expected = in.readInt();
+				if (length < 0 || length > this.channel.size() - validEnd - RECORD_HEADER_SIZE) break;
+				record = new byte[length];
+				in.readFully(record);
+				checksum.reset();
+				checksum.update(record, 0, length);
+				if ((int) checksum.getValue() != expected) break;
+			} catch (EOFException e) {
+				break;
+			}
+
+			action.accept(ByteBuffer.wrap(record));
+			validEnd += RECORD_HEADER_SIZE + record.length;
+			count++;
+		}
+
+		// whatever follows the last intact record is a torn write
+		this.channel.truncate(validEnd);
+		this.channel.position(validEnd);
+		return count;
+	}
+
+	/**
+	 * Add a record to the end of the log. It is not durable until sync is
+	 * called with the returned sequence number or a later one.
+	 * @return sequence number of the record
+	 */
+	public synchronized long append(byte[] record) {
+		if (this.pending.remaining() < RECORD_HEADER_SIZE + record.length) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * this.pending.capacity(),
+					this.pending.position() + RECORD_HEADER_SIZE + record.length));
+			this.pending.flip();
+			bigger.put(this.pending);
+			this.pending = bigger;
+		}
+
+		this.crc.reset();
+		this.crc.update(record, 0, record.length);
+		this.pending.putInt(record.length);
+		this.pending.putInt((int) this.crc.getValue());
+		this.pending.put(record);
+		return ++this.appended;
+	}
+
+	/**
+	 * Wait until every record up to a sequence number is forced to disk. If
+	 * no other thread is already syncing, this thread writes and forces every
+	 * record appended so far, including other threads' records.
+	 */
+	public void sync(long sequenceNumber) throws IOException {
+		ByteBuffer batch;
+		long batchEnd;
+
+		synchronized (this) {
+			while (true) {
+				if (this.failure != null) throw new IOException("an earlier write to the log failed", this.failure);
+				if (this.durable >= sequenceNumber) return;
+				if (!this.syncing) break;
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for the log");
+				}
+			}
+
+			// take everything appended so far and let other threads keep appending
+			this.syncing = true;
+			batch = this.pending;
+			batchEnd = this.appended;
+			this.pending = this.spare;
+			this.spare = null;
+		}
+
+		IOException error = null;
+		try {
+			batch.flip();
+			while (batch.hasRemaining()) this.channel.write(batch);
+			this.channel.force(false);
+		} catch (IOException e) {
+			error = e;
+			throw e;
+		} finally {
+			synchronized (this) {
+				batch.clear();
+				this.spare = batch;
+				this.syncing = false;
+				if (error == null) {
+					this.durable = batchEnd;
+					this.syncs++;
+				} else {
+					this.failure = error;
+				}
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Make every appended record durable, then empty the log. Used once the
+	 * records are covered by a checkpoint.
+	 */
+	public void truncate() throws IOException {
+		synchronized (this) {
+			this.sync(this.appended);
+			this.channel.truncate(0);
+			this.channel.position(0);
+			this.channel.force(true);
+		}
+	}
+
+	/**
+	 * Get the number of forces to disk done by sync so far.
+	 */
+	public synchronized long syncs() {
+		return this.syncs;
+	}
+
+	/**
+	 * Get the number of records appended since the log was opened.
+	 */
+	public synchronized long appended() {
+		return this.appended;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.sync(this.appended());
+		} finally {
+			this.channel.close();
+		}
+	}
+
+}